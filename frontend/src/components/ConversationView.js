@@ -60,6 +60,14 @@ const isUrl = (text) => {
   return isAbsoluteUrl && !isApiEndpoint;
 };
 
+// A send Telegram didn't confirm in time (outcomeUnknown) stays on screen until a matching message of ours shows up
+const confirmsUnconfirmedSend = (unconfirmed, msg) =>
+  unconfirmed.unconfirmed &&
+  msg.fromUser &&
+  !msg.unconfirmed &&
+  (msg.text || '') === (unconfirmed.text || '') &&
+  !!msg.hasMedia === !!unconfirmed.hasMedia;
+
 function ConversationView({ userId = 1 }) {
   const { targetId } = useParams();
   const navigate = useNavigate();
@@ -111,6 +119,12 @@ function ConversationView({ userId = 1 }) {
   const [deletedMessageIds, setDeletedMessageIds] = useState(new Set()); // Track deleted message IDs to prevent them from being re-added
   const operationInProgressRef = useRef(false); // Ref to track operation status synchronously
   const pollForNewMessagesRef = useRef(null); // Ref to store polling function so we can call it after operations complete
+  const liveUpdatesRef = useRef(false); // Set once the backend reports a live Telegram update stream for this target
+  const liveFeedRef = useRef(false); // True while the message stream (SSE) is connected - polling then skips getMessages
+  const deletedMessageIdsRef = useRef(new Set()); // Latest deletedMessageIds for stream handlers
+  const recentlyEditedMessagesRef = useRef(new Set()); // Latest recentlyEditedMessages for stream handlers
+  const hasOlderMessagesRef = useRef(true); // False once a "before" page came back short (start of history)
+  const loadingOlderRef = useRef(false); // Prevents overlapping older-page requests while scrolling
   const messageInputRef = useRef(null); // Ref for message input field to focus when replying
   const messagesContainerRef = useRef(null); // Ref for messages container for scroll tracking
   const [showNewMessageNotification, setShowNewMessageNotification] = useState(false); // Show new message notification when scrolled up
@@ -206,17 +220,103 @@ function ConversationView({ userId = 1 }) {
     // Check immediately
     checkOnlineStatus();
     
-    // Then check every 5 seconds
-    const interval = setInterval(checkOnlineStatus, 5000);
+    // Then check every 5 seconds while the live feed (which pushes 'status' events) is down
+    const interval = setInterval(() => {
+      if (!liveFeedRef.current) checkOnlineStatus();
+    }, 5000);
     
     return () => clearInterval(interval);
   }, [conversationInitialized, target, targetId, userId, subtargetUserId]);
 
+  useEffect(() => {
+    deletedMessageIdsRef.current = deletedMessageIds;
+    recentlyEditedMessagesRef.current = recentlyEditedMessages;
+  }, [deletedMessageIds, recentlyEditedMessages]);
+
+  // Subscribe to message deltas so new/edited/deleted/pinned messages arrive without re-reading the list
+  useEffect(() => {
+    if (!conversationInitialized || !targetId || typeof EventSource === 'undefined') return;
+
+    const toMessage = (r) => ({
+      text: r.text || '',
+      fromUser: !!r.fromUser,
+      timestamp: r.timestamp ? new Date(r.timestamp) : new Date(),
+      mediaUrl: r.mediaDownloadUrl || null,
+      messageId: r.messageId,
+      hasMedia: r.hasMedia || false,
+      fileName: r.fileName || null,
+      previewUrl: r.mediaPreviewUrl ? conversationApi.mediaPreviewUrl(r.mediaPreviewUrl) : null,
+      mimeType: r.mimeType || null,
+      edited: r.edited || false,
+      referenceId: r.referenceId || null,
+      pinned: r.pinned || false,
+      cursor: r.cursor || null,
+    });
+
+    const applyMessage = (event) => {
+      const delta = JSON.parse(event.data);
+      if (!delta.message || deletedMessageIdsRef.current.has(delta.messageId)) return;
+      const incoming = toMessage(delta.message);
+      setMessages(prev => {
+        const index = prev.findIndex(m => m.messageId === incoming.messageId);
+        if (index === -1) {
+          return [...prev.filter(m => !confirmsUnconfirmedSend(m, incoming)), incoming]
+            .sort((a, b) => a.timestamp - b.timestamp);
+        }
+        const current = prev[index];
+        // Keep the optimistic text of an edit made in the app until the database catches up
+        const merged = recentlyEditedMessagesRef.current.has(incoming.messageId)
+          ? { ...incoming, text: current.text, edited: true, isPending: false }
+          : { ...incoming, isPending: false };
+        const next = [...prev];
+        next[index] = merged;
+        return next;
+      });
+      setPinnedMessages(prev => {
+        const others = prev.filter(pm => pm.messageId !== incoming.messageId);
+        return incoming.pinned
+          ? [...others, incoming].sort((a, b) => b.messageId - a.messageId)
+          : others;
+      });
+    };
+
+    const removeMessage = (event) => {
+      const delta = JSON.parse(event.data);
+      setMessages(prev => prev.filter(m => m.messageId !== delta.messageId));
+      setPinnedMessages(prev => prev.filter(pm => pm.messageId !== delta.messageId));
+    };
+
+    const source = new EventSource(conversationApi.messageStreamUrl(targetId, userId, subtargetUserId));
+    source.addEventListener('ready', () => { liveFeedRef.current = true; });
+    source.addEventListener('insert', applyMessage);
+    source.addEventListener('edit', applyMessage);
+    source.addEventListener('pin', applyMessage);
+    source.addEventListener('delete', removeMessage);
+    source.addEventListener('status', (event) => {
+      const delta = JSON.parse(event.data);
+      setTargetOnline(delta.online === true);
+      setLastActive(delta.lastActive || null);
+    });
+    // The server could not replay what we missed (or data changed in bulk) - reload the list once
+    source.addEventListener('reset', () => {
+      if (pollForNewMessagesRef.current) pollForNewMessagesRef.current(true);
+    });
+    // EventSource reconnects by itself (resuming from the last event id); poll until it is back
+    source.onerror = () => { liveFeedRef.current = false; };
+
+    return () => {
+      liveFeedRef.current = false;
+      source.close();
+    };
+  }, [conversationInitialized, targetId, userId, subtargetUserId]);
+
   // Poll for new messages and trigger priority ingestion every 5 seconds
   useEffect(() => {
     if (!conversationInitialized || !targetId) return; // Don't poll if conversation not initialized
+    liveUpdatesRef.current = false;
+    hasOlderMessagesRef.current = true;
     
-    const pollForNewMessages = async () => {
+    const pollForNewMessages = async (force = false) => {
       // IMMEDIATELY stop if an operation (delete/edit) is in progress (check ref for synchronous check)
       if (operationInProgressRef.current || isOperationInProgress) {
         return;
@@ -228,10 +328,16 @@ function ConversationView({ userId = 1 }) {
         // Only trigger if not already running (backend will check and skip if already running)
         // BUT: Skip priority ingestion if operation is in progress
         // IMPORTANT: Trigger ingestion and fetch messages immediately - cache is invalidated by backend
-        if (!operationInProgressRef.current && !isOperationInProgress) {
+        // Once the backend reports a live update stream, Telegram changes are pushed into the database
+        // as they happen, so there is nothing left to re-ingest
+        if (!liveUpdatesRef.current && !operationInProgressRef.current && !isOperationInProgress) {
           // Trigger ingestion in background (non-blocking) - don't wait for it
           // Backend will invalidate cache after ingestion completes
-          conversationApi.ingestTarget(targetId, userId, subtargetUserId).catch(err => {
+          conversationApi.ingestTarget(targetId, userId, subtargetUserId).then(resp => {
+            if (resp.data?.data === 'live') {
+              liveUpdatesRef.current = true;
+            }
+          }).catch(err => {
             // Ignore ingestion errors - it's a background process
             // The backend will skip if ingestion is already running
             if (err.response?.status !== 200) {
@@ -247,6 +353,11 @@ function ConversationView({ userId = 1 }) {
           return; // Stop immediately if operation started
         }
         
+        // While the message stream is connected, changes arrive as deltas - no need to re-read the list
+        if (liveFeedRef.current && !force) {
+          return;
+        }
+        
         // Then fetch messages from database (cache will be invalidated by priority ingestion)
         const resp = await conversationApi.getMessages(targetId, userId, 50, subtargetUserId);
         
@@ -266,10 +377,12 @@ function ConversationView({ userId = 1 }) {
             messageId: r.messageId,
             hasMedia: r.hasMedia || false,
             fileName: r.fileName || null,
+            previewUrl: r.mediaPreviewUrl ? conversationApi.mediaPreviewUrl(r.mediaPreviewUrl) : null,
             mimeType: r.mimeType || null,
             edited: r.edited || false,
             referenceId: r.referenceId || null,
             pinned: r.pinned || false, // Include pinned status in polling
+            cursor: r.cursor || null, // Keyset cursor for loading older pages
           }));
           
           // Always sync messages to reflect deletions and updates from database
@@ -364,7 +477,8 @@ function ConversationView({ userId = 1 }) {
             const pendingMessages = prevFiltered.filter(msg => 
               msg.isPending && 
               !newIds.has(msg.messageId) &&
-              !currentDeletedIds.has(msg.messageId) // Double-check with captured set
+              !currentDeletedIds.has(msg.messageId) && // Double-check with captured set
+              !syncedMessages.some(synced => confirmsUnconfirmedSend(msg, synced))
             );
             const finalMessages = pendingMessages.length > 0 
               ? [...syncedMessages, ...pendingMessages]
@@ -416,8 +530,13 @@ function ConversationView({ userId = 1 }) {
             // BUT: Pinned messages should appear in BOTH the pinned section AND regular chat
             const pinned = finalFilteredMessages.filter(msg => msg.pinned).sort((a, b) => b.messageId - a.messageId);
             const unpinned = finalFilteredMessages.filter(msg => !msg.pinned);
-            // Keep all messages (including pinned) for display in chat
-            const allMessages = finalFilteredMessages;
+            // Keep all messages (including pinned) for display in chat, plus older pages the user
+            // scrolled back to (the poll only re-reads the latest page)
+            const oldestPolled = filteredMessages.length > 0 ? filteredMessages[0].timestamp : null;
+            const olderMessages = oldestPolled
+              ? prevFiltered.filter(msg => !msg.isPending && msg.timestamp < oldestPolled && !newIds.has(msg.messageId))
+              : [];
+            const allMessages = olderMessages.length > 0 ? [...olderMessages, ...finalFilteredMessages] : finalFilteredMessages;
             
             // Update pinned messages state - preserve existing pinned messages and merge with new ones
             setPinnedMessages(prevPinned => {
@@ -684,7 +803,14 @@ function ConversationView({ userId = 1 }) {
         replyToId,
         subtargetUserId
       ).then(response => {
-        if (response.data?.success && response.data?.data) {
+        if (response.data?.success && response.data?.data?.outcomeUnknown) {
+          // Telegram may still deliver it - keep it pending and don't hand the file back for a resend
+          setMessages(prev => prev.map(msg =>
+            msg.messageId === tempMessageId ? { ...msg, unconfirmed: true } : msg
+          ));
+          setError('Telegram has not confirmed this media yet - it may still arrive, so don\'t resend it');
+          setTimeout(() => setError(null), 8000);
+        } else if (response.data?.success && response.data?.data) {
           const messageData = response.data.data;
           // Replace optimistic message with real one
           setMessages(prev => prev.map(msg => 
@@ -760,7 +886,14 @@ function ConversationView({ userId = 1 }) {
         replyToId,
         subtargetUserId
       ).then(response => {
-        if (response.data?.success && response.data?.data) {
+        if (response.data?.success && response.data?.data?.outcomeUnknown) {
+          // Telegram may still deliver it - keep it pending and don't restore the text for a resend
+          setMessages(prev => prev.map(msg =>
+            msg.messageId === tempMessageId ? { ...msg, unconfirmed: true } : msg
+          ));
+          setError('Telegram has not confirmed this message yet - it may still arrive, so don\'t resend it');
+          setTimeout(() => setError(null), 8000);
+        } else if (response.data?.success && response.data?.data) {
           const messageData = response.data.data;
           const realMessageId = messageData.messageId;
           // Replace optimistic message with real one, but keep it as pending until it appears in database
@@ -975,6 +1108,57 @@ function ConversationView({ userId = 1 }) {
     });
   };
 
+  // Load the page of messages before the oldest one shown (keyset pagination), keeping the scroll position
+  const loadOlderMessages = async () => {
+    if (loadingOlderRef.current || !hasOlderMessagesRef.current) return;
+    const oldest = messages.find(m => m.cursor);
+    if (!oldest) return;
+    loadingOlderRef.current = true;
+    try {
+      const resp = await conversationApi.getMessages(targetId, userId, 50, subtargetUserId, { before: oldest.cursor });
+      if (!resp.data?.success) return;
+      const rows = resp.data.data || [];
+      if (rows.length < 50) {
+        hasOlderMessagesRef.current = false;
+      }
+      if (rows.length === 0) return;
+      const older = rows
+        .filter(r => !deletedMessageIds.has(r.messageId))
+        .map(r => ({
+          text: r.text || '',
+          fromUser: !!r.fromUser,
+          timestamp: r.timestamp ? new Date(r.timestamp) : new Date(),
+          mediaUrl: r.mediaDownloadUrl ? conversationApi.downloadMediaUrl(targetId, userId, r.messageId) : null,
+          messageId: r.messageId,
+          hasMedia: r.hasMedia || false,
+          fileName: r.fileName || null,
+          previewUrl: r.mediaPreviewUrl ? conversationApi.mediaPreviewUrl(r.mediaPreviewUrl) : null,
+          mimeType: r.mimeType || null,
+          edited: r.edited || false,
+          referenceId: r.referenceId || null,
+          fileSize: r.fileSize || null,
+          pinned: r.pinned || false,
+          cursor: r.cursor || null,
+        }));
+      const container = messagesContainerRef.current;
+      const previousHeight = container ? container.scrollHeight : 0;
+      setMessages(prev => {
+        const known = new Set(prev.map(m => m.messageId));
+        return [...older.filter(m => !known.has(m.messageId)), ...prev];
+      });
+      // Keep the message the user was looking at in place after prepending
+      setTimeout(() => {
+        if (container) {
+          container.scrollTop += container.scrollHeight - previousHeight;
+        }
+      }, 0);
+    } catch (err) {
+      console.error('Failed to load older messages:', err);
+    } finally {
+      loadingOlderRef.current = false;
+    }
+  };
+
   const loadMessages = async () => {
     try {
       // Auto-load last 50 messages
@@ -1002,11 +1186,13 @@ function ConversationView({ userId = 1 }) {
             messageId: r.messageId,
             hasMedia: r.hasMedia || false,
             fileName: r.fileName || null,
+            previewUrl: r.mediaPreviewUrl ? conversationApi.mediaPreviewUrl(r.mediaPreviewUrl) : null,
             mimeType: r.mimeType || null,
             edited: r.edited || false, // Preserve edited flag from database or API
             referenceId: r.referenceId || null, // Include reference_id for replies
             fileSize: r.fileSize || null, // Include file size
             pinned: r.pinned || false, // Include pinned status
+            cursor: r.cursor || null, // Keyset cursor for loading older pages
           };
         });
         // CRITICAL: Filter out deleted messages before setting state
@@ -1580,6 +1766,10 @@ function ConversationView({ userId = 1 }) {
                 const container = e.target;
                 const isNearBottom = container.scrollHeight - container.scrollTop - container.clientHeight < 200;
                 setShowScrollToBottom(!isNearBottom);
+                // Reached the top: fetch the previous page of history
+                if (container.scrollTop < 50) {
+                  loadOlderMessages();
+                }
                 // Hide new message notification if scrolled to bottom
                 if (isNearBottom) {
                   setShowNewMessageNotification(false);
@@ -2049,6 +2239,8 @@ function ConversationView({ userId = 1 }) {
                             <div>
                               <video 
                                 src={msg.mediaUrl} 
+                                poster={msg.previewUrl || undefined}
+                                preload={msg.previewUrl ? 'none' : 'metadata'}
                                 controls 
                                 style={{ maxWidth: '180px', maxHeight: '150px', borderRadius: 6, cursor: 'pointer' }} 
                                 onClick={(e) => {
@@ -2162,7 +2354,7 @@ function ConversationView({ userId = 1 }) {
                           return (
                             <div>
                               <img 
-                                src={msg.mediaUrl} 
+                                src={msg.previewUrl || msg.mediaUrl} 
                                 alt="sent" 
                                 style={{ maxWidth: '180px', maxHeight: '150px', borderRadius: 6, objectFit: 'contain', cursor: 'pointer' }} 
                                 onClick={(e) => {
@@ -2170,6 +2362,11 @@ function ConversationView({ userId = 1 }) {
                                   setMediaViewer({ type: 'image', url: msg.mediaUrl, fileName: msg.fileName });
                                 }}
                                 onError={(e) => {
+                                  // Preview not made yet: show the full image instead
+                                  if (msg.previewUrl && e.target.src !== msg.mediaUrl) {
+                                    e.target.src = msg.mediaUrl;
+                                    return;
+                                  }
                                   // If image fails to load, show placeholder or file info
                                   e.target.style.display = 'none';
                                   const parent = e.target.parentElement;
@@ -2363,7 +2560,7 @@ function ConversationView({ userId = 1 }) {
                           ) : msg.status === 'delivered' ? (
                             <span style={{ color: 'white', fontWeight: 'bold' }} title="Delivered">✓✓</span>
                           ) : msg.isPending ? (
-                            <span style={{ color: 'rgba(255,255,255,0.7)', opacity: 0.7 }} title="Sending...">⏳</span>
+                            <span style={{ color: 'rgba(255,255,255,0.7)', opacity: 0.7 }} title={msg.unconfirmed ? 'Not confirmed by Telegram yet' : 'Sending...'}>⏳</span>
                           ) : (
                             <span style={{ color: 'white', fontWeight: 'bold' }} title="Sent">✓</span>
                           )}
@@ -41,24 +41,23 @@ function TargetManagement({ userId = 1 }) {
 
     const checkOnlineStatus = async () => {
       const statuses = {};
-      await Promise.all(
-        targets.map(async (target) => {
-          try {
-            const response = await targetApi.checkOnlineStatus(target.id, userId);
-            if (response.data?.success) {
-              const data = response.data.data;
-              // Backend returns "isOnline" not "online"
-              statuses[target.id] = {
-                online: data.isOnline === true || data.online === true,
-                lastActive: data.lastActive || null
-              };
-            }
-          } catch (err) {
-            // Silently fail - online status is not critical
-            statuses[target.id] = { online: false, lastActive: null };
-          }
-        })
-      );
+      try {
+        // One request for all targets, answered from the backend's presence cache
+        const response = await targetApi.checkOnlineStatuses(targets.map((target) => target.id), userId);
+        const data = response.data?.success ? response.data.data || {} : {};
+        targets.forEach((target) => {
+          const status = data[target.id];
+          statuses[target.id] = {
+            online: status?.isOnline === true,
+            lastActive: status?.lastActive || null
+          };
+        });
+      } catch (err) {
+        // Silently fail - online status is not critical
+        targets.forEach((target) => {
+          statuses[target.id] = { online: false, lastActive: null };
+        });
+      }
       setOnlineStatus(statuses);
     };
 
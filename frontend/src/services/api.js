@@ -51,6 +51,10 @@ export const targetApi = {
     if (subtargetUserId) params.append('subtargetUserId', subtargetUserId);
     return api.get(`/targets/${id}/online?${params.toString()}`);
   },
+  checkOnlineStatuses: (ids, userId) => {
+    const params = new URLSearchParams({ ids: ids.join(','), userId: userId || 1 });
+    return api.get(`/targets/online?${params.toString()}`);
+  },
   uploadProfilePicture: (id, file, userId) => {
     const formData = new FormData();
     formData.append('file', file);
@@ -92,7 +96,8 @@ export const conversationApi = {
       { headers: { 'Content-Type': 'text/plain' } }
     );
   },
-  getMessages: (targetUserId, userId, limit = 100, subtargetUserId = null) => {
+  // page: { before } for the page older than a message's cursor, { after } for newer ones
+  getMessages: (targetUserId, userId, limit = 100, subtargetUserId = null, page = {}) => {
     const params = new URLSearchParams({
       targetUserId,
       userId: userId || 1,
@@ -101,6 +106,8 @@ export const conversationApi = {
     if (subtargetUserId) {
       params.append('subtargetUserId', subtargetUserId);
     }
+    if (page.before) params.append('before', page.before);
+    if (page.after) params.append('after', page.after);
     return api.get(`/conversations/messages?${params.toString()}`);
   },
   getSuggestion: (targetUserId, userId, subtargetUserId = null, multiple = false) => {
@@ -128,8 +135,16 @@ export const conversationApi = {
   },
   downloadMediaUrl: (targetUserId, userId, messageId) =>
     `${API_BASE_URL}/conversations/media/download?targetUserId=${targetUserId}&userId=${userId}&messageId=${messageId}`,
+  // mediaPreviewUrl of a message row is server-relative ("/api/..."); previews are small JPEGs
+  mediaPreviewUrl: (path) => `${API_BASE_URL.replace(/\/api$/, '')}${path}`,
   ingest: (platform, userId) => 
     api.post(`/conversations/ingest?platform=${platform}&userId=${userId}`),
+  // Server-Sent Events feed of message deltas (insert/edit/delete/pin/status) for EventSource
+  messageStreamUrl: (targetUserId, userId, subtargetUserId = null) => {
+    const params = new URLSearchParams({ targetUserId, userId: userId || 1 });
+    if (subtargetUserId) params.append('subtargetUserId', subtargetUserId);
+    return `${API_BASE_URL}/conversations/stream?${params.toString()}`;
+  },
   ingestTarget: (targetUserId, userId, subtargetUserId = null) => {
     const params = new URLSearchParams({ targetUserId, userId: userId || 1 });
     if (subtargetUserId) params.append('subtargetUserId', subtargetUserId);
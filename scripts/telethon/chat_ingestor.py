@@ -7,6 +7,7 @@ import requests
 import time
 from datetime import datetime
 import psycopg2
+from psycopg2.extras import execute_values
 import json
 import pathlib
 from typing import Optional
@@ -75,8 +76,18 @@ def create_safe_filename(name):
 # ========================
 # Database helpers
 # ========================
+_connection = None
+
+
 def get_connection():
-    return psycopg2.connect(**DB_CONFIG)
+    """
+    Shared connection for the whole run. `with get_connection() as conn` commits (or rolls back)
+    on exit but does not close it, so every statement no longer pays for a new TCP + auth handshake.
+    """
+    global _connection
+    if _connection is None or _connection.closed:
+        _connection = psycopg2.connect(**DB_CONFIG)
+    return _connection
 
 
 def get_user_id_by_platform_account(account_id: int):
@@ -169,45 +180,84 @@ def get_telegram_message_link(entity, message_id):
     return None
 
 
-def save_message(dialog_id, message_id, sender, text, timestamp, has_media, raw_json, reference_id=None, is_edited_on_telegram=False, message_link=None):
+# Messages buffered per dialog before they are written in one statement
+MESSAGE_BATCH_SIZE = int(os.getenv("INGEST_BATCH_SIZE", "200"))
+
+# If a message already exists: edited on Telegram -> update text, timestamp and set last_updated;
+# not edited on Telegram -> preserve text to keep edits made through the app
+SAVE_EDITED_MESSAGES_SQL = """
+    INSERT INTO messages (dialog_id, message_id, sender, text, timestamp, has_media, raw_json, reference_id, message_link)
+    VALUES %s
+    ON CONFLICT (dialog_id, message_id) DO UPDATE SET
+        text = EXCLUDED.text,
+        timestamp = EXCLUDED.timestamp,
+        has_media = EXCLUDED.has_media,
+        raw_json = EXCLUDED.raw_json,
+        reference_id = EXCLUDED.reference_id,
+        message_link = COALESCE(EXCLUDED.message_link, messages.message_link),
+        last_updated = NOW()
+    RETURNING message_id, id
+"""
+SAVE_MESSAGES_SQL = """
+    INSERT INTO messages (dialog_id, message_id, sender, text, timestamp, has_media, raw_json, reference_id, message_link)
+    VALUES %s
+    ON CONFLICT (dialog_id, message_id) DO UPDATE SET
+        timestamp = EXCLUDED.timestamp,
+        has_media = EXCLUDED.has_media,
+        raw_json = EXCLUDED.raw_json,
+        reference_id = EXCLUDED.reference_id,
+        message_link = COALESCE(EXCLUDED.message_link, messages.message_link)
+        -- Note: We DON'T update text or sender here to preserve edits made through the app
+    RETURNING message_id, id
+"""
+MESSAGE_TEMPLATE = "(%s, %s, %s, %s, %s, %s, %s::jsonb, %s, %s)"
+
+
+class MessageBatch:
     """
-    Save message to database. If message already exists:
-    - If edited on Telegram (is_edited_on_telegram=True): Update text, timestamp, and set last_updated
-    - If not edited on Telegram: Preserve text to keep edits made through the app
+    Messages of one dialog waiting to be saved. They are upserted with one multi-row INSERT per
+    conflict rule (execute_values) and their media with one more, instead of a statement per row.
+    Adding a message that is already buffered replaces it (a retried iteration sees it again).
     """
-    if is_edited_on_telegram:
-        # Message was edited on Telegram - update text, timestamp, and set last_updated
-        sql = """
-            INSERT INTO messages (dialog_id, message_id, sender, text, timestamp, has_media, raw_json, reference_id, message_link)
-            VALUES (%s, %s, %s, %s, %s, %s, %s::jsonb, %s, %s)
-            ON CONFLICT (dialog_id, message_id) DO UPDATE SET
-                text = EXCLUDED.text,
-                timestamp = EXCLUDED.timestamp,
-                has_media = EXCLUDED.has_media,
-                raw_json = EXCLUDED.raw_json,
-                reference_id = EXCLUDED.reference_id,
-                message_link = COALESCE(EXCLUDED.message_link, messages.message_link),
-                last_updated = NOW()
-            RETURNING id
-        """
-    else:
-        # Message not edited on Telegram - preserve text to keep app edits
-        sql = """
-            INSERT INTO messages (dialog_id, message_id, sender, text, timestamp, has_media, raw_json, reference_id, message_link)
-            VALUES (%s, %s, %s, %s, %s, %s, %s::jsonb, %s, %s)
-            ON CONFLICT (dialog_id, message_id) DO UPDATE SET
-                timestamp = EXCLUDED.timestamp,
-                has_media = EXCLUDED.has_media,
-                raw_json = EXCLUDED.raw_json,
-                reference_id = EXCLUDED.reference_id,
-                message_link = COALESCE(EXCLUDED.message_link, messages.message_link)
-                -- Note: We DON'T update text or sender here to preserve edits made through the app
-            RETURNING id
-        """
-    with get_connection() as conn, conn.cursor() as cur:
-        cur.execute(sql, (dialog_id, message_id, sender, text, timestamp, has_media, raw_json, reference_id, message_link))
-        result = cur.fetchone()
-        return result[0] if result else None
+
+    def __init__(self, dialog_id):
+        self.dialog_id = dialog_id
+        self.rows = {}  # telegram message id -> (row, is_edited_on_telegram, media_info)
+        self.saved = 0
+        self.media_saved = 0
+
+    def add(self, message_id, sender, text, timestamp, has_media, raw_json, reference_id=None,
+            is_edited_on_telegram=False, message_link=None, media_info=None):
+        row = (self.dialog_id, message_id, sender, text, timestamp, has_media, raw_json, reference_id, message_link)
+        self.rows[message_id] = (row, is_edited_on_telegram, media_info)
+        if len(self.rows) >= MESSAGE_BATCH_SIZE:
+            self.flush()
+
+    def flush(self):
+        """Save the buffered messages and their media (one transaction)"""
+        if not self.rows:
+            return
+        edited = [row for row, is_edited, _ in self.rows.values() if is_edited]
+        unedited = [row for row, is_edited, _ in self.rows.values() if not is_edited]
+        ids = {}
+        with get_connection() as conn, conn.cursor() as cur:
+            for sql, rows in ((SAVE_EDITED_MESSAGES_SQL, edited), (SAVE_MESSAGES_SQL, unedited)):
+                if rows:
+                    ids.update(execute_values(cur, sql, rows, template=MESSAGE_TEMPLATE,
+                                              page_size=len(rows), fetch=True))
+            media_rows = [
+                (ids[message_id], info["type"], info["file_path"], info["file_name"], info["file_size"], info["mime_type"])
+                for message_id, (_, _, info) in self.rows.items()
+                if info and message_id in ids
+            ]
+            if media_rows:
+                execute_values(cur, """
+                    INSERT INTO media (message_id, type, file_path, file_name, file_size, mime_type)
+                    VALUES %s
+                """, media_rows, page_size=len(media_rows))
+        self.saved += len(ids)
+        self.media_saved += len(media_rows)
+        self.rows.clear()
 
 
 async def check_and_delete_messages(dialog_id, telegram_message_ids_batch, min_msg_id, max_msg_id):
@@ -260,15 +310,6 @@ async def check_and_delete_messages(dialog_id, telegram_message_ids_batch, min_m
         return 0
 
 
-def save_media(message_id, type_, file_path, file_name, file_size, mime_type):
-    sql = """
-        INSERT INTO media (message_id, type, file_path, file_name, file_size, mime_type)
-        VALUES (%s, %s, %s, %s, %s, %s)
-    """
-    with get_connection() as conn, conn.cursor() as cur:
-        cur.execute(sql, (message_id, type_, file_path, file_name, file_size, mime_type))
-
-
 # ========================
 # Media downloader
 # ========================
@@ -373,7 +414,8 @@ async def download_media(client, message, chat_name, message_id):
 # ========================
 # Main ingestion
 # ========================
-LOCK_PATH = pathlib.Path(os.getenv("TELETHON_LOCK_PATH", "/app/telethon_send.lock"))
+# Next to the account's session (TelegramConnector.buildLockPath), so only that account's ingestion yields
+LOCK_PATH = pathlib.Path(os.getenv("TELETHON_LOCK_PATH") or os.getenv("TELETHON_SESSION_PATH", "aria_session") + ".send.lock")
 
 
 async def _wait_for_sender_priority(max_wait_ms: Optional[int] = None):
@@ -634,10 +676,10 @@ async def ingest_chat_history():
             
             safe_chat_name = remove_emojis(dialog.name)
             safe_print(f"\nProcessing chat: {safe_chat_name} (type: {dialog_type})")
-            message_count, media_count = 0, 0
 
             is_bot = False
             dialog_id = save_dialog(user_id, dialog.entity.id, safe_chat_name, dialog_type, 0, 0)
+            batch = MessageBatch(dialog_id)
 
             # Get last message ID for incremental ingestion (only process new messages)
             last_message_id = get_last_message_id(dialog_id)
@@ -726,24 +768,14 @@ async def ingest_chat_history():
                             if dialog_type in ["group", "channel", "supergroup"]:
                                 message_link = get_telegram_message_link(dialog.entity, message.id)
                             
-                            msg_id = save_message(
-                                dialog_id, message.id, sender, message.text,
+                            media_info = await download_media(client, message, dialog.name, message.id) if has_media else None
+                            batch.add(
+                                message.id, sender, message.text,
                                 message.date, has_media, raw_json, reference_id,
                                 is_edited_on_telegram=is_edited_on_telegram,
-                                message_link=message_link
+                                message_link=message_link,
+                                media_info=media_info
                             )
-                            if msg_id:  # Only count if message was actually saved (not duplicate)
-                                message_count += 1
-
-                            if has_media and msg_id:
-                                media_info = await download_media(client, message, dialog.name, message.id)
-                                if media_info:
-                                    save_media(
-                                        msg_id, media_info["type"], media_info["file_path"],
-                                        media_info["file_name"], media_info["file_size"], media_info["mime_type"]
-                                    )
-                                    media_count += 1
-                                    total_media_downloaded += 1
 
                             # Advance resume point to the newest processed id
                             if message.id > resume_from_id:
@@ -751,6 +783,7 @@ async def ingest_chat_history():
                         
                         # After processing batch, check for deleted messages in this batch range
                         if batch_telegram_ids and batch_min_id is not None and batch_max_id is not None:
+                            batch.flush()
                             await check_and_delete_messages(dialog_id, batch_telegram_ids, batch_min_id, batch_max_id)
                             batch_telegram_ids.clear()  # Reset for next batch
                             batch_min_id = None
@@ -764,6 +797,7 @@ async def ingest_chat_history():
                             await _ensure_connected(client)
                             # Check for deletions before continuing
                             if batch_telegram_ids and batch_min_id is not None and batch_max_id is not None:
+                                batch.flush()
                                 await check_and_delete_messages(dialog_id, batch_telegram_ids, batch_min_id, batch_max_id)
                                 batch_telegram_ids.clear()
                                 batch_min_id = None
@@ -812,26 +846,16 @@ async def ingest_chat_history():
                                 if dialog_type in ["group", "channel", "supergroup"]:
                                     message_link = get_telegram_message_link(dialog.entity, message.id)
                                 
-                                msg_id = save_message(
-                                    dialog_id, message.id, sender, message.text,
+                                media_info = await download_media(client, message, dialog.name, message.id) if has_media else None
+                                batch.add(
+                                    message.id, sender, message.text,
                                     message.date, has_media, raw_json, reference_id,
-                                    message_link=message_link
+                                    message_link=message_link,
+                                    media_info=media_info
                                 )
-                                if msg_id:
-                                    message_count += 1
-                                    messages_processed_phase1 += 1
-                                    if oldest_message_id_phase1 is None or message.id < oldest_message_id_phase1:
-                                        oldest_message_id_phase1 = message.id
-
-                                if has_media and msg_id:
-                                    media_info = await download_media(client, message, dialog.name, message.id)
-                                    if media_info:
-                                        save_media(
-                                            msg_id, media_info["type"], media_info["file_path"],
-                                            media_info["file_name"], media_info["file_size"], media_info["mime_type"]
-                                        )
-                                        media_count += 1
-                                        total_media_downloaded += 1
+                                messages_processed_phase1 += 1
+                                if oldest_message_id_phase1 is None or message.id < oldest_message_id_phase1:
+                                    oldest_message_id_phase1 = message.id
 
                                 if messages_processed_phase1 >= 80:
                                     break
@@ -845,6 +869,9 @@ async def ingest_chat_history():
                                 continue
                             raise
                     
+                    # Save phase 1 now so the UI can show it while the history is ingested
+                    batch.flush()
+
                     # After phase 1, check for deleted messages in the last 80 range
                     if is_priority_target:
                         try:
@@ -915,23 +942,13 @@ async def ingest_chat_history():
                                     if hasattr(message.reply_to, 'reply_to_msg_id') and message.reply_to.reply_to_msg_id:
                                         reference_id = message.reply_to.reply_to_msg_id
 
-                                msg_id = save_message(
-                                    dialog_id, message.id, sender, message.text,
+                                media_info = await download_media(client, message, dialog.name, message.id) if has_media else None
+                                batch.add(
+                                    message.id, sender, message.text,
                                     message.date, has_media, raw_json, reference_id,
-                                    is_edited_on_telegram=is_edited_on_telegram
+                                    is_edited_on_telegram=is_edited_on_telegram,
+                                    media_info=media_info
                                 )
-                                if msg_id:
-                                    message_count += 1
-
-                                if has_media and msg_id:
-                                    media_info = await download_media(client, message, dialog.name, message.id)
-                                    if media_info:
-                                        save_media(
-                                            msg_id, media_info["type"], media_info["file_path"],
-                                            media_info["file_name"], media_info["file_size"], media_info["mime_type"]
-                                        )
-                                        media_count += 1
-                                        total_media_downloaded += 1
 
                                 if message.id > resume_from_id:
                                     resume_from_id = message.id
@@ -940,6 +957,7 @@ async def ingest_chat_history():
                             if batch_telegram_ids:
                                 batch_min_id = min(batch_telegram_ids)
                                 batch_max_id = max(batch_telegram_ids)
+                                batch.flush()
                                 await check_and_delete_messages(dialog_id, batch_telegram_ids, batch_min_id, batch_max_id)
                                 batch_telegram_ids.clear()  # Reset for next batch
                                 batch_start_id = resume_from_id  # Reset for next batch
@@ -952,6 +970,7 @@ async def ingest_chat_history():
                                 if batch_telegram_ids:
                                     batch_min_id = min(batch_telegram_ids) if batch_telegram_ids else 0
                                     batch_max_id = max(batch_telegram_ids) if batch_telegram_ids else 0
+                                    batch.flush()
                                     await check_and_delete_messages(dialog_id, batch_telegram_ids, batch_min_id, batch_max_id)
                                     batch_telegram_ids.clear()
                                     batch_start_id = resume_from_id
@@ -1012,23 +1031,13 @@ async def ingest_chat_history():
                                     if hasattr(message.reply_to, 'reply_to_msg_id') and message.reply_to.reply_to_msg_id:
                                         reference_id = message.reply_to.reply_to_msg_id
 
-                                msg_id = save_message(
-                                    dialog_id, message.id, sender, message.text,
+                                media_info = await download_media(client, message, dialog.name, message.id) if has_media else None
+                                batch.add(
+                                    message.id, sender, message.text,
                                     message.date, has_media, raw_json, reference_id,
-                                    is_edited_on_telegram=is_edited_on_telegram
+                                    is_edited_on_telegram=is_edited_on_telegram,
+                                    media_info=media_info
                                 )
-                                if msg_id:
-                                    message_count += 1
-
-                                if has_media and msg_id:
-                                    media_info = await download_media(client, message, dialog.name, message.id)
-                                    if media_info:
-                                        save_media(
-                                            msg_id, media_info["type"], media_info["file_path"],
-                                            media_info["file_name"], media_info["file_size"], media_info["mime_type"]
-                                        )
-                                        media_count += 1
-                                        total_media_downloaded += 1
 
                                 if message.id > resume_from_id:
                                     resume_from_id = message.id
@@ -1037,6 +1046,7 @@ async def ingest_chat_history():
                             if batch_telegram_ids:
                                 batch_min_id = min(batch_telegram_ids)
                                 batch_max_id = max(batch_telegram_ids)
+                                batch.flush()
                                 await check_and_delete_messages(dialog_id, batch_telegram_ids, batch_min_id, batch_max_id)
                                 batch_telegram_ids.clear()  # Reset for next batch
                                 batch_start_id = resume_from_id  # Reset for next batch
@@ -1049,6 +1059,7 @@ async def ingest_chat_history():
                                 if batch_telegram_ids:
                                     batch_min_id = min(batch_telegram_ids) if batch_telegram_ids else 0
                                     batch_max_id = max(batch_telegram_ids) if batch_telegram_ids else 0
+                                    batch.flush()
                                     await check_and_delete_messages(dialog_id, batch_telegram_ids, batch_min_id, batch_max_id)
                                     batch_telegram_ids.clear()
                                     batch_start_id = resume_from_id
@@ -1058,6 +1069,10 @@ async def ingest_chat_history():
                                 continue
                             raise
             
+            batch.flush()
+            message_count, media_count = batch.saved, batch.media_saved
+            total_media_downloaded += media_count
+
             # If this dialog has new messages, mark it for re-categorization
             # (This will be handled by Java code after ingestion completes)
             if has_new_messages:
@@ -1,5 +1,6 @@
 import asyncio
 from telethon import TelegramClient
+from telethon.errors import UsernameInvalidError, UsernameNotOccupiedError
 import os
 from dotenv import load_dotenv
 import pathlib
@@ -33,7 +34,13 @@ async def get_entity_id(target_username):
         if uname and not uname.startswith('@') and not uname.replace('+', '').isdigit():
             uname = '@' + uname
         
-        entity = await client.get_entity(uname)
+        try:
+            entity = await client.get_entity(uname)
+        except (UsernameNotOccupiedError, UsernameInvalidError, ValueError) as e:
+            # No user/chat has this username (as opposed to a connection or session failure)
+            print(json.dumps({"success": False, "notFound": True, "error": str(e)}))
+            await client.disconnect()
+            return None
         entity_id = None
         entity_name = None
         
@@ -16,7 +16,7 @@ phone = os.getenv('TELEGRAM_PHONE')
 
 async def delete_message(target_username: str, message_id: int, revoke: bool = True):
     # Priority lock to pause ingestion
-    lock_env = os.getenv("TELETHON_LOCK_PATH", "/app/telethon_send.lock")
+    lock_env = os.getenv("TELETHON_LOCK_PATH") or os.getenv("TELETHON_SESSION_PATH", "aria_session") + ".send.lock"
     lock_path = pathlib.Path(lock_env)
     try:
         lock_path.write_text("deleting", encoding="utf-8")
@@ -15,7 +15,7 @@ phone = os.getenv('TELEGRAM_PHONE')
 
 async def edit_message(target_username: str, message_id: int, new_text: str, file_path: str = None):
     # Priority lock (shared with ingestion)
-    lock_env = os.getenv("TELETHON_LOCK_PATH", "/app/telethon_send.lock")
+    lock_env = os.getenv("TELETHON_LOCK_PATH") or os.getenv("TELETHON_SESSION_PATH", "aria_session") + ".send.lock"
     lock_path = pathlib.Path(lock_env)
     try:
         lock_path.write_text("editing", encoding="utf-8")
@@ -14,7 +14,7 @@ from telethon import TelegramClient
 from telethon.errors import SessionPasswordNeededError
 
 # Priority lock to pause ingestion
-lock_path = Path(os.getenv("TELETHON_LOCK_PATH", "/app/telethon_send.lock"))
+lock_path = Path(os.getenv("TELETHON_LOCK_PATH") or os.getenv("TELETHON_SESSION_PATH", "Session/telethon/user.session") + ".send.lock")
 
 async def pin_message(target_username: str, message_id: int, pin: bool):
     # Create priority lock so ingestion yields (shared absolute path)
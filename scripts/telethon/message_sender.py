@@ -17,7 +17,7 @@ phone = os.getenv('TELEGRAM_PHONE')
 
 async def send_message(target_username, message, reply_to_message_id=None):
     # Create priority lock so ingestion yields (shared absolute path)
-    lock_env = os.getenv("TELETHON_LOCK_PATH", "/app/telethon_send.lock")
+    lock_env = os.getenv("TELETHON_LOCK_PATH") or os.getenv("TELETHON_SESSION_PATH", "aria_session") + ".send.lock"
     lock_path = pathlib.Path(lock_env)
     try:
         lock_path.write_text("sending", encoding="utf-8")
@@ -66,152 +66,128 @@ async def _retry_on_db_lock(coro_func, max_retries=10, delay=0.1):
                 continue
             raise
 
-async def check_user_online(target_username):
+
+async def open_client():
+    """Connect with the account's existing session. Returns (client, None) or (None, error message)"""
     session_path = os.getenv('TELETHON_SESSION_PATH', 'aria_session')
     try:
         pathlib.Path(session_path).parent.mkdir(parents=True, exist_ok=True)
     except Exception:
         pass
-    client = TelegramClient(session_path, api_id, api_hash)
-    
-    # Check if session file exists - if it does, connect without starting (won't trigger OTP)
+
+    # Only connect with an existing session - starting a new one would trigger OTP
     session_file = pathlib.Path(session_path + '.session')
-    if session_file.exists():
-        # Retry connection with database lock handling - don't reuse coroutines
-        connect_attempts = 10
-        connected = False
-        for i in range(connect_attempts):
-            try:
-                await client.connect()
-                connected = True
-                break
-            except Exception as e:
-                error_msg = str(e).lower()
-                if "database is locked" in error_msg and i < connect_attempts - 1:
-                    await asyncio.sleep(0.1 * (i + 1))  # Exponential backoff
-                    continue
-                if i == connect_attempts - 1:
-                    # Last attempt failed
-                    result = {
-                        "online": False,
-                        "lastActive": f"Failed to connect to session after {connect_attempts} attempts: {str(e)}"
-                    }
-                    print(json.dumps(result))
-                    return False
-        
-        if not connected:
-            result = {
-                "online": False,
-                "lastActive": "Failed to connect to session"
-            }
-            print(json.dumps(result))
-            return False
-        
-        # Check if authorized - retry with database lock handling
-        auth_attempts = 10
-        authorized = False
-        for i in range(auth_attempts):
-            try:
-                authorized = await client.is_user_authorized()
-                break
-            except Exception as e:
-                error_msg = str(e).lower()
-                if "database is locked" in error_msg and i < auth_attempts - 1:
-                    await asyncio.sleep(0.1 * (i + 1))
-                    continue
-                if i == auth_attempts - 1:
-                    await client.disconnect()
-                    result = {
-                        "online": False,
-                        "lastActive": f"Failed to check authorization: {str(e)}"
-                    }
-                    print(json.dumps(result))
-                    return False
-        
-        if not authorized:
-            # Session exists but not authorized - this shouldn't happen if session is valid
-            # Don't call start() as it will trigger OTP - just return an error
+    if not session_file.exists():
+        return None, "No session file found. Please register the platform first."
+
+    client = TelegramClient(session_path, api_id, api_hash)
+    # Retry connection with database lock handling - don't reuse coroutines
+    connect_attempts = 10
+    for i in range(connect_attempts):
+        try:
+            await client.connect()
+            break
+        except Exception as e:
+            error_msg = str(e).lower()
+            if "database is locked" in error_msg and i < connect_attempts - 1:
+                await asyncio.sleep(0.1 * (i + 1))  # Exponential backoff
+                continue
+            return None, f"Failed to connect to session after {connect_attempts} attempts: {str(e)}"
+
+    # Check if authorized - retry with database lock handling
+    auth_attempts = 10
+    authorized = False
+    for i in range(auth_attempts):
+        try:
+            authorized = await client.is_user_authorized()
+            break
+        except Exception as e:
+            error_msg = str(e).lower()
+            if "database is locked" in error_msg and i < auth_attempts - 1:
+                await asyncio.sleep(0.1 * (i + 1))
+                continue
             await client.disconnect()
-            result = {
-                "online": False,
-                "lastActive": "Session file exists but user is not authorized. Please re-register the platform."
-            }
-            print(json.dumps(result))
-            return False
-    else:
-        # No session file exists - cannot check online status without a valid session
-        result = {
-            "online": False,
-            "lastActive": "No session file found. Please register the platform first."
-        }
-        print(json.dumps(result))
-        return False
+            return None, f"Failed to check authorization: {str(e)}"
+
+    if not authorized:
+        # Session exists but not authorized - this shouldn't happen if session is valid
+        # Don't call start() as it will trigger OTP - just return an error
+        await client.disconnect()
+        return None, "Session file exists but user is not authorized. Please re-register the platform."
+    return client, None
+
+def status_result(status):
+    """{"online", "lastActive"} for a Telethon user status"""
+    if isinstance(status, UserStatusOnline):
+        return {"online": True, "lastActive": "online"}
+    if isinstance(status, UserStatusRecently):
+        # Recently online (within last few minutes) - NOT considered as online, just recently seen
+        return {"online": False, "lastActive": "last seen recently"}
+    return {"online": False, "lastActive": format_last_active(status) if status is not None else "offline"}
+
+async def get_status(client, target_username):
+    """Online status of one user on a connected client, plus its peer id"""
     try:
         # Normalize username: ensure leading '@' for public usernames
         uname = target_username.strip() if isinstance(target_username, str) else str(target_username)
         if uname and not uname.startswith('@') and not uname.replace('+', '').isdigit():
             uname = '@' + uname
-        
+
         # Use retry logic for database locks
-        entity = await _retry_on_db_lock(client.get_entity(uname))
-        
-        # Check if user is online by checking status
+        entity = await _retry_on_db_lock(lambda: client.get_entity(uname))
+
         # The entity already contains status information
-        is_online = False
-        last_active = "offline"
-        
-        if hasattr(entity, 'status'):
-            status = entity.status
-            if isinstance(status, UserStatusOnline):
-                is_online = True
-                last_active = "online"
-            elif isinstance(status, UserStatusRecently):
-                # Recently online (within last few minutes) - NOT considered as online, just recently seen
-                is_online = False
-                last_active = "last seen recently"
-            else:
-                last_active = format_last_active(status)
-        else:
+        status = getattr(entity, 'status', None)
+        if status is None:
             # Try to get full entity for more detailed status
             try:
-                full = await _retry_on_db_lock(client.get_entity(entity))
-                if hasattr(full, 'status'):
-                    status = full.status
-                    if isinstance(status, UserStatusOnline):
-                        is_online = True
-                        last_active = "online"
-                    elif isinstance(status, UserStatusRecently):
-                        is_online = False
-                        last_active = "last seen recently"
-                    else:
-                        last_active = format_last_active(status)
+                full = await _retry_on_db_lock(lambda: client.get_entity(entity))
+                status = getattr(full, 'status', None)
             except Exception:
                 pass
-        
-        # Return JSON with both online status and last active time
-        result = {
-            "online": is_online,
-            "lastActive": last_active
-        }
-        print(json.dumps(result))
-        return is_online
+        result = status_result(status)
+        result["peerId"] = getattr(entity, 'id', None)
+        return result
     except Exception as e:
-        print(f"Error checking online status: {e}")
-        result = {
-            "online": False,
-            "lastActive": "unknown"
-        }
-        print(json.dumps(result))
+        print(f"Error checking online status of {target_username}: {e}", file=sys.stderr)
+        return {"online": False, "lastActive": "unknown"}
+
+async def check_user_online(target_username):
+    client, error = await open_client()
+    if client is None:
+        print(json.dumps({"online": False, "lastActive": error}))
         return False
+    try:
+        # Return JSON with both online status and last active time
+        result = await get_status(client, target_username)
+        print(json.dumps(result))
+        return result["online"]
+    finally:
+        await client.disconnect()
+
+async def check_users_online(target_usernames):
+    """Statuses of many users over one connection: {"statuses": {username: {...}}}"""
+    client, error = await open_client()
+    if client is None:
+        statuses = {t: {"online": False, "lastActive": error} for t in target_usernames}
+        print(json.dumps({"statuses": statuses}))
+        return
+    try:
+        statuses = {}
+        for target in target_usernames:
+            statuses[target] = await get_status(client, target)
+        print(json.dumps({"statuses": statuses}))
     finally:
         await client.disconnect()
 
 if __name__ == '__main__':
-    if len(sys.argv) >= 2:
+    if len(sys.argv) >= 3 and sys.argv[1] == '--many':
+        asyncio.run(check_users_online(sys.argv[2:]))
+        sys.exit(0)
+    elif len(sys.argv) >= 2:
         target = sys.argv[1]
         result = asyncio.run(check_user_online(target))
         sys.exit(0 if result else 1)
     else:
-        print("Usage: python online_checker.py <username>")
+        print("Usage: python online_checker.py <username> | --many <username>...")
         sys.exit(1)
-
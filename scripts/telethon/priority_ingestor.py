@@ -12,6 +12,7 @@ from telethon import TelegramClient
 import os
 from dotenv import load_dotenv
 import psycopg2
+from psycopg2.extras import execute_values
 import json
 import pathlib
 import sys
@@ -45,8 +46,18 @@ def safe_print(text, max_length=100):
         cleaned_text = cleaned_text[:max_length] + "..."
     print(cleaned_text)
 
+_connection = None
+
+
 def get_connection():
-    return psycopg2.connect(**DB_CONFIG)
+    """
+    Shared connection for the whole run. `with get_connection() as conn` commits (or rolls back)
+    on exit but does not close it, so every statement no longer pays for a new TCP + auth handshake.
+    """
+    global _connection
+    if _connection is None or _connection.closed:
+        _connection = psycopg2.connect(**DB_CONFIG)
+    return _connection
 
 def get_user_id_by_platform_account(account_id: int):
     sql = "SELECT user_id FROM platform_accounts WHERE id = %s"
@@ -72,60 +83,63 @@ def save_dialog(user_id, dialog_id, name, type_):
         result = cur.fetchone()
         return result[0] if result else None
 
-def save_message(dialog_id, message_id, sender, text, timestamp, has_media, raw_json, reference_id=None, is_edited_on_telegram=False):
+def save_messages(dialog_id, messages):
     """
-    Save message to database. If message already exists:
-    - If edited on Telegram (is_edited_on_telegram=True): Update text and timestamp
+    Save messages with one multi-row upsert per conflict rule (execute_values). messages are
+    (message_id, sender, text, timestamp, has_media, raw_json, reference_id, pinned, is_edited_on_telegram).
+    If a message already exists:
+    - If edited on Telegram: Update text and timestamp
     - If not edited on Telegram: Preserve text to keep edits made through the app
+    Returns {telegram message id: messages.id}
     """
-    if is_edited_on_telegram:
-        # Message was edited on Telegram - update text and timestamp
-        sql = """
-            INSERT INTO messages (dialog_id, message_id, sender, text, timestamp, has_media, raw_json, reference_id)
-            VALUES (%s, %s, %s, %s, %s, %s, %s::jsonb, %s)
-            ON CONFLICT (dialog_id, message_id) DO UPDATE SET
-                text = EXCLUDED.text,
-                timestamp = EXCLUDED.timestamp,
-                has_media = EXCLUDED.has_media,
-                raw_json = EXCLUDED.raw_json,
-                reference_id = EXCLUDED.reference_id,
-                last_updated = NOW()
-            RETURNING id
-        """
-    else:
-        # Message not edited on Telegram - preserve text to keep app edits
-        sql = """
-            INSERT INTO messages (dialog_id, message_id, sender, text, timestamp, has_media, raw_json, reference_id)
-            VALUES (%s, %s, %s, %s, %s, %s, %s::jsonb, %s)
-            ON CONFLICT (dialog_id, message_id) DO UPDATE SET
-                timestamp = EXCLUDED.timestamp,
-                has_media = EXCLUDED.has_media,
-                raw_json = EXCLUDED.raw_json,
-                reference_id = EXCLUDED.reference_id
-                -- Note: We DON'T update text or sender here to preserve edits made through the app
-            RETURNING id
-        """
+    edited_sql = """
+        INSERT INTO messages (dialog_id, message_id, sender, text, timestamp, has_media, raw_json, reference_id, pinned)
+        VALUES %s
+        ON CONFLICT (dialog_id, message_id) DO UPDATE SET
+            text = EXCLUDED.text,
+            timestamp = EXCLUDED.timestamp,
+            has_media = EXCLUDED.has_media,
+            raw_json = EXCLUDED.raw_json,
+            reference_id = EXCLUDED.reference_id,
+            pinned = EXCLUDED.pinned,
+            last_updated = NOW()
+        RETURNING message_id, id
+    """
+    unedited_sql = """
+        INSERT INTO messages (dialog_id, message_id, sender, text, timestamp, has_media, raw_json, reference_id, pinned)
+        VALUES %s
+        ON CONFLICT (dialog_id, message_id) DO UPDATE SET
+            timestamp = EXCLUDED.timestamp,
+            has_media = EXCLUDED.has_media,
+            raw_json = EXCLUDED.raw_json,
+            reference_id = EXCLUDED.reference_id,
+            pinned = EXCLUDED.pinned
+            -- Note: We DON'T update text or sender here to preserve edits made through the app
+        RETURNING message_id, id
+    """
+    # A message seen twice keeps its last version (one statement can't update a row twice)
+    latest = {m[0]: m for m in messages}
+    ids = {}
     with get_connection() as conn, conn.cursor() as cur:
-        cur.execute(sql, (dialog_id, message_id, sender, text, timestamp, has_media, raw_json, reference_id))
-        result = cur.fetchone()
-        return result[0] if result else None
-
-def save_media(message_id, type_, file_path, file_name, file_size, mime_type):
-    """Save media record to database. Check if exists first to avoid duplicates."""
-    # Check if media already exists for this message
-    check_sql = "SELECT id FROM media WHERE message_id = %s LIMIT 1"
+        for sql, edited in ((edited_sql, True), (unedited_sql, False)):
+            rows = [(dialog_id,) + m[:8] for m in latest.values() if bool(m[8]) == edited]
+            if rows:
+                ids.update(execute_values(cur, sql, rows, template="(%s, %s, %s, %s, %s, %s, %s::jsonb, %s, %s)",
+                                          page_size=len(rows), fetch=True))
+    return ids
+
+def save_media(media_rows):
+    """Save media records (message_id, type, file_path, file_name, file_size, mime_type) in one insert, skipping messages that already have media."""
+    if not media_rows:
+        return
+    sql = """
+        INSERT INTO media (message_id, type, file_path, file_name, file_size, mime_type)
+        SELECT v.message_id, v.type, v.file_path, v.file_name, v.file_size, v.mime_type
+        FROM (VALUES %s) AS v (message_id, type, file_path, file_name, file_size, mime_type)
+        WHERE NOT EXISTS (SELECT 1 FROM media m WHERE m.message_id = v.message_id)
+    """
     with get_connection() as conn, conn.cursor() as cur:
-        cur.execute(check_sql, (message_id,))
-        if cur.fetchone():
-            # Media already exists, skip
-            return
-        # Insert new media record
-        sql = """
-            INSERT INTO media (message_id, type, file_path, file_name, file_size, mime_type)
-            VALUES (%s, %s, %s, %s, %s, %s)
-        """
-        cur.execute(sql, (message_id, type_, file_path, file_name, file_size, mime_type))
-        conn.commit()
+        execute_values(cur, sql, media_rows, page_size=len(media_rows))
 
 def create_safe_filename(name):
     """Create a safe filename by removing/replacing invalid characters."""
@@ -272,7 +286,7 @@ async def ingest_priority_target(target_username: str):
     Skips media downloads if files already exist for faster sync.
     """
     # Priority lock to pause main ingestion
-    lock_env = os.getenv("TELETHON_LOCK_PATH", "/app/telethon_send.lock")
+    lock_env = os.getenv("TELETHON_LOCK_PATH") or os.getenv("TELETHON_SESSION_PATH", "aria_session") + ".send.lock"
     lock_path = pathlib.Path(lock_env)
     lock_created = False
     
@@ -391,6 +405,8 @@ async def ingest_priority_target(target_username: str):
         telegram_message_info = {}  # {message_id: (text, timestamp, edit_date)}
         messages_saved = 0
         messages_updated = 0
+        pending = []  # rows for save_messages
+        pending_media = {}  # telegram message id -> downloaded media
         
         # Get all pinned messages for this entity once at the start
         pinned_message_ids = set()
@@ -484,49 +500,34 @@ async def ingest_priority_target(target_username: str):
                     if hasattr(message.reply_to, 'reply_to_msg_id') and message.reply_to.reply_to_msg_id:
                         reference_id = message.reply_to.reply_to_msg_id
 
-                msg_id = save_message(
-                    dialog_id, message.id, sender, message.text,
-                    message.date, has_media, raw_json, reference_id,
-                    is_edited_on_telegram=is_edited_on_telegram
-                )
-                
-                # Check if message is pinned in Telegram and update database
                 is_pinned = message.id in pinned_message_ids
-                if msg_id:
+                pending.append((message.id, sender, message.text, message.date, has_media, raw_json,
+                                reference_id, is_pinned, is_edited_on_telegram))
+                # Download media if message has media
+                # But only if it doesn't already exist (check happens in download_media function)
+                # This makes priority ingestion faster by skipping already-downloaded media
+                if has_media:
                     try:
-                        with get_connection() as conn, conn.cursor() as cur:
-                            cur.execute(
-                                "UPDATE messages SET pinned = %s WHERE id = %s",
-                                (is_pinned, msg_id)
-                            )
-                            conn.commit()
+                        media_info = await download_media(client, message, safe_chat_name, message.id)
+                        if media_info:
+                            pending_media[message.id] = media_info
                     except Exception as e:
-                        # If we can't update pinned status, continue - not critical
-                        safe_print(f"Warning: Could not update pinned status for message {message.id}: {e}")
-                if msg_id:
-                    messages_saved += 1
-                    # Download and save media if message has media
-                    # But only if it doesn't already exist (check happens in download_media function)
-                    # This makes priority ingestion faster by skipping already-downloaded media
-                    if has_media:
-                        try:
-                            media_info = await download_media(client, message, safe_chat_name, message.id)
-                            if media_info:
-                                # Check if media already exists in database before saving
-                                with get_connection() as conn, conn.cursor() as cur:
-                                    check_sql = "SELECT id FROM media WHERE message_id = %s LIMIT 1"
-                                    cur.execute(check_sql, (msg_id,))
-                                    if not cur.fetchone():
-                                        # Media doesn't exist in DB, save it
-                                        save_media(
-                                            msg_id, media_info["type"], media_info["file_path"],
-                                            media_info["file_name"], media_info["file_size"], media_info["mime_type"]
-                                        )
-                        except Exception as e:
-                            safe_print(f"Warning: Failed to download/save media for message {message.id}: {e}")
+                        safe_print(f"Warning: Failed to download media for message {message.id}: {e}")
         except Exception as e:
             safe_print(f"Error ingesting messages: {e}")
 
+        # Save what was fetched (also after an error part way) in one upsert, then its media
+        try:
+            saved_ids = save_messages(dialog_id, pending)
+            messages_saved = len(saved_ids)
+            save_media([
+                (saved_ids[message_id], info["type"], info["file_path"], info["file_name"], info["file_size"], info["mime_type"])
+                for message_id, info in pending_media.items()
+                if message_id in saved_ids
+            ])
+        except Exception as e:
+            safe_print(f"Error saving messages: {e}")
+
         if messages_updated > 0:
             safe_print(f"Priority ingestion: Saved/updated {messages_saved} messages ({messages_updated} edited on Telegram)")
         else:
@@ -0,0 +1,473 @@
+#!/usr/bin/env python3
+"""
+Long-lived Telethon sidecar for one platform account.
+
+Instead of starting a new Python process (interpreter start, Telethon import, session
+open and MTProto reconnect) for every send/edit/delete/pin/online check, the Java side
+keeps one sidecar per account running and talks to it over stdin/stdout.
+
+Protocol: newline-delimited JSON frames.
+  request:  {"id": 1, "method": "send_message", "params": {...}}
+  response: {"id": 1, "result": {...}}  or  {"id": 1, "error": "..."}  (plus "floodWait": seconds on FloodWaitError)
+  event:    {"event": "new_message", "data": {...}}   (only after a "subscribe" request)
+  cancel:   {"method": "cancel", "params": {"id": 1}}   (caller gave up on request 1; no response)
+
+After "subscribe", Telegram new/edited/deleted/pinned message updates for private chats (and
+presence changes of chat partners) are pushed as event frames as soon as Telethon receives them,
+so Java can apply them incrementally instead of re-ingesting the last 50 messages on a timer.
+Message media is downloaded after the message event is sent and follows as a media_downloaded event.
+
+Requests are handled concurrently (one asyncio task per request) over a single connected
+client. stdout is reserved for response frames; all logging goes to stderr.
+
+Usage: python3 sidecar.py   (credentials come from the same env vars as the other scripts)
+"""
+
+import asyncio
+import contextvars
+import json
+import os
+import pathlib
+import sys
+
+from dotenv import load_dotenv
+from telethon import TelegramClient, events
+from telethon.errors import FloodWaitError, UsernameInvalidError, UsernameNotOccupiedError
+from telethon.tl.types import UserStatusOnline, UserStatusRecently, UpdatePinnedMessages, UpdateUserStatus, PeerUser, \
+    MessageMediaWebPage
+
+from online_checker import format_last_active, status_result
+
+load_dotenv()
+
+api_id = os.getenv('TELEGRAM_API_ID')
+api_hash = os.getenv('TELEGRAM_API_HASH')
+phone = os.getenv('TELEGRAM_PHONE')
+session_path = os.getenv('TELETHON_SESSION_PATH', 'aria_session')
+lock_path = pathlib.Path(os.getenv("TELETHON_LOCK_PATH") or session_path + ".send.lock")
+
+# Keep the real stdout for frames; anything else printed (by us or libraries) goes to stderr
+_frames_out = sys.stdout
+sys.stdout = sys.stderr
+_write_lock = asyncio.Lock()
+
+client = None
+_pending_writes = 0
+# Outbound requests report flood waits instead of sleeping through them: the Java send queue backs
+# off per account. Everything else (online checks, entity lookups, subscribe) keeps Telethon's default
+# of sleeping through short waits.
+OUTBOUND_METHODS = {"send_message", "send_media", "edit_message", "delete_message", "pin_message"}
+OUTBOUND_FLOOD_SLEEP_THRESHOLD = int(os.getenv("TELETHON_FLOOD_SLEEP_THRESHOLD", "0"))
+_outbound = contextvars.ContextVar("outbound", default=False)  # per request task
+_subscribed = False
+
+
+class SidecarClient(TelegramClient):
+    async def _call(self, sender, request, ordered=False, flood_sleep_threshold=None):
+        if flood_sleep_threshold is None and _outbound.get():
+            flood_sleep_threshold = OUTBOUND_FLOOD_SLEEP_THRESHOLD
+        return await super()._call(sender, request, ordered=ordered, flood_sleep_threshold=flood_sleep_threshold)
+
+
+def log(message):
+    print(f"[sidecar] {message}", file=sys.stderr, flush=True)
+
+
+def normalize_username(target_username):
+    uname = target_username.strip() if isinstance(target_username, str) else str(target_username)
+    if uname and not uname.startswith('@') and not uname.replace('+', '').replace('-', '').isdigit():
+        uname = '@' + uname
+    return uname
+
+
+async def retry_on_db_lock(func, attempts=10, delay=0.05):
+    """Retry a coroutine factory when the SQLite session is locked by another process"""
+    for i in range(attempts):
+        try:
+            return await func()
+        except Exception as e:
+            if "database is locked" in str(e).lower() and i < attempts - 1:
+                await asyncio.sleep(delay)
+                continue
+            raise
+
+
+class priority_lock:
+    """Create the shared priority lock so background ingestion yields while we write"""
+
+    def __enter__(self):
+        global _pending_writes
+        _pending_writes += 1
+        try:
+            lock_path.parent.mkdir(parents=True, exist_ok=True)
+            lock_path.write_text("sidecar", encoding="utf-8")
+        except Exception:
+            pass
+        return self
+
+    def __exit__(self, exc_type, exc, tb):
+        global _pending_writes
+        _pending_writes -= 1
+        if _pending_writes == 0:
+            try:
+                if lock_path.exists():
+                    lock_path.unlink()
+            except Exception:
+                pass
+        return False
+
+
+async def ensure_connected():
+    global client
+    if client is None:
+        try:
+            pathlib.Path(session_path).parent.mkdir(parents=True, exist_ok=True)
+        except Exception:
+            pass
+        if not pathlib.Path(session_path + '.session').exists():
+            raise RuntimeError("No session file found. Please register the platform first.")
+        client = SidecarClient(session_path, api_id, api_hash)
+    if not client.is_connected():
+        await retry_on_db_lock(client.connect)
+        if not await client.is_user_authorized():
+            await client.disconnect()
+            raise RuntimeError("Session file exists but user is not authorized. Please re-register the platform.")
+        log("connected")
+    return client
+
+
+async def find_reply_to(tg, entity, reply_to_message_id):
+    if not reply_to_message_id:
+        return None
+    try:
+        return await tg.get_messages(entity, ids=int(reply_to_message_id))
+    except Exception as e:
+        log(f"Warning: Could not find message {reply_to_message_id} to reply to: {e}")
+        return None
+
+
+async def send_message(params):
+    tg = await ensure_connected()
+    with priority_lock():
+        uname = normalize_username(params["target"])
+        entity = await retry_on_db_lock(lambda: tg.get_entity(uname))
+        reply_to = await find_reply_to(tg, entity, params.get("replyTo"))
+        sent = await retry_on_db_lock(lambda: tg.send_message(entity, params["text"], reply_to=reply_to))
+        return {"success": True, "messageId": sent.id, "target": uname, "peerId": getattr(entity, 'id', None)}
+
+
+async def send_media(params):
+    tg = await ensure_connected()
+    file_path = params["filePath"]
+    if not os.path.exists(file_path):
+        raise RuntimeError(f"File not found: {file_path}")
+    with priority_lock():
+        uname = normalize_username(params["target"])
+        entity = await retry_on_db_lock(lambda: tg.get_entity(uname))
+        reply_to = await find_reply_to(tg, entity, params.get("replyTo"))
+        caption = params.get("caption") or None
+        sent = await tg.send_file(entity, file_path, caption=caption, reply_to=reply_to)
+        return {"success": True, "messageId": sent.id, "target": uname, "peerId": getattr(entity, 'id', None)}
+
+
+async def edit_message(params):
+    tg = await ensure_connected()
+    with priority_lock():
+        uname = normalize_username(params["target"])
+        entity = await retry_on_db_lock(lambda: tg.get_entity(uname))
+        message_id = int(params["messageId"])
+        text = params.get("text")
+        file_path = params.get("filePath")
+        if file_path and os.path.exists(file_path):
+            await retry_on_db_lock(lambda: tg.edit_message(entity, message_id, file=file_path, text=text if text else None))
+        else:
+            await retry_on_db_lock(lambda: tg.edit_message(entity, message_id, text=text))
+        return {"success": True}
+
+
+async def delete_message(params):
+    tg = await ensure_connected()
+    with priority_lock():
+        uname = normalize_username(params["target"])
+        entity = await retry_on_db_lock(lambda: tg.get_entity(uname))
+        message_id = int(params["messageId"])
+        revoke = bool(params.get("revoke", True))
+        try:
+            await retry_on_db_lock(lambda: tg.delete_messages(entity, [message_id], revoke=revoke))
+        except Exception as e:
+            error_msg = str(e).lower()
+            # Telegram doesn't allow revoke for some messages (e.g. too old) - delete only for me
+            if revoke and ("revoke" in error_msg or "too old" in error_msg or "not allowed" in error_msg):
+                await tg.delete_messages(entity, [message_id], revoke=False)
+                return {"success": True, "revoked": False, "message": "Message too old, deleted only for me"}
+            raise
+        return {"success": True, "revoked": revoke}
+
+
+async def pin_message(params):
+    tg = await ensure_connected()
+    with priority_lock():
+        uname = normalize_username(params["target"])
+        entity = await retry_on_db_lock(lambda: tg.get_entity(uname))
+        message_id = int(params["messageId"])
+        if params.get("pin", True):
+            await retry_on_db_lock(lambda: tg.pin_message(entity, message_id))
+        else:
+            await retry_on_db_lock(lambda: tg.unpin_message(entity, message_id))
+        return {"success": True}
+
+
+async def check_online(params):
+    tg = await ensure_connected()
+    uname = normalize_username(params["target"])
+    entity = await retry_on_db_lock(lambda: tg.get_entity(uname))
+    result = status_result(getattr(entity, 'status', None))
+    result["peerId"] = entity.id
+    return result
+
+
+async def check_online_many(params):
+    """Statuses of many users in one request: {"statuses": {target: {...}}}. A target that can't be
+    resolved gets lastActive "unknown" instead of failing the whole request."""
+    tg = await ensure_connected()
+    statuses = {}
+    for target in params.get("targets", []):
+        try:
+            entity = await retry_on_db_lock(lambda: tg.get_entity(normalize_username(target)))
+            result = status_result(getattr(entity, 'status', None))
+            result["peerId"] = entity.id
+        except Exception as e:
+            log(f"Online check failed for {target}: {e}")
+            result = {"online": False, "lastActive": "unknown"}
+        statuses[target] = result
+    return {"statuses": statuses}
+
+
+async def get_entity_id(params):
+    """Telegram peer id of a username (what get_entity_id.py prints). A username Telegram doesn't know
+    gives entityId null and notFound; any other failure is an error, so Java doesn't cache it as missing."""
+    tg = await ensure_connected()
+    try:
+        entity = await retry_on_db_lock(lambda: tg.get_entity(normalize_username(params["target"])))
+    except (UsernameNotOccupiedError, UsernameInvalidError, ValueError):
+        # get_entity raises ValueError when no user/chat has the username
+        return {"entityId": None, "notFound": True}
+    return {"entityId": entity.id, "entityName": display_name(entity)}
+
+
+def display_name(entity):
+    first = getattr(entity, 'first_name', None) or ''
+    last = getattr(entity, 'last_name', None) or ''
+    name = (first + (' ' + last if last else '')).strip()
+    if not name:
+        name = getattr(entity, 'username', None) or getattr(entity, 'title', None) or str(getattr(entity, 'id', ''))
+    return name
+
+
+async def serialize_message(event):
+    """Turn a NewMessage/MessageEdited event into the row shape Java upserts into messages. Media is
+    not included: it is downloaded afterwards and sent as a media_downloaded event (see forward_media)."""
+    message = event.message
+    chat = await event.get_chat()
+    chat_name = display_name(chat)
+    has_media = message.media is not None and not isinstance(message.media, MessageMediaWebPage) \
+        and not hasattr(message.media, 'webpage')
+    reply_to = None
+    if getattr(message, 'reply_to', None) is not None:
+        reply_to = getattr(message.reply_to, 'reply_to_msg_id', None)
+
+    return {
+        "peerId": event.chat_id,
+        "chatName": chat_name,
+        "isBot": bool(getattr(chat, 'bot', False)),
+        "messageId": message.id,
+        "out": bool(message.out),
+        "text": message.text,
+        "date": message.date.isoformat() if message.date else None,
+        "editDate": message.edit_date.isoformat() if message.edit_date else None,
+        "replyTo": reply_to,
+        "hasMedia": has_media,
+    }
+
+
+async def emit_event(name, data):
+    await write_frame({"event": name, "data": data})
+
+
+# Media downloads run next to the event stream; this bounds how many run at once
+_media_downloads = asyncio.Semaphore(int(os.getenv("TELETHON_MEDIA_DOWNLOADS", "2")))
+_media_tasks = set()
+
+
+async def forward_media(message, data):
+    """Download a message's media and send it as media_downloaded once it's on disk"""
+    from priority_ingestor import download_media
+
+    try:
+        async with _media_downloads:
+            media = await download_media(client, message, data["chatName"], message.id)
+        if media:
+            await emit_event("media_downloaded", {"peerId": data["peerId"], "messageId": message.id, "media": media})
+    except Exception as e:
+        log(f"Media download failed for message {message.id}: {e}")
+
+
+async def forward_message(name, event):
+    # The message itself goes out right away; a video can take minutes to download
+    data = await serialize_message(event)
+    await emit_event(name, data)
+    if data["hasMedia"] and not data["isBot"]:
+        task = asyncio.create_task(forward_media(event.message, data))
+        _media_tasks.add(task)
+        task.add_done_callback(_media_tasks.discard)
+
+
+async def on_new_message(event):
+    try:
+        await forward_message("new_message", event)
+    except Exception as e:
+        log(f"Failed to forward new message: {e}")
+
+
+async def on_message_edited(event):
+    try:
+        await forward_message("message_edited", event)
+    except Exception as e:
+        log(f"Failed to forward edited message: {e}")
+
+
+async def on_message_deleted(event):
+    # chat_id is not provided for private chats: message ids are unique per account there
+    await emit_event("message_deleted", {"peerId": event.chat_id, "messageIds": list(event.deleted_ids)})
+
+
+async def on_pinned(update):
+    if not isinstance(update, UpdatePinnedMessages) or not isinstance(update.peer, PeerUser):
+        return
+    await emit_event("message_pinned", {
+        "peerId": update.peer.user_id,
+        "messageIds": list(update.messages),
+        "pinned": bool(update.pinned),
+    })
+
+
+async def on_user_status(event):
+    # Presence changes of people we chat with (Telegram only sends these for contacts/recent chats)
+    if not isinstance(event.original_update, UpdateUserStatus):
+        return
+    status = event.status
+    if isinstance(status, UserStatusOnline):
+        online, last_active = True, "online"
+    elif isinstance(status, UserStatusRecently):
+        online, last_active = False, "last seen recently"
+    else:
+        online, last_active = False, format_last_active(status) if status is not None else "offline"
+    await emit_event("user_status", {"peerId": event.user_id, "online": online, "lastActive": last_active})
+
+
+async def subscribe(params):
+    """Start pushing message updates for private chats as event frames (idempotent)"""
+    global _subscribed
+    tg = await ensure_connected()
+    if not _subscribed:
+        tg.add_event_handler(on_new_message, events.NewMessage(func=lambda e: e.is_private))
+        tg.add_event_handler(on_message_edited, events.MessageEdited(func=lambda e: e.is_private))
+        tg.add_event_handler(on_message_deleted, events.MessageDeleted())
+        tg.add_event_handler(on_pinned, events.Raw(UpdatePinnedMessages))
+        tg.add_event_handler(on_user_status, events.UserUpdate())
+        # Make sure Telethon fetches any updates we missed while disconnected
+        await tg.catch_up()
+        _subscribed = True
+        log("subscribed to message updates")
+    return {"subscribed": True}
+
+
+async def ping(params):
+    return {"pong": True, "connected": client is not None and client.is_connected()}
+
+
+METHODS = {
+    "send_message": send_message,
+    "send_media": send_media,
+    "edit_message": edit_message,
+    "delete_message": delete_message,
+    "pin_message": pin_message,
+    "check_online": check_online,
+    "check_online_many": check_online_many,
+    "get_entity_id": get_entity_id,
+    "subscribe": subscribe,
+    "ping": ping,
+}
+
+
+async def write_frame(frame):
+    data = json.dumps(frame, default=str) + "\n"
+    async with _write_lock:
+        _frames_out.write(data)
+        _frames_out.flush()
+
+
+async def handle(request):
+    request_id = request.get("id")
+    method = METHODS.get(request.get("method"))
+    if method is None:
+        await write_frame({"id": request_id, "error": f"Unknown method: {request.get('method')}"})
+        return
+    # handle() runs in its own task, so this only applies to this request
+    _outbound.set(request.get("method") in OUTBOUND_METHODS)
+    try:
+        result = await method(request.get("params") or {})
+        await write_frame({"id": request_id, "result": result})
+    except asyncio.CancelledError:
+        # The Java side stopped waiting and sent "cancel"; it already treats the outcome as unknown
+        log(f"{request.get('method')} {request_id} cancelled")
+        raise
+    except FloodWaitError as e:
+        log(f"{request.get('method')} hit a flood wait of {e.seconds}s")
+        await write_frame({"id": request_id, "error": str(e), "floodWait": e.seconds})
+    except Exception as e:
+        log(f"{request.get('method')} failed: {e}")
+        await write_frame({"id": request_id, "error": str(e)})
+
+
+async def main():
+    loop = asyncio.get_running_loop()
+    tasks = set()
+    running = {}  # request id -> task, for "cancel"
+    log(f"started (session={session_path})")
+    while True:
+        line = await loop.run_in_executor(None, sys.stdin.readline)
+        if not line:
+            break  # Java side closed stdin - shut down
+        line = line.strip()
+        if not line:
+            continue
+        try:
+            request = json.loads(line)
+        except Exception as e:
+            log(f"Invalid frame: {e}")
+            continue
+        if request.get("method") == "cancel":
+            # {"method": "cancel", "params": {"id": n}}: drop request n if it hasn't finished. A send already
+            # handed to Telegram may still go through; no response is written for either.
+            task = running.get((request.get("params") or {}).get("id"))
+            if task is not None:
+                task.cancel()
+            continue
+        task = asyncio.create_task(handle(request))
+        tasks.add(task)
+        task.add_done_callback(tasks.discard)
+        request_id = request.get("id")
+        if request_id is not None:
+            running[request_id] = task
+            task.add_done_callback(lambda _, rid=request_id: running.pop(rid, None))
+
+    if tasks:
+        await asyncio.gather(*tasks, return_exceptions=True)
+    if client is not None and client.is_connected():
+        await client.disconnect()
+    log("stopped")
+
+
+if __name__ == '__main__':
+    asyncio.run(main())
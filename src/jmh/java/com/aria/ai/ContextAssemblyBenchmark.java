@@ -0,0 +1,78 @@
+package com.aria.ai;
+
+import com.aria.bench.BenchmarkData;
+import com.aria.core.model.Message;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The string assembly part of ContextBuilder70_15_15 (current history + reference examples),
+ * without the database and cache loads around it, and ExemplarLibrary's rendering of a reference
+ * dialog into its cached prompt fragment (the work of a fragment cache miss).
+ * Lives in com.aria.ai for the package-private helpers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ContextAssemblyBenchmark {
+    @Param({"50", "1000", "10000"})
+    public int historySize;
+
+    @Param({"10"})
+    public int referenceDialogs;
+
+    private List<Message> history;
+    private Map<Integer, List<Message>> references;
+    private Map<Integer, String> fragments;
+
+    @Setup
+    public void setup() {
+        history = BenchmarkData.conversation(historySize, 3);
+        references = BenchmarkData.chats(referenceDialogs, 200, 5);
+        fragments = renderFragments();
+    }
+
+    @Benchmark
+    public Map<Integer, String> renderFragments() {
+        ExemplarLibrary library = ExemplarLibrary.getInstance();
+        Map<Integer, String> rendered = new LinkedHashMap<>();
+        for (Map.Entry<Integer, List<Message>> entry : references.entrySet()) {
+            rendered.put(entry.getKey(), library.renderFragment(entry.getValue()));
+        }
+        return rendered;
+    }
+
+    @Benchmark
+    public String assemblePrompt() {
+        StringBuilder context = new StringBuilder();
+        context.append("=== CURRENT CONVERSATION HISTORY ===\n\n");
+        ContextBuilder70_15_15.appendMessages(context, history);
+        context.append("\n=== REFERENCE CONVERSATIONS FOR LEARNING ===\n\n");
+        int i = 0;
+        for (Map.Entry<Integer, String> entry : fragments.entrySet()) {
+            String type = i < 7 ? "SUCCESS" : i < 9 ? "FAILED" : "AI_ENHANCED";
+            context.append("EXAMPLE ").append(++i).append(":\n");
+            context.append("[DIALOG_ID: ").append(entry.getKey()).append("] \n");
+            ContextBuilder70_15_15.formatConversationExample(context, entry.getValue(), type);
+            context.append("\n");
+        }
+        return context.toString();
+    }
+}
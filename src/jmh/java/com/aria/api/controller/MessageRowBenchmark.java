@@ -0,0 +1,71 @@
+package com.aria.api.controller;
+
+import com.aria.bench.BenchmarkData;
+import com.aria.bench.RowsResultSet;
+import com.aria.core.model.Message;
+import com.aria.storage.SecureStorage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ConversationController.buildMessageRow over a page of encrypted rows in MESSAGE_ROW_COLUMNS order
+ * (decrypt + map per row, as GET /api/conversations/messages does). Lives in the controller package
+ * for the package-private mapper.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MessageRowBenchmark {
+    @Param({"50", "500"})
+    public int pageSize;
+
+    private RowsResultSet rows;
+
+    @Setup
+    public void setup() {
+        List<Message> messages = BenchmarkData.conversation(pageSize, 13);
+        Object[][] data = new Object[messages.size()][];
+        for (int i = 0; i < messages.size(); i++) {
+            Message msg = messages.get(i);
+            Timestamp ts = Timestamp.valueOf(msg.getTimestamp());
+            boolean edited = i % 15 == 0;
+            boolean media = msg.isHasMedia();
+            data[i] = new Object[]{
+                i + 1, (long) msg.getId(), msg.getSender(), SecureStorage.encrypt(msg.getContent()), ts, media,
+                msg.getReferenceId(), edited, edited ? new Timestamp(ts.getTime() + 60_000) : null, "sent", 7,
+                i % 40 == 0,
+                media ? "photo.jpg" : null, media ? "image/jpeg" : null, media ? 123_456L : null,
+                media ? "media/telegramConnector/user_x/chat/Alex_" + msg.getId() + "_photo.jpg" : null,
+                media ? i + 1 : null
+            };
+        }
+        rows = new RowsResultSet(data);
+    }
+
+    @Benchmark
+    public void mapPage(Blackhole bh) throws Exception {
+        rows.reset();
+        ResultSet rs = rows.get();
+        while (rs.next()) {
+            bh.consume(ConversationController.buildMessageRow(rs, 42, 1));
+        }
+    }
+}
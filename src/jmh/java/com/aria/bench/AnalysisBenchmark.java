@@ -0,0 +1,68 @@
+package com.aria.bench;
+
+import com.aria.analysis.DisinterestDetector;
+import com.aria.analysis.SmartChatSelector;
+import com.aria.analysis.StyleExtractor;
+import com.aria.core.model.ChatProfile;
+import com.aria.core.model.Message;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Style extraction, disinterest detection and chat selection over synthetic conversations
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AnalysisBenchmark {
+    @Param({"50", "1000"})
+    public int messageCount;
+
+    private List<Message> conversation;
+    private Map<Integer, List<Message>> chats;
+    private final StyleExtractor styleExtractor = new StyleExtractor();
+    private final DisinterestDetector disinterestDetector = new DisinterestDetector();
+    private final SmartChatSelector chatSelector = new SmartChatSelector();
+
+    @Setup
+    public void setup() {
+        conversation = BenchmarkData.conversation(messageCount, 7);
+        chats = BenchmarkData.chats(20, messageCount, 11);
+    }
+
+    @Benchmark
+    public ChatProfile extractStyleProfile() {
+        return styleExtractor.extractStyleProfile(conversation);
+    }
+
+    @Benchmark
+    public DisinterestDetector.DisinterestAnalysis analyzeConversation() {
+        return disinterestDetector.analyzeConversation(conversation);
+    }
+
+    @Benchmark
+    public int estimateTokensForMessages() {
+        return SmartChatSelector.estimateTokensForMessages(conversation);
+    }
+
+    @Benchmark
+    public String formatChatsForPrompt() {
+        return chatSelector.formatChatsForPrompt(chats, 8000);
+    }
+}
@@ -0,0 +1,79 @@
+package com.aria.bench;
+
+import com.aria.core.model.Message;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Synthetic, seeded conversation data for the benchmarks (same seed = same data on every run)
+ */
+public final class BenchmarkData {
+    private static final String[] WORDS = {
+        "hey", "how", "are", "you", "doing", "today", "haha", "that", "sounds", "great", "what", "about",
+        "tomorrow", "coffee", "maybe", "later", "work", "was", "crazy", "lol", "really", "nice", "weekend",
+        "plans", "movie", "dinner", "sure", "thanks", "sorry", "busy", "call", "me", "when", "free", "?", "!",
+        "I", "think", "so", "love", "it", "we", "should", "go", "there", "again", "ok", "yes", "no", "please"
+    };
+
+    private BenchmarkData() {}
+
+    /**
+     * One conversation of count messages alternating irregularly between "me" and the target,
+     * 1-40 words each, with replies and gaps of seconds to days
+     */
+    public static List<Message> conversation(int count, long seed) {
+        Random random = new Random(seed);
+        List<Message> messages = new ArrayList<>(count);
+        LocalDateTime time = LocalDateTime.of(2024, 1, 1, 9, 0);
+        for (int i = 0; i < count; i++) {
+            boolean fromUser = random.nextInt(100) < 55;
+            Message msg = new Message(text(random, 1 + random.nextInt(random.nextInt(10) == 0 ? 40 : 12)),
+                fromUser ? "me" : "Alex", fromUser);
+            msg.setId(1000 + i);
+            time = time.plusSeconds(random.nextInt(10) == 0 ? 3600L * (1 + random.nextInt(48)) : 5 + random.nextInt(600));
+            msg.setTimestamp(time);
+            if (i > 0 && random.nextInt(8) == 0) {
+                msg.setReferenceId((long) (1000 + random.nextInt(i)));
+            }
+            msg.setHasMedia(random.nextInt(20) == 0);
+            messages.add(msg);
+        }
+        return messages;
+    }
+
+    /**
+     * Several conversations keyed by dialog id, as the context builders load them
+     */
+    public static Map<Integer, List<Message>> chats(int chatCount, int messagesPerChat, long seed) {
+        Map<Integer, List<Message>> chats = new LinkedHashMap<>();
+        for (int i = 0; i < chatCount; i++) {
+            chats.put(100 + i, conversation(messagesPerChat, seed + i));
+        }
+        return chats;
+    }
+
+    /**
+     * Message texts only (for the crypto benchmarks)
+     */
+    public static List<String> texts(int count, long seed) {
+        List<String> texts = new ArrayList<>(count);
+        for (Message msg : conversation(count, seed)) {
+            texts.add(msg.getContent());
+        }
+        return texts;
+    }
+
+    private static String text(Random random, int words) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            if (i > 0) sb.append(' ');
+            sb.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return sb.toString();
+    }
+}
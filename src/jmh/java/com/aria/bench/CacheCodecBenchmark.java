@@ -0,0 +1,78 @@
+package com.aria.bench;
+
+import com.aria.cache.BinaryCacheCodec;
+import com.aria.cache.CacheCodec;
+import com.aria.cache.JsonCacheCodec;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.ToNumberPolicy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encode/decode of a cached message page (GET /messages row maps) with the JSON and binary cache codecs
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CacheCodecBenchmark {
+    @Param({"json", "binary"})
+    public String codecName;
+
+    @Param({"100"})
+    public int pageSize;
+
+    private CacheCodec codec;
+    private List<Map<String, Object>> page;
+    private byte[] encoded;
+
+    @Setup
+    public void setup() {
+        Gson gson = new GsonBuilder().serializeNulls().setObjectToNumberStrategy(ToNumberPolicy.LONG_OR_DOUBLE).create();
+        codec = "json".equals(codecName) ? new JsonCacheCodec(gson) : new BinaryCacheCodec(gson);
+        List<String> texts = BenchmarkData.texts(pageSize, 17);
+        page = new ArrayList<>(pageSize);
+        for (int i = 0; i < pageSize; i++) {
+            Map<String, Object> row = new HashMap<>();
+            row.put("messageId", 10_000 + i);
+            row.put("fromUser", i % 2 == 0);
+            row.put("text", texts.get(i));
+            row.put("timestamp", 1_700_000_000_000L + i * 60_000L);
+            row.put("hasMedia", false);
+            row.put("edited", i % 15 == 0);
+            row.put("status", "sent");
+            row.put("pinned", false);
+            row.put("cursor", "MTcwMDAwMDAwMDAwMDAwMDo" + i);
+            page.add(row);
+        }
+        encoded = codec.encode(page);
+    }
+
+    @Benchmark
+    public byte[] encodePage() {
+        return codec.encode(page);
+    }
+
+    @Benchmark
+    public Object decodePage() {
+        return codec.decode(encoded, List.class);
+    }
+}
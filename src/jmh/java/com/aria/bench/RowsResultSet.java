@@ -0,0 +1,77 @@
+package com.aria.bench;
+
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+
+/**
+ * In-memory ResultSet over Object[] rows (1-based columns), enough for row mappers that read by index
+ * with next/getObject/getString/getInt/getLong/getBoolean/getTimestamp/wasNull. Call reset() to rewind.
+ */
+public final class RowsResultSet {
+    private final Object[][] rows;
+    private int position = -1;
+    private boolean lastWasNull;
+    private final ResultSet resultSet;
+
+    public RowsResultSet(Object[][] rows) {
+        this.rows = rows;
+        this.resultSet = (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(),
+            new Class<?>[]{ResultSet.class}, (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "next":
+                        return ++position < rows.length;
+                    case "wasNull":
+                        return lastWasNull;
+                    case "close":
+                        return null;
+                    case "isClosed":
+                        return false;
+                    case "getObject":
+                        return value(args[0]);
+                    case "getString": {
+                        Object v = value(args[0]);
+                        return v != null ? v.toString() : null;
+                    }
+                    case "getInt": {
+                        Object v = value(args[0]);
+                        return v != null ? ((Number) v).intValue() : 0;
+                    }
+                    case "getLong": {
+                        Object v = value(args[0]);
+                        return v != null ? ((Number) v).longValue() : 0L;
+                    }
+                    case "getBoolean": {
+                        Object v = value(args[0]);
+                        return v != null && (Boolean) v;
+                    }
+                    case "getTimestamp":
+                        return (Timestamp) value(args[0]);
+                    case "getBigDecimal": {
+                        Object v = value(args[0]);
+                        return v != null ? new BigDecimal(v.toString()) : null;
+                    }
+                    default:
+                        throw new UnsupportedOperationException("RowsResultSet." + method.getName());
+                }
+            });
+    }
+
+    public ResultSet get() {
+        return resultSet;
+    }
+
+    public void reset() {
+        position = -1;
+    }
+
+    private Object value(Object column) {
+        if (!(column instanceof Integer)) {
+            throw new UnsupportedOperationException("RowsResultSet reads columns by index only");
+        }
+        Object v = rows[position][(Integer) column - 1];
+        lastWasNull = v == null;
+        return v;
+    }
+}
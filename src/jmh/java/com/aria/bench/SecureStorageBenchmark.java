@@ -0,0 +1,79 @@
+package com.aria.bench;
+
+import com.aria.storage.SecureStorage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Message text encryption: single values, and decrypting a whole message list row by row vs decryptAll
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SecureStorageBenchmark {
+    @Param({"50", "1000", "20000"})
+    public int messageCount;
+
+    private List<String> plain;
+    private List<String> encrypted;
+    private String singlePlain;
+    private String singleEncrypted;
+
+    @Setup
+    public void setup() {
+        plain = BenchmarkData.texts(messageCount, 42);
+        encrypted = new ArrayList<>(plain.size());
+        for (String text : plain) {
+            encrypted.add(SecureStorage.encrypt(text));
+        }
+        singlePlain = plain.get(0);
+        singleEncrypted = encrypted.get(0);
+    }
+
+    @Benchmark
+    public String encryptOne() {
+        return SecureStorage.encrypt(singlePlain);
+    }
+
+    @Benchmark
+    public String decryptOne() {
+        return SecureStorage.decrypt(singleEncrypted);
+    }
+
+    @Benchmark
+    public void decryptEach(Blackhole bh) {
+        for (String value : encrypted) {
+            bh.consume(SecureStorage.decrypt(value));
+        }
+    }
+
+    @Benchmark
+    public List<String> decryptAll() {
+        return SecureStorage.decryptAll(encrypted);
+    }
+
+    /**
+     * Plaintext rows (Python ingestion) go through the same decrypt path and must stay cheap
+     */
+    @Benchmark
+    public List<String> decryptAllPlaintext() {
+        return SecureStorage.decryptAll(plain);
+    }
+}
@@ -2,6 +2,7 @@ package com.aria.ai;
 
 import com.aria.core.model.TargetUser;
 import com.aria.core.model.SubTargetUser;
+import com.aria.storage.ConnectionPool;
 import java.sql.*;
 import java.util.HashMap;
 import java.util.Map;
@@ -193,16 +194,7 @@ public class AriaResponseManager {
     }
     
     private Connection getConnection() throws SQLException {
-        return java.sql.DriverManager.getConnection(
-            System.getenv("DATABASE_URL") != null
-                ? System.getenv("DATABASE_URL")
-                : "jdbc:postgresql://localhost:5432/aria",
-            System.getenv("DATABASE_USER") != null
-                ? System.getenv("DATABASE_USER")
-                : "postgres",
-            System.getenv("DATABASE_PASSWORD") != null
-                ? System.getenv("DATABASE_PASSWORD")
-                : "Ezekiel(23)");
+        return ConnectionPool.getConnection();
     }
 }
 
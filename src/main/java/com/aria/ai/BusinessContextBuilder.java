@@ -4,6 +4,7 @@ import com.aria.core.model.TargetBusiness;
 import com.aria.core.model.BusinessSubTarget;
 import com.aria.core.model.Message;
 import com.aria.storage.DatabaseManager;
+import com.aria.storage.ConnectionPool;
 import java.sql.*;
 import java.util.*;
 
@@ -230,16 +231,7 @@ public class BusinessContextBuilder {
     }
     
     private Connection getConnection() throws SQLException {
-        return java.sql.DriverManager.getConnection(
-            System.getenv("DATABASE_URL") != null
-                ? System.getenv("DATABASE_URL")
-                : "jdbc:postgresql://localhost:5432/aria",
-            System.getenv("DATABASE_USER") != null
-                ? System.getenv("DATABASE_USER")
-                : "postgres",
-            System.getenv("DATABASE_PASSWORD") != null
-                ? System.getenv("DATABASE_PASSWORD")
-                : "Ezekiel(23)");
+        return ConnectionPool.getConnection();
     }
 }
 
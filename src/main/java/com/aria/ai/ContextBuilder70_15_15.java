@@ -4,12 +4,17 @@ import com.aria.core.model.TargetUser;
 import com.aria.core.model.SubTargetUser;
 import com.aria.core.model.Message;
 import com.aria.storage.DatabaseManager;
+import com.aria.storage.ConnectionPool;
 import java.sql.*;
+import java.time.LocalDateTime;
 import java.util.*;
 
 /**
  * Builds comprehensive 70/15/15 context for OpenAI Responses API
  * 70% successful dialogs, 15% failed dialogs, 15% AI improvement examples
+ *
+ * The conversation history and the reference examples are kept in ContextCache between builds, so a
+ * build normally only loads the messages added since the last one.
  */
 public class ContextBuilder70_15_15 {
     private final DatabaseManager databaseManager;
@@ -28,6 +33,25 @@ public class ContextBuilder70_15_15 {
             int userId,
             boolean crossPlatformContextEnabled,
             boolean adminModeEnabled) throws SQLException {
+        // Suggestion and variation requests for the same conversation arriving together share one build
+        String key = "context70:" + userId + ":" + targetUser.getTargetId() + ":"
+            + (subtargetUser != null ? subtargetUser.getId() : 0) + ":" + crossPlatformContextEnabled + ":" + adminModeEnabled;
+        try {
+            return com.aria.cache.SingleFlight.execute(key, () -> buildContext(
+                targetUser, subtargetUser, userId, crossPlatformContextEnabled, adminModeEnabled));
+        } catch (SQLException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new SQLException("Failed to build context: " + e.getMessage(), e);
+        }
+    }
+
+    private String buildContext(
+            TargetUser targetUser,
+            SubTargetUser subtargetUser,
+            int userId,
+            boolean crossPlatformContextEnabled,
+            boolean adminModeEnabled) throws SQLException {
         
         StringBuilder context = new StringBuilder();
         
@@ -106,114 +130,43 @@ public class ContextBuilder70_15_15 {
         context.append("IMPORTANT: Messages with 'reference_id' are replies to the message with that ID.\n");
         context.append("Each message is identified by its 'id' field. When a message has a 'reference_id', it is replying to the message with that ID.\n\n");
         
-        List<Message> currentConversationMessages = loadAllCurrentConversationMessages(
-            targetUser, subtargetUser, userId, crossPlatformContextEnabled);
+        String conversationKey = userId + ":" + targetUser.getTargetId() + ":"
+            + (subtargetUser != null ? subtargetUser.getId() : 0) + ":" + crossPlatformContextEnabled;
+        ContextCache.History history = loadHistory(conversationKey, targetUser, subtargetUser, userId, crossPlatformContextEnabled);
         
-        if (currentConversationMessages.isEmpty()) {
+        if (history.messageCount == 0) {
             context.append("No conversation history yet. This is a new conversation.\n");
         } else {
-            for (Message msg : currentConversationMessages) {
-                if (msg.getContent() != null && !msg.getContent().trim().isEmpty()) {
-                    context.append("[ID: ").append(msg.getId()).append("] ");
-                    if (msg.getReferenceId() != null) {
-                        context.append("[REPLY TO ID: ").append(msg.getReferenceId()).append("] ");
-                    }
-                    context.append(msg.isFromUser() ? "You" : "Them")
-                          .append(": ")
-                          .append(msg.getContent())
-                          .append("\n");
-                }
-            }
+            context.append(history.text);
         }
         context.append("\n");
         
         // ============================================
-        // SECTION 5: GET CATEGORIES FOR CURRENT CONVERSATION
+        // SECTIONS 5 AND 6: CATEGORIES AND REFERENCE CONVERSATIONS (70/15/15)
         // ============================================
-        List<String> currentCategories = getCategoriesForCurrentConversation(
-            targetUser, subtargetUser, userId, crossPlatformContextEnabled);
-        
-        if (currentCategories.isEmpty()) {
-            // If no categories yet, use goal-based categories
-            currentCategories = inferCategoriesFromGoal(targetUser.getDesiredOutcome());
+        // Keyed by the desired outcome as well, since categories fall back to it
+        ContextCache cache = ContextCache.getInstance();
+        String referencesKey = conversationKey + ":" + targetUser.getDesiredOutcome();
+        ContextCache.References references = cache.getReferences(referencesKey);
+        if (references == null) {
+            List<String> currentCategories = getCategoriesForCurrentConversation(
+                targetUser, subtargetUser, userId, crossPlatformContextEnabled);
+            
+            if (currentCategories.isEmpty()) {
+                // If no categories yet, use goal-based categories
+                currentCategories = inferCategoriesFromGoal(targetUser.getDesiredOutcome());
+            }
+            StringBuilder section = new StringBuilder();
+            appendReferenceConversations(section, currentCategories, userId, targetUser);
+            references = new ContextCache.References(currentCategories, section.toString(), System.currentTimeMillis());
+            cache.putReferences(referencesKey, references);
         }
         
         context.append("=== CONVERSATION CATEGORIES ===\n\n");
         context.append("This conversation belongs to the following categories: ");
-        context.append(String.join(", ", currentCategories)).append("\n");
+        context.append(String.join(", ", references.categories)).append("\n");
         context.append("These categories help identify similar successful and failed conversations for learning.\n\n");
-        
-        // ============================================
-        // SECTION 6: REFERENCE CONVERSATIONS (70/15/15)
-        // ============================================
-        context.append("=== REFERENCE CONVERSATIONS FOR LEARNING ===\n\n");
-        context.append("The following examples show your communication style in similar situations.\n");
-        context.append("These are organized as: 70% successful examples, 15% failed examples, 15% AI improvement examples.\n");
-        context.append("Study these to understand what works and what doesn't, then apply that knowledge to this conversation.\n\n");
-        
-        // Get reference dialogs in same categories
-        Map<Integer, List<Message>> referenceDialogs = getReferenceDialogsInCategories(
-            currentCategories, userId, targetUser.getTargetId(), subtargetUser, crossPlatformContextEnabled);
-        
-        // Separate into successful (70%), failed (15%), and AI improvement (15%)
-        // Store dialog metadata with examples
-        List<DialogExample> successfulExamples = new ArrayList<>();
-        List<DialogExample> failedExamples = new ArrayList<>();
-        List<DialogExample> aiImprovementExamples = new ArrayList<>();
-        
-        separateDialogsBySuccessWithMetadata(referenceDialogs, currentCategories, successfulExamples, failedExamples, aiImprovementExamples);
-        
-        // Add 70% successful examples
-        int successfulCount = (int) Math.round(referenceDialogs.size() * 0.70);
-        context.append("--- SUCCESSFUL EXAMPLES (70%) ---\n");
-        context.append("These conversations achieved their goals. Learn from what worked:\n\n");
-        for (int i = 0; i < Math.min(successfulCount, successfulExamples.size()); i++) {
-            DialogExample example = successfulExamples.get(i);
-            context.append("SUCCESSFUL EXAMPLE ").append(i + 1).append(":\n");
-            context.append("[DIALOG_ID: ").append(example.dialogId).append("] ");
-            if (example.dialogName != null) {
-                context.append("[DIALOG_NAME: ").append(example.dialogName).append("] ");
-            }
-            context.append("\n");
-            formatConversationExample(context, example.messages, "SUCCESS");
-            context.append("\n");
-        }
-        context.append("\n");
-        
-        // Add 15% failed examples
-        int failedCount = (int) Math.round(referenceDialogs.size() * 0.15);
-        context.append("--- FAILED EXAMPLES (15%) ---\n");
-        context.append("These conversations did not achieve their goals. Learn from what went wrong:\n\n");
-        for (int i = 0; i < Math.min(failedCount, failedExamples.size()); i++) {
-            DialogExample example = failedExamples.get(i);
-            context.append("FAILED EXAMPLE ").append(i + 1).append(":\n");
-            context.append("[DIALOG_ID: ").append(example.dialogId).append("] ");
-            if (example.dialogName != null) {
-                context.append("[DIALOG_NAME: ").append(example.dialogName).append("] ");
-            }
-            context.append("\n");
-            formatConversationExample(context, example.messages, "FAILED");
-            context.append("\n");
-        }
-        context.append("\n");
-        
-        // Add 15% AI improvement examples (use successful ones with AI-enhanced responses)
-        int aiCount = (int) Math.round(referenceDialogs.size() * 0.15);
-        context.append("--- AI IMPROVEMENT EXAMPLES (15%) ---\n");
-        context.append("These show how AI-enhanced responses can improve communication:\n\n");
-        // For now, use top successful examples as AI improvement (can be enhanced later)
-        for (int i = 0; i < Math.min(aiCount, successfulExamples.size()); i++) {
-            DialogExample example = successfulExamples.get(i);
-            context.append("AI IMPROVEMENT EXAMPLE ").append(i + 1).append(":\n");
-            context.append("[DIALOG_ID: ").append(example.dialogId).append("] ");
-            if (example.dialogName != null) {
-                context.append("[DIALOG_NAME: ").append(example.dialogName).append("] ");
-            }
-            context.append("\n");
-            formatConversationExample(context, example.messages, "AI_ENHANCED");
-            context.append("\n");
-        }
-        context.append("\n");
+        context.append(references.section);
         
         // ============================================
         // SECTION 7: INSTRUCTIONS FOR AI
@@ -280,22 +233,97 @@ public class ContextBuilder70_15_15 {
     }
     
     /**
-     * Load ALL messages from current conversation (not just last 50)
+     * Append the reference conversations section: dialogs in the same categories split into
+     * successful (70%), failed (15%) and AI improvement (15%) examples
      */
-    private List<Message> loadAllCurrentConversationMessages(
+    private void appendReferenceConversations(
+            StringBuilder context,
+            List<String> currentCategories,
+            int userId,
+            TargetUser targetUser) throws SQLException {
+        context.append("=== REFERENCE CONVERSATIONS FOR LEARNING ===\n\n");
+        context.append("The following examples show your communication style in similar situations.\n");
+        context.append("These are organized as: 70% successful examples, 15% failed examples, 15% AI improvement examples.\n");
+        context.append("Study these to understand what works and what doesn't, then apply that knowledge to this conversation.\n\n");
+        
+        // Precomputed exemplars of the same categories
+        ExemplarLibrary.Selection exemplars = ExemplarLibrary.getInstance().select(
+            userId, targetUser.getTargetId(), currentCategories);
+        List<ExemplarLibrary.Exemplar> successfulExamples = exemplars.successful;
+        List<ExemplarLibrary.Exemplar> failedExamples = exemplars.failed;
+        
+        // Add 70% successful examples
+        int successfulCount = (int) Math.round(exemplars.dialogCount * 0.70);
+        context.append("--- SUCCESSFUL EXAMPLES (70%) ---\n");
+        context.append("These conversations achieved their goals. Learn from what worked:\n\n");
+        for (int i = 0; i < Math.min(successfulCount, successfulExamples.size()); i++) {
+            ExemplarLibrary.Exemplar example = successfulExamples.get(i);
+            context.append("SUCCESSFUL EXAMPLE ").append(i + 1).append(":\n");
+            context.append("[DIALOG_ID: ").append(example.dialogId).append("] ");
+            if (example.dialogName != null) {
+                context.append("[DIALOG_NAME: ").append(example.dialogName).append("] ");
+            }
+            context.append("\n");
+            formatConversationExample(context, example.fragment, "SUCCESS");
+            context.append("\n");
+        }
+        context.append("\n");
+        
+        // Add 15% failed examples
+        int failedCount = (int) Math.round(exemplars.dialogCount * 0.15);
+        context.append("--- FAILED EXAMPLES (15%) ---\n");
+        context.append("These conversations did not achieve their goals. Learn from what went wrong:\n\n");
+        for (int i = 0; i < Math.min(failedCount, failedExamples.size()); i++) {
+            ExemplarLibrary.Exemplar example = failedExamples.get(i);
+            context.append("FAILED EXAMPLE ").append(i + 1).append(":\n");
+            context.append("[DIALOG_ID: ").append(example.dialogId).append("] ");
+            if (example.dialogName != null) {
+                context.append("[DIALOG_NAME: ").append(example.dialogName).append("] ");
+            }
+            context.append("\n");
+            formatConversationExample(context, example.fragment, "FAILED");
+            context.append("\n");
+        }
+        context.append("\n");
+        
+        // Add 15% AI improvement examples (use successful ones with AI-enhanced responses)
+        int aiCount = (int) Math.round(exemplars.dialogCount * 0.15);
+        context.append("--- AI IMPROVEMENT EXAMPLES (15%) ---\n");
+        context.append("These show how AI-enhanced responses can improve communication:\n\n");
+        // For now, use top successful examples as AI improvement (can be enhanced later)
+        for (int i = 0; i < Math.min(aiCount, successfulExamples.size()); i++) {
+            ExemplarLibrary.Exemplar example = successfulExamples.get(i);
+            context.append("AI IMPROVEMENT EXAMPLE ").append(i + 1).append(":\n");
+            context.append("[DIALOG_ID: ").append(example.dialogId).append("] ");
+            if (example.dialogName != null) {
+                context.append("[DIALOG_NAME: ").append(example.dialogName).append("] ");
+            }
+            context.append("\n");
+            formatConversationExample(context, example.fragment, "AI_ENHANCED");
+            context.append("\n");
+        }
+        context.append("\n");
+    }
+    
+    /**
+     * Rendered history of the current conversation (ALL messages, not just the last 50). Reuses the
+     * cached copy while none of its dialogs was edited, loading and appending only newer rows.
+     */
+    private ContextCache.History loadHistory(
+            String conversationKey,
             TargetUser targetUser,
             SubTargetUser subtargetUser,
             int userId,
             boolean crossPlatformContextEnabled) throws SQLException {
         
-        List<Message> messages = new ArrayList<>();
-        
+        ContextCache cache = ContextCache.getInstance();
         try (Connection conn = getConnection()) {
             List<Integer> dialogIds = new ArrayList<>();
             
             if (crossPlatformContextEnabled) {
                 // Get all dialogs for this target user across all platforms
-                dialogIds = databaseManager.getDialogIdsForTargetUser(targetUser.getTargetId(), userId);
+                dialogIds = new ArrayList<>(databaseManager.getDialogIdsForTargetUser(targetUser.getTargetId(), userId));
+                Collections.sort(dialogIds);
             } else if (subtargetUser != null) {
                 // Get dialog for this specific subtarget user
                 Integer dialogId = findDialogForSubTarget(conn, subtargetUser, userId);
@@ -305,59 +333,140 @@ public class ContextBuilder70_15_15 {
             }
             
             if (dialogIds.isEmpty()) {
-                return messages;
+                return new ContextCache.History(dialogIds, null, 0, Set.of(), null, 0, "", System.currentTimeMillis());
+            }
+            
+            // Read revisions before the rows, so an edit made while loading is seen on the next build
+            Map<Integer, String> revisions = com.aria.cache.RedisCacheManager.getInstance().getDialogRevisions(dialogIds);
+            ContextCache.History cached = cache.getHistory(conversationKey);
+            if (cached != null && revisions != null
+                    && cached.dialogIds.equals(dialogIds) && revisions.equals(cached.revisions)) {
+                // Re-read the window below the watermark for late commits, skipping rows already rendered
+                MessageBatch added = loadMessagesAfter(conn, dialogIds,
+                    Math.max(0, cached.maxRowId - cache.getRereadIds()), cached.recentRowIds);
+                if (added.messages.isEmpty()) {
+                    cache.recordHistoryHit();
+                    return cached;
+                }
+                LocalDateTime first = added.messages.get(0).getTimestamp();
+                if (cached.lastTimestamp == null || first == null || !first.isBefore(cached.lastTimestamp)) {
+                    StringBuilder text = new StringBuilder(cached.text.length() + 256 * added.messages.size());
+                    text.append(cached.text);
+                    appendMessages(text, added.messages);
+                    long maxRowId = Math.max(cached.maxRowId, added.maxRowId);
+                    ContextCache.History appended = new ContextCache.History(dialogIds, revisions, maxRowId,
+                        recentRowIds(cached.recentRowIds, added.rowIds, maxRowId, cache.getRereadIds()),
+                        lastTimestamp(added.messages, cached.lastTimestamp), cached.messageCount + added.messages.size(),
+                        text.toString(), cached.loadedAt);
+                    cache.putHistory(conversationKey, appended, true);
+                    return appended;
+                }
+                // A backfilled older message: it belongs in the middle, so rebuild
             }
             
             // Load ALL messages from these dialogs (no limit)
-            String placeholders = String.join(",", Collections.nCopies(dialogIds.size(), "?"));
-            String sql = String.format("""
-                SELECT m.message_id, m.sender, m.text, m.timestamp, m.has_media, m.reference_id
-                FROM messages m
-                WHERE m.dialog_id IN (%s)
-                ORDER BY m.timestamp ASC
-            """, placeholders);
+            MessageBatch all = loadMessagesAfter(conn, dialogIds, 0, Set.of());
+            StringBuilder text = new StringBuilder();
+            appendMessages(text, all.messages);
+            ContextCache.History history = new ContextCache.History(dialogIds, revisions, all.maxRowId,
+                recentRowIds(Set.of(), all.rowIds, all.maxRowId, cache.getRereadIds()), lastTimestamp(all.messages, null), all.messages.size(), text.toString(), System.currentTimeMillis());
+            if (revisions != null) {
+                // Without revisions (Redis unavailable) edits can't be detected, so don't keep it
+                cache.putHistory(conversationKey, history, false);
+            }
+            return history;
+        }
+    }
+    
+    /**
+     * Ids of rendered rows that fall in the re-read window below maxRowId
+     */
+    private static Set<Long> recentRowIds(Set<Long> previous, List<Long> added, long maxRowId, int window) {
+        long floor = maxRowId - window;
+        Set<Long> recent = new HashSet<>();
+        for (Long id : previous) {
+            if (id > floor) {
+                recent.add(id);
+            }
+        }
+        for (Long id : added) {
+            if (id > floor) {
+                recent.add(id);
+            }
+        }
+        return recent;
+    }
+    
+    private static LocalDateTime lastTimestamp(List<Message> messages, LocalDateTime fallback) {
+        LocalDateTime last = fallback;
+        for (Message msg : messages) {
+            if (msg.getTimestamp() != null && (last == null || msg.getTimestamp().isAfter(last))) {
+                last = msg.getTimestamp();
+            }
+        }
+        return last;
+    }
+    
+    /**
+     * Messages of the dialogs with a messages.id above afterRowId and not in skipRowIds, in timestamp order, decrypted
+     */
+    private MessageBatch loadMessagesAfter(Connection conn, List<Integer> dialogIds, long afterRowId,
+                                           Set<Long> skipRowIds) throws SQLException {
+        MessageBatch batch = new MessageBatch(afterRowId);
+        String placeholders = String.join(",", Collections.nCopies(dialogIds.size(), "?"));
+        String sql = String.format("""
+            SELECT m.id, m.message_id, m.sender, m.text, m.timestamp, m.has_media, m.reference_id
+            FROM messages m
+            WHERE m.dialog_id IN (%s) AND m.id > ?
+            ORDER BY m.timestamp ASC, m.id ASC
+        """, placeholders);
+        
+        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            int index = 1;
+            for (Integer dialogId : dialogIds) {
+                pstmt.setInt(index++, dialogId);
+            }
+            pstmt.setLong(index, afterRowId);
             
-            try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
-                for (int i = 0; i < dialogIds.size(); i++) {
-                    pstmt.setInt(i + 1, dialogIds.get(i));
-                }
-                
-                try (ResultSet rs = pstmt.executeQuery()) {
-                    while (rs.next()) {
-                        Message msg = new Message();
-                        msg.setId(rs.getInt("message_id"));
-                        msg.setSender(rs.getString("sender"));
-                        
-                        // Decrypt text if needed
-                        String encryptedText = rs.getString("text");
-                        if (encryptedText != null && !encryptedText.isEmpty()) {
-                            try {
-                                msg.setContent(com.aria.storage.SecureStorage.decrypt(encryptedText));
-                            } catch (Exception e) {
-                                msg.setContent(encryptedText); // Use as-is if decryption fails
-                            }
-                        }
-                        
-                        java.sql.Timestamp timestamp = rs.getTimestamp("timestamp");
-                        if (timestamp != null) {
-                            msg.setTimestamp(timestamp.toLocalDateTime());
-                        }
-                        
-                        msg.setFromUser("me".equalsIgnoreCase(msg.getSender()) || "You".equalsIgnoreCase(msg.getSender()));
-                        msg.setHasMedia(rs.getBoolean("has_media"));
-                        
-                        Long referenceId = rs.getObject("reference_id", Long.class);
-                        if (referenceId != null) {
-                            msg.setReferenceId(referenceId);
-                        }
-                        
-                        messages.add(msg);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    long rowId = rs.getLong("id");
+                    if (skipRowIds.contains(rowId)) {
+                        continue;
+                    }
+                    batch.maxRowId = Math.max(batch.maxRowId, rowId);
+                    batch.rowIds.add(rowId);
+                    
+                    Message msg = new Message();
+                    msg.setId(rs.getInt("message_id"));
+                    msg.setSender(rs.getString("sender"));
+                    
+                    // Encrypted for now, decrypted in one batch below
+                    String encryptedText = rs.getString("text");
+                    if (encryptedText != null && !encryptedText.isEmpty()) {
+                        msg.setContent(encryptedText);
+                    }
+                    
+                    java.sql.Timestamp timestamp = rs.getTimestamp("timestamp");
+                    if (timestamp != null) {
+                        msg.setTimestamp(timestamp.toLocalDateTime());
                     }
+                    
+                    msg.setFromUser("me".equalsIgnoreCase(msg.getSender()) || "You".equalsIgnoreCase(msg.getSender()));
+                    msg.setHasMedia(rs.getBoolean("has_media"));
+                    
+                    Long referenceId = rs.getObject("reference_id", Long.class);
+                    if (referenceId != null) {
+                        msg.setReferenceId(referenceId);
+                    }
+                    
+                    batch.messages.add(msg);
                 }
             }
         }
+        decryptContents(batch.messages);
         
-        return messages;
+        return batch;
     }
     
     /**
@@ -442,192 +551,19 @@ public class ContextBuilder70_15_15 {
         return categories;
     }
     
-    /**
-     * Get reference dialogs in same categories (excluding current conversation)
-     */
-    private Map<Integer, List<Message>> getReferenceDialogsInCategories(
-            List<String> categories,
-            int userId,
-            int currentTargetUserId,
-            SubTargetUser currentSubtargetUser,
-            boolean crossPlatformContextEnabled) throws SQLException {
-        
-        if (categories.isEmpty()) {
-            return new HashMap<>();
-        }
-        
-        // Get dialogs in same categories, excluding current target user's dialogs
-        String placeholders = String.join(",", Collections.nCopies(categories.size(), "?"));
-        String sql = String.format("""
-            SELECT d.id as dialog_id, 
-                   MAX(cg.relevance_score) as max_relevance_score,
-                   MAX(cg.success_score) as max_success_score
-            FROM dialogs d
-            INNER JOIN chat_goals cg ON d.id = cg.dialog_id
-            WHERE d.user_id = ?
-                AND d.type NOT IN ('group', 'channel', 'supergroup', 'bot')
-                AND (d.is_bot IS NULL OR d.is_bot = FALSE)
-                AND cg.category_name IN (%s)
-                AND NOT EXISTS (
-                    SELECT 1 FROM subtarget_users stu
-                    JOIN target_users tu ON stu.target_user_id = tu.id
-                    WHERE tu.id = ? AND d.platform_account_id = stu.platform_account_id
-                    AND (stu.platform_id > 0 AND d.dialog_id = stu.platform_id 
-                         OR LOWER(d.name) = LOWER(stu.username) 
-                         OR LOWER(d.name) = LOWER('@' || stu.username))
-                )
-            GROUP BY d.id
-            ORDER BY MAX(cg.relevance_score) DESC, MAX(cg.success_score) DESC
-            LIMIT 50
-        """, placeholders);
-        
-        Set<Integer> dialogIds = new LinkedHashSet<>();
-        try (Connection conn = getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            pstmt.setInt(1, userId);
-            for (int i = 0; i < categories.size(); i++) {
-                pstmt.setString(i + 2, categories.get(i));
-            }
-            pstmt.setInt(categories.size() + 2, currentTargetUserId);
-            
-            try (ResultSet rs = pstmt.executeQuery()) {
-                while (rs.next()) {
-                    dialogIds.add(rs.getInt("dialog_id"));
-                }
-            }
-        }
-        
-        // Load messages for these dialogs
-        return loadMessagesForDialogs(dialogIds);
-    }
-    
-    /**
-     * Separate dialogs into successful (70%), failed (15%), and AI improvement (15%)
-     * Includes dialog metadata (ID and name)
-     */
-    private void separateDialogsBySuccessWithMetadata(
-            Map<Integer, List<Message>> dialogs,
-            List<String> categories,
-            List<DialogExample> successfulExamples,
-            List<DialogExample> failedExamples,
-            List<DialogExample> aiImprovementExamples) throws SQLException {
-        
-        if (dialogs.isEmpty() || categories.isEmpty()) {
-            return;
-        }
-        
-        // Get success scores and dialog names from database
-        Map<Integer, Double> successScores = getSuccessScoresForDialogs(
-            new ArrayList<>(dialogs.keySet()), categories);
-        Map<Integer, String> dialogNames = getDialogNames(new ArrayList<>(dialogs.keySet()));
-        
-        List<DialogWithScore> scoredDialogs = new ArrayList<>();
-        for (Map.Entry<Integer, List<Message>> entry : dialogs.entrySet()) {
-            double score = successScores.getOrDefault(entry.getKey(), 0.5);
-            scoredDialogs.add(new DialogWithScore(entry.getKey(), entry.getValue(), score));
-        }
-        
-        // Sort by score
-        scoredDialogs.sort((a, b) -> Double.compare(b.score, a.score));
-        
-        // Separate: successful (>= 0.7), failed (< 0.3)
-        for (DialogWithScore dialog : scoredDialogs) {
-            DialogExample example = new DialogExample(
-                dialog.dialogId, 
-                dialog.messages, 
-                dialogNames.getOrDefault(dialog.dialogId, null)
-            );
-            if (dialog.score >= 0.7) {
-                successfulExamples.add(example);
-            } else if (dialog.score < 0.3) {
-                failedExamples.add(example);
-            }
-        }
-        
-        // AI improvement examples: use top successful ones (can be enhanced with AI-generated improvements)
-        int aiCount = Math.min(aiImprovementExamples.size() + (int)(scoredDialogs.size() * 0.15), successfulExamples.size());
-        for (int i = 0; i < aiCount && i < successfulExamples.size(); i++) {
-            aiImprovementExamples.add(successfulExamples.get(i));
-        }
-    }
-    
-    /**
-     * Get dialog names for dialog IDs
-     */
-    private Map<Integer, String> getDialogNames(List<Integer> dialogIds) throws SQLException {
-        Map<Integer, String> names = new HashMap<>();
-        if (dialogIds.isEmpty()) {
-            return names;
-        }
-        
-        String placeholders = String.join(",", Collections.nCopies(dialogIds.size(), "?"));
-        String sql = String.format("""
-            SELECT id, name FROM dialogs WHERE id IN (%s)
-        """, placeholders);
-        
-        try (Connection conn = getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            for (int i = 0; i < dialogIds.size(); i++) {
-                pstmt.setInt(i + 1, dialogIds.get(i));
-            }
-            
-            try (ResultSet rs = pstmt.executeQuery()) {
-                while (rs.next()) {
-                    names.put(rs.getInt("id"), rs.getString("name"));
-                }
-            }
-        }
-        
-        return names;
-    }
-    
-    /**
-     * Get success scores for dialogs from database
-     */
-    private Map<Integer, Double> getSuccessScoresForDialogs(
-            List<Integer> dialogIds, List<String> categories) throws SQLException {
-        
-        Map<Integer, Double> scores = new HashMap<>();
-        if (dialogIds.isEmpty() || categories.isEmpty()) {
-            return scores;
-        }
-        
-        String dialogPlaceholders = String.join(",", Collections.nCopies(dialogIds.size(), "?"));
-        String categoryPlaceholders = String.join(",", Collections.nCopies(categories.size(), "?"));
-        String sql = String.format("""
-            SELECT dialog_id, MAX(success_score) as max_success_score
-            FROM chat_goals
-            WHERE dialog_id IN (%s)
-              AND category_name IN (%s)
-            GROUP BY dialog_id
-        """, dialogPlaceholders, categoryPlaceholders);
-        
-        try (Connection conn = getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            int index = 1;
-            for (Integer dialogId : dialogIds) {
-                pstmt.setInt(index++, dialogId);
-            }
-            for (String category : categories) {
-                pstmt.setString(index++, category);
-            }
-            
-            try (ResultSet rs = pstmt.executeQuery()) {
-                while (rs.next()) {
-                    scores.put(rs.getInt("dialog_id"), rs.getDouble("max_success_score"));
-                }
-            }
-        }
-        
-        return scores;
-    }
-    
     /**
      * Format conversation example for context
      */
-    private void formatConversationExample(StringBuilder context, List<Message> messages, String type) {
+    static void formatConversationExample(StringBuilder context, String conversation, String type) {
         context.append("Type: ").append(type).append("\n");
         context.append("Full Conversation:\n");
+        context.append(conversation);
+    }
+
+    /**
+     * Append messages as "[ID: x] [REPLY TO ID: y] You/Them: text" lines, skipping empty ones
+     */
+    static void appendMessages(StringBuilder context, List<Message> messages) {
         for (Message msg : messages) {
             if (msg.getContent() != null && !msg.getContent().trim().isEmpty()) {
                 context.append("[ID: ").append(msg.getId()).append("] ");
@@ -692,110 +628,34 @@ public class ContextBuilder70_15_15 {
     }
     
     private Connection getConnection() throws SQLException {
-        return java.sql.DriverManager.getConnection(
-            System.getenv("DATABASE_URL") != null
-                ? System.getenv("DATABASE_URL")
-                : "jdbc:postgresql://localhost:5432/aria",
-            System.getenv("DATABASE_USER") != null
-                ? System.getenv("DATABASE_USER")
-                : "postgres",
-            System.getenv("DATABASE_PASSWORD") != null
-                ? System.getenv("DATABASE_PASSWORD")
-                : "Ezekiel(23)");
+        return ConnectionPool.getConnection();
     }
     
     /**
-     * Helper class for dialogs with success scores
+     * Helper class for loaded messages, their messages.id and the highest among them
      */
-    private static class DialogWithScore {
-        final int dialogId;
-        final List<Message> messages;
-        final double score;
+    private static class MessageBatch {
+        final List<Message> messages = new ArrayList<>();
+        final List<Long> rowIds = new ArrayList<>();
+        long maxRowId;
         
-        DialogWithScore(int dialogId, List<Message> messages, double score) {
-            this.dialogId = dialogId;
-            this.messages = messages;
-            this.score = score;
+        MessageBatch(long maxRowId) {
+            this.maxRowId = maxRowId;
         }
     }
     
     /**
-     * Helper class for dialog examples with metadata
+     * Replace the encrypted content of loaded messages with plaintext, decrypting them as one batch
      */
-    private static class DialogExample {
-        final int dialogId;
-        final List<Message> messages;
-        final String dialogName;
-        
-        DialogExample(int dialogId, List<Message> messages, String dialogName) {
-            this.dialogId = dialogId;
-            this.messages = messages;
-            this.dialogName = dialogName;
+    static void decryptContents(List<Message> messages) {
+        List<String> encrypted = new ArrayList<>(messages.size());
+        for (Message msg : messages) {
+            encrypted.add(msg.getContent());
         }
-    }
-    
-    /**
-     * Load messages for multiple dialogs
-     */
-    private Map<Integer, List<Message>> loadMessagesForDialogs(Set<Integer> dialogIds) throws SQLException {
-        if (dialogIds.isEmpty()) {
-            return new HashMap<>();
+        List<String> plain = com.aria.storage.SecureStorage.decryptAll(encrypted);
+        for (int i = 0; i < messages.size(); i++) {
+            messages.get(i).setContent(plain.get(i));
         }
-
-        String placeholders = String.join(",", Collections.nCopies(dialogIds.size(), "?"));
-        String sql = String.format("""
-            SELECT m.dialog_id, m.message_id, m.sender, m.text, m.timestamp, m.has_media, m.reference_id
-            FROM messages m
-            WHERE m.dialog_id IN (%s)
-            ORDER BY m.dialog_id, m.timestamp
-        """, placeholders);
-
-        Map<Integer, List<Message>> chats = new LinkedHashMap<>();
-        
-        try (Connection conn = getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            int index = 1;
-            for (Integer dialogId : dialogIds) {
-                pstmt.setInt(index++, dialogId);
-            }
-
-            try (ResultSet rs = pstmt.executeQuery()) {
-                while (rs.next()) {
-                    int dialogId = rs.getInt("dialog_id");
-                    
-                    Message msg = new Message();
-                    msg.setId(rs.getInt("message_id"));
-                    msg.setSender(rs.getString("sender"));
-                    
-                    // Decrypt text if needed
-                    String encryptedText = rs.getString("text");
-                    if (encryptedText != null && !encryptedText.isEmpty()) {
-                        try {
-                            msg.setContent(com.aria.storage.SecureStorage.decrypt(encryptedText));
-                        } catch (Exception e) {
-                            msg.setContent(encryptedText); // Use as-is if decryption fails
-                        }
-                    }
-                    
-                    java.sql.Timestamp timestamp = rs.getTimestamp("timestamp");
-                    if (timestamp != null) {
-                        msg.setTimestamp(timestamp.toLocalDateTime());
-                    }
-                    
-                    msg.setFromUser("me".equalsIgnoreCase(msg.getSender()) || "You".equalsIgnoreCase(msg.getSender()));
-                    msg.setHasMedia(rs.getBoolean("has_media"));
-                    
-                    Long referenceId = rs.getObject("reference_id", Long.class);
-                    if (referenceId != null) {
-                        msg.setReferenceId(referenceId);
-                    }
-                    
-                    chats.computeIfAbsent(dialogId, k -> new ArrayList<>()).add(msg);
-                }
-            }
-        }
-        
-        return chats;
     }
 }
 
@@ -0,0 +1,177 @@
+package com.aria.ai;
+
+import com.aria.core.ConfigurationManager;
+
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In-process cache of the expensive parts of the 70/15/15 context, per conversation
+ * (user, target, subtarget, cross-platform flag):
+ *
+ * History: the rendered current-conversation messages, the dialogs they came from, their revisions
+ * (see RedisCacheManager.getDialogRevisions) and the highest messages.id seen. While the revisions
+ * are unchanged only newer rows are loaded and appended. Ids are handed out at INSERT but become
+ * visible at COMMIT, so a row can appear below the highest id already seen: the last
+ * cache.context.history.reread.ids ids below it are read again, skipping the rows already rendered.
+ *
+ * References: the conversation categories and the rendered reference examples section, kept for
+ * cache.context.references.ttl.seconds (chat_goals of other dialogs change with analysis runs).
+ *
+ * Both are bounded by cache.context.max.entries (least recently used first); history entries also
+ * expire after cache.context.history.ttl.seconds in case a dialog was rewritten without a revision bump.
+ */
+public class ContextCache {
+    private static ContextCache instance;
+
+    private final int maxEntries;
+    private final int historyTtlSeconds;
+    private final int referencesTtlSeconds;
+    private final int rereadIds;
+    private final Map<String, History> histories;
+    private final Map<String, References> references;
+    private final LongAdder historyHits = new LongAdder();
+    private final LongAdder historyAppends = new LongAdder();
+    private final LongAdder historyLoads = new LongAdder();
+    private final LongAdder referenceHits = new LongAdder();
+    private final LongAdder referenceLoads = new LongAdder();
+
+    /**
+     * Rendered history of a conversation (immutable; appending returns a new entry)
+     */
+    public static final class History {
+        final List<Integer> dialogIds;
+        final Map<Integer, String> revisions;
+        final long maxRowId;
+        // Rendered rows with an id in the re-read window below maxRowId
+        final Set<Long> recentRowIds;
+        final LocalDateTime lastTimestamp;
+        final int messageCount;
+        final String text;
+        final long loadedAt;
+
+        History(List<Integer> dialogIds, Map<Integer, String> revisions, long maxRowId, Set<Long> recentRowIds,
+                LocalDateTime lastTimestamp, int messageCount, String text, long loadedAt) {
+            this.dialogIds = dialogIds;
+            this.revisions = revisions;
+            this.maxRowId = maxRowId;
+            this.recentRowIds = recentRowIds;
+            this.lastTimestamp = lastTimestamp;
+            this.messageCount = messageCount;
+            this.text = text;
+            this.loadedAt = loadedAt;
+        }
+    }
+
+    /**
+     * Categories of a conversation and its rendered reference examples section
+     */
+    public static final class References {
+        final List<String> categories;
+        final String section;
+        final long loadedAt;
+
+        References(List<String> categories, String section, long loadedAt) {
+            this.categories = categories;
+            this.section = section;
+            this.loadedAt = loadedAt;
+        }
+    }
+
+    private ContextCache() {
+        maxEntries = Math.max(1, ConfigurationManager.getIntProperty("cache.context.max.entries", 200));
+        historyTtlSeconds = ConfigurationManager.getIntProperty("cache.context.history.ttl.seconds", 1800);
+        referencesTtlSeconds = ConfigurationManager.getIntProperty("cache.context.references.ttl.seconds", 900);
+        rereadIds = Math.max(0, ConfigurationManager.getIntProperty("cache.context.history.reread.ids", 2000));
+        histories = lru();
+        references = lru();
+    }
+
+    public static synchronized ContextCache getInstance() {
+        if (instance == null) {
+            instance = new ContextCache();
+        }
+        return instance;
+    }
+
+    private <V> Map<String, V> lru() {
+        return new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * @return The cached history, or null if absent or expired
+     */
+    public synchronized History getHistory(String key) {
+        History history = histories.get(key);
+        if (history != null && System.currentTimeMillis() - history.loadedAt >= historyTtlSeconds * 1000L) {
+            histories.remove(key);
+            return null;
+        }
+        return history;
+    }
+
+    /**
+     * @param appended Whether history extends the previous entry (new rows only) rather than replacing it
+     */
+    public synchronized void putHistory(String key, History history, boolean appended) {
+        if (appended) {
+            historyAppends.increment();
+        } else {
+            historyLoads.increment();
+        }
+        histories.put(key, history);
+    }
+
+    public void recordHistoryHit() {
+        historyHits.increment();
+    }
+
+    /**
+     * How many ids below a history's maxRowId are read again for rows that committed late
+     */
+    public int getRereadIds() {
+        return rereadIds;
+    }
+
+    /**
+     * @return The cached references, or null if absent or expired
+     */
+    public synchronized References getReferences(String key) {
+        References entry = references.get(key);
+        if (entry == null || System.currentTimeMillis() - entry.loadedAt >= referencesTtlSeconds * 1000L) {
+            references.remove(key);
+            return null;
+        }
+        referenceHits.increment();
+        return entry;
+    }
+
+    public synchronized void putReferences(String key, References entry) {
+        referenceLoads.increment();
+        references.put(key, entry);
+    }
+
+    /**
+     * Entry counts and how often each part was reused, extended or rebuilt (for metrics)
+     */
+    public synchronized Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("histories", histories.size());
+        stats.put("historyHits", historyHits.sum());
+        stats.put("historyAppends", historyAppends.sum());
+        stats.put("historyLoads", historyLoads.sum());
+        stats.put("references", references.size());
+        stats.put("referenceHits", referenceHits.sum());
+        stats.put("referenceLoads", referenceLoads.sum());
+        return stats;
+    }
+}
@@ -0,0 +1,402 @@
+package com.aria.ai;
+
+import com.aria.cache.RedisCacheManager;
+import com.aria.core.ConfigurationManager;
+import com.aria.core.model.Message;
+import com.aria.storage.ConnectionPool;
+import com.aria.storage.SecureStorage;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.*;
+
+/**
+ * Per-user library of reference dialogs ("exemplars") for the 70/15/15 context.
+ *
+ * Two kinds of cache entries, both kept for ai.exemplars.ttl.seconds:
+ *   exemplars:user:U:category:C  the user's top dialogs in category C by relevance then success
+ *                                (ai.exemplars.per.category of them) with their scores and names
+ *   exemplar:dialog:D            dialog D rendered as a prompt fragment, cut to its newest messages
+ *                                within ai.exemplars.max.tokens, encrypted with SecureStorage like the
+ *                                messages it is made of
+ * A context build merges the rankings of its categories and reads the fragments it picks, so in the
+ * steady state it is two multi-key cache reads; only missing fragments are loaded and decrypted.
+ * When a dialog is (re)categorized its fragment and the rankings of its categories are dropped
+ * (see dialogCategorized) and rebuilt on the next read.
+ */
+public class ExemplarLibrary {
+    private static ExemplarLibrary instance;
+
+    private final int perCategory;
+    private final int maxDialogs;
+    private final int maxTokens;
+    private final int maxMessages;
+    private final int ttlSeconds;
+
+    /**
+     * A reference dialog ready to be put into the prompt
+     */
+    public static final class Exemplar {
+        public final int dialogId;
+        public final String dialogName;
+        public final String fragment;
+
+        Exemplar(int dialogId, String dialogName, String fragment) {
+            this.dialogId = dialogId;
+            this.dialogName = dialogName;
+            this.fragment = fragment;
+        }
+    }
+
+    /**
+     * Reference dialogs for a conversation: successful (success score &gt;= 0.7) and failed (&lt; 0.3)
+     * ones, best first, out of dialogCount usable dialogs
+     */
+    public static final class Selection {
+        public final int dialogCount;
+        public final List<Exemplar> successful;
+        public final List<Exemplar> failed;
+
+        Selection(int dialogCount, List<Exemplar> successful, List<Exemplar> failed) {
+            this.dialogCount = dialogCount;
+            this.successful = successful;
+            this.failed = failed;
+        }
+    }
+
+    private static final class Candidate {
+        final int dialogId;
+        final String name;
+        double relevance;
+        double success;
+
+        Candidate(int dialogId, String name, double relevance, double success) {
+            this.dialogId = dialogId;
+            this.name = name;
+            this.relevance = relevance;
+            this.success = success;
+        }
+    }
+
+    private ExemplarLibrary() {
+        perCategory = ConfigurationManager.getIntProperty("ai.exemplars.per.category", 60);
+        maxDialogs = ConfigurationManager.getIntProperty("ai.exemplars.max.dialogs", 50);
+        maxTokens = ConfigurationManager.getIntProperty("ai.exemplars.max.tokens", 800);
+        // Newest messages loaded per dialog to fill the token budget (short messages take ~20 characters)
+        maxMessages = Math.max(1, ConfigurationManager.getIntProperty("ai.exemplars.max.messages", 200));
+        ttlSeconds = ConfigurationManager.getIntProperty("ai.exemplars.ttl.seconds", 86400);
+    }
+
+    public static synchronized ExemplarLibrary getInstance() {
+        if (instance == null) {
+            instance = new ExemplarLibrary();
+        }
+        return instance;
+    }
+
+    /**
+     * Reference dialogs of the user in any of the categories, excluding the target's own dialogs:
+     * the top ai.exemplars.max.dialogs by their best relevance, then best success, in those categories
+     */
+    public Selection select(int userId, int currentTargetUserId, List<String> categories) throws SQLException {
+        if (categories.isEmpty()) {
+            return new Selection(0, new ArrayList<>(), new ArrayList<>());
+        }
+        RedisCacheManager cache = RedisCacheManager.getInstance();
+        Map<String, List<Map<String, Object>>> rankings = new HashMap<>(cache.getCachedExemplarRankings(userId, categories));
+        List<String> missing = new ArrayList<>();
+        for (String category : categories) {
+            if (!rankings.containsKey(category)) {
+                missing.add(category);
+            }
+        }
+        if (!missing.isEmpty()) {
+            Map<String, List<Map<String, Object>>> loaded = loadRankings(userId, missing);
+            cache.cacheExemplarRankings(userId, loaded, ttlSeconds);
+            rankings.putAll(loaded);
+        }
+
+        // Merge: a dialog in several of the categories counts with its best scores
+        Set<Integer> excluded = getTargetDialogIds(userId, currentTargetUserId);
+        Map<Integer, Candidate> merged = new HashMap<>();
+        for (List<Map<String, Object>> ranking : rankings.values()) {
+            for (Map<String, Object> row : ranking) {
+                int dialogId = ((Number) row.get("dialogId")).intValue();
+                if (excluded.contains(dialogId)) {
+                    continue;
+                }
+                double relevance = ((Number) row.get("relevance")).doubleValue();
+                double success = ((Number) row.get("success")).doubleValue();
+                Candidate candidate = merged.get(dialogId);
+                if (candidate == null) {
+                    merged.put(dialogId, new Candidate(dialogId, (String) row.get("name"), relevance, success));
+                } else {
+                    candidate.relevance = Math.max(candidate.relevance, relevance);
+                    candidate.success = Math.max(candidate.success, success);
+                }
+            }
+        }
+        List<Candidate> ranked = new ArrayList<>(merged.values());
+        ranked.sort((a, b) -> a.relevance != b.relevance
+            ? Double.compare(b.relevance, a.relevance) : Double.compare(b.success, a.success));
+        if (ranked.size() > maxDialogs) {
+            ranked = ranked.subList(0, maxDialogs);
+        }
+
+        Map<Integer, String> fragments = getFragments(ranked);
+
+        // Best success first; dialogs without messages don't count
+        ranked = new ArrayList<>(ranked);
+        ranked.sort((a, b) -> Double.compare(b.success, a.success));
+        List<Exemplar> successful = new ArrayList<>();
+        List<Exemplar> failed = new ArrayList<>();
+        int dialogCount = 0;
+        for (Candidate candidate : ranked) {
+            String fragment = fragments.get(candidate.dialogId);
+            if (fragment == null || fragment.isEmpty()) {
+                continue;
+            }
+            dialogCount++;
+            if (candidate.success >= 0.7) {
+                successful.add(new Exemplar(candidate.dialogId, candidate.name, fragment));
+            } else if (candidate.success < 0.3) {
+                failed.add(new Exemplar(candidate.dialogId, candidate.name, fragment));
+            }
+        }
+        return new Selection(dialogCount, successful, failed);
+    }
+
+    /**
+     * Drop what a (re)categorization of the dialog made stale: its fragment (it was categorized because
+     * it has new messages) and the rankings of the categories it was scored in
+     */
+    public void dialogCategorized(int dialogId, Collection<String> categories) {
+        try (Connection conn = ConnectionPool.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement("SELECT user_id FROM dialogs WHERE id = ?")) {
+            pstmt.setInt(1, dialogId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (rs.next()) {
+                    RedisCacheManager.getInstance().invalidateExemplars(rs.getInt("user_id"), dialogId, categories);
+                }
+            }
+        } catch (SQLException e) {
+            System.err.println("Failed to invalidate exemplars of dialog " + dialogId + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Top dialogs of the user per category (one query for all of them)
+     */
+    private Map<String, List<Map<String, Object>>> loadRankings(int userId, List<String> categories) throws SQLException {
+        String sql = """
+            SELECT category_name, dialog_id, name, relevance_score, success_score
+            FROM (
+                SELECT cg.category_name, d.id AS dialog_id, d.name, cg.relevance_score, cg.success_score,
+                       ROW_NUMBER() OVER (PARTITION BY cg.category_name
+                                          ORDER BY cg.relevance_score DESC, cg.success_score DESC) AS rn
+                FROM dialogs d
+                INNER JOIN chat_goals cg ON d.id = cg.dialog_id
+                WHERE d.user_id = ?
+                    AND d.type NOT IN ('group', 'channel', 'supergroup', 'bot')
+                    AND (d.is_bot IS NULL OR d.is_bot = FALSE)
+                    AND cg.category_name = ANY(?)
+            ) ranked
+            WHERE rn <= ?
+            ORDER BY category_name, rn
+        """;
+
+        Map<String, List<Map<String, Object>>> rankings = new LinkedHashMap<>();
+        for (String category : categories) {
+            rankings.put(category, new ArrayList<>()); // Cached empty too, so it isn't queried again
+        }
+        try (Connection conn = ConnectionPool.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setInt(1, userId);
+            pstmt.setArray(2, conn.createArrayOf("text", categories.toArray()));
+            pstmt.setInt(3, perCategory);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    Map<String, Object> row = new LinkedHashMap<>();
+                    row.put("dialogId", rs.getInt("dialog_id"));
+                    row.put("name", rs.getString("name"));
+                    row.put("relevance", rs.getDouble("relevance_score"));
+                    row.put("success", rs.getDouble("success_score"));
+                    rankings.get(rs.getString("category_name")).add(row);
+                }
+            }
+        }
+        return rankings;
+    }
+
+    /**
+     * Dialogs of the target user (matched by platform id or username), which must not be used as examples
+     */
+    private Set<Integer> getTargetDialogIds(int userId, int targetUserId) throws SQLException {
+        String sql = """
+            SELECT DISTINCT d.id
+            FROM dialogs d
+            JOIN subtarget_users stu ON d.platform_account_id = stu.platform_account_id
+            WHERE stu.target_user_id = ? AND d.user_id = ?
+                AND (stu.platform_id > 0 AND d.dialog_id = stu.platform_id
+                     OR LOWER(d.name) = LOWER(stu.username)
+                     OR LOWER(d.name) = LOWER('@' || stu.username))
+        """;
+        Set<Integer> dialogIds = new HashSet<>();
+        try (Connection conn = ConnectionPool.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setInt(1, targetUserId);
+            pstmt.setInt(2, userId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    dialogIds.add(rs.getInt("id"));
+                }
+            }
+        }
+        return dialogIds;
+    }
+
+    /**
+     * Fragments of the candidates from the cache, building (and caching) the missing ones
+     */
+    private Map<Integer, String> getFragments(List<Candidate> candidates) throws SQLException {
+        Set<Integer> dialogIds = new LinkedHashSet<>();
+        for (Candidate candidate : candidates) {
+            dialogIds.add(candidate.dialogId);
+        }
+        RedisCacheManager cache = RedisCacheManager.getInstance();
+        Map<Integer, String> fragments = new HashMap<>();
+        Map<Integer, String> cached = cache.getCachedExemplarFragments(dialogIds);
+        List<Integer> cachedIds = new ArrayList<>(cached.keySet());
+        List<String> plain = SecureStorage.decryptAll(new ArrayList<>(cached.values()));
+        for (int i = 0; i < cachedIds.size(); i++) {
+            fragments.put(cachedIds.get(i), plain.get(i));
+        }
+        dialogIds.removeAll(fragments.keySet());
+        if (!dialogIds.isEmpty()) {
+            Map<Integer, String> encrypted = new HashMap<>();
+            Map<Integer, DialogMessages> chats = loadMessagesForDialogs(dialogIds);
+            for (Integer dialogId : dialogIds) {
+                DialogMessages chat = chats.get(dialogId);
+                String fragment = chat != null ? renderFragment(chat.messages, chat.notLoaded) : "";
+                fragments.put(dialogId, fragment);
+                encrypted.put(dialogId, fragment.isEmpty() ? fragment : SecureStorage.encrypt(fragment));
+            }
+            cache.cacheExemplarFragments(encrypted, ttlSeconds);
+        }
+        return fragments;
+    }
+
+    String renderFragment(List<Message> messages) {
+        return renderFragment(messages, 0);
+    }
+
+    /**
+     * Render the messages as context lines, keeping the newest that fit in ai.exemplars.max.tokens
+     * (estimated at 4 characters per token)
+     * @param notLoaded Earlier messages of the dialog that weren't loaded (counted as omitted)
+     */
+    String renderFragment(List<Message> messages, int notLoaded) {
+        int budget = maxTokens * 4;
+        Deque<String> lines = new ArrayDeque<>();
+        int used = 0;
+        int omitted = 0;
+        for (int i = messages.size() - 1; i >= 0; i--) {
+            StringBuilder line = new StringBuilder();
+            ContextBuilder70_15_15.appendMessages(line, Collections.singletonList(messages.get(i)));
+            if (line.length() == 0) {
+                continue;
+            }
+            if (used + line.length() > budget && !lines.isEmpty()) {
+                omitted = i + 1;
+                break;
+            }
+            lines.addFirst(line.toString());
+            used += line.length();
+        }
+        omitted += notLoaded;
+        StringBuilder fragment = new StringBuilder(used + 48);
+        if (omitted > 0) {
+            fragment.append("[... ").append(omitted).append(" earlier messages omitted]\n");
+        }
+        for (String line : lines) {
+            fragment.append(line);
+        }
+        return fragment.toString();
+    }
+
+    /**
+     * The newest messages of a dialog, oldest first, and how many earlier ones there are
+     */
+    private static final class DialogMessages {
+        final List<Message> messages = new ArrayList<>();
+        int notLoaded;
+    }
+
+    /**
+     * Load the newest ai.exemplars.max.messages messages of each dialog (only those are decrypted)
+     */
+    private Map<Integer, DialogMessages> loadMessagesForDialogs(Set<Integer> dialogIds) throws SQLException {
+        String placeholders = String.join(",", Collections.nCopies(dialogIds.size(), "?"));
+        String sql = String.format("""
+            SELECT dialog_id, message_id, sender, text, timestamp, has_media, reference_id, total
+            FROM (
+                SELECT m.dialog_id, m.message_id, m.sender, m.text, m.timestamp, m.has_media, m.reference_id,
+                       ROW_NUMBER() OVER (PARTITION BY m.dialog_id ORDER BY m.timestamp DESC, m.id DESC) AS rn,
+                       COUNT(*) OVER (PARTITION BY m.dialog_id) AS total
+                FROM messages m
+                WHERE m.dialog_id IN (%s)
+            ) newest
+            WHERE rn <= ?
+            ORDER BY dialog_id, rn DESC
+        """, placeholders);
+
+        Map<Integer, DialogMessages> chats = new LinkedHashMap<>();
+        List<Message> allMessages = new ArrayList<>();
+
+        try (Connection conn = ConnectionPool.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            int index = 1;
+            for (Integer dialogId : dialogIds) {
+                pstmt.setInt(index++, dialogId);
+            }
+            pstmt.setInt(index, maxMessages);
+
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    Message msg = new Message();
+                    msg.setId(rs.getInt("message_id"));
+                    msg.setSender(rs.getString("sender"));
+
+                    // Encrypted for now, decrypted in one batch below
+                    String encryptedText = rs.getString("text");
+                    if (encryptedText != null && !encryptedText.isEmpty()) {
+                        msg.setContent(encryptedText);
+                    }
+
+                    java.sql.Timestamp timestamp = rs.getTimestamp("timestamp");
+                    if (timestamp != null) {
+                        msg.setTimestamp(timestamp.toLocalDateTime());
+                    }
+
+                    msg.setFromUser("me".equalsIgnoreCase(msg.getSender()) || "You".equalsIgnoreCase(msg.getSender()));
+                    msg.setHasMedia(rs.getBoolean("has_media"));
+
+                    Long referenceId = rs.getObject("reference_id", Long.class);
+                    if (referenceId != null) {
+                        msg.setReferenceId(referenceId);
+                    }
+
+                    DialogMessages chat = chats.computeIfAbsent(rs.getInt("dialog_id"), k -> new DialogMessages());
+                    chat.messages.add(msg);
+                    chat.notLoaded = Math.max(0, rs.getInt("total") - maxMessages);
+                    allMessages.add(msg);
+                }
+            }
+        }
+        ContextBuilder70_15_15.decryptContents(allMessages);
+
+        return chats;
+    }
+}
@@ -1,5 +1,6 @@
 package com.aria.analysis;
 
+import com.aria.ai.ExemplarLibrary;
 import com.aria.ai.OpenAIClient;
 import com.aria.core.model.ChatCategory;
 import com.aria.core.model.Message;
@@ -550,6 +551,7 @@ public class ChatCategorizationService {
             }
             pstmt.executeBatch();
         }
+        ExemplarLibrary.getInstance().dialogCategorized(dialogId, categoryScores.keySet());
     }
 
     /**
@@ -1097,6 +1099,7 @@ public class ChatCategorizationService {
                 pstmt.executeBatch();
             }
         }
+        ExemplarLibrary.getInstance().dialogCategorized(dialogId, mergedScores.keySet());
     }
     
     /**
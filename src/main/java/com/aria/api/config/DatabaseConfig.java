@@ -1,11 +1,13 @@
 package com.aria.api.config;
 
 import com.aria.core.ApplicationInitializer;
-import com.aria.storage.DatabaseManager;
-import org.springframework.context.annotation.Bean;
+import com.aria.service.BackgroundTasks;
+import com.aria.storage.ConnectionPool;
+import com.aria.storage.SentMessageJournal;
 import org.springframework.context.annotation.Configuration;
 
 import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 
 /**
  * Database configuration for Spring Boot
@@ -20,12 +22,22 @@ public class DatabaseConfig {
             // Initialize application (database schema, etc.)
             ApplicationInitializer.initialize();
             System.out.println("Database initialized successfully for Spring Boot API");
+            // Opening the journal replays sent messages a previous run did not get to persist
+            SentMessageJournal.getInstance();
         } catch (Exception e) {
             System.err.println("Failed to initialize database: " + e.getMessage());
             e.printStackTrace();
         }
     }
 
+    @PreDestroy
+    public void closeConnectionPool() {
+        // Let queued background work (e.g. message persistence) finish while connections are still there
+        BackgroundTasks.getInstance().shutdown(10_000);
+        SentMessageJournal.getInstance().shutdown(10_000);
+        ConnectionPool.shutdown();
+    }
+
     // Note: DatabaseManager uses static methods, so we don't need to create a bean
     // Controllers can use it directly, but we initialize the database here
 }
@@ -3,6 +3,7 @@ package com.aria.api.controller;
 import com.aria.api.dto.ApiResponse;
 import com.aria.analysis.ChatCategorizationService;
 import com.aria.ai.OpenAIClient;
+import com.aria.service.BackgroundTasks;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
@@ -21,7 +22,8 @@ public class AnalysisController {
     ) {
         try {
             final int uid = userId != null ? userId : 1;
-            new Thread(() -> {
+            BackgroundTasks.Submission submission = BackgroundTasks.getInstance().submit(
+                    BackgroundTasks.Lane.BATCH, "categorize-user:" + uid, () -> {
                 try {
                     com.aria.storage.DatabaseManager.setAnalysisRunning(uid);
                     ChatCategorizationService service = new ChatCategorizationService(new OpenAIClient());
@@ -30,7 +32,14 @@ public class AnalysisController {
                 } catch (Exception ex) {
                     try { com.aria.storage.DatabaseManager.setAnalysisFinished(uid, ex.getMessage()); } catch (Exception ignored) {}
                 }
-            }, "categorize-user-" + uid).start();
+            });
+            if (submission == BackgroundTasks.Submission.DUPLICATE) {
+                return ResponseEntity.ok(ApiResponse.success("Categorization already running", null));
+            }
+            if (submission == BackgroundTasks.Submission.REJECTED) {
+                return ResponseEntity.status(503)
+                        .body(ApiResponse.error("Too many background jobs, try again later"));
+            }
             return ResponseEntity.ok(ApiResponse.success("Categorization started", null));
         } catch (Exception e) {
             return ResponseEntity.internalServerError()
@@ -5,6 +5,7 @@ import com.aria.ai.BusinessContextBuilder;
 import com.aria.ai.OpenAIResponsesClient;
 import com.aria.core.model.TargetBusiness;
 import com.aria.core.model.BusinessSubTarget;
+import com.aria.storage.ConnectionPool;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
@@ -20,16 +21,7 @@ import java.util.*;
 public class BusinessBotController {
 
     private Connection getConnection() throws SQLException {
-        return DriverManager.getConnection(
-            System.getenv("DATABASE_URL") != null
-                ? System.getenv("DATABASE_URL")
-                : "jdbc:postgresql://localhost:5432/aria",
-            System.getenv("DATABASE_USER") != null
-                ? System.getenv("DATABASE_USER")
-                : "postgres",
-            System.getenv("DATABASE_PASSWORD") != null
-                ? System.getenv("DATABASE_PASSWORD")
-                : "Ezekiel(23)");
+        return ConnectionPool.getConnection();
     }
 
     /**
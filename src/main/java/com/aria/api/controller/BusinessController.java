@@ -4,6 +4,7 @@ import com.aria.api.dto.ApiResponse;
 import com.aria.core.model.TargetBusiness;
 import com.aria.core.model.BusinessSubTarget;
 import com.aria.storage.DatabaseManager;
+import com.aria.storage.ConnectionPool;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
@@ -23,16 +24,7 @@ import java.util.Map;
 public class BusinessController {
 
     private Connection getConnection() throws SQLException {
-        return DriverManager.getConnection(
-            System.getenv("DATABASE_URL") != null
-                ? System.getenv("DATABASE_URL")
-                : "jdbc:postgresql://localhost:5432/aria",
-            System.getenv("DATABASE_USER") != null
-                ? System.getenv("DATABASE_USER")
-                : "postgres",
-            System.getenv("DATABASE_PASSWORD") != null
-                ? System.getenv("DATABASE_PASSWORD")
-                : "Ezekiel(23)");
+        return ConnectionPool.getConnection();
     }
 
     /**
@@ -5,9 +5,13 @@ import com.aria.api.dto.ConversationGoalDTO;
 import com.aria.core.AriaOrchestrator;
 import com.aria.core.model.ConversationGoal;
 import com.aria.core.model.TargetUser;
+import com.aria.service.BackgroundTasks;
+import com.aria.service.MediaPreviewService;
 import com.aria.service.TargetUserService;
 import com.aria.service.UserService;
 import com.aria.storage.DatabaseManager;
+import com.aria.storage.ConnectionPool;
+import com.aria.storage.SentMessageJournal;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import java.util.Map;
@@ -77,16 +81,7 @@ public class ConversationController {
 
             // Load fixed profile from target_users.profile_json and attach to goal
             String profileJson = null;
-            try (java.sql.Connection conn = java.sql.DriverManager.getConnection(
-                    System.getenv("DATABASE_URL") != null
-                            ? System.getenv("DATABASE_URL")
-                            : "jdbc:postgresql://localhost:5432/aria",
-                    System.getenv("DATABASE_USER") != null
-                            ? System.getenv("DATABASE_USER")
-                            : "postgres",
-                    System.getenv("DATABASE_PASSWORD") != null
-                            ? System.getenv("DATABASE_PASSWORD")
-                            : "Ezekiel(23)")) {
+            try (java.sql.Connection conn = ConnectionPool.getConnection()) {
                 try (java.sql.PreparedStatement ps = conn.prepareStatement(
                         "SELECT profile_json FROM target_users WHERE id = ?")) {
                     ps.setInt(1, targetUserId);
@@ -114,27 +109,40 @@ public class ConversationController {
     }
 
     /**
-     * Get recent messages for a target's dialog, including media flags
-     * GET /api/conversations/messages?targetUserId=...&userId=...&limit=100&subtargetUserId=...
+     * Get a page of messages for a target's dialog, including media flags
+     * GET /api/conversations/messages?targetUserId=...&userId=...&limit=100&subtargetUserId=...&before=...&after=...
      * 
      * If cross-platform context is enabled, aggregates messages from all SubTarget Users.
      * Otherwise, returns messages only from the specified SubTarget User (or selected platform).
+     * 
+     * Without before/after this returns the latest messages. Every row carries a "cursor" token; pass the
+     * first row's cursor as "before" to get the previous (older) page, or the last row's as "after" to get
+     * newer messages. Pages are always in chronological order, and a page shorter than limit is the end.
      */
     @GetMapping("/messages")
     public ResponseEntity<ApiResponse<java.util.List<java.util.Map<String, Object>>>> getMessages(
             @RequestParam("targetUserId") Integer targetUserId,
             @RequestParam(value = "userId", required = false) Integer userId,
             @RequestParam(value = "limit", required = false) Integer limit,
-            @RequestParam(value = "subtargetUserId", required = false) Integer subtargetUserId
+            @RequestParam(value = "subtargetUserId", required = false) Integer subtargetUserId,
+            @RequestParam(value = "before", required = false) String before,
+            @RequestParam(value = "after", required = false) String after
     ) {
         try {
             int currentUserId = userId != null ? userId : 1;
             int lim = (limit == null || limit <= 0 || limit > 500) ? 100 : limit;
+            com.aria.storage.MessageCursor beforeCursor;
+            com.aria.storage.MessageCursor afterCursor;
+            try {
+                beforeCursor = before != null && !before.isBlank() ? com.aria.storage.MessageCursor.decode(before) : null;
+                afterCursor = after != null && !after.isBlank() ? com.aria.storage.MessageCursor.decode(after) : null;
+            } catch (IllegalArgumentException e) {
+                return ResponseEntity.badRequest().body(ApiResponse.error(e.getMessage()));
+            }
+            if (beforeCursor != null && afterCursor != null) {
+                return ResponseEntity.badRequest().body(ApiResponse.error("Use either before or after, not both"));
+            }
 
-            // Skip cache for now - always fetch fresh from database
-            // Cache is invalidated after priority ingestion, but we want real-time updates
-            // This ensures messages sent/edited on Telegram appear immediately
-            // TODO: Could optimize by checking cache timestamp and only using if very recent (< 2 seconds)
 
             DatabaseManager databaseManager = new DatabaseManager();
             TargetUserService targetUserService = new TargetUserService(databaseManager);
@@ -166,43 +174,9 @@ public class ConversationController {
             }
 
             java.util.List<java.util.Map<String, Object>> out = new java.util.ArrayList<>();
-            try (java.sql.Connection conn = java.sql.DriverManager.getConnection(
-                    System.getenv("DATABASE_URL") != null
-                            ? System.getenv("DATABASE_URL")
-                            : "jdbc:postgresql://localhost:5432/aria",
-                    System.getenv("DATABASE_USER") != null
-                            ? System.getenv("DATABASE_USER")
-                            : "postgres",
-                    System.getenv("DATABASE_PASSWORD") != null
-                            ? System.getenv("DATABASE_PASSWORD")
-                            : "Ezekiel(23)")) {
-
-                java.util.List<Integer> dialogRowIds = new java.util.ArrayList<>();
-                
-                // If cross-platform context is enabled, get all dialog IDs for all SubTarget Users
-                if (crossPlatformContextEnabled) {
-                    dialogRowIds = databaseManager.getDialogIdsForTargetUser(targetUserId, currentUserId);
-                    if (dialogRowIds.isEmpty()) {
-                        // Fallback: try to find at least one dialog using current SubTarget or legacy platform
-                        Integer singleDialogId = findDialogForSubTarget(conn, currentUserId, targetUser, currentSubTarget);
-                        if (singleDialogId != null) {
-                            dialogRowIds.add(singleDialogId);
-                        }
-                    }
-                } else {
-                    // Single dialog mode: find dialog for current SubTarget User or selected platform
-                    Integer dialogRowId = findDialogForSubTarget(conn, currentUserId, targetUser, currentSubTarget);
-                    if (dialogRowId != null) {
-                        dialogRowIds.add(dialogRowId);
-                    } else if (currentSubTarget == null && targetUser.getSubTargetUsers() != null && !targetUser.getSubTargetUsers().isEmpty()) {
-                        // If no specific SubTarget User provided but target has SubTarget Users, try to find dialog for first one
-                        com.aria.core.model.SubTargetUser firstSubTarget = targetUser.getSubTargetUsers().get(0);
-                        dialogRowId = findDialogForSubTarget(conn, currentUserId, targetUser, firstSubTarget);
-                        if (dialogRowId != null) {
-                            dialogRowIds.add(dialogRowId);
-                        }
-                    }
-                }
+            try (java.sql.Connection conn = ConnectionPool.getConnection()) {
+
+                java.util.List<Integer> dialogRowIds = resolveDialogRowIds(conn, databaseManager, currentUserId, targetUser, currentSubTarget);
                 
                 if (dialogRowIds.isEmpty()) {
                     System.err.println("No dialogs found for targetUserId=" + targetUserId + ", userId=" + currentUserId + 
@@ -217,30 +191,12 @@ public class ConversationController {
                     return ResponseEntity.ok(ApiResponse.success("OK", out)); // Return empty list if no dialogs found
                 }
 
-                // Build query to get messages from all relevant dialogs
-                String placeholders = String.join(",", java.util.Collections.nCopies(dialogRowIds.size(), "?"));
-                String messagesSql = "SELECT m.id, m.message_id, m.sender, m.text, m.timestamp, m.has_media, m.reference_id, " +
-                        "CASE WHEN m.last_updated IS NOT NULL AND m.last_updated > m.timestamp THEN TRUE ELSE FALSE END as edited, " +
-                        "m.last_updated, COALESCE(m.status, 'sent') as status, m.dialog_id, COALESCE(m.pinned, FALSE) as pinned " +
-                        "FROM messages m WHERE m.dialog_id IN (" + placeholders + ") " +
-                        "ORDER BY m.timestamp DESC LIMIT ?";
-                
-                try (java.sql.PreparedStatement ps = conn.prepareStatement(messagesSql)) {
-                    int paramIndex = 1;
-                    for (Integer dialogId : dialogRowIds) {
-                        ps.setInt(paramIndex++, dialogId);
-                    }
-                    ps.setInt(paramIndex, lim);
-                    try (java.sql.ResultSet rs = ps.executeQuery()) {
-                        while (rs.next()) {
-                            java.util.Map<String, Object> row = buildMessageRow(rs, targetUserId, currentUserId, conn);
-                            out.add(row);
-                        }
-                    }
+                out = readTimelinePage(conn, dialogRowIds, beforeCursor, afterCursor, lim, targetUserId, currentUserId);
+                if (out == null) {
+                    out = queryMessagePage(conn, dialogRowIds, beforeCursor, afterCursor, lim, targetUserId, currentUserId);
                 }
+                decryptTexts(out);
             }
-            // reverse chronological to chronological
-            java.util.Collections.reverse(out);
             
             return ResponseEntity.ok(ApiResponse.success("OK", out));
         } catch (Exception e) {
@@ -249,6 +205,345 @@ public class ConversationController {
         }
     }
     
+    // Column order expected by buildMessageRow; "m" is messages, "md" the MEDIA_JOIN alias
+    private static final String MESSAGE_ROW_COLUMNS = "m.id, m.message_id, m.sender, m.text, m.timestamp, m.has_media, m.reference_id, " +
+            "CASE WHEN m.last_updated IS NOT NULL AND m.last_updated > m.timestamp THEN TRUE ELSE FALSE END as edited, " +
+            "m.last_updated, COALESCE(m.status, 'sent') as status, m.dialog_id, COALESCE(m.pinned, FALSE) as pinned, " +
+            "md.file_name, md.mime_type, md.file_size, md.file_path, md.id AS media_id, md.preview_path";
+    // First media row of each message, fetched in the same query as the messages
+    private static final String MEDIA_JOIN = "LEFT JOIN LATERAL (SELECT id, file_name, mime_type, file_size, file_path, preview_path FROM media " +
+            "WHERE media.message_id = m.id ORDER BY media.id ASC LIMIT 1) md ON m.has_media ";
+
+    /**
+     * Keyset page over the given dialogs, in chronological order (text still encrypted, see buildMessageRow).
+     * Each dialog is read with its own range scan on messages(dialog_id, timestamp, id) (at most limit rows),
+     * and the per-dialog results are merged, so the cost is the same on page 1 and page 10,000.
+     */
+    private java.util.List<java.util.Map<String, Object>> queryMessagePage(java.sql.Connection conn, java.util.List<Integer> dialogRowIds,
+                                                                          com.aria.storage.MessageCursor before, com.aria.storage.MessageCursor after,
+                                                                          int limit, int targetUserId, int currentUserId) throws Exception {
+        boolean forward = after != null;
+        com.aria.storage.MessageCursor cursor = forward ? after : before;
+        String order = forward ? "ASC" : "DESC";
+        String keyset = cursor == null ? "" : (forward ? "AND (m.timestamp, m.id) > (?, ?) " : "AND (m.timestamp, m.id) < (?, ?) ");
+        // Media is joined only for the final page rows, so a page is one query however many rows have media
+        String sql = "SELECT " + MESSAGE_ROW_COLUMNS + " FROM (" +
+                "SELECT p.* FROM unnest(?::int[]) AS d(id) CROSS JOIN LATERAL (" +
+                "SELECT m.* FROM messages m WHERE m.dialog_id = d.id " + keyset +
+                "ORDER BY m.timestamp " + order + ", m.id " + order + " LIMIT ?) p " +
+                "ORDER BY p.timestamp " + order + ", p.id " + order + " LIMIT ?) m " +
+                MEDIA_JOIN +
+                "ORDER BY m.timestamp " + order + ", m.id " + order;
+
+        java.util.List<java.util.Map<String, Object>> page = new java.util.ArrayList<>();
+        try (java.sql.PreparedStatement ps = conn.prepareStatement(sql)) {
+            int paramIndex = 1;
+            ps.setArray(paramIndex++, conn.createArrayOf("integer", dialogRowIds.toArray()));
+            if (cursor != null) {
+                ps.setObject(paramIndex++, cursor.timestamp);
+                ps.setLong(paramIndex++, cursor.id);
+            }
+            ps.setInt(paramIndex++, limit);
+            ps.setInt(paramIndex, limit);
+            try (java.sql.ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    java.util.Map<String, Object> row = buildMessageRow(rs, targetUserId, currentUserId);
+                    row.put("cursor", com.aria.storage.MessageCursor.encode(rs.getObject(5, java.time.OffsetDateTime.class), rs.getLong(1)));
+                    page.add(row);
+                }
+            }
+        }
+        if (!forward) {
+            // newest-first scan to chronological
+            java.util.Collections.reverse(page);
+        }
+        return page;
+    }
+
+    /**
+     * Serve a page from the per-dialog Redis timelines (see RedisCacheManager), loading a dialog's newest
+     * messages on the first latest-page read and reloading only the messages written since then.
+     * Cached rows keep their text encrypted, as in messages.text.
+     * @return The page (text still encrypted), or null if it has to come from the database
+     */
+    private java.util.List<java.util.Map<String, Object>> readTimelinePage(java.sql.Connection conn, java.util.List<Integer> dialogRowIds,
+                                                                          com.aria.storage.MessageCursor before, com.aria.storage.MessageCursor after,
+                                                                          int limit, int targetUserId, int currentUserId) throws Exception {
+        com.aria.cache.RedisCacheManager cache = com.aria.cache.RedisCacheManager.getInstance();
+        boolean forward = after != null;
+        com.aria.storage.MessageCursor cursor = forward ? after : before;
+        java.util.List<java.util.Map<String, Object>> page = new java.util.ArrayList<>();
+        for (Integer dialogRowId : dialogRowIds) {
+            java.util.Set<Long> changed = cache.takeTimelineChanges(dialogRowId);
+            if (changed == null) {
+                // Not cached: only the latest page (what opening a chat asks for) loads it
+                if (cursor != null || !cache.beginTimelineLoad(dialogRowId)) {
+                    return null;
+                }
+                int window = Math.max(limit, com.aria.core.ConfigurationManager.getIntProperty("cache.timeline.window", 200));
+                java.util.List<java.util.Map<String, Object>> newest = queryMessagePage(conn, java.util.List.of(dialogRowId),
+                    null, null, window, targetUserId, currentUserId);
+                cache.storeTimeline(dialogRowId, newest, newest.size() < window);
+            } else if (!changed.isEmpty()) {
+                cache.applyTimelineRows(dialogRowId, loadMessageRows(conn, dialogRowId, changed, targetUserId, currentUserId));
+            }
+            java.util.List<java.util.Map<String, Object>> rows = cache.readTimeline(dialogRowId,
+                cursor != null ? cursor.epochMicros() : null, cursor != null ? cursor.id : null, forward, limit);
+            if (rows == null) {
+                return null;
+            }
+            page.addAll(rows);
+        }
+        if (dialogRowIds.size() > 1) {
+            // Merge the per-dialog pages like queryMessagePage does
+            page.sort(java.util.Comparator.comparing((java.util.Map<String, Object> row) -> com.aria.storage.MessageCursor.decode((String) row.get("cursor")).epochMicros())
+                .thenComparingLong(row -> com.aria.storage.MessageCursor.decode((String) row.get("cursor")).id));
+            if (page.size() > limit) {
+                page = forward ? new java.util.ArrayList<>(page.subList(0, limit)) : new java.util.ArrayList<>(page.subList(page.size() - limit, page.size()));
+            }
+        }
+        for (java.util.Map<String, Object> row : page) {
+            // Rows are cached per dialog, whoever loaded them
+            if (row.containsKey("mediaDownloadUrl")) {
+                row.put("mediaDownloadUrl", "/api/conversations/media/download?targetUserId=" + targetUserId + "&userId=" + currentUserId + "&messageId=" + row.get("messageId"));
+            }
+            String previewUrl = (String) row.get("mediaPreviewUrl");
+            if (previewUrl != null) {
+                row.put("mediaPreviewUrl", previewUrl.substring(0, previewUrl.indexOf("&userId=")) + "&userId=" + currentUserId);
+            }
+        }
+        return page;
+    }
+
+    /**
+     * Stream message changes for a target's dialogs as Server-Sent Events
+     * GET /api/conversations/stream?targetUserId=...&userId=...&subtargetUserId=...&cursor=...
+     * 
+     * Event names are insert/edit/delete/pin/status; each carries the changed message row (or, for status,
+     * the peer's presence) and its cursor as the SSE id. Reconnecting with the last cursor (cursor param or
+     * the Last-Event-ID header EventSource sends) replays what was missed; when that is not possible a
+     * "reset" event tells the client to reload GET /messages once.
+     */
+    @GetMapping(value = "/stream", produces = org.springframework.http.MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<?> streamMessages(
+            @RequestParam("targetUserId") Integer targetUserId,
+            @RequestParam(value = "userId", required = false) Integer userId,
+            @RequestParam(value = "subtargetUserId", required = false) Integer subtargetUserId,
+            @RequestParam(value = "cursor", required = false) String cursor,
+            @org.springframework.web.bind.annotation.RequestHeader(value = "Last-Event-ID", required = false) String lastEventId
+    ) {
+        try {
+            int currentUserId = userId != null ? userId : 1;
+            DatabaseManager databaseManager = new DatabaseManager();
+            TargetUserService targetUserService = new TargetUserService(databaseManager);
+            TargetUser targetUser = targetUserService.getTargetUserById(targetUserId);
+            if (targetUser == null) {
+                return ResponseEntity.badRequest().body(ApiResponse.error("Target user not found"));
+            }
+            com.aria.core.model.SubTargetUser currentSubTarget = null;
+            if (subtargetUserId != null) {
+                com.aria.service.SubTargetUserService subTargetUserService = new com.aria.service.SubTargetUserService(databaseManager);
+                currentSubTarget = subTargetUserService.getSubTargetUserById(subtargetUserId);
+                if (currentSubTarget == null || currentSubTarget.getTargetUserId() != targetUserId) {
+                    return ResponseEntity.badRequest().body(ApiResponse.error("SubTarget user not found or does not belong to this Target user"));
+                }
+            }
+
+            java.util.List<Integer> dialogRowIds;
+            try (java.sql.Connection conn = ConnectionPool.getConnection()) {
+                dialogRowIds = resolveDialogRowIds(conn, databaseManager, currentUserId, targetUser, currentSubTarget);
+            }
+            if (dialogRowIds.isEmpty()) {
+                return ResponseEntity.badRequest().body(ApiResponse.error("No conversation found for this target"));
+            }
+
+            long timeoutMs = com.aria.core.ConfigurationManager.getIntProperty("feed.sse.timeout.ms", 1800000);
+            org.springframework.web.servlet.mvc.method.annotation.SseEmitter emitter =
+                new org.springframework.web.servlet.mvc.method.annotation.SseEmitter(timeoutMs);
+            com.aria.service.MessageFeedService feed = com.aria.service.MessageFeedService.getInstance();
+            String resumeFrom = cursor != null && !cursor.isBlank() ? cursor : lastEventId;
+            String startCursor = resumeFrom != null && !resumeFrom.isBlank() ? resumeFrom : feed.currentCursor();
+
+            // Tell the client where it is, so even an idle stream can resume without a reset
+            emitter.send(org.springframework.web.servlet.mvc.method.annotation.SseEmitter.event()
+                .id(startCursor).name("ready").data(java.util.Map.of("cursor", startCursor, "dialogIds", dialogRowIds),
+                    org.springframework.http.MediaType.APPLICATION_JSON));
+
+            com.aria.service.MessageFeedService.Subscription subscription = feed.subscribe(dialogRowIds, startCursor,
+                new com.aria.service.MessageFeedService.Listener() {
+                    @Override
+                    public void onEvent(com.aria.service.MessageFeedService.FeedEvent event) throws Exception {
+                        java.util.Map<String, Object> delta = new java.util.HashMap<>(event.data);
+                        delta.put("type", event.type);
+                        delta.put("dialogId", event.dialogRowId);
+                        if (event.messageId != null) {
+                            delta.put("messageId", event.messageId);
+                        }
+                        if (!com.aria.service.MessageFeedService.DELETE.equals(event.type)
+                                && !com.aria.service.MessageFeedService.STATUS.equals(event.type)) {
+                            java.util.Map<String, Object> row = event.getRow(() -> loadMessageRow(event.dialogRowId, event.messageId, targetUserId, currentUserId));
+                            if (row == null) {
+                                return; // Gone again before we could read it - its delete event follows
+                            }
+                            java.util.Map<String, Object> message = new java.util.HashMap<>(row);
+                            if (message.containsKey("mediaDownloadUrl")) {
+                                message.put("mediaDownloadUrl", "/api/conversations/media/download?targetUserId=" + targetUserId + "&userId=" + currentUserId + "&messageId=" + event.messageId);
+                            }
+                            delta.put("message", message);
+                        }
+                        emitter.send(org.springframework.web.servlet.mvc.method.annotation.SseEmitter.event()
+                            .id(event.cursor).name(event.type).data(delta, org.springframework.http.MediaType.APPLICATION_JSON));
+                    }
+
+                    @Override
+                    public void onReset(String newCursor) throws Exception {
+                        emitter.send(org.springframework.web.servlet.mvc.method.annotation.SseEmitter.event()
+                            .id(newCursor).name("reset").data(java.util.Map.of("cursor", newCursor), org.springframework.http.MediaType.APPLICATION_JSON));
+                    }
+
+                    @Override
+                    public void onHeartbeat() throws Exception {
+                        emitter.send(org.springframework.web.servlet.mvc.method.annotation.SseEmitter.event().comment("heartbeat"));
+                    }
+
+                    @Override
+                    public void onClose() {
+                        emitter.complete();
+                    }
+                });
+            emitter.onCompletion(subscription::close);
+            emitter.onTimeout(subscription::close);
+            emitter.onError(e -> subscription.close());
+            return ResponseEntity.ok()
+                .header("Cache-Control", "no-cache")
+                .header("X-Accel-Buffering", "no") // Don't let nginx buffer the stream
+                .body(emitter);
+        } catch (Exception e) {
+            return ResponseEntity.internalServerError()
+                    .body(ApiResponse.error("Error opening message stream: " + e.getMessage()));
+        }
+    }
+
+    /**
+     * Load a single message row in the same shape as GET /messages
+     * @return The row, or null if the message no longer exists
+     */
+    private java.util.Map<String, Object> loadMessageRow(int dialogRowId, long messageId, int targetUserId, int currentUserId) {
+        try (java.sql.Connection conn = ConnectionPool.getConnection()) {
+            java.util.Map<String, Object> row = loadMessageRows(conn, dialogRowId, java.util.List.of(messageId), targetUserId, currentUserId).get(messageId);
+            if (row != null) {
+                decryptTexts(java.util.List.of(row));
+            }
+            return row;
+        } catch (Exception e) {
+            System.err.println("Failed to load message " + messageId + " for stream: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Load message rows of a dialog by Telegram message_id in the same shape as GET /messages (text still encrypted)
+     * @return message_id to row, with a null row for each message that no longer exists
+     */
+    private java.util.Map<Long, java.util.Map<String, Object>> loadMessageRows(java.sql.Connection conn, int dialogRowId,
+                                                                              java.util.Collection<Long> messageIds,
+                                                                              int targetUserId, int currentUserId) throws Exception {
+        String sql = "SELECT " + MESSAGE_ROW_COLUMNS + " FROM messages m " + MEDIA_JOIN +
+                "WHERE m.dialog_id = ? AND m.message_id = ANY(?)";
+        java.util.Map<Long, java.util.Map<String, Object>> rows = new java.util.HashMap<>();
+        for (Long messageId : messageIds) {
+            rows.put(messageId, null);
+        }
+        try (java.sql.PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setInt(1, dialogRowId);
+            ps.setArray(2, conn.createArrayOf("bigint", messageIds.toArray()));
+            try (java.sql.ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    java.time.OffsetDateTime timestamp = rs.getObject(5, java.time.OffsetDateTime.class);
+                    if (timestamp == null) {
+                        continue; // Not shown in timelines
+                    }
+                    java.util.Map<String, Object> row = buildMessageRow(rs, targetUserId, currentUserId);
+                    row.put("cursor", com.aria.storage.MessageCursor.encode(timestamp, rs.getLong(1)));
+                    rows.put(rs.getLong(2), row);
+                }
+            }
+        }
+        return rows;
+    }
+    
+    /**
+     * Resolve the dialog rows shown for a target: all SubTarget dialogs when cross-platform context
+     * is enabled, otherwise the dialog of the given SubTarget User (or selected platform)
+     */
+    private java.util.List<Integer> resolveDialogRowIds(java.sql.Connection conn, DatabaseManager databaseManager,
+                                                        int currentUserId, TargetUser targetUser,
+                                                        com.aria.core.model.SubTargetUser currentSubTarget) throws Exception {
+        java.util.List<Integer> dialogRowIds = new java.util.ArrayList<>();
+        int targetUserId = targetUser.getTargetId();
+        boolean crossPlatformContextEnabled = targetUser.isCrossPlatformContextEnabled();
+        
+        // If cross-platform context is enabled, get all dialog IDs for all SubTarget Users
+        if (crossPlatformContextEnabled) {
+            dialogRowIds = databaseManager.getDialogIdsForTargetUser(targetUserId, currentUserId);
+            if (dialogRowIds.isEmpty()) {
+                // Fallback: try to find at least one dialog using current SubTarget or legacy platform
+                Integer singleDialogId = findDialogForSubTarget(conn, currentUserId, targetUser, currentSubTarget);
+                if (singleDialogId != null) {
+                    dialogRowIds.add(singleDialogId);
+                }
+            }
+        } else {
+            // Single dialog mode: find dialog for current SubTarget User or selected platform
+            Integer dialogRowId = findDialogForSubTarget(conn, currentUserId, targetUser, currentSubTarget);
+            if (dialogRowId != null) {
+                dialogRowIds.add(dialogRowId);
+            } else if (currentSubTarget == null && targetUser.getSubTargetUsers() != null && !targetUser.getSubTargetUsers().isEmpty()) {
+                // If no specific SubTarget User provided but target has SubTarget Users, try to find dialog for first one
+                com.aria.core.model.SubTargetUser firstSubTarget = targetUser.getSubTargetUsers().get(0);
+                dialogRowId = findDialogForSubTarget(conn, currentUserId, targetUser, firstSubTarget);
+                if (dialogRowId != null) {
+                    dialogRowIds.add(dialogRowId);
+                }
+            }
+        }
+        return dialogRowIds;
+    }
+    
+    /**
+     * Find a private dialog by the Telegram peer id of username, if that id is cached. A username that
+     * isn't cached is resolved in the background (and stored on the SubTarget User) for later reads.
+     */
+    private Integer findDialogByCachedEntityId(java.sql.Connection conn, int currentUserId, int platformAccountId,
+                                               String username, Integer subTargetUserId) throws java.sql.SQLException {
+        com.aria.platform.telegram.EntityIdResolver resolver = com.aria.platform.telegram.EntityIdResolver.getInstance();
+        Long entityId = resolver.getCached(platformAccountId, username);
+        if (entityId == null) {
+            resolver.resolveInBackground(platformAccountId, username, subTargetUserId);
+            return null;
+        }
+        if (entityId <= 0) {
+            return null; // Known not to resolve
+        }
+        if (subTargetUserId != null) {
+            // Resolved by an earlier read or an online check: store it so later reads match by platform_id
+            resolver.storeOnSubTarget(subTargetUserId, entityId);
+        }
+        try (java.sql.PreparedStatement ps = conn.prepareStatement(
+                "SELECT id FROM dialogs WHERE user_id = ? AND platform_account_id = ? AND dialog_id = ? LIMIT 1")) {
+            ps.setInt(1, currentUserId);
+            ps.setInt(2, platformAccountId);
+            ps.setLong(3, entityId);
+            try (java.sql.ResultSet rs = ps.executeQuery()) {
+                if (rs.next()) {
+                    System.out.println("Found dialog by entity ID: " + entityId);
+                    return rs.getInt(1);
+                }
+            }
+        }
+        return null;
+    }
+
     /**
      * Helper method to find dialog for a SubTarget User or legacy platform
      * Uses the same robust strategies as the old implementation
@@ -276,66 +571,14 @@ public class ConversationController {
                 }
             }
             
-            // Strategy 2: Try to get entity ID from Telegram and match by dialog_id (if platform_id not available)
-            if (dialogRowId == null && subTargetUser.getUsername() != null && !subTargetUser.getUsername().isEmpty() 
-                && subTargetUser.getPlatform() == com.aria.platform.Platform.TELEGRAM) {
-                try {
-                    DatabaseManager.PlatformAccount acc = DatabaseManager.getPlatformAccountById(subTargetUser.getPlatformAccountId());
-                    if (acc != null) {
-                        String usernameForLookup = subTargetUser.getUsername().startsWith("@") ? 
-                            subTargetUser.getUsername().substring(1) : subTargetUser.getUsername();
-                        
-                        // Get entity ID from Telegram
-                        ProcessBuilder pb = new ProcessBuilder("python3", "scripts/telethon/get_entity_id.py", usernameForLookup);
-                        Map<String, String> env = pb.environment();
-                        env.put("TELEGRAM_API_ID", acc.apiId);
-                        env.put("TELEGRAM_API_HASH", acc.apiHash);
-                        env.put("TELEGRAM_PHONE", acc.number);
-                        if (acc.username != null && !acc.username.isEmpty()) {
-                            env.put("TELEGRAM_USERNAME", acc.username);
-                        }
-                        String sessionPath = "Session/telegramConnector/user_" + (acc.username != null && !acc.username.isEmpty() ? acc.username.replace("@", "") : acc.number.replace("+", "")) + "/user_" + (acc.username != null && !acc.username.isEmpty() ? acc.username.replace("@", "") : acc.number.replace("+", ""));
-                        env.put("TELETHON_SESSION_PATH", sessionPath);
-                        pb.redirectErrorStream(true);
-                        Process p = pb.start();
-                        StringBuilder output = new StringBuilder();
-                        try (java.io.BufferedReader reader = new java.io.BufferedReader(
-                                new java.io.InputStreamReader(p.getInputStream()))) {
-                            String line;
-                            while ((line = reader.readLine()) != null) {
-                                output.append(line).append("\n");
-                            }
-                        }
-                        int exit = p.waitFor();
-                        if (exit == 0) {
-                            String outputStr = output.toString().trim();
-                            try {
-                                com.google.gson.JsonObject json = com.google.gson.JsonParser.parseString(outputStr).getAsJsonObject();
-                                if (json.has("success") && json.get("success").getAsBoolean() && json.has("entityId")) {
-                                    Long entityId = json.get("entityId").getAsLong();
-                                    // Try to find dialog by entity ID (dialog_id in dialogs table)
-                                    try (java.sql.PreparedStatement ps = conn.prepareStatement(
-                                            "SELECT id FROM dialogs WHERE user_id = ? AND platform_account_id = ? AND dialog_id = ? LIMIT 1")) {
-                                        ps.setInt(1, currentUserId);
-                                        ps.setInt(2, subTargetUser.getPlatformAccountId());
-                                        ps.setLong(3, entityId);
-                                        try (java.sql.ResultSet rs = ps.executeQuery()) {
-                                            if (rs.next()) {
-                                                dialogRowId = rs.getInt(1);
-                                                System.out.println("Found dialog by entity ID: " + entityId);
-                                            }
-                                        }
-                                    }
-                                }
-                            } catch (Exception e) {
-                                System.err.println("Failed to parse entity ID response: " + e.getMessage());
-                            }
-                        }
-                    }
-                } catch (Exception e) {
-                    System.err.println("Failed to get entity ID from Telegram: " + e.getMessage());
-                    // Continue with other strategies
-                }
+            // Strategy 2: Match by the cached Telegram peer id of the username (if platform_id not available).
+            // Never resolved here: an uncached username is resolved in the background and stored as platform_id.
+            if (dialogRowId == null && (subTargetUser.getPlatformId() == null || subTargetUser.getPlatformId() <= 0)
+                && subTargetUser.getUsername() != null && !subTargetUser.getUsername().isEmpty()
+                && subTargetUser.getPlatform() == com.aria.platform.Platform.TELEGRAM
+                && subTargetUser.getPlatformAccountId() != null) {
+                dialogRowId = findDialogByCachedEntityId(conn, currentUserId, subTargetUser.getPlatformAccountId(),
+                    subTargetUser.getUsername(), subTargetUser.getId());
             }
             
             // Strategy 3: Try to find existing dialog by name (case-insensitive)
@@ -420,67 +663,10 @@ public class ConversationController {
         if (dialogRowId == null) {
             com.aria.platform.UserPlatform selected = targetUser.getSelectedPlatform();
             if (selected != null) {
-                // Strategy 1: Try to get entity ID from Telegram and match by dialog_id (peer ID) - most reliable
+                // Strategy 1: Match by the cached Telegram peer id of the username - most reliable
                 if (selected.getUsername() != null && !selected.getUsername().isEmpty() && selected.getPlatform() == com.aria.platform.Platform.TELEGRAM) {
-                    try {
-                        // Get platform account for API credentials
-                        DatabaseManager.PlatformAccount acc = DatabaseManager.getPlatformAccountById(selected.getPlatformId());
-                        if (acc != null) {
-                            String usernameForLookup = selected.getUsername().startsWith("@") ? 
-                                selected.getUsername().substring(1) : selected.getUsername();
-                            
-                            // Get entity ID from Telegram
-                            ProcessBuilder pb = new ProcessBuilder("python3", "scripts/telethon/get_entity_id.py", usernameForLookup);
-                            Map<String, String> env = pb.environment();
-                            env.put("TELEGRAM_API_ID", acc.apiId);
-                            env.put("TELEGRAM_API_HASH", acc.apiHash);
-                            env.put("TELEGRAM_PHONE", acc.number);
-                            if (acc.username != null && !acc.username.isEmpty()) {
-                                env.put("TELEGRAM_USERNAME", acc.username);
-                            }
-                            // Build session path (same as in TelegramConnector)
-                            String sessionPath = "Session/telegramConnector/user_" + (acc.username != null && !acc.username.isEmpty() ? acc.username.replace("@", "") : acc.number.replace("+", "")) + "/user_" + (acc.username != null && !acc.username.isEmpty() ? acc.username.replace("@", "") : acc.number.replace("+", ""));
-                            env.put("TELETHON_SESSION_PATH", sessionPath);
-                            pb.redirectErrorStream(true);
-                            Process p = pb.start();
-                            StringBuilder output = new StringBuilder();
-                            try (java.io.BufferedReader reader = new java.io.BufferedReader(
-                                    new java.io.InputStreamReader(p.getInputStream()))) {
-                                String line;
-                                while ((line = reader.readLine()) != null) {
-                                    output.append(line).append("\n");
-                                }
-                            }
-                            int exit = p.waitFor();
-                            if (exit == 0) {
-                                String outputStr = output.toString().trim();
-                                try {
-                                    com.google.gson.JsonObject json = com.google.gson.JsonParser.parseString(outputStr).getAsJsonObject();
-                                    if (json.has("success") && json.get("success").getAsBoolean() && json.has("entityId")) {
-                                        Long entityId = json.get("entityId").getAsLong();
-                                        // Try to find dialog by entity ID (dialog_id in dialogs table)
-                                        try (java.sql.PreparedStatement ps = conn.prepareStatement(
-                                                "SELECT id FROM dialogs WHERE user_id = ? AND platform_account_id = ? AND dialog_id = ? LIMIT 1")) {
-                                            ps.setInt(1, currentUserId);
-                                            ps.setInt(2, selected.getPlatformId());
-                                            ps.setLong(3, entityId);
-                                            try (java.sql.ResultSet rs = ps.executeQuery()) {
-                                                if (rs.next()) {
-                                                    dialogRowId = rs.getInt(1);
-                                                    System.out.println("Found dialog by entity ID: " + entityId);
-                                                }
-                                            }
-                                        }
-                                    }
-                                } catch (Exception e) {
-                                    System.err.println("Failed to parse entity ID response: " + e.getMessage());
-                                }
-                            }
-                        }
-                    } catch (Exception e) {
-                        System.err.println("Failed to get entity ID from Telegram: " + e.getMessage());
-                        // Continue with other strategies
-                    }
+                    dialogRowId = findDialogByCachedEntityId(conn, currentUserId, selected.getPlatformId(),
+                        selected.getUsername(), null);
                 }
                 
                 // Strategy 2: Try to find existing dialog by name (case-insensitive)
@@ -555,27 +741,43 @@ public class ConversationController {
         return dialogRowId;
     }
     
+    /**
+     * Display name for a media file: the stored name (or the path's last segment), without the
+     * "chat_messageId_" prefix the ingestors add to downloaded files
+     */
+    private static String displayFileName(String fileName, String filePath) {
+        String fn = fileName;
+        if ((fn == null || fn.trim().isEmpty()) && filePath != null && !filePath.isEmpty()) {
+            int lastSlash = Math.max(filePath.lastIndexOf('/'), filePath.lastIndexOf('\\'));
+            fn = lastSlash >= 0 && lastSlash < filePath.length() - 1 ? filePath.substring(lastSlash + 1) : filePath;
+        }
+        if (fn != null && !fn.trim().isEmpty() && fn.contains("_")) {
+            String[] parts = fn.split("_", 3);
+            if (parts.length >= 3) {
+                try {
+                    Long.parseLong(parts[1]);
+                    fn = parts[2]; // Extract original filename
+                } catch (NumberFormatException e) {
+                    // Not prefixed
+                }
+            }
+        }
+        return fn != null && !fn.trim().isEmpty() ? fn : "";
+    }
+
     /**
      * Helper method to build a message row from ResultSet
+     * Expects the MESSAGE_ROW_COLUMNS column order (12 message columns, then the first media row's
+     * file_name, mime_type, file_size, file_path, id, preview_path from MEDIA_JOIN).
+     * The text is left encrypted, so rows can be cached as they are; decryptTexts before responding.
      */
-    private java.util.Map<String, Object> buildMessageRow(java.sql.ResultSet rs, int targetUserId, int currentUserId, java.sql.Connection conn) throws Exception {
+    static java.util.Map<String, Object> buildMessageRow(java.sql.ResultSet rs, int targetUserId, int currentUserId) throws Exception {
         java.util.Map<String, Object> row = new java.util.HashMap<>();
-        int internalMessageId = rs.getInt(1); // Get internal message ID
         row.put("messageId", rs.getInt(2)); // Telegram message_id
         row.put("fromUser", "me".equalsIgnoreCase(rs.getString(3)));
         
-        // Decrypt message text
         String encryptedText = rs.getString(4);
-        String decryptedText = null;
-        if (encryptedText != null && !encryptedText.isEmpty()) {
-            try {
-                decryptedText = com.aria.storage.SecureStorage.decrypt(encryptedText);
-            } catch (Exception e) {
-                System.err.println("Failed to decrypt message text: " + e.getMessage());
-                decryptedText = "";
-            }
-        }
-        row.put("text", decryptedText);
+        row.put("text", encryptedText != null && !encryptedText.isEmpty() ? encryptedText : null);
         row.put("timestamp", rs.getTimestamp(5) != null ? rs.getTimestamp(5).getTime() : null);
         row.put("hasMedia", rs.getBoolean(6));
         
@@ -611,49 +813,21 @@ public class ConversationController {
         }
         row.put("status", status);
         
-        // Get media metadata (fileName, mimeType, fileSize) from media table using internal message ID
-        if (rs.getBoolean(6)) { // hasMedia
-            try (java.sql.PreparedStatement mediaPs = conn.prepareStatement(
-                    "SELECT file_name, mime_type, file_size, file_path FROM media WHERE message_id = ? ORDER BY id ASC LIMIT 1")) {
-                mediaPs.setInt(1, internalMessageId);
-                try (java.sql.ResultSet mediaRs = mediaPs.executeQuery()) {
-                    if (mediaRs.next()) {
-                        row.put("mediaDownloadUrl", "/api/conversations/media/download?targetUserId=" + targetUserId + "&userId=" + currentUserId + "&messageId=" + rs.getInt(2));
-                        String fn = mediaRs.getString(1);
-                        String filePath = mediaRs.getString(4);
-                        if (fn == null || fn.trim().isEmpty()) {
-                            if (filePath != null && !filePath.isEmpty()) {
-                                int lastSlash = Math.max(filePath.lastIndexOf('/'), filePath.lastIndexOf('\\'));
-                                if (lastSlash >= 0 && lastSlash < filePath.length() - 1) {
-                                    fn = filePath.substring(lastSlash + 1);
-                                } else {
-                                    fn = filePath;
-                                }
-                            }
-                        }
-                        // Clean up filename - remove chat prefix if present
-                        if (fn != null && !fn.trim().isEmpty() && fn.contains("_")) {
-                            String[] parts = fn.split("_", 3);
-                            if (parts.length >= 3) {
-                                try {
-                                    Long.parseLong(parts[1]);
-                                    fn = parts[2]; // Extract original filename
-                                } catch (NumberFormatException e) {
-                                    // Not prefixed
-                                }
-                            }
-                        }
-                        row.put("fileName", fn != null && !fn.trim().isEmpty() ? fn : "");
-                        String mt = mediaRs.getString(2);
-                        if (mt != null && !mt.isEmpty()) {
-                            row.put("mimeType", mt);
-                        }
-                        Long fs = (Long) mediaRs.getObject(3);
-                        if (fs != null && !mediaRs.wasNull()) {
-                            row.put("fileSize", fs);
-                        }
-                    }
-                }
+        // Media metadata (columns 13-18) comes from the row query's media join - no per-row lookup
+        if (rs.getBoolean(6) && rs.getObject(17) != null) { // hasMedia and a media row exists (media_id)
+            row.put("mediaDownloadUrl", "/api/conversations/media/download?targetUserId=" + targetUserId + "&userId=" + currentUserId + "&messageId=" + rs.getInt(2));
+            row.put("fileName", displayFileName(rs.getString(13), rs.getString(16)));
+            String mt = rs.getString(14);
+            if (mt != null && !mt.isEmpty()) {
+                row.put("mimeType", mt);
+            }
+            // preview_path '' marks media that can't be previewed
+            if (MediaPreviewService.isPreviewable(mt) && rs.getString(16) != null && !"".equals(rs.getString(18))) {
+                row.put("mediaPreviewUrl", mediaPreviewUrl(rs.getInt(17), rs.getString(16), currentUserId));
+            }
+            long fs = rs.getLong(15);
+            if (!rs.wasNull()) {
+                row.put("fileSize", fs);
             }
         }
         
@@ -668,15 +842,54 @@ public class ConversationController {
         return row;
     }
 
+    /**
+     * Decrypt the text of rows built by buildMessageRow, in one batch
+     */
+    static void decryptTexts(java.util.List<java.util.Map<String, Object>> rows) {
+        java.util.List<java.util.Map<String, Object>> withText = new java.util.ArrayList<>();
+        java.util.List<String> encrypted = new java.util.ArrayList<>();
+        for (java.util.Map<String, Object> row : rows) {
+            if (row.get("text") != null) {
+                withText.add(row);
+                encrypted.add((String) row.get("text"));
+            }
+        }
+        java.util.List<String> plain = com.aria.storage.SecureStorage.decryptAll(encrypted);
+        for (int i = 0; i < withText.size(); i++) {
+            withText.get(i).put("text", plain.get(i));
+        }
+    }
+
+    private static final long MEDIA_MAX_AGE_SECONDS =
+            com.aria.core.ConfigurationManager.getIntProperty("media.download.max.age.seconds", 7 * 24 * 3600);
+
+    /**
+     * Whether an If-Range validator (an ETag or an HTTP date) still describes the file
+     */
+    private static boolean ifRangeMatches(String ifRange, String eTag, long lastModified) {
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            return ifRange.equals(eTag);
+        }
+        try {
+            return java.time.ZonedDateTime.parse(ifRange, java.time.format.DateTimeFormatter.RFC_1123_DATE_TIME)
+                    .toEpochSecond() == lastModified / 1000;
+        } catch (java.time.format.DateTimeParseException e) {
+            return false;
+        }
+    }
+
     /**
      * Download media for a given message (first media if multiple)
      * GET /api/conversations/media/download?targetUserId=...&userId=...&messageId=...
+     * Supports Range requests (206) and conditional requests (ETag / Last-Modified, 304)
      */
     @GetMapping("/media/download")
     public ResponseEntity<?> downloadMedia(
             @RequestParam("targetUserId") Integer targetUserId,
             @RequestParam(value = "userId", required = false) Integer userId,
-            @RequestParam("messageId") Integer messageId
+            @RequestParam("messageId") Integer messageId,
+            @RequestHeader(value = "Range", required = false) String rangeHeader,
+            @RequestHeader(value = "If-Range", required = false) String ifRange
     ) {
         try {
             int currentUserId = userId != null ? userId : 1;
@@ -690,16 +903,7 @@ public class ConversationController {
                         .contentType(org.springframework.http.MediaType.TEXT_PLAIN)
                         .body("Target user not found");
             }
-            try (java.sql.Connection conn = java.sql.DriverManager.getConnection(
-                    System.getenv("DATABASE_URL") != null
-                            ? System.getenv("DATABASE_URL")
-                            : "jdbc:postgresql://localhost:5432/aria",
-                    System.getenv("DATABASE_USER") != null
-                            ? System.getenv("DATABASE_USER")
-                            : "postgres",
-                    System.getenv("DATABASE_PASSWORD") != null
-                            ? System.getenv("DATABASE_PASSWORD")
-                            : "Ezekiel(23)")) {
+            try (java.sql.Connection conn = ConnectionPool.getConnection()) {
 
                 Integer dialogRowId = null;
                 
@@ -761,18 +965,20 @@ public class ConversationController {
                             .body("Message not found");
                 }
 
+                Integer mediaId = null;
                 String filePath = null;
                 String fileName = "media.bin";
                 String mimeType = "application/octet-stream";
                 try (java.sql.PreparedStatement ps = conn.prepareStatement(
-                        "SELECT file_path, file_name, mime_type FROM media WHERE message_id = ? ORDER BY id ASC LIMIT 1")) {
+                        "SELECT id, file_path, file_name, mime_type FROM media WHERE message_id = ? ORDER BY id ASC LIMIT 1")) {
                     ps.setInt(1, internalMsgId);
                     try (java.sql.ResultSet rs = ps.executeQuery()) {
                         if (rs.next()) {
-                            filePath = rs.getString(1);
-                            String fn = rs.getString(2);
+                            mediaId = rs.getInt(1);
+                            filePath = rs.getString(2);
+                            String fn = rs.getString(3);
                             if (fn != null && !fn.isEmpty()) fileName = fn;
-                            String mt = rs.getString(3);
+                            String mt = rs.getString(4);
                             if (mt != null && !mt.isEmpty()) mimeType = mt;
                         }
                     }
@@ -785,82 +991,27 @@ public class ConversationController {
                             .body("No media for this message");
                 }
 
-                // Handle both absolute and relative paths
-                // Normalize path separators first (convert backslashes to forward slashes if needed)
-                String normalizedPath = filePath.replace("\\", "/");
-                
-                java.nio.file.Path path = null;
-                java.util.List<String> triedPaths = new java.util.ArrayList<>();
-                
-                // Try 1: Use path as-is (if absolute)
-                java.nio.file.Path testPath = java.nio.file.Paths.get(normalizedPath);
-                if (testPath.isAbsolute()) {
-                    triedPaths.add(testPath.toString());
-                    if (java.nio.file.Files.exists(testPath)) {
-                        path = testPath;
-                    }
-                }
-                
-                // Try 2: Try with /app prefix (for Docker)
-                if (path == null) {
-                    testPath = java.nio.file.Paths.get("/app", normalizedPath);
-                    triedPaths.add(testPath.toString());
-                    if (java.nio.file.Files.exists(testPath)) {
-                        path = testPath;
-                    }
-                }
-                
-                // Try 3: Try from current working directory
-                if (path == null) {
-                    String userDir = System.getProperty("user.dir");
-                    testPath = java.nio.file.Paths.get(userDir, normalizedPath);
-                    triedPaths.add(testPath.toString());
-                    if (java.nio.file.Files.exists(testPath)) {
-                        path = testPath;
-                    }
-                }
-                
-                // Try 4: Try as relative path from current directory
-                if (path == null) {
-                    testPath = java.nio.file.Paths.get(normalizedPath);
-                    triedPaths.add(testPath.toString());
-                    if (java.nio.file.Files.exists(testPath)) {
-                        path = testPath;
-                    }
-                }
-                
-                // Try 5: Handle Windows-style paths in Docker (if running on Windows host but in Linux container)
-                if (path == null && normalizedPath.contains("media/")) {
-                    // Extract just the media part and try from /app
-                    int mediaIdx = normalizedPath.indexOf("media/");
-                    if (mediaIdx >= 0) {
-                        String mediaPart = normalizedPath.substring(mediaIdx);
-                        testPath = java.nio.file.Paths.get("/app", mediaPart);
-                        triedPaths.add(testPath.toString());
-                        if (java.nio.file.Files.exists(testPath)) {
-                            path = testPath;
-                        }
+                java.nio.file.Path path = com.aria.storage.MediaPaths.resolve(mediaId, filePath);
+                java.nio.file.attribute.BasicFileAttributes attributes = null;
+                if (path != null) {
+                    try {
+                        attributes = java.nio.file.Files.readAttributes(path, java.nio.file.attribute.BasicFileAttributes.class);
+                    } catch (java.io.IOException e) {
+                        // Moved or deleted since it was resolved: look for it again
+                        com.aria.storage.MediaPaths.forget(filePath);
+                        path = com.aria.storage.MediaPaths.resolve(mediaId, filePath);
+                        attributes = path != null
+                            ? java.nio.file.Files.readAttributes(path, java.nio.file.attribute.BasicFileAttributes.class)
+                            : null;
                     }
                 }
-                
-                if (path == null || !java.nio.file.Files.exists(path)) {
-                    System.err.println("=== File not found error ===");
-                    System.err.println("Original filePath from DB: " + filePath);
-                    System.err.println("Normalized path: " + normalizedPath);
-                    System.err.println("Current working directory: " + System.getProperty("user.dir"));
-                    System.err.println("Tried paths:");
-                    for (String tried : triedPaths) {
-                        System.err.println("  - " + tried + " (exists: " + java.nio.file.Files.exists(java.nio.file.Paths.get(tried)) + ")");
-                    }
-                    System.err.println("============================");
+                if (attributes == null) {
                     // Return 404 with proper headers, not JSON (to avoid browser downloading JSON as "media.json")
                     return ResponseEntity.status(404)
                             .contentType(org.springframework.http.MediaType.TEXT_PLAIN)
                             .body("File not found on disk. Path from DB: " + filePath);
                 }
                 
-                byte[] bytes = java.nio.file.Files.readAllBytes(path);
-                
                 // Sanitize fileName for Content-Disposition header (remove quotes, newlines, etc.)
                 String safeFileName = fileName.replace("\"", "").replace("\n", "").replace("\r", "").replace("\\", "");
                 if (safeFileName.isEmpty() || safeFileName.equals("media.bin")) {
@@ -904,11 +1055,44 @@ public class ConversationController {
                         finalMimeType = "video/mp4";
                     }
                 }
-                
-                return ResponseEntity.ok()
-                        .header("Content-Disposition", contentDisposition)
-                        .header("Content-Type", finalMimeType)
-                        .body(bytes);
+
+                // Streamed from disk by Spring's resource converters; never loaded onto the heap
+                long length = attributes.size();
+                long lastModified = attributes.lastModifiedTime().toMillis();
+                String eTag = "\"" + Long.toHexString(length) + "-" + Long.toHexString(lastModified) + "\"";
+                org.springframework.core.io.Resource resource = new org.springframework.core.io.FileSystemResource(path);
+                org.springframework.http.HttpHeaders headers = new org.springframework.http.HttpHeaders();
+                headers.set("Content-Disposition", contentDisposition);
+                headers.set("Content-Type", finalMimeType);
+                headers.set("Accept-Ranges", "bytes");
+                headers.setETag(eTag);
+                headers.setLastModified(lastModified);
+                headers.setCacheControl(org.springframework.http.CacheControl
+                        .maxAge(MEDIA_MAX_AGE_SECONDS, java.util.concurrent.TimeUnit.SECONDS)
+                        .cachePrivate());
+
+                if (rangeHeader == null) {
+                    // If-None-Match / If-Modified-Since are answered with 304 by Spring from the ETag and Last-Modified set here
+                    return ResponseEntity.ok().headers(headers).body(resource);
+                }
+                if (ifRange != null && !ifRangeMatches(ifRange, eTag, lastModified)) {
+                    // The client's partial copy is of another version: send the whole file. A region rather than the
+                    // Resource itself, because Spring would apply the Range header to a Resource body.
+                    return ResponseEntity.ok().headers(headers).contentLength(length)
+                            .body(new org.springframework.core.io.support.ResourceRegion(resource, 0, length));
+                }
+                java.util.List<org.springframework.core.io.support.ResourceRegion> regions;
+                try {
+                    regions = org.springframework.http.HttpRange.toResourceRegions(
+                            org.springframework.http.HttpRange.parseRanges(rangeHeader), resource);
+                } catch (IllegalArgumentException e) {
+                    return ResponseEntity.status(416)
+                            .header("Content-Range", "bytes */" + length)
+                            .contentType(org.springframework.http.MediaType.TEXT_PLAIN)
+                            .body("Requested range not satisfiable");
+                }
+                // Content-Range (or a multipart/byteranges body for several ranges) is written by Spring's region converter
+                return ResponseEntity.status(206).headers(headers).body(regions.size() == 1 ? regions.get(0) : regions);
             }
         } catch (Exception e) {
             // Return plain text error, not JSON (to avoid browser downloading JSON/CSV)
@@ -919,6 +1103,71 @@ public class ConversationController {
         }
     }
 
+    /**
+     * URL of a media row's preview. v changes when the media file is replaced, so the preview can be
+     * cached as immutable; userId stays last (message rows are cached per dialog and get it swapped).
+     */
+    private static String mediaPreviewUrl(int mediaId, String filePath, int userId) {
+        return "/api/conversations/media/preview?mediaId=" + mediaId + "&v=" + Integer.toHexString(filePath.hashCode()) + "&userId=" + userId;
+    }
+
+    /**
+     * Downscaled preview of a media row (image thumbnail or video poster frame), JPEG
+     * GET /api/conversations/media/preview?mediaId=...&v=...&userId=...
+     * 404 (not cached) while the preview is being made; clients then show the full media
+     */
+    @GetMapping("/media/preview")
+    public ResponseEntity<?> getMediaPreview(
+            @RequestParam("mediaId") Integer mediaId,
+            @RequestParam(value = "userId", required = false) Integer userId
+    ) {
+        try {
+            int currentUserId = userId != null ? userId : 1;
+            String previewPath = null;
+            boolean found = false;
+            try (java.sql.Connection conn = ConnectionPool.getConnection();
+                 java.sql.PreparedStatement ps = conn.prepareStatement(
+                         "SELECT md.preview_path FROM media md " +
+                         "JOIN messages m ON md.message_id = m.id " +
+                         "JOIN dialogs d ON m.dialog_id = d.id " +
+                         "WHERE md.id = ? AND d.user_id = ?")) {
+                ps.setInt(1, mediaId);
+                ps.setInt(2, currentUserId);
+                try (java.sql.ResultSet rs = ps.executeQuery()) {
+                    if (rs.next()) {
+                        found = true;
+                        previewPath = rs.getString(1);
+                    }
+                }
+            }
+
+            java.nio.file.Path path = previewPath != null && !previewPath.isEmpty() ? java.nio.file.Paths.get(previewPath) : null;
+            if (!found || path == null || !java.nio.file.Files.isRegularFile(path)) {
+                if (found && (previewPath == null || !previewPath.isEmpty())) {
+                    MediaPreviewService.getInstance().schedule(mediaId);
+                }
+                return ResponseEntity.status(404)
+                        .cacheControl(org.springframework.http.CacheControl.noStore())
+                        .contentType(org.springframework.http.MediaType.TEXT_PLAIN)
+                        .body(found ? "Preview not available" : "Media not found");
+            }
+
+            long lastModified = java.nio.file.Files.getLastModifiedTime(path).toMillis();
+            return ResponseEntity.ok()
+                    .contentType(org.springframework.http.MediaType.IMAGE_JPEG)
+                    .eTag("\"" + mediaId + "-" + Long.toHexString(lastModified) + "\"")
+                    .lastModified(lastModified)
+                    .cacheControl(org.springframework.http.CacheControl.maxAge(365, java.util.concurrent.TimeUnit.DAYS)
+                            .cachePrivate().immutable())
+                    .body(new org.springframework.core.io.FileSystemResource(path));
+        } catch (Exception e) {
+            e.printStackTrace();
+            return ResponseEntity.status(500)
+                    .contentType(org.springframework.http.MediaType.TEXT_PLAIN)
+                    .body("Error loading preview: " + e.getMessage());
+        }
+    }
+
     /**
      * End the active conversation for a target user
      * POST /api/conversations/end
@@ -1029,6 +1278,18 @@ public class ConversationController {
                 return ResponseEntity.badRequest().body(ApiResponse.error("Sending not yet supported for platform: " + platform));
             }
 
+            if (sendResult != null && sendResult.outcomeUnknown) {
+                // Telegram may still deliver it: don't report a failure the user would retry into a duplicate.
+                // Nothing is journaled; the next sync stores the message if it went out.
+                java.util.Map<String, Object> messageData = new java.util.HashMap<>();
+                messageData.put("fromUser", true);
+                messageData.put("text", incomingMessage);
+                messageData.put("timestamp", System.currentTimeMillis());
+                messageData.put("hasMedia", false);
+                messageData.put("outcomeUnknown", true);
+                return ResponseEntity.accepted().body(ApiResponse.success("Message not confirmed yet", messageData));
+            }
+
             if (sendResult == null || !sendResult.success || sendResult.messageId == null || sendResult.messageId < 0) {
                 return ResponseEntity.internalServerError().body(ApiResponse.error("Failed to send message"));
             }
@@ -1045,103 +1306,19 @@ public class ConversationController {
             messageData.put("timestamp", System.currentTimeMillis());
             messageData.put("hasMedia", false);
             
-            // Create final copies for use in lambda
-            final int finalCurrentUserId = currentUserId;
-            final int finalPlatformAccountId = platformAccountId;
-            final String finalTargetUserName = targetUser.getName();
-            final Long finalPeerId = peerId;
-            final Long finalTelegramMessageId = telegramMessageId;
-            final String finalIncomingMessage = incomingMessage;
-            final Long finalReferenceId = referenceId;
-            
-            // Save to database in background (non-blocking) - don't wait for it
-            new Thread(() -> {
-                try (java.sql.Connection conn = java.sql.DriverManager.getConnection(
-                        System.getenv("DATABASE_URL") != null
-                                ? System.getenv("DATABASE_URL")
-                                : "jdbc:postgresql://localhost:5432/aria",
-                        System.getenv("DATABASE_USER") != null
-                                ? System.getenv("DATABASE_USER")
-                                : "postgres",
-                        System.getenv("DATABASE_PASSWORD") != null
-                                ? System.getenv("DATABASE_PASSWORD")
-                                : "Ezekiel(23)")) {
-                    
-                    Integer dialogRowId = null;
-                    // First, try to find existing dialog by name
-                    try (java.sql.PreparedStatement ps = conn.prepareStatement(
-                            "SELECT id FROM dialogs WHERE user_id = ? AND platform_account_id = ? AND type='private' AND name = ? ORDER BY id DESC LIMIT 1")) {
-                        ps.setInt(1, finalCurrentUserId);
-                        ps.setInt(2, finalPlatformAccountId);
-                        ps.setString(3, finalTargetUserName);
-                        try (java.sql.ResultSet rs = ps.executeQuery()) {
-                            if (rs.next()) {
-                                dialogRowId = rs.getInt(1);
-                            }
-                        }
-                    }
-                    
-                    // If no dialog found and we have peer ID, try to find by peer ID
-                    if (dialogRowId == null && finalPeerId != null && finalPeerId > 0) {
-                        try (java.sql.PreparedStatement ps = conn.prepareStatement(
-                                "SELECT id FROM dialogs WHERE user_id = ? AND platform_account_id = ? AND dialog_id = ? LIMIT 1")) {
-                            ps.setInt(1, finalCurrentUserId);
-                            ps.setInt(2, finalPlatformAccountId);
-                            ps.setLong(3, finalPeerId);
-                            try (java.sql.ResultSet rs = ps.executeQuery()) {
-                                if (rs.next()) {
-                                    dialogRowId = rs.getInt(1);
-                                }
-                            }
-                        }
-                    }
-                    
-                    // If still no dialog, create one using peer ID if available
-                    if (dialogRowId == null && finalPeerId != null && finalPeerId > 0) {
-                        try {
-                            dialogRowId = DatabaseManager.saveDialog(
-                                finalCurrentUserId,
-                                finalPlatformAccountId,
-                                finalPeerId,
-                                finalTargetUserName,
-                                "private",
-                                0, // message_count
-                                0  // media_count
-                            );
-                            System.out.println("Created new dialog for target: " + finalTargetUserName + ", dialogId=" + dialogRowId);
-                        } catch (Exception e) {
-                            System.err.println("Warning: Failed to create dialog: " + e.getMessage());
-                            e.printStackTrace();
-                        }
-                    }
-                    
-                    // Save the message if we have a dialog
-                    if (dialogRowId != null && finalTelegramMessageId > 0) {
-                        java.time.LocalDateTime now = java.time.LocalDateTime.now();
-                        try {
-                            DatabaseManager.saveMessage(
-                                dialogRowId,
-                                finalTelegramMessageId,
-                                "me",
-                                finalIncomingMessage,
-                                now,
-                                false, // hasMedia
-                                finalReferenceId, // reference_id for replies
-                                "sent" // status
-                            );
-                            System.out.println("Saved sent message to database: messageId=" + finalTelegramMessageId + ", dialogId=" + dialogRowId);
-                        } catch (Exception e) {
-                            // Log but don't fail - message was sent, just couldn't save to DB
-                            System.err.println("Warning: Failed to save sent message to database: " + e.getMessage());
-                            e.printStackTrace();
-                        }
-                    }
+            // Journal the message for the write-behind persister instead of writing it here
+            // (0 is not a real Telegram message id; the next sync stores the message)
+            if (telegramMessageId > 0) {
+                try {
+                    SentMessageJournal.getInstance().append(currentUserId, platformAccountId, targetUserId,
+                        targetUser.getName(), peerId, telegramMessageId, incomingMessage,
+                        java.time.LocalDateTime.now(), referenceId);
                 } catch (Exception e) {
-                    // Log but don't fail - message was sent successfully
-                    System.err.println("Warning: Error saving sent message to database: " + e.getMessage());
+                    // Log but don't fail - message was sent, just couldn't be queued for the database
+                    System.err.println("Warning: Failed to journal sent message " + telegramMessageId + ": " + e.getMessage());
                     e.printStackTrace();
                 }
-            }).start();
+            }
 
             // Invalidate cache when message is sent
             com.aria.cache.RedisCacheManager cache = com.aria.cache.RedisCacheManager.getInstance();
@@ -1191,16 +1368,7 @@ public class ConversationController {
 
             // Check if admin mode is enabled for the user
             boolean adminModeEnabled = false;
-            try (java.sql.Connection conn = java.sql.DriverManager.getConnection(
-                    System.getenv("DATABASE_URL") != null
-                            ? System.getenv("DATABASE_URL")
-                            : "jdbc:postgresql://localhost:5432/aria",
-                    System.getenv("DATABASE_USER") != null
-                            ? System.getenv("DATABASE_USER")
-                            : "postgres",
-                    System.getenv("DATABASE_PASSWORD") != null
-                            ? System.getenv("DATABASE_PASSWORD")
-                            : "Ezekiel(23)")) {
+            try (java.sql.Connection conn = ConnectionPool.getConnection()) {
                 try (java.sql.PreparedStatement ps = conn.prepareStatement(
                         "SELECT admin_mode_enabled FROM users WHERE id = ?")) {
                     ps.setInt(1, currentUserId);
@@ -1228,7 +1396,7 @@ public class ConversationController {
             Long highestMessageId = null;
             try {
                 ResponseEntity<ApiResponse<java.util.List<java.util.Map<String, Object>>>> messagesResp = 
-                    getMessages(targetUserId, currentUserId, 100, subtargetUserId); // Get more messages to find new ones
+                    getMessages(targetUserId, currentUserId, 100, subtargetUserId, null, null); // Get more messages to find new ones
                 ApiResponse<java.util.List<java.util.Map<String, Object>>> body = messagesResp.getBody();
                 if (body != null && body.isSuccess()) {
                     allMessages = body.getData();
@@ -1343,16 +1511,7 @@ public class ConversationController {
                         suggestion = suggestion.replaceAll("\\[REFERENCE:[^\\]]+\\]\\s*", "").trim();
                         
                         // Fetch reference message details
-                        try (java.sql.Connection conn = java.sql.DriverManager.getConnection(
-                                System.getenv("DATABASE_URL") != null
-                                        ? System.getenv("DATABASE_URL")
-                                        : "jdbc:postgresql://localhost:5432/aria",
-                                System.getenv("DATABASE_USER") != null
-                                        ? System.getenv("DATABASE_USER")
-                                        : "postgres",
-                                System.getenv("DATABASE_PASSWORD") != null
-                                        ? System.getenv("DATABASE_PASSWORD")
-                                        : "Ezekiel(23)")) {
+                        try (java.sql.Connection conn = ConnectionPool.getConnection()) {
                             
                             // Get dialog name
                             try (java.sql.PreparedStatement ps = conn.prepareStatement(
@@ -1427,16 +1586,7 @@ public class ConversationController {
             if (referenceDialogId != null && referenceMessageId != null) {
                 // Get message timestamp
                 java.sql.Timestamp messageTimestamp = null;
-                try (java.sql.Connection conn = java.sql.DriverManager.getConnection(
-                        System.getenv("DATABASE_URL") != null
-                                ? System.getenv("DATABASE_URL")
-                                : "jdbc:postgresql://localhost:5432/aria",
-                        System.getenv("DATABASE_USER") != null
-                                ? System.getenv("DATABASE_USER")
-                                : "postgres",
-                        System.getenv("DATABASE_PASSWORD") != null
-                                ? System.getenv("DATABASE_PASSWORD")
-                                : "Ezekiel(23)")) {
+                try (java.sql.Connection conn = ConnectionPool.getConnection()) {
                     try (java.sql.PreparedStatement ps = conn.prepareStatement(
                             "SELECT timestamp FROM messages WHERE message_id = ? AND dialog_id = ?")) {
                         ps.setLong(1, referenceMessageId);
@@ -1591,16 +1741,7 @@ public class ConversationController {
         try {
             int currentUserId = userId != null ? userId : 1;
             
-            try (java.sql.Connection conn = java.sql.DriverManager.getConnection(
-                    System.getenv("DATABASE_URL") != null
-                            ? System.getenv("DATABASE_URL")
-                            : "jdbc:postgresql://localhost:5432/aria",
-                    System.getenv("DATABASE_USER") != null
-                            ? System.getenv("DATABASE_USER")
-                            : "postgres",
-                    System.getenv("DATABASE_PASSWORD") != null
-                            ? System.getenv("DATABASE_PASSWORD")
-                            : "Ezekiel(23)")) {
+            try (java.sql.Connection conn = ConnectionPool.getConnection()) {
                 
                 // Verify dialog belongs to user
                 try (java.sql.PreparedStatement ps = conn.prepareStatement(
@@ -1857,16 +1998,7 @@ public class ConversationController {
 
             // Find dialog row id (our internal id) for this peer and account
             Integer dialogsRowId = null;
-            try (java.sql.Connection conn = java.sql.DriverManager.getConnection(
-                    System.getenv("DATABASE_URL") != null
-                            ? System.getenv("DATABASE_URL")
-                            : "jdbc:postgresql://localhost:5432/aria",
-                    System.getenv("DATABASE_USER") != null
-                            ? System.getenv("DATABASE_USER")
-                            : "postgres",
-                    System.getenv("DATABASE_PASSWORD") != null
-                            ? System.getenv("DATABASE_PASSWORD")
-                            : "Ezekiel(23)")) {
+            try (java.sql.Connection conn = ConnectionPool.getConnection()) {
                 // Use findDialogForSubTarget helper method (same as getMessages)
                 dialogsRowId = findDialogForSubTarget(conn, currentUserId, targetUser, currentSubTarget);
 
@@ -1962,17 +2094,8 @@ public class ConversationController {
                     final Integer finalDialogsRowId = dialogsRowId;
                     final Integer finalLastMsgId = lastMsgId;
                     final String finalNewText = newText;
-                    new Thread(() -> {
-                        try (java.sql.Connection bgConn = java.sql.DriverManager.getConnection(
-                                System.getenv("DATABASE_URL") != null
-                                        ? System.getenv("DATABASE_URL")
-                                        : "jdbc:postgresql://localhost:5432/aria",
-                                System.getenv("DATABASE_USER") != null
-                                        ? System.getenv("DATABASE_USER")
-                                        : "postgres",
-                                System.getenv("DATABASE_PASSWORD") != null
-                                        ? System.getenv("DATABASE_PASSWORD")
-                                        : "Ezekiel(23)")) {
+                    BackgroundTasks.getInstance().submit(BackgroundTasks.Lane.INTERACTIVE, () -> {
+                        try (java.sql.Connection bgConn = ConnectionPool.getConnection()) {
                             bgConn.setAutoCommit(false);
                             try {
                                 try (java.sql.PreparedStatement ps = bgConn.prepareStatement(
@@ -1987,6 +2110,7 @@ public class ConversationController {
                                     // Commit the transaction
                                     bgConn.commit();
                                     System.out.println("Database transaction committed for message edit (editLast): messageId=" + finalLastMsgId + ", rowsUpdated=" + updated);
+                                    com.aria.service.MessageFeedService.getInstance().publish(finalDialogsRowId, com.aria.service.MessageFeedService.EDIT, (long) finalLastMsgId);
                                     
                                     // Invalidate cache
                                     com.aria.cache.RedisCacheManager cache = com.aria.cache.RedisCacheManager.getInstance();
@@ -2010,7 +2134,7 @@ public class ConversationController {
                             System.err.println("Warning: Failed to update message in database: " + e.getMessage());
                             e.printStackTrace();
                         }
-                    }).start();
+                    });
                     
                     // Invalidate cache when message is edited
                     com.aria.cache.RedisCacheManager cache = com.aria.cache.RedisCacheManager.getInstance();
@@ -2099,16 +2223,7 @@ public class ConversationController {
             String mimeType = null;
             
             // Check if message has media before editing
-            try (java.sql.Connection checkConn = java.sql.DriverManager.getConnection(
-                    System.getenv("DATABASE_URL") != null
-                            ? System.getenv("DATABASE_URL")
-                            : "jdbc:postgresql://localhost:5432/aria",
-                    System.getenv("DATABASE_USER") != null
-                            ? System.getenv("DATABASE_USER")
-                            : "postgres",
-                    System.getenv("DATABASE_PASSWORD") != null
-                            ? System.getenv("DATABASE_PASSWORD")
-                            : "Ezekiel(23)")) {
+            try (java.sql.Connection checkConn = ConnectionPool.getConnection()) {
                 
                 Integer dialogsRowId = null;
                 // Use findDialogForSubTarget helper method (same as getMessages)
@@ -2139,16 +2254,7 @@ public class ConversationController {
             boolean ok = connector.editMessage(username, messageId, newText != null ? newText : "");
             if (ok) {
                     // Update the message in the database after successful edit in Telegram
-                    try (java.sql.Connection conn = java.sql.DriverManager.getConnection(
-                            System.getenv("DATABASE_URL") != null
-                                    ? System.getenv("DATABASE_URL")
-                                    : "jdbc:postgresql://localhost:5432/aria",
-                            System.getenv("DATABASE_USER") != null
-                                    ? System.getenv("DATABASE_USER")
-                                    : "postgres",
-                            System.getenv("DATABASE_PASSWORD") != null
-                                    ? System.getenv("DATABASE_PASSWORD")
-                                    : "Ezekiel(23)")) {
+                    try (java.sql.Connection conn = ConnectionPool.getConnection()) {
                         
                         // Find dialog row id using findDialogForSubTarget helper
                         Integer dialogsRowId = findDialogForSubTarget(conn, currentUserId, targetUser, currentSubTarget);
@@ -2211,17 +2317,8 @@ public class ConversationController {
                             final Integer finalDialogsRowId = dialogsRowId;
                             final Integer finalMessageId = messageId;
                             final String finalNewText = newText;
-                            new Thread(() -> {
-                                try (java.sql.Connection bgConn = java.sql.DriverManager.getConnection(
-                                        System.getenv("DATABASE_URL") != null
-                                                ? System.getenv("DATABASE_URL")
-                                                : "jdbc:postgresql://localhost:5432/aria",
-                                        System.getenv("DATABASE_USER") != null
-                                                ? System.getenv("DATABASE_USER")
-                                                : "postgres",
-                                        System.getenv("DATABASE_PASSWORD") != null
-                                                ? System.getenv("DATABASE_PASSWORD")
-                                                : "Ezekiel(23)")) {
+                            BackgroundTasks.getInstance().submit(BackgroundTasks.Lane.INTERACTIVE, () -> {
+                                try (java.sql.Connection bgConn = ConnectionPool.getConnection()) {
                                     bgConn.setAutoCommit(false);
                                     try {
                                         try (java.sql.PreparedStatement ps = bgConn.prepareStatement(
@@ -2236,6 +2333,7 @@ public class ConversationController {
                                             // Commit the transaction
                                             bgConn.commit();
                                             System.out.println("Database transaction committed for message edit: messageId=" + finalMessageId + ", rowsUpdated=" + updated);
+                                            com.aria.service.MessageFeedService.getInstance().publish(finalDialogsRowId, com.aria.service.MessageFeedService.EDIT, (long) finalMessageId);
                                         }
                                     } catch (Exception e) {
                                         // Rollback on error
@@ -2253,7 +2351,7 @@ public class ConversationController {
                                     System.err.println("Warning: Failed to update message in database: " + e.getMessage());
                                     e.printStackTrace();
                                 }
-                            }).start();
+                            });
                             
                             // Invalidate cache when message is edited
                             com.aria.cache.RedisCacheManager cache = com.aria.cache.RedisCacheManager.getInstance();
@@ -2360,16 +2458,7 @@ public class ConversationController {
             com.aria.platform.telegram.TelegramConnector.DeleteMessageResult result = connector.deleteMessage(username, messageId, revoke);
                 if (result.success) {
                     // Delete the message from the database after successful deletion in Telegram
-                    try (java.sql.Connection conn = java.sql.DriverManager.getConnection(
-                            System.getenv("DATABASE_URL") != null
-                                    ? System.getenv("DATABASE_URL")
-                                    : "jdbc:postgresql://localhost:5432/aria",
-                            System.getenv("DATABASE_USER") != null
-                                    ? System.getenv("DATABASE_USER")
-                                    : "postgres",
-                            System.getenv("DATABASE_PASSWORD") != null
-                                    ? System.getenv("DATABASE_PASSWORD")
-                                    : "Ezekiel(23)")) {
+                    try (java.sql.Connection conn = ConnectionPool.getConnection()) {
                         
                         // Find dialog row id using findDialogForSubTarget helper (same as getMessages)
                         Integer dialogsRowId = findDialogForSubTarget(conn, currentUserId, targetUser, currentSubTarget);
@@ -2449,6 +2538,7 @@ public class ConversationController {
                                     // Commit the transaction
                                     conn.commit();
                                     System.out.println("Database transaction committed for message deletion");
+                                    com.aria.service.MessageFeedService.getInstance().publish(dialogsRowId, com.aria.service.MessageFeedService.DELETE, (long) messageId);
                                 }
                             } catch (Exception e) {
                                 // Rollback on error
@@ -2543,10 +2633,11 @@ public class ConversationController {
             // Try to get platform info from SubTarget User first
             DatabaseManager.PlatformAccount acc = null;
             String targetUsername = null;
+            com.aria.core.model.SubTargetUser subTarget = null;
             
             if (subtargetUserId != null) {
                 com.aria.service.SubTargetUserService subTargetUserService = new com.aria.service.SubTargetUserService(databaseManager);
-                com.aria.core.model.SubTargetUser subTarget = subTargetUserService.getSubTargetUserById(subtargetUserId);
+                subTarget = subTargetUserService.getSubTargetUserById(subtargetUserId);
                 if (subTarget != null && subTarget.getTargetUserId() == targetUserId) {
                     if (subTarget.getPlatform() == com.aria.platform.Platform.TELEGRAM && subTarget.getPlatformAccountId() != null) {
                         acc = DatabaseManager.getPlatformAccountById(subTarget.getPlatformAccountId());
@@ -2594,14 +2685,29 @@ public class ConversationController {
             final com.aria.platform.telegram.TelegramConnector finalConnector = connector;
             final int finalCurrentUserId = currentUserId;
             final int finalTargetUserId = targetUserId;
+            final com.aria.core.model.SubTargetUser finalSubTarget =
+                subTarget != null && subTarget.getTargetUserId() == targetUserId ? subTarget : null;
+            
+            // With a live update stream, Telegram pushes new/edited/deleted/pinned messages as they happen,
+            // so only the first call per target (since the stream went live) needs a catch-up ingestion
+            com.aria.platform.telegram.TelegramUpdateStream stream =
+                com.aria.platform.telegram.TelegramUpdateStream.ensureLive(acc, connector);
+            if (stream != null && !stream.markCaughtUp(finalTargetUsername)) {
+                return ResponseEntity.ok(ApiResponse.success("Live update stream active", "live"));
+            }
             
             // Priority ingestion runs independently - it doesn't need to check if main ingestion is running
-            // It's lightweight (just 50 messages) and should run every 5 seconds
-            // Trigger priority ingestion in background thread (non-blocking)
-            // This runs every 5 seconds and always re-ingests the last 50 messages
-            // to check for new messages and deletions
-            new Thread(() -> {
-                try {
+            // It's lightweight (just 50 messages): it catches the conversation up once, or re-ingests on
+            // every poll when the update stream is unavailable. Polls from several tabs/nodes while one
+            // ingestion of this dialog is still running don't start another.
+            com.aria.cache.SingleFlight.Lease lease = com.aria.cache.SingleFlight.tryAcquire(
+                "ingest-target:" + acc.id + ":" + finalTargetUsername.toLowerCase(), 300);
+            if (lease == null) {
+                return ResponseEntity.ok(ApiResponse.success("Priority ingestion already running for target user",
+                    stream != null ? "live" : null));
+            }
+            BackgroundTasks.getInstance().submit(BackgroundTasks.Lane.INTERACTIVE, () -> {
+                try (lease) {
                     System.out.println("Starting priority ingestion for target user conversation: " + finalTargetUsername);
                     finalConnector.ingestPriorityTarget(finalTargetUsername, finalAcc);
                     System.out.println("Priority ingestion completed for target user: " + finalTargetUsername);
@@ -2611,13 +2717,20 @@ public class ConversationController {
                     com.aria.cache.RedisCacheManager cache = com.aria.cache.RedisCacheManager.getInstance();
                     cache.invalidateMessages(finalCurrentUserId, finalTargetUserId);
                     System.out.println("Cache invalidated for user " + finalCurrentUserId + ", target " + finalTargetUserId);
+                    
+                    // Ingestion wrote straight to the database: drop the cached timelines and have open message streams reload once
+                    com.aria.service.MessageFeedService feed = com.aria.service.MessageFeedService.getInstance();
+                    try (java.sql.Connection conn = ConnectionPool.getConnection()) {
+                        feed.invalidate(resolveDialogRowIds(conn, databaseManager, finalCurrentUserId, targetUser, finalSubTarget));
+                    }
                 } catch (Exception e) {
                     System.err.println("Error in priority ingestion for target user: " + e.getMessage());
                     e.printStackTrace();
                 }
-            }, "priority-ingest-target-" + finalTargetUsername).start();
+            });
             
-            return ResponseEntity.ok(ApiResponse.success("Priority ingestion started for target user", null));
+            return ResponseEntity.ok(ApiResponse.success("Priority ingestion started for target user",
+                stream != null ? "live" : null));
         } catch (Exception e) {
             return ResponseEntity.internalServerError()
                 .body(ApiResponse.error("Error starting priority ingestion: " + e.getMessage()));
@@ -2751,6 +2864,19 @@ public class ConversationController {
                 return ResponseEntity.badRequest().body(ApiResponse.error("Media sending not yet supported for platform: " + platform));
             }
 
+            if (sendResult != null && sendResult.outcomeUnknown) {
+                // As in respond(): may still be delivered, so it's neither saved nor reported as failed
+                java.util.Map<String, Object> messageData = new java.util.HashMap<>();
+                messageData.put("fromUser", true);
+                messageData.put("text", caption != null && !caption.isEmpty() ? caption : null);
+                messageData.put("timestamp", System.currentTimeMillis());
+                messageData.put("hasMedia", true);
+                messageData.put("fileName", fileName);
+                messageData.put("mimeType", mimeType);
+                messageData.put("outcomeUnknown", true);
+                return ResponseEntity.accepted().body(ApiResponse.success("Media not confirmed yet", messageData));
+            }
+
             if (sendResult == null || !sendResult.success || sendResult.messageId == null || sendResult.messageId < 0) {
                 return ResponseEntity.internalServerError().body(ApiResponse.error("Failed to send media"));
             }
@@ -2760,16 +2886,7 @@ public class ConversationController {
 
             // Get or create dialog and save the media message to the database
             Integer dialogRowId = null;
-            try (java.sql.Connection conn = java.sql.DriverManager.getConnection(
-                    System.getenv("DATABASE_URL") != null
-                            ? System.getenv("DATABASE_URL")
-                            : "jdbc:postgresql://localhost:5432/aria",
-                    System.getenv("DATABASE_USER") != null
-                            ? System.getenv("DATABASE_USER")
-                            : "postgres",
-                    System.getenv("DATABASE_PASSWORD") != null
-                            ? System.getenv("DATABASE_PASSWORD")
-                            : "Ezekiel(23)")) {
+            try (java.sql.Connection conn = ConnectionPool.getConnection()) {
                 
                 // First, try to find existing dialog by name
                 try (java.sql.PreparedStatement ps = conn.prepareStatement(
@@ -2854,10 +2971,12 @@ public class ConversationController {
                                     file.getSize(),
                                     mimeType
                                 );
+                                MediaPreviewService.getInstance().scheduleForMessages(java.util.List.of(internalMessageId));
                             } catch (Exception e) {
                                 System.err.println("Warning: Failed to save media metadata: " + e.getMessage());
                                 e.printStackTrace();
                             }
+                            com.aria.service.MessageFeedService.getInstance().publish(dialogRowId, com.aria.service.MessageFeedService.INSERT, telegramMessageId.longValue());
                         }
                     } catch (Exception e) {
                         // Log but don't fail - message was sent, just couldn't save to DB
@@ -3020,16 +3139,7 @@ public class ConversationController {
 
             // Update the existing message in the database (message was edited, not deleted/recreated)
             Integer dialogRowId = null;
-            try (java.sql.Connection conn = java.sql.DriverManager.getConnection(
-                    System.getenv("DATABASE_URL") != null
-                            ? System.getenv("DATABASE_URL")
-                            : "jdbc:postgresql://localhost:5432/aria",
-                    System.getenv("DATABASE_USER") != null
-                            ? System.getenv("DATABASE_USER")
-                            : "postgres",
-                    System.getenv("DATABASE_PASSWORD") != null
-                            ? System.getenv("DATABASE_PASSWORD")
-                            : "Ezekiel(23)")) {
+            try (java.sql.Connection conn = ConnectionPool.getConnection()) {
                 
                 // Find dialog using findDialogForSubTarget helper
                 com.aria.core.model.SubTargetUser currentSubTarget = null;
@@ -3090,7 +3200,7 @@ public class ConversationController {
                             
                             // Try to update existing media record
                             try (java.sql.PreparedStatement ps = conn.prepareStatement(
-                                    "UPDATE media SET type = ?, file_path = ?, file_name = ?, file_size = ?, mime_type = ? " +
+                                    "UPDATE media SET type = ?, file_path = ?, file_name = ?, file_size = ?, mime_type = ?, preview_path = NULL " +
                                     "WHERE message_id = ?")) {
                                 ps.setString(1, mediaType);
                                 ps.setString(2, mediaFilePath);
@@ -3116,7 +3226,9 @@ public class ConversationController {
                                 }
                             }
                             
+                            MediaPreviewService.getInstance().scheduleForMessages(java.util.List.of(internalMessageId));
                             System.out.println("Updated media message in database: messageId=" + oldMessageId + ", dialogId=" + dialogRowId);
+                            com.aria.service.MessageFeedService.getInstance().publish(dialogRowId, com.aria.service.MessageFeedService.EDIT, (long) oldMessageId);
                         }
                     } catch (Exception e) {
                         System.err.println("Warning: Error updating media metadata in database: " + e.getMessage());
@@ -3177,16 +3289,7 @@ public class ConversationController {
             }
             
             Integer dialogRowId = null;
-            try (java.sql.Connection conn = java.sql.DriverManager.getConnection(
-                    System.getenv("DATABASE_URL") != null
-                            ? System.getenv("DATABASE_URL")
-                            : "jdbc:postgresql://localhost:5432/aria",
-                    System.getenv("DATABASE_USER") != null
-                            ? System.getenv("DATABASE_USER")
-                            : "postgres",
-                    System.getenv("DATABASE_PASSWORD") != null
-                            ? System.getenv("DATABASE_PASSWORD")
-                            : "Ezekiel(23)")) {
+            try (java.sql.Connection conn = ConnectionPool.getConnection()) {
                 
                 dialogRowId = findDialogForSubTarget(conn, currentUserId, targetUser, subTargetForDialog);
                 
@@ -3205,6 +3308,7 @@ public class ConversationController {
                         return ResponseEntity.badRequest().body(ApiResponse.error("Message not found"));
                     }
                 }
+                com.aria.service.MessageFeedService.getInstance().publish(dialogRowId, com.aria.service.MessageFeedService.PIN, (long) messageId);
             } catch (java.sql.SQLException e) {
                 System.err.println("SQL error in pin endpoint: " + e.getMessage());
                 e.printStackTrace();
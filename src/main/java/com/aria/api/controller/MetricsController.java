@@ -0,0 +1,74 @@
+package com.aria.api.controller;
+
+import com.aria.ai.ContextCache;
+import com.aria.api.dto.ApiResponse;
+import com.aria.cache.RedisCacheManager;
+import com.aria.cache.SingleFlight;
+import com.aria.platform.telegram.EntityIdResolver;
+import com.aria.platform.telegram.OutboundQueue;
+import com.aria.platform.telegram.TelegramUpdateStream;
+import com.aria.service.BackgroundTasks;
+import com.aria.service.MediaPreviewService;
+import com.aria.service.MessageFeedService;
+import com.aria.service.PresenceService;
+import com.aria.storage.ConnectionPool;
+import com.aria.storage.SentMessageJournal;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Operational metrics for the backend subsystems (connection pools, etc.)
+ */
+@RestController
+@RequestMapping("/api/metrics")
+@CrossOrigin(origins = "*")
+public class MetricsController {
+
+    /**
+     * Get wait/usage metrics for every database connection pool.
+     * GET /api/metrics/db
+     */
+    @GetMapping("/db")
+    public ResponseEntity<ApiResponse<Map<String, Map<String, Object>>>> getDatabasePoolMetrics() {
+        try {
+            return ResponseEntity.ok(ApiResponse.success(ConnectionPool.getStats()));
+        } catch (Exception e) {
+            return ResponseEntity.internalServerError()
+                    .body(ApiResponse.error("Failed to get pool metrics: " + e.getMessage()));
+        }
+    }
+
+    /**
+     * Get all backend metrics in one response.
+     * GET /api/metrics
+     */
+    @GetMapping
+    public ResponseEntity<ApiResponse<Map<String, Object>>> getAllMetrics() {
+        try {
+            Map<String, Object> metrics = new LinkedHashMap<>();
+            metrics.put("db", ConnectionPool.getStats());
+            metrics.put("redis", RedisCacheManager.getInstance().getRedisStats());
+            metrics.put("nearCache", RedisCacheManager.getInstance().getNearCacheStats());
+            metrics.put("cacheSerialization", RedisCacheManager.getInstance().getSerializationStats());
+            metrics.put("singleFlight", SingleFlight.getStats());
+            metrics.put("contextCache", ContextCache.getInstance().getStats());
+            metrics.put("backgroundTasks", BackgroundTasks.getInstance().getStats());
+            metrics.put("sentJournal", SentMessageJournal.getInstance().getStats());
+            metrics.put("presence", PresenceService.getInstance().getStats());
+            metrics.put("entityIds", EntityIdResolver.getInstance().getStats());
+            metrics.put("outboundQueues", OutboundQueue.getStats());
+            metrics.put("updateStreamBacklog", TelegramUpdateStream.getStats());
+            metrics.put("mediaPreviews", MediaPreviewService.getInstance().getStats());
+            metrics.put("messageFeed", Map.of(
+                "subscriptions", MessageFeedService.getInstance().getSubscriptionCount(),
+                "dialogLogs", MessageFeedService.getInstance().getDialogLogCount()));
+            return ResponseEntity.ok(ApiResponse.success(metrics));
+        } catch (Exception e) {
+            return ResponseEntity.internalServerError()
+                    .body(ApiResponse.error("Failed to get metrics: " + e.getMessage()));
+        }
+    }
+}
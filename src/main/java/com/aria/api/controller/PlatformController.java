@@ -7,6 +7,7 @@ import com.aria.core.model.User;
 import com.aria.platform.Platform;
 import com.aria.platform.PlatformConnector;
 import com.aria.platform.telegram.TelegramConnector;
+import com.aria.service.BackgroundTasks;
 import com.aria.service.UserService;
 import com.aria.storage.DatabaseManager;
 import org.springframework.http.ResponseEntity;
@@ -162,7 +163,8 @@ public class PlatformController {
                 User tempUser = new User(number != null ? number : "", username != null ? username : "", "", "", "");
                 UserService userService = new UserService(databaseManager, tempUser);
                 AriaOrchestrator orchestrator = new AriaOrchestrator(userService);
-                new Thread(() -> {
+                BackgroundTasks.Submission submission = BackgroundTasks.getInstance().submit(
+                        BackgroundTasks.Lane.BATCH, "ingest-account:" + accountId, () -> {
                     try {
                         // mark ingestion running for this user/account
                         try {
@@ -177,7 +179,13 @@ public class PlatformController {
                     } catch (Exception ex) {
                         try { DatabaseManager.setIngestionFinished(currentUserId, accountId, ex.getMessage()); } catch (Exception ignored) {}
                     }
-                }, "ingest-" + platform.toLowerCase() + "-" + accountId).start();
+                });
+                if (submission == BackgroundTasks.Submission.DUPLICATE) {
+                    return ResponseEntity.ok(ApiResponse.success("Platform registered (ingestion already running)", null));
+                }
+                if (submission == BackgroundTasks.Submission.REJECTED) {
+                    return ResponseEntity.ok(ApiResponse.success("Platform registered (ingestion queue full, try again later)", null));
+                }
             }
 
             return ResponseEntity.ok(ApiResponse.success("Platform registered and ingestion started", null));
@@ -206,7 +214,7 @@ public class PlatformController {
             env.put("TELEGRAM_API_HASH", apiHash);
             env.put("TELEGRAM_PHONE", phoneNumber);
             env.put("TELETHON_SESSION_PATH", sessionPath);
-            env.put("TELETHON_LOCK_PATH", "/app/telethon_send.lock");
+            env.put("TELETHON_LOCK_PATH", sessionPath + ".send.lock");
             pb.redirectErrorStream(true);
             Process p = pb.start();
             int exit = p.waitFor();
@@ -241,7 +249,7 @@ public class PlatformController {
             env.put("TELEGRAM_PHONE", phoneNumber);
             if (password != null) env.put("TELEGRAM_PASSWORD", password);
             env.put("TELETHON_SESSION_PATH", sessionPath);
-            env.put("TELETHON_LOCK_PATH", "/app/telethon_send.lock");
+            env.put("TELETHON_LOCK_PATH", sessionPath + ".send.lock");
             pb.redirectErrorStream(true);
             Process p = pb.start();
             int exit = p.waitFor();
@@ -5,9 +5,12 @@ import com.aria.api.dto.TargetUserDTO;
 import com.aria.core.model.TargetUser;
 import com.aria.core.model.ChatCategory;
 import com.aria.platform.Platform;
+import com.aria.service.BackgroundTasks;
+import com.aria.service.PresenceService;
 import com.aria.service.TargetUserService;
 import com.aria.service.UserService;
 import com.aria.storage.DatabaseManager;
+import com.aria.storage.ConnectionPool;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
@@ -35,6 +38,11 @@ public class TargetController {
 
     // DatabaseManager uses static methods, so no autowiring needed
 
+    /** How long another node waits before retrying a profile picture fetch whose holder never finished */
+    private static final int PROFILE_PICTURE_FETCH_LOCK_SECONDS = 120;
+    /** A fetch script still running after this is killed, so it never outlives its lock */
+    private static final int PROFILE_PICTURE_FETCH_TIMEOUT_SECONDS = 90;
+
     /**
      * Get all target users
      * GET /api/targets
@@ -54,105 +62,75 @@ public class TargetController {
             List<TargetUser> targets = targetUserService.getTargetUsersByUserId(currentUserId);
             List<TargetUserDTO> targetDTOs = new ArrayList<>();
             
-            // Load profile_json for each target to include ChatProfile fields
-            try (java.sql.Connection conn = java.sql.DriverManager.getConnection(
-                    System.getenv("DATABASE_URL") != null
-                            ? System.getenv("DATABASE_URL")
-                            : "jdbc:postgresql://localhost:5432/aria",
-                    System.getenv("DATABASE_USER") != null
-                            ? System.getenv("DATABASE_USER")
-                            : "postgres",
-                    System.getenv("DATABASE_PASSWORD") != null
-                            ? System.getenv("DATABASE_PASSWORD")
-                            : "Ezekiel(23)")) {
+            // Targets, subtargets and legacy platforms were loaded set-based above; resolve the legacy
+            // platform accounts in one query instead of one lookup per target
+            try {
+                java.util.Set<Integer> accountIds = new java.util.HashSet<>();
+                List<TargetUserDTO> dtos = new ArrayList<>();
                 for (TargetUser target : targets) {
                     TargetUserDTO dto = new TargetUserDTO(target);
-                    
-                    // SubTarget Users are already loaded in the DTO constructor from target.getSubTargetUsers()
-                    // But we need to load platform account info for each SubTarget User
-                    if (dto.getSubTargetUsers() != null && !dto.getSubTargetUsers().isEmpty()) {
-                        for (com.aria.api.dto.SubTargetUserDTO subTargetDto : dto.getSubTargetUsers()) {
-                            if (subTargetDto.getPlatformAccountId() != null) {
-                                try {
-                                    DatabaseManager.PlatformAccount acc = DatabaseManager.getPlatformAccountById(subTargetDto.getPlatformAccountId());
-                                    if (acc != null) {
-                                        // Platform account info can be accessed if needed
-                                    }
-                                } catch (Exception e) {
-                                    // Log but continue
-                                }
-                            }
-                        }
-                    }
-                    
-                    // Load platform account username and name if platformAccountId is available (legacy)
                     if (dto.getPlatformAccountId() != null) {
-                        try {
-                            DatabaseManager.PlatformAccount acc = DatabaseManager.getPlatformAccountById(dto.getPlatformAccountId());
-                            if (acc != null) {
-                                if (acc.username != null && !acc.username.isEmpty()) {
-                                    dto.setPlatformAccountUsername(acc.username);
-                                }
-                                if (acc.accountName != null && !acc.accountName.isEmpty()) {
-                                    dto.setPlatformAccountName(acc.accountName);
-                                }
-                            }
-                        } catch (Exception e) {
-                            // Log but continue - account info is optional
-                            System.err.println("Warning: Failed to load platform account info: " + e.getMessage());
+                        accountIds.add(dto.getPlatformAccountId());
+                    }
+                    dtos.add(dto);
+                }
+                java.util.Map<Integer, DatabaseManager.PlatformAccount> accounts = java.util.Collections.emptyMap();
+                try {
+                    accounts = DatabaseManager.getPlatformAccountsByIds(accountIds);
+                } catch (Exception e) {
+                    // Log but continue - account info is optional
+                    System.err.println("Warning: Failed to load platform account info: " + e.getMessage());
+                }
+
+                for (int i = 0; i < targets.size(); i++) {
+                    TargetUser target = targets.get(i);
+                    TargetUserDTO dto = dtos.get(i);
+
+                    // Platform account username and name (legacy platformAccountId)
+                    DatabaseManager.PlatformAccount acc = dto.getPlatformAccountId() != null
+                        ? accounts.get(dto.getPlatformAccountId()) : null;
+                    if (acc != null) {
+                        if (acc.username != null && !acc.username.isEmpty()) {
+                            dto.setPlatformAccountUsername(acc.username);
+                        }
+                        if (acc.accountName != null && !acc.accountName.isEmpty()) {
+                            dto.setPlatformAccountName(acc.accountName);
                         }
                     }
-                    
-                    // Load new fields and profile_json, profile_picture_url
-                    try (java.sql.PreparedStatement ps = conn.prepareStatement(
-                            "SELECT bio, desired_outcome, meeting_context, important_details, cross_platform_context_enabled, profile_json, profile_picture_url FROM target_users WHERE id = ?")) {
-                        ps.setInt(1, target.getTargetId());
-                        try (ResultSet rs = ps.executeQuery()) {
-                            if (rs.next()) {
-                                // Load new fields directly from database
-                                dto.setBio(rs.getString("bio"));
-                                dto.setDesiredOutcome(rs.getString("desired_outcome"));
-                                dto.setMeetingContext(rs.getString("meeting_context"));
-                                dto.setImportantDetails(rs.getString("important_details"));
-                                dto.setCrossPlatformContextEnabled(rs.getBoolean("cross_platform_context_enabled"));
-                                
-                                // Load profile picture URL
-                                String profilePictureUrl = rs.getString("profile_picture_url");
-                                if (profilePictureUrl != null && !profilePictureUrl.isEmpty()) {
-                                    dto.setProfilePictureUrl(profilePictureUrl);
-                                } else {
-                                    // Auto-fetch profile picture from Telegram if not set (runs in background)
-                                    final TargetUser finalTarget = target;
-                                    final int finalUserId = currentUserId;
-                                    final TargetUserDTO finalDto = dto;
-                                    new Thread(() -> {
-                                        try {
-                                            fetchProfilePictureFromTelegram(finalTarget, finalUserId, finalDto);
-                                        } catch (Exception e) {
-                                            // Silently fail - profile picture fetch is optional
-                                            System.err.println("Warning: Failed to auto-fetch profile picture for target " + finalTarget.getTargetId() + ": " + e.getMessage());
-                                        }
-                                    }).start();
-                                }
-                                
-                                // Load ChatProfile fields from profile_json (legacy support)
-                                String profileJson = rs.getString("profile_json");
-                                if (profileJson != null && !profileJson.isEmpty()) {
-                                    org.json.JSONObject profile = new org.json.JSONObject(profileJson);
-                                    
-                                    // Only load ChatProfile fields from profile_json (basic fields now come from DB columns)
-                                    if (profile.has("humorLevel")) dto.setHumorLevel(profile.getDouble("humorLevel"));
-                                    if (profile.has("formalityLevel")) dto.setFormalityLevel(profile.getDouble("formalityLevel"));
-                                    if (profile.has("empathyLevel")) dto.setEmpathyLevel(profile.getDouble("empathyLevel"));
-                                    if (profile.has("responseTimeAverage")) dto.setResponseTimeAverage(profile.getDouble("responseTimeAverage"));
-                                    if (profile.has("messageLengthAverage")) dto.setMessageLengthAverage(profile.getDouble("messageLengthAverage"));
-                                    if (profile.has("questionRate")) dto.setQuestionRate(profile.getDouble("questionRate"));
-                                    if (profile.has("engagementLevel")) dto.setEngagementLevel(profile.getDouble("engagementLevel"));
-                                    if (profile.has("preferredOpening")) dto.setPreferredOpening(profile.getString("preferredOpening"));
-                                    if (profile.has("contextDetails")) dto.setContextDetails(profile.getString("contextDetails"));
-                                }
+
+                    String profilePictureUrl = target.getProfilePictureUrl();
+                    if (profilePictureUrl != null && !profilePictureUrl.isEmpty()) {
+                        dto.setProfilePictureUrl(profilePictureUrl);
+                    } else {
+                        // Auto-fetch profile picture from Telegram if not set (runs in background)
+                        final TargetUser finalTarget = target;
+                        final int finalUserId = currentUserId;
+                        final TargetUserDTO finalDto = dto;
+                        BackgroundTasks.getInstance().submit(BackgroundTasks.Lane.PREFETCH, "profile-picture:" + finalTarget.getTargetId(), () -> {
+                            try {
+                                fetchProfilePictureFromTelegram(finalTarget, finalUserId, finalDto);
+                            } catch (Exception e) {
+                                // Silently fail - profile picture fetch is optional
+                                System.err.println("Warning: Failed to auto-fetch profile picture for target " + finalTarget.getTargetId() + ": " + e.getMessage());
                             }
-                        }
+                        });
+                    }
+
+                    // Load ChatProfile fields from profile_json (legacy support)
+                    String profileJson = target.getProfileJson();
+                    if (profileJson != null && !profileJson.isEmpty()) {
+                        org.json.JSONObject profile = new org.json.JSONObject(profileJson);
+
+                        // Only load ChatProfile fields from profile_json (basic fields now come from DB columns)
+                        if (profile.has("humorLevel")) dto.setHumorLevel(profile.getDouble("humorLevel"));
+                        if (profile.has("formalityLevel")) dto.setFormalityLevel(profile.getDouble("formalityLevel"));
+                        if (profile.has("empathyLevel")) dto.setEmpathyLevel(profile.getDouble("empathyLevel"));
+                        if (profile.has("responseTimeAverage")) dto.setResponseTimeAverage(profile.getDouble("responseTimeAverage"));
+                        if (profile.has("messageLengthAverage")) dto.setMessageLengthAverage(profile.getDouble("messageLengthAverage"));
+                        if (profile.has("questionRate")) dto.setQuestionRate(profile.getDouble("questionRate"));
+                        if (profile.has("engagementLevel")) dto.setEngagementLevel(profile.getDouble("engagementLevel"));
+                        if (profile.has("preferredOpening")) dto.setPreferredOpening(profile.getString("preferredOpening"));
+                        if (profile.has("contextDetails")) dto.setContextDetails(profile.getString("contextDetails"));
                     }
                     targetDTOs.add(dto);
                 }
@@ -184,16 +162,7 @@ public class TargetController {
             int currentUserId = userId != null ? userId : 1;
             
             // Check for duplicate target user (same username, platform, and account)
-            try (java.sql.Connection conn = java.sql.DriverManager.getConnection(
-                    System.getenv("DATABASE_URL") != null
-                            ? System.getenv("DATABASE_URL")
-                            : "jdbc:postgresql://localhost:5432/aria",
-                    System.getenv("DATABASE_USER") != null
-                            ? System.getenv("DATABASE_USER")
-                            : "postgres",
-                    System.getenv("DATABASE_PASSWORD") != null
-                            ? System.getenv("DATABASE_PASSWORD")
-                            : "Ezekiel(23)")) {
+            try (java.sql.Connection conn = ConnectionPool.getConnection()) {
                 String checkSql = """
                     SELECT tu.id, tu.name, tup.platform, tup.username, tup.platform_id
                     FROM target_users tu
@@ -261,16 +230,7 @@ public class TargetController {
 
             if (success) {
                 // Persist questionnaire profile to target_users.profile_json
-                try (java.sql.Connection conn = java.sql.DriverManager.getConnection(
-                        System.getenv("DATABASE_URL") != null
-                                ? System.getenv("DATABASE_URL")
-                                : "jdbc:postgresql://localhost:5432/aria",
-                        System.getenv("DATABASE_USER") != null
-                                ? System.getenv("DATABASE_USER")
-                                : "postgres",
-                        System.getenv("DATABASE_PASSWORD") != null
-                                ? System.getenv("DATABASE_PASSWORD")
-                                : "Ezekiel(23)")) {
+                try (java.sql.Connection conn = ConnectionPool.getConnection()) {
                     // get target id by unique (user_id, name)
                     int targetId = -1;
                     try (java.sql.PreparedStatement ps = conn.prepareStatement(
@@ -330,14 +290,14 @@ public class TargetController {
                                     targetUsername = targetUsername.substring(1);
                                 }
                                 final String finalTargetUsername = targetUsername;
-                                new Thread(() -> {
+                                BackgroundTasks.getInstance().submit(BackgroundTasks.Lane.INTERACTIVE, "ingest-history:" + acc.id + ":" + finalTargetUsername.toLowerCase(), () -> {
                                     try {
                                         System.out.println("Starting priority ingestion for target user: " + finalTargetUsername);
                                         connector.ingestChatHistory(finalTargetUsername);
                                     } catch (Exception e) {
                                         System.err.println("Error in priority ingestion: " + e.getMessage());
                                     }
-                                }, "priority-ingest-" + finalTargetUsername).start();
+                                });
                             }
                         }
                     } catch (Exception e) {
@@ -399,16 +359,7 @@ public class TargetController {
                 }
                 
                 // Load ChatProfile fields from profile_json
-                try (java.sql.Connection conn = java.sql.DriverManager.getConnection(
-                        System.getenv("DATABASE_URL") != null
-                                ? System.getenv("DATABASE_URL")
-                                : "jdbc:postgresql://localhost:5432/aria",
-                        System.getenv("DATABASE_USER") != null
-                                ? System.getenv("DATABASE_USER")
-                                : "postgres",
-                        System.getenv("DATABASE_PASSWORD") != null
-                                ? System.getenv("DATABASE_PASSWORD")
-                                : "Ezekiel(23)")) {
+                try (java.sql.Connection conn = ConnectionPool.getConnection()) {
                     try (java.sql.PreparedStatement ps = conn.prepareStatement(
                             "SELECT profile_json, profile_picture_url FROM target_users WHERE id = ?")) {
                         ps.setInt(1, id);
@@ -423,14 +374,14 @@ public class TargetController {
                                     final TargetUser finalTarget = target;
                                     final int finalUserId = currentUserId;
                                     final TargetUserDTO finalDto = dto;
-                                    new Thread(() -> {
+                                    BackgroundTasks.getInstance().submit(BackgroundTasks.Lane.PREFETCH, "profile-picture:" + finalTarget.getTargetId(), () -> {
                                         try {
                                             fetchProfilePictureFromTelegram(finalTarget, finalUserId, finalDto);
                                         } catch (Exception e) {
                                             // Silently fail - profile picture fetch is optional
                                             System.err.println("Warning: Failed to auto-fetch profile picture for target " + finalTarget.getTargetId() + ": " + e.getMessage());
                                         }
-                                    }).start();
+                                    });
                                 }
                                 
                                 String profileJson = rs.getString("profile_json");
@@ -561,16 +512,7 @@ public class TargetController {
             
             if (success) {
                 // Update profile_json with ChatProfile fields (basic fields are now in DB columns)
-                try (java.sql.Connection conn = java.sql.DriverManager.getConnection(
-                        System.getenv("DATABASE_URL") != null
-                                ? System.getenv("DATABASE_URL")
-                                : "jdbc:postgresql://localhost:5432/aria",
-                        System.getenv("DATABASE_USER") != null
-                                ? System.getenv("DATABASE_USER")
-                                : "postgres",
-                        System.getenv("DATABASE_PASSWORD") != null
-                                ? System.getenv("DATABASE_PASSWORD")
-                                : "Ezekiel(23)")) {
+                try (java.sql.Connection conn = ConnectionPool.getConnection()) {
                     // Get existing profile_json first to merge ChatProfile fields
                     org.json.JSONObject profile = new org.json.JSONObject();
                     try (java.sql.PreparedStatement ps = conn.prepareStatement(
@@ -658,6 +600,68 @@ public class TargetController {
         }
     }
 
+    /**
+     * Online status of many targets at once, from the presence cache
+     * GET /api/targets/online?ids=1,2,3&userId=1
+     * Returns a Map of target id to {"isOnline", "lastActive"}; unknown ids are left out
+     */
+    @GetMapping("/online")
+    public ResponseEntity<ApiResponse<Map<String, Map<String, Object>>>> checkOnlineStatuses(
+            @RequestParam("ids") List<Integer> ids,
+            @RequestParam(value = "userId", required = false) Integer userId) {
+        try {
+            int currentUserId = userId != null ? userId : 1;
+            DatabaseManager databaseManager = new DatabaseManager();
+            TargetUserService targetUserService = new TargetUserService(databaseManager);
+            Set<Integer> wanted = new HashSet<>(ids);
+
+            Map<String, Map<String, Object>> result = new HashMap<>();
+            // Usernames to check per platform account, and which targets each one answers
+            Map<Integer, Map<String, List<Integer>>> byAccount = new HashMap<>();
+            for (TargetUser target : targetUserService.getTargetUsersByUserId(currentUserId)) {
+                if (!wanted.contains(target.getTargetId())) {
+                    continue;
+                }
+                com.aria.platform.UserPlatform selected = target.getSelectedPlatform();
+                if (selected == null || selected.getUsername() == null || selected.getUsername().isBlank()) {
+                    result.put(String.valueOf(target.getTargetId()), onlineStatus(false, "unknown"));
+                } else if (selected.getPlatform() != Platform.TELEGRAM) {
+                    result.put(String.valueOf(target.getTargetId()), onlineStatus(false, "not supported"));
+                } else {
+                    byAccount.computeIfAbsent(selected.getPlatformId(), k -> new HashMap<>())
+                        .computeIfAbsent(selected.getUsername(), k -> new ArrayList<>())
+                        .add(target.getTargetId());
+                }
+            }
+
+            for (Map.Entry<Integer, Map<String, List<Integer>>> entry : byAccount.entrySet()) {
+                DatabaseManager.PlatformAccount acc = DatabaseManager.getPlatformAccountById(entry.getKey());
+                Map<String, PresenceService.Status> statuses = acc != null
+                    ? PresenceService.getInstance().getStatuses(acc, entry.getValue().keySet())
+                    : Map.of();
+                for (Map.Entry<String, List<Integer>> user : entry.getValue().entrySet()) {
+                    PresenceService.Status status = statuses.get(user.getKey());
+                    for (Integer targetId : user.getValue()) {
+                        result.put(String.valueOf(targetId), status != null
+                            ? onlineStatus(status.online, status.lastActive)
+                            : onlineStatus(false, "unknown"));
+                    }
+                }
+            }
+            return ResponseEntity.ok(ApiResponse.success(result));
+        } catch (Exception e) {
+            return ResponseEntity.internalServerError()
+                .body(ApiResponse.error("Error checking online statuses: " + e.getMessage()));
+        }
+    }
+
+    private static Map<String, Object> onlineStatus(boolean online, String lastActive) {
+        Map<String, Object> status = new HashMap<>();
+        status.put("isOnline", online);
+        status.put("lastActive", lastActive);
+        return status;
+    }
+
     /**
      * Check if a target user is online
      * GET /api/targets/{id}/online?userId=1
@@ -725,17 +729,13 @@ public class TargetController {
                 return ResponseEntity.ok(ApiResponse.success(errorResult));
             }
 
-            // Check online status using Telegram connector
-            com.aria.platform.telegram.TelegramConnector connector =
-                    (com.aria.platform.telegram.TelegramConnector)
-                    com.aria.platform.ConnectorRegistry.getInstance().getOrCreateTelegramConnector(acc);
-            
-            com.aria.platform.telegram.TelegramConnector.OnlineStatus status = 
-                connector.checkUserOnline(username);
+            // Served from the presence cache (looked up through the account's connector when unknown)
+            PresenceService.Status status =
+                PresenceService.getInstance().getStatus(acc, username);
             
             Map<String, Object> result = new HashMap<>();
-            result.put("isOnline", status.online);
-            result.put("lastActive", status.lastActive);
+            result.put("isOnline", status != null && status.online);
+            result.put("lastActive", status != null ? status.lastActive : "unknown");
             
             return ResponseEntity.ok(ApiResponse.success(result));
         } catch (Exception e) {
@@ -817,16 +817,7 @@ public class TargetController {
             // The dialog name is the Telegram display name (e.g., "Philip inno 2023"), not the target user name
             String chatName = targetUser.getName(); // Default to target name
             if (platformAccountId != null) {
-                try (java.sql.Connection conn = java.sql.DriverManager.getConnection(
-                        System.getenv("DATABASE_URL") != null
-                                ? System.getenv("DATABASE_URL")
-                                : "jdbc:postgresql://localhost:5432/aria",
-                        System.getenv("DATABASE_USER") != null
-                                ? System.getenv("DATABASE_USER")
-                                : "postgres",
-                        System.getenv("DATABASE_PASSWORD") != null
-                                ? System.getenv("DATABASE_PASSWORD")
-                                : "Ezekiel(23)")) {
+                try (java.sql.Connection conn = ConnectionPool.getConnection()) {
                     // Try to find dialog by matching target user name first
                     try (java.sql.PreparedStatement ps = conn.prepareStatement(
                             "SELECT name FROM dialogs WHERE user_id = ? AND platform_account_id = ? AND type = 'private' AND (name = ? OR name LIKE ?) ORDER BY id DESC LIMIT 1")) {
@@ -944,16 +935,7 @@ public class TargetController {
             System.out.println("Profile picture uploaded for target " + targetId + ": " + profilePictureUrl);
             System.out.println("File saved to: " + filePath.toString());
             
-            try (java.sql.Connection conn = java.sql.DriverManager.getConnection(
-                    System.getenv("DATABASE_URL") != null
-                            ? System.getenv("DATABASE_URL")
-                            : "jdbc:postgresql://localhost:5432/aria",
-                    System.getenv("DATABASE_USER") != null
-                            ? System.getenv("DATABASE_USER")
-                            : "postgres",
-                    System.getenv("DATABASE_PASSWORD") != null
-                            ? System.getenv("DATABASE_PASSWORD")
-                            : "Ezekiel(23)")) {
+            try (java.sql.Connection conn = ConnectionPool.getConnection()) {
                 try (java.sql.PreparedStatement ps = conn.prepareStatement(
                         "UPDATE target_users SET profile_picture_url = ? WHERE id = ? AND user_id = ?")) {
                     ps.setString(1, profilePictureUrl);
@@ -998,16 +980,7 @@ public class TargetController {
             
             // Get current profile picture URL from database
             String currentProfilePictureUrl = null;
-            try (java.sql.Connection conn = java.sql.DriverManager.getConnection(
-                    System.getenv("DATABASE_URL") != null
-                            ? System.getenv("DATABASE_URL")
-                            : "jdbc:postgresql://localhost:5432/aria",
-                    System.getenv("DATABASE_USER") != null
-                            ? System.getenv("DATABASE_USER")
-                            : "postgres",
-                    System.getenv("DATABASE_PASSWORD") != null
-                            ? System.getenv("DATABASE_PASSWORD")
-                            : "Ezekiel(23)")) {
+            try (java.sql.Connection conn = ConnectionPool.getConnection()) {
                 try (java.sql.PreparedStatement ps = conn.prepareStatement(
                         "SELECT profile_picture_url FROM target_users WHERE id = ? AND user_id = ?")) {
                     ps.setInt(1, targetId);
@@ -1052,16 +1025,7 @@ public class TargetController {
                             
                             // Try to get dialog name
                             String chatName = targetUser.getName();
-                            try (java.sql.Connection conn = java.sql.DriverManager.getConnection(
-                                    System.getenv("DATABASE_URL") != null
-                                            ? System.getenv("DATABASE_URL")
-                                            : "jdbc:postgresql://localhost:5432/aria",
-                                    System.getenv("DATABASE_USER") != null
-                                            ? System.getenv("DATABASE_USER")
-                                            : "postgres",
-                                    System.getenv("DATABASE_PASSWORD") != null
-                                            ? System.getenv("DATABASE_PASSWORD")
-                                            : "Ezekiel(23)")) {
+                            try (java.sql.Connection conn = ConnectionPool.getConnection()) {
                                 try (java.sql.PreparedStatement ps = conn.prepareStatement(
                                         "SELECT name FROM dialogs WHERE user_id = ? AND platform_account_id = ? AND type = 'private' ORDER BY id DESC LIMIT 1")) {
                                     ps.setInt(1, currentUserId);
@@ -1118,16 +1082,7 @@ public class TargetController {
             }
             
             // Clear profile_picture_url in database
-            try (java.sql.Connection conn = java.sql.DriverManager.getConnection(
-                    System.getenv("DATABASE_URL") != null
-                            ? System.getenv("DATABASE_URL")
-                            : "jdbc:postgresql://localhost:5432/aria",
-                    System.getenv("DATABASE_USER") != null
-                            ? System.getenv("DATABASE_USER")
-                            : "postgres",
-                    System.getenv("DATABASE_PASSWORD") != null
-                            ? System.getenv("DATABASE_PASSWORD")
-                            : "Ezekiel(23)")) {
+            try (java.sql.Connection conn = ConnectionPool.getConnection()) {
                 try (java.sql.PreparedStatement ps = conn.prepareStatement(
                         "UPDATE target_users SET profile_picture_url = NULL WHERE id = ? AND user_id = ?")) {
                     ps.setInt(1, targetId);
@@ -1171,9 +1126,14 @@ public class TargetController {
                             final int finalPlatformAccountId = selected.getPlatformId();
                             final String finalTargetUsername = targetUsername;
                             
-                            // Run in background thread
-                            new Thread(() -> {
-                                try {
+                            // Run as a PREFETCH background task, unless a fetch for this target is already queued or running
+                            BackgroundTasks.getInstance().submit(BackgroundTasks.Lane.PREFETCH, "profile-picture:" + finalTargetId, () -> {
+                                com.aria.cache.SingleFlight.Lease lease = com.aria.cache.SingleFlight.tryAcquire(
+                                    "profile-picture:" + finalTargetId, PROFILE_PICTURE_FETCH_LOCK_SECONDS);
+                                if (lease == null) {
+                                    return;
+                                }
+                                try (lease) {
                                     ProcessBuilder pb = new ProcessBuilder(
                                         finalPythonCmd,
                                         scriptPath,
@@ -1183,12 +1143,19 @@ public class TargetController {
                                         String.valueOf(finalUserId)
                                     );
                                     pb.directory(new java.io.File(System.getProperty("user.dir")));
+                                    pb.redirectErrorStream(true);
+                                    pb.redirectOutput(ProcessBuilder.Redirect.DISCARD);
                                     Process process = pb.start();
-                                    // Don't wait for completion, let it run in background
+                                    // Hold the lease until the script is done (or killed)
+                                    if (!process.waitFor(PROFILE_PICTURE_FETCH_TIMEOUT_SECONDS, java.util.concurrent.TimeUnit.SECONDS)) {
+                                        process.destroyForcibly();
+                                        System.err.println("Profile picture fetch for target " + finalTargetId + " timed out after "
+                                            + PROFILE_PICTURE_FETCH_TIMEOUT_SECONDS + "s");
+                                    }
                                 } catch (Exception e) {
                                     System.err.println("Failed to fetch profile picture from Telegram: " + e.getMessage());
                                 }
-                            }).start();
+                            });
                         }
                     }
                 }
@@ -1239,16 +1206,7 @@ public class TargetController {
                     filePath = oldPath;
                 } else {
                     // If not found, try to get path from database
-                    try (java.sql.Connection conn = java.sql.DriverManager.getConnection(
-                            System.getenv("DATABASE_URL") != null
-                                    ? System.getenv("DATABASE_URL")
-                                    : "jdbc:postgresql://localhost:5432/aria",
-                            System.getenv("DATABASE_USER") != null
-                                    ? System.getenv("DATABASE_USER")
-                                    : "postgres",
-                            System.getenv("DATABASE_PASSWORD") != null
-                                    ? System.getenv("DATABASE_PASSWORD")
-                                    : "Ezekiel(23)")) {
+                    try (java.sql.Connection conn = ConnectionPool.getConnection()) {
                         try (java.sql.PreparedStatement ps = conn.prepareStatement(
                                 "SELECT profile_picture_url FROM target_users WHERE id = ?")) {
                             ps.setInt(1, targetId);
@@ -1279,16 +1237,7 @@ public class TargetController {
                 }
             } else {
                 // No path or fileName provided, try to get from database
-                try (java.sql.Connection conn = java.sql.DriverManager.getConnection(
-                        System.getenv("DATABASE_URL") != null
-                                ? System.getenv("DATABASE_URL")
-                                : "jdbc:postgresql://localhost:5432/aria",
-                        System.getenv("DATABASE_USER") != null
-                                ? System.getenv("DATABASE_USER")
-                                : "postgres",
-                        System.getenv("DATABASE_PASSWORD") != null
-                                ? System.getenv("DATABASE_PASSWORD")
-                                : "Ezekiel(23)")) {
+                try (java.sql.Connection conn = ConnectionPool.getConnection()) {
                     try (java.sql.PreparedStatement ps = conn.prepareStatement(
                             "SELECT profile_picture_url FROM target_users WHERE id = ?")) {
                         ps.setInt(1, targetId);
@@ -1392,16 +1341,7 @@ public class TargetController {
             """, placeholders);
             
             List<String> categories = new ArrayList<>();
-            try (Connection conn = java.sql.DriverManager.getConnection(
-                    System.getenv("DATABASE_URL") != null
-                            ? System.getenv("DATABASE_URL")
-                            : "jdbc:postgresql://localhost:5432/aria",
-                    System.getenv("DATABASE_USER") != null
-                            ? System.getenv("DATABASE_USER")
-                            : "postgres",
-                    System.getenv("DATABASE_PASSWORD") != null
-                            ? System.getenv("DATABASE_PASSWORD")
-                            : "Ezekiel(23)")) {
+            try (Connection conn = ConnectionPool.getConnection()) {
                 try (PreparedStatement ps = conn.prepareStatement(sql)) {
                     for (int i = 0; i < dialogIds.size(); i++) {
                         ps.setInt(i + 1, dialogIds.get(i));
@@ -1440,11 +1380,16 @@ public class TargetController {
                 return ResponseEntity.ok(ApiResponse.success("OK", cachedAnalysis));
             }
             
-            // Calculate analysis (placeholder - implement actual logic)
-            Map<String, Object> analysis = calculateAnalysis(userId, targetId, platform, platformAccountId, category);
-            
-            // Cache for 5 minutes
-            cache.cacheAnalysis(userId, targetId, analysis, 300);
+            // Calculate analysis once for concurrent misses (on any node); the others get it from the cache
+            Map<String, Object> analysis = com.aria.cache.SingleFlight.executeShared(
+                "analysis:" + userId + ":" + targetId, 60,
+                () -> cache.getCachedAnalysis(userId, targetId, HashMap.class),
+                () -> {
+                    Map<String, Object> calculated = calculateAnalysis(userId, targetId, platform, platformAccountId, category);
+                    // Cache for 5 minutes
+                    cache.cacheAnalysis(userId, targetId, calculated, 300);
+                    return calculated;
+                });
             
             return ResponseEntity.ok(ApiResponse.success("OK", analysis));
         } catch (Exception e) {
@@ -1460,16 +1405,7 @@ public class TargetController {
         
         Map<String, Object> analysis = new HashMap<>();
         
-        try (Connection conn = java.sql.DriverManager.getConnection(
-                System.getenv("DATABASE_URL") != null
-                        ? System.getenv("DATABASE_URL")
-                        : "jdbc:postgresql://localhost:5432/aria",
-                System.getenv("DATABASE_USER") != null
-                        ? System.getenv("DATABASE_USER")
-                        : "postgres",
-                System.getenv("DATABASE_PASSWORD") != null
-                        ? System.getenv("DATABASE_PASSWORD")
-                        : "Ezekiel(23)")) {
+        try (Connection conn = ConnectionPool.getConnection()) {
             
             System.out.println("[ANALYSIS DEBUG] Database connection established");
             
@@ -2030,10 +1966,16 @@ public class TargetController {
     
     /**
      * Auto-fetch profile picture from Telegram for a target user
-     * Runs in background thread to avoid blocking API response
+     * Runs as a PREFETCH background task to avoid blocking API response
      */
     private void fetchProfilePictureFromTelegram(TargetUser targetUser, int userId, TargetUserDTO dto) {
-        try {
+        // Every target list load asks for missing pictures; only one fetch per target runs at a time
+        com.aria.cache.SingleFlight.Lease lease = com.aria.cache.SingleFlight.tryAcquire(
+            "profile-picture:" + targetUser.getTargetId(), PROFILE_PICTURE_FETCH_LOCK_SECONDS);
+        if (lease == null) {
+            return;
+        }
+        try (lease) {
             com.aria.platform.UserPlatform selected = targetUser.getSelectedPlatform();
             if (selected == null) {
                 return; // No platform selected
@@ -2067,8 +2009,10 @@ public class TargetController {
             String pythonCmd = "python3";
             try {
                 Process testProcess = new ProcessBuilder(pythonCmd, "--version").start();
-                int exitCode = testProcess.waitFor();
-                if (exitCode != 0) {
+                if (!testProcess.waitFor(5, java.util.concurrent.TimeUnit.SECONDS)) {
+                    testProcess.destroyForcibly();
+                    pythonCmd = "python";
+                } else if (testProcess.exitValue() != 0) {
                     pythonCmd = "python";
                 }
             } catch (Exception e) {
@@ -2085,38 +2029,36 @@ public class TargetController {
             
             pb.directory(new java.io.File(System.getProperty("user.dir")));
             pb.redirectErrorStream(true);
-            
-            Process process = pb.start();
-            
-            // Read output in background
-            new Thread(() -> {
-                try (java.io.BufferedReader reader = new java.io.BufferedReader(
-                        new java.io.InputStreamReader(process.getInputStream()))) {
-                    String line;
-                    StringBuilder output = new StringBuilder();
-                    while ((line = reader.readLine()) != null) {
-                        output.append(line).append("\n");
-                    }
-                    
-                    int exitCode = process.waitFor();
-                    if (exitCode == 0) {
-                        // Parse JSON response
-                        String jsonOutput = output.toString().trim();
-                        if (jsonOutput.contains("\"success\":true")) {
-                            System.out.println("Successfully auto-fetched profile picture for target " + targetUser.getTargetId());
-                            // Invalidate cache so next request gets the updated profile picture
-                            com.aria.cache.RedisCacheManager cache = com.aria.cache.RedisCacheManager.getInstance();
-                            cache.invalidateTarget(userId, targetUser.getTargetId());
-                        } else {
-                            System.err.println("Failed to fetch profile picture: " + jsonOutput);
-                        }
+            // Output goes to a file rather than a pipe, so a hung script can't block a read past the timeout
+            java.io.File outputFile = java.io.File.createTempFile("profile-picture-", ".out");
+            pb.redirectOutput(outputFile);
+            try {
+                Process process = pb.start();
+                if (!process.waitFor(PROFILE_PICTURE_FETCH_TIMEOUT_SECONDS, java.util.concurrent.TimeUnit.SECONDS)) {
+                    process.destroyForcibly();
+                    System.err.println("Profile picture fetch for target " + targetUser.getTargetId() + " timed out after "
+                        + PROFILE_PICTURE_FETCH_TIMEOUT_SECONDS + "s");
+                    return;
+                }
+                
+                int exitCode = process.exitValue();
+                if (exitCode == 0) {
+                    // Parse JSON response
+                    String jsonOutput = java.nio.file.Files.readString(outputFile.toPath()).trim();
+                    if (jsonOutput.contains("\"success\":true")) {
+                        System.out.println("Successfully auto-fetched profile picture for target " + targetUser.getTargetId());
+                        // Invalidate cache so next request gets the updated profile picture
+                        com.aria.cache.RedisCacheManager cache = com.aria.cache.RedisCacheManager.getInstance();
+                        cache.invalidateTarget(userId, targetUser.getTargetId());
                     } else {
-                        System.err.println("Profile picture fetch script exited with code " + exitCode);
+                        System.err.println("Failed to fetch profile picture: " + jsonOutput);
                     }
-                } catch (Exception e) {
-                    System.err.println("Error reading profile picture fetch output: " + e.getMessage());
+                } else {
+                    System.err.println("Profile picture fetch script exited with code " + exitCode);
                 }
-            }).start();
+            } finally {
+                outputFile.delete();
+            }
             
         } catch (Exception e) {
             System.err.println("Error fetching profile picture from Telegram: " + e.getMessage());
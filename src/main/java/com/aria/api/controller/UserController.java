@@ -4,6 +4,7 @@ import com.aria.api.dto.ApiResponse;
 import com.aria.cache.RedisCacheManager;
 import com.aria.storage.DatabaseManager;
 import com.aria.storage.SecureStorage;
+import com.aria.storage.ConnectionPool;
 import dev.samstevens.totp.code.*;
 import dev.samstevens.totp.exceptions.CodeGenerationException;
 import dev.samstevens.totp.exceptions.QrGenerationException;
@@ -714,15 +715,6 @@ public class UserController {
     }
     
     private Connection getConnection() throws SQLException {
-        return DriverManager.getConnection(
-            System.getenv("DATABASE_URL") != null
-                ? System.getenv("DATABASE_URL")
-                : "jdbc:postgresql://localhost:5432/aria",
-            System.getenv("DATABASE_USER") != null
-                ? System.getenv("DATABASE_USER")
-                : "postgres",
-            System.getenv("DATABASE_PASSWORD") != null
-                ? System.getenv("DATABASE_PASSWORD")
-                : "Ezekiel(23)");
+        return ConnectionPool.getConnection();
     }
 }
@@ -0,0 +1,307 @@
+package com.aria.cache;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.WildcardType;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact tagged binary encoding of plain data (maps, lists, strings, numbers, booleans, null).
+ *
+ * Each value is a one-byte tag followed by its payload; integers are zigzag varints and strings are
+ * length-prefixed UTF-8. Unlike JSON it keeps Integer, Long and Double apart, so a cached message page
+ * comes back with the same types it was built with. Other objects (DTOs, analysis results) are
+ * written through their Gson tree and turned back into the requested type with Gson on decode.
+ */
+public class BinaryCacheCodec implements CacheCodec {
+    public static final int ID = 1;
+
+    private static final byte NULL = 0;
+    private static final byte FALSE = 1;
+    private static final byte TRUE = 2;
+    private static final byte INT = 3;
+    private static final byte LONG = 4;
+    private static final byte DOUBLE = 5;
+    private static final byte STRING = 6;
+    private static final byte LIST = 7;
+    private static final byte MAP = 8;
+
+    private final Gson gson;
+
+    public BinaryCacheCodec(Gson gson) {
+        this.gson = gson;
+    }
+
+    @Override
+    public int id() {
+        return ID;
+    }
+
+    @Override
+    public String name() {
+        return "binary";
+    }
+
+    @Override
+    public byte[] encode(Object value) {
+        Output out = new Output();
+        write(out, value);
+        return out.toByteArray();
+    }
+
+    @Override
+    public Object decode(byte[] data, Type type) {
+        Object value = read(new Input(data));
+        if (type == null || isPlain(type)) {
+            return value;
+        }
+        return gson.fromJson(gson.toJsonTree(value), type);
+    }
+
+    private void write(Output out, Object value) {
+        if (value == null) {
+            out.put(NULL);
+        } else if (value instanceof Boolean) {
+            out.put((Boolean) value ? TRUE : FALSE);
+        } else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            out.put(INT);
+            out.putVarLong(((Number) value).intValue());
+        } else if (value instanceof Long) {
+            out.put(LONG);
+            out.putVarLong((Long) value);
+        } else if (value instanceof Double || value instanceof Float) {
+            out.put(DOUBLE);
+            out.putLong(Double.doubleToLongBits(((Number) value).doubleValue()));
+        } else if (value instanceof Number) {
+            writeNumber(out, (Number) value);
+        } else if (value instanceof CharSequence || value instanceof Character) {
+            out.put(STRING);
+            out.putString(value.toString());
+        } else if (value instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) value;
+            out.put(MAP);
+            out.putVarLong(map.size());
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                out.putString(String.valueOf(entry.getKey()));
+                write(out, entry.getValue());
+            }
+        } else if (value instanceof Collection) {
+            Collection<?> list = (Collection<?>) value;
+            out.put(LIST);
+            out.putVarLong(list.size());
+            for (Object item : list) {
+                write(out, item);
+            }
+        } else if (value instanceof Enum) {
+            out.put(STRING);
+            out.putString(((Enum<?>) value).name());
+        } else if (value instanceof JsonElement) {
+            writeJson(out, (JsonElement) value);
+        } else {
+            writeJson(out, gson.toJsonTree(value));
+        }
+    }
+
+    // BigDecimal, Gson's LazilyParsedNumber, ...: integral values as LONG, the rest as DOUBLE
+    private void writeNumber(Output out, Number number) {
+        try {
+            long exact = new BigDecimal(number.toString()).longValueExact();
+            out.put(LONG);
+            out.putVarLong(exact);
+        } catch (ArithmeticException | NumberFormatException e) {
+            out.put(DOUBLE);
+            out.putLong(Double.doubleToLongBits(number.doubleValue()));
+        }
+    }
+
+    private void writeJson(Output out, JsonElement element) {
+        if (element == null || element.isJsonNull()) {
+            out.put(NULL);
+        } else if (element.isJsonPrimitive()) {
+            JsonPrimitive primitive = element.getAsJsonPrimitive();
+            if (primitive.isBoolean()) {
+                out.put(primitive.getAsBoolean() ? TRUE : FALSE);
+            } else if (primitive.isNumber()) {
+                writeNumber(out, primitive.getAsNumber());
+            } else {
+                out.put(STRING);
+                out.putString(primitive.getAsString());
+            }
+        } else if (element.isJsonArray()) {
+            JsonArray array = element.getAsJsonArray();
+            out.put(LIST);
+            out.putVarLong(array.size());
+            for (JsonElement item : array) {
+                writeJson(out, item);
+            }
+        } else {
+            JsonObject object = element.getAsJsonObject();
+            out.put(MAP);
+            out.putVarLong(object.size());
+            for (Map.Entry<String, JsonElement> entry : object.entrySet()) {
+                out.putString(entry.getKey());
+                writeJson(out, entry.getValue());
+            }
+        }
+    }
+
+    private Object read(Input in) {
+        byte tag = in.get();
+        switch (tag) {
+            case NULL:
+                return null;
+            case FALSE:
+                return Boolean.FALSE;
+            case TRUE:
+                return Boolean.TRUE;
+            case INT:
+                return (int) in.getVarLong();
+            case LONG:
+                return in.getVarLong();
+            case DOUBLE:
+                return Double.longBitsToDouble(in.getLong());
+            case STRING:
+                return in.getString();
+            case LIST: {
+                int size = (int) in.getVarLong();
+                List<Object> list = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    list.add(read(in));
+                }
+                return list;
+            }
+            case MAP: {
+                int size = (int) in.getVarLong();
+                Map<String, Object> map = new LinkedHashMap<>(size * 4 / 3 + 1);
+                for (int i = 0; i < size; i++) {
+                    String key = in.getString();
+                    map.put(key, read(in));
+                }
+                return map;
+            }
+            default:
+                throw new IllegalArgumentException("Unknown cache value tag " + tag);
+        }
+    }
+
+    /**
+     * Whether the decoded plain value can be returned as is for the requested type
+     */
+    private static boolean isPlain(Type type) {
+        if (type instanceof Class) {
+            Class<?> c = (Class<?>) type;
+            return c == Object.class || c == String.class || c == Boolean.class || c == Integer.class
+                || c == Long.class || c == Double.class || c == Map.class || c == List.class || c == Collection.class;
+        }
+        if (type instanceof ParameterizedType) {
+            ParameterizedType parameterized = (ParameterizedType) type;
+            if (!isPlain(parameterized.getRawType())) {
+                return false;
+            }
+            for (Type argument : parameterized.getActualTypeArguments()) {
+                if (!isPlain(argument)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return type instanceof WildcardType;
+    }
+
+    private static final class Output {
+        private byte[] buf = new byte[256];
+        private int pos;
+
+        private void ensure(int n) {
+            if (pos + n > buf.length) {
+                buf = java.util.Arrays.copyOf(buf, Math.max(buf.length * 2, pos + n));
+            }
+        }
+
+        void put(byte b) {
+            ensure(1);
+            buf[pos++] = b;
+        }
+
+        void putLong(long v) {
+            ensure(8);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                buf[pos++] = (byte) (v >>> shift);
+            }
+        }
+
+        void putVarLong(long v) {
+            long zigzag = (v << 1) ^ (v >> 63);
+            ensure(10);
+            while ((zigzag & ~0x7FL) != 0) {
+                buf[pos++] = (byte) ((zigzag & 0x7F) | 0x80);
+                zigzag >>>= 7;
+            }
+            buf[pos++] = (byte) zigzag;
+        }
+
+        void putString(String s) {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            putVarLong(bytes.length);
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buf, pos, bytes.length);
+            pos += bytes.length;
+        }
+
+        byte[] toByteArray() {
+            return java.util.Arrays.copyOf(buf, pos);
+        }
+    }
+
+    private static final class Input {
+        private final byte[] buf;
+        private int pos;
+
+        Input(byte[] buf) {
+            this.buf = buf;
+        }
+
+        byte get() {
+            return buf[pos++];
+        }
+
+        long getLong() {
+            long v = 0;
+            for (int i = 0; i < 8; i++) {
+                v = (v << 8) | (buf[pos++] & 0xFF);
+            }
+            return v;
+        }
+
+        long getVarLong() {
+            long zigzag = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = buf[pos++];
+                zigzag |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return (zigzag >>> 1) ^ -(zigzag & 1);
+        }
+
+        String getString() {
+            int length = (int) getVarLong();
+            String s = new String(buf, pos, length, StandardCharsets.UTF_8);
+            pos += length;
+            return s;
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package com.aria.cache;
+
+import java.lang.reflect.Type;
+
+/**
+ * Turns cached values into bytes and back. Selected with cache.codec; CacheSerializer adds
+ * compression and the frame header that records which codec wrote a value.
+ */
+public interface CacheCodec {
+    /**
+     * Id stored in the frame header (0-3)
+     */
+    int id();
+
+    String name();
+
+    byte[] encode(Object value);
+
+    /**
+     * @param type Requested type (a Class or a parameterized type such as List&lt;Map&lt;String, Object&gt;&gt;)
+     */
+    Object decode(byte[] data, Type type);
+}
@@ -0,0 +1,200 @@
+package com.aria.cache;
+
+import com.aria.core.ConfigurationManager;
+import com.google.gson.Gson;
+import net.jpountz.lz4.LZ4Factory;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Encodes cached values with the configured codec (cache.codec: binary or json) and compresses
+ * those of at least cache.compression.min.bytes (cache.compression: lz4, deflate or none).
+ *
+ * Every value starts with a header byte (0xC0 | codec id &lt;&lt; 2 | compression), so values written with
+ * other settings still decode; a first byte below 0x80 is JSON from before the header existed.
+ * Sizes and encode/decode times are counted per key family (the key up to its first ':').
+ */
+public class CacheSerializer {
+    private static final int HEADER = 0xC0;
+    private static final int COMPRESSION_NONE = 0;
+    private static final int COMPRESSION_LZ4 = 1;
+    private static final int COMPRESSION_DEFLATE = 2;
+
+    private final CacheCodec codec;
+    private final CacheCodec[] codecs = new CacheCodec[4];
+    private final int compression;
+    private final int compressionMinBytes;
+    private final LZ4Factory lz4 = LZ4Factory.fastestInstance();
+    private final Map<String, FamilyStats> stats = new ConcurrentHashMap<>();
+
+    private static class FamilyStats {
+        final LongAdder encodes = new LongAdder();
+        final LongAdder decodes = new LongAdder();
+        final LongAdder encodedBytes = new LongAdder();
+        final LongAdder storedBytes = new LongAdder();
+        final LongAdder compressed = new LongAdder();
+        final LongAdder encodeNanos = new LongAdder();
+        final LongAdder decodeNanos = new LongAdder();
+    }
+
+    public CacheSerializer(Gson gson) {
+        CacheCodec json = new JsonCacheCodec(gson);
+        CacheCodec binary = new BinaryCacheCodec(gson);
+        codecs[json.id()] = json;
+        codecs[binary.id()] = binary;
+        codec = "json".equalsIgnoreCase(ConfigurationManager.getProperty("cache.codec", "binary")) ? json : binary;
+
+        String configured = ConfigurationManager.getProperty("cache.compression", "lz4");
+        if ("none".equalsIgnoreCase(configured)) {
+            compression = COMPRESSION_NONE;
+        } else if ("deflate".equalsIgnoreCase(configured)) {
+            compression = COMPRESSION_DEFLATE;
+        } else {
+            compression = COMPRESSION_LZ4;
+        }
+        compressionMinBytes = ConfigurationManager.getIntProperty("cache.compression.min.bytes", 1024);
+    }
+
+    /**
+     * @param key Cache key; its family (up to the first ':') is what the metrics are counted under
+     */
+    public byte[] serialize(String key, Object value) {
+        long start = System.nanoTime();
+        byte[] encoded = codec.encode(value);
+        int mode = COMPRESSION_NONE;
+        byte[] payload = encoded;
+        if (compression != COMPRESSION_NONE && encoded.length >= compressionMinBytes) {
+            byte[] packed = compression == COMPRESSION_LZ4 ? lz4.fastCompressor().compress(encoded) : deflate(encoded);
+            if (packed.length + 4 < encoded.length) {
+                mode = compression;
+                payload = ByteBuffer.allocate(4 + packed.length).putInt(encoded.length).put(packed).array();
+            }
+        }
+        byte[] framed = new byte[payload.length + 1];
+        framed[0] = (byte) (HEADER | codec.id() << 2 | mode);
+        System.arraycopy(payload, 0, framed, 1, payload.length);
+
+        FamilyStats family = family(key);
+        family.encodes.increment();
+        family.encodedBytes.add(encoded.length);
+        family.storedBytes.add(framed.length);
+        if (mode != COMPRESSION_NONE) {
+            family.compressed.increment();
+        }
+        family.encodeNanos.add(System.nanoTime() - start);
+        return framed;
+    }
+
+    /**
+     * @return The value as type, or null for null data
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T deserialize(String key, byte[] data, Type type) {
+        if (data == null || data.length == 0) {
+            return null;
+        }
+        long start = System.nanoTime();
+        Object value;
+        int header = data[0] & 0xFF;
+        if (header < 0x80) {
+            // Written before the header existed: Gson JSON, or a raw string from set(key, value)
+            value = type == String.class ? new String(data, StandardCharsets.UTF_8) : codecs[JsonCacheCodec.ID].decode(data, type);
+        } else {
+            CacheCodec valueCodec = codecs[(header >> 2) & 0x03];
+            if (valueCodec == null) {
+                throw new IllegalArgumentException("Unknown cache codec in header " + header);
+            }
+            byte[] payload;
+            int mode = header & 0x03;
+            if (mode == COMPRESSION_NONE) {
+                payload = java.util.Arrays.copyOfRange(data, 1, data.length);
+            } else {
+                int length = ByteBuffer.wrap(data, 1, 4).getInt();
+                payload = mode == COMPRESSION_LZ4
+                    ? lz4.fastDecompressor().decompress(data, 5, length)
+                    : inflate(data, 5, length);
+            }
+            value = valueCodec.decode(payload, type);
+        }
+        FamilyStats family = family(key);
+        family.decodes.increment();
+        family.decodeNanos.add(System.nanoTime() - start);
+        return (T) value;
+    }
+
+    public static byte[] key(String key) {
+        return key.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private FamilyStats family(String key) {
+        int sep = key.indexOf(':');
+        return stats.computeIfAbsent(sep > 0 ? key.substring(0, sep) : key, k -> new FamilyStats());
+    }
+
+    private static byte[] deflate(byte[] data) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2 + 16);
+            byte[] buf = new byte[8192];
+            while (!deflater.finished()) {
+                out.write(buf, 0, deflater.deflate(buf));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] inflate(byte[] data, int offset, int length) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data, offset, data.length - offset);
+            byte[] out = new byte[length];
+            int n = 0;
+            while (n < length && !inflater.finished()) {
+                n += inflater.inflate(out, n, length - n);
+            }
+            return out;
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("Corrupt compressed cache value", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Per key family: counts, average encoded/stored size and average encode/decode time
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> families = new TreeMap<>();
+        stats.forEach((family, s) -> {
+            long encodes = s.encodes.sum();
+            long decodes = s.decodes.sum();
+            Map<String, Object> m = new java.util.LinkedHashMap<>();
+            m.put("encodes", encodes);
+            m.put("decodes", decodes);
+            m.put("compressed", s.compressed.sum());
+            m.put("avgEncodedBytes", encodes > 0 ? s.encodedBytes.sum() / encodes : 0);
+            m.put("avgStoredBytes", encodes > 0 ? s.storedBytes.sum() / encodes : 0);
+            m.put("avgEncodeMicros", encodes > 0 ? s.encodeNanos.sum() / encodes / 1000.0 : 0);
+            m.put("avgDecodeMicros", decodes > 0 ? s.decodeNanos.sum() / decodes / 1000.0 : 0);
+            families.put(family, m);
+        });
+        Map<String, Object> out = new java.util.LinkedHashMap<>();
+        out.put("codec", codec.name());
+        out.put("families", families);
+        return out;
+    }
+}
@@ -0,0 +1,91 @@
+package com.aria.cache;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Consecutive-failure circuit breaker.
+ *
+ * CLOSED: calls go through. After failureThreshold failures in a row the circuit OPENs and calls are
+ * refused for coolDownMillis without touching the backend. Then one trial call is let through
+ * (HALF_OPEN): success closes the circuit, failure opens it for another cool-down.
+ */
+public class CircuitBreaker {
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final String name;
+    private final int failureThreshold;
+    private final long coolDownMillis;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openUntil;
+    private final LongAdder trips = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    public CircuitBreaker(String name, int failureThreshold, long coolDownMillis) {
+        this.name = name;
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.coolDownMillis = coolDownMillis;
+    }
+
+    /**
+     * @return Whether a call may be made now
+     */
+    public synchronized boolean allowRequest() {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (System.currentTimeMillis() >= openUntil) {
+                    state = State.HALF_OPEN; // This caller is the trial
+                    return true;
+                }
+                break;
+            default:
+                break; // A trial is already running
+        }
+        rejected.increment();
+        return false;
+    }
+
+    public synchronized void recordSuccess() {
+        if (state != State.CLOSED) {
+            System.out.println(name + " recovered, circuit closed");
+        }
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+    }
+
+    /**
+     * @return true if this failure opened the circuit
+     */
+    public synchronized boolean recordFailure() {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || (state == State.CLOSED && consecutiveFailures >= failureThreshold)) {
+            state = State.OPEN;
+            openUntil = System.currentTimeMillis() + coolDownMillis;
+            trips.increment();
+            return true;
+        }
+        return false;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    public boolean isOpen() {
+        return getState() != State.CLOSED;
+    }
+
+    public synchronized Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("state", state.name());
+        stats.put("consecutiveFailures", consecutiveFailures);
+        stats.put("trips", trips.sum());
+        stats.put("rejected", rejected.sum());
+        return stats;
+    }
+}
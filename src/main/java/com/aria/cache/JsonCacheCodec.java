@@ -0,0 +1,39 @@
+package com.aria.cache;
+
+import com.google.gson.Gson;
+
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Gson JSON as UTF-8 (the format values were stored in before the binary codec)
+ */
+public class JsonCacheCodec implements CacheCodec {
+    public static final int ID = 0;
+
+    private final Gson gson;
+
+    public JsonCacheCodec(Gson gson) {
+        this.gson = gson;
+    }
+
+    @Override
+    public int id() {
+        return ID;
+    }
+
+    @Override
+    public String name() {
+        return "json";
+    }
+
+    @Override
+    public byte[] encode(Object value) {
+        return gson.toJson(value).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public Object decode(byte[] data, Type type) {
+        return gson.fromJson(new String(data, StandardCharsets.UTF_8), type);
+    }
+}
@@ -1,22 +1,51 @@
 package com.aria.cache;
 
+import com.aria.core.ConfigurationManager;
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
 import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.jedis.JedisPubSub;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.jedis.exceptions.JedisException;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.ToNumberPolicy;
 
 import java.time.Duration;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
 
 /**
  * Redis cache manager for caching messages, user data, and other frequently accessed data
+ *
+ * Two tiers: every read is first served from an in-process NearCache (L1) and only goes to Redis (L2)
+ * on a miss. Invalidations delete the Redis key and are broadcast on a pub/sub channel so every app
+ * node drops its L1 copy as well; L1 entries also expire after cache.l1.ttl.seconds in case a
+ * broadcast is missed.
  */
 public class RedisCacheManager {
+    private static final String INVALIDATION_CHANNEL = "aria:cache:invalidate";
+    private static final String TIMELINE_PREFIX = "timeline:dialog:";
+    private static final java.lang.reflect.Type MAP_LIST_TYPE = com.google.gson.reflect.TypeToken.getParameterized(
+        List.class, com.google.gson.reflect.TypeToken.getParameterized(Map.class, String.class, Object.class).getType()).getType();
+
     private static RedisCacheManager instance;
     private JedisPool jedisPool;
     private Gson gson;
+    private final CacheSerializer serializer;
+    private final NearCache nearCache;
+    private final int nearTtlSeconds;
+    private final String nodeId = UUID.randomUUID().toString();
+    private final int timelineTtlSeconds;
+    private final int timelineMaxMessages;
+    private final CircuitBreaker breaker;
+    private final int breakerCoolDownMs;
+    private final int fallbackTtlSeconds;
     
     private static String getRedisHost() {
         String redisHost = System.getenv("REDIS_HOST");
@@ -33,25 +62,39 @@ public class RedisCacheManager {
         poolConfig.setMaxTotal(128);
         poolConfig.setMaxIdle(32);
         poolConfig.setMinIdle(8);
-        poolConfig.setTestOnBorrow(true);
-        poolConfig.setTestOnReturn(true);
+        // Validate idle connections in the evictor instead of a PING on every borrow/return; a connection
+        // that fails mid-command is discarded by Jedis when it is returned broken
+        poolConfig.setTestOnBorrow(false);
+        poolConfig.setTestOnReturn(false);
         poolConfig.setTestWhileIdle(true);
         poolConfig.setMinEvictableIdleTimeMillis(Duration.ofSeconds(60).toMillis());
         poolConfig.setTimeBetweenEvictionRunsMillis(Duration.ofSeconds(30).toMillis());
         poolConfig.setNumTestsPerEvictionRun(3);
         poolConfig.setBlockWhenExhausted(true);
+        // Don't hold requests for long when the pool is exhausted or Redis is slow; the circuit breaker
+        // then stops calling Redis at all for cache.redis.breaker.cooldown.ms
+        poolConfig.setMaxWait(Duration.ofMillis(ConfigurationManager.getIntProperty("cache.redis.borrow.timeout.ms", 200)));
+        breakerCoolDownMs = ConfigurationManager.getIntProperty("cache.redis.breaker.cooldown.ms", 30000);
+        breaker = new CircuitBreaker("Redis", ConfigurationManager.getIntProperty("cache.redis.breaker.failures", 3), breakerCoolDownMs);
+        fallbackTtlSeconds = ConfigurationManager.getIntProperty("cache.redis.fallback.ttl.seconds", 120);
         
         String redisHost = getRedisHost();
         int redisPort = getRedisPort();
         String redisPassword = System.getenv("REDIS_PASSWORD");
+        int timeoutMs = ConfigurationManager.getIntProperty("cache.redis.timeout.ms", 500);
         
-        if (redisPassword != null && !redisPassword.isEmpty()) {
-            jedisPool = new JedisPool(poolConfig, redisHost, redisPort, 2000, redisPassword);
-        } else {
-            jedisPool = new JedisPool(poolConfig, redisHost, redisPort);
-        }
+        jedisPool = new BreakerJedisPool(poolConfig, redisHost, redisPort, timeoutMs,
+            redisPassword != null && !redisPassword.isEmpty() ? redisPassword : null);
         
-        gson = new GsonBuilder().create();
+        // Keep integral numbers as Long when reading Map/Object values back (ids, timestamps)
+        gson = new GsonBuilder().serializeNulls().setObjectToNumberStrategy(ToNumberPolicy.LONG_OR_DOUBLE).create();
+        serializer = new CacheSerializer(gson);
+
+        nearCache = new NearCache(ConfigurationManager.getIntProperty("cache.l1.max.entries", 10000));
+        nearTtlSeconds = ConfigurationManager.getIntProperty("cache.l1.ttl.seconds", 30);
+        timelineTtlSeconds = ConfigurationManager.getIntProperty("cache.timeline.ttl.seconds", 1800);
+        timelineMaxMessages = ConfigurationManager.getIntProperty("cache.timeline.max.messages", 1000);
+        startInvalidationListener(redisHost, redisPort, redisPassword);
     }
     
     public static synchronized RedisCacheManager getInstance() {
@@ -62,87 +105,92 @@ public class RedisCacheManager {
     }
     
     /**
-     * Check if an exception is a connection error (should be silently ignored)
+     * Borrow a connection, unless the circuit breaker says Redis is down
+     * @throws RedisSkippedException (no stack trace, nothing to log) while the circuit is open
+     */
+    private Jedis borrow() {
+        if (!breaker.allowRequest()) {
+            throw RedisSkippedException.INSTANCE;
+        }
+        return jedisPool.getResource();
+    }
+
+    /**
+     * Handle an exception from a Redis call: connection/pool failures count towards the circuit breaker
+     * (and are only logged when they open it), Redis error replies and other errors are logged
      */
-    private boolean isConnectionError(Exception e) {
-        String msg = e.getMessage();
-        return msg != null && (msg.contains("Failed to connect") || 
-                               msg.contains("DNS") || 
-                               msg.contains("Connection refused") ||
-                               msg.contains("Connection timed out"));
+    private void redisFailed(String what, Exception e) {
+        if (e instanceof RedisSkippedException) {
+            return;
+        }
+        if (e instanceof JedisException && !(e instanceof JedisDataException)) {
+            if (breaker.recordFailure()) {
+                System.err.println("Redis unavailable (" + e.getMessage() + "), skipping it for "
+                    + breakerCoolDownMs + " ms");
+            }
+            return;
+        }
+        System.err.println(what + ": " + e.getMessage());
+    }
+
+    private static final class RedisSkippedException extends RuntimeException {
+        static final RedisSkippedException INSTANCE = new RedisSkippedException();
+
+        private RedisSkippedException() {
+            super("Redis circuit open", null, false, false);
+        }
+    }
+
+    /**
+     * Pool that reports every connection returned healthy as a success to the circuit breaker
+     * (a connection broken by an I/O error is returned through returnBrokenResource instead)
+     */
+    private final class BreakerJedisPool extends JedisPool {
+        BreakerJedisPool(JedisPoolConfig poolConfig, String host, int port, int timeout, String password) {
+            super(poolConfig, host, port, timeout, password);
+        }
+
+        @Override
+        public void returnResource(Jedis resource) {
+            super.returnResource(resource);
+            breaker.recordSuccess();
+        }
     }
     
     /**
      * Cache messages for a conversation
+     * @deprecated Whole-list blob; GET /messages reads the per-dialog timelines (readTimeline) instead
      */
+    @Deprecated
     public void cacheMessages(int userId, int targetId, List<?> messages, int ttlSeconds) {
-        try (Jedis jedis = jedisPool.getResource()) {
-            String key = "messages:user:" + userId + ":target:" + targetId;
-            String json = gson.toJson(messages);
-            jedis.setex(key, ttlSeconds, json);
-        } catch (Exception e) {
-            // Silently fail - Redis is optional, app should work without it
-            // Only log if it's not a connection issue to avoid spam
-            if (!e.getMessage().contains("Failed to connect") && !e.getMessage().contains("DNS")) {
-                System.err.println("Failed to cache messages: " + e.getMessage());
-            }
-        }
+        write("messages:user:" + userId + ":target:" + targetId, messages, ttlSeconds);
     }
     
     /**
      * Get cached messages for a conversation
+     * @deprecated Whole-list blob; GET /messages reads the per-dialog timelines (readTimeline) instead
      */
+    @Deprecated
     public <T> List<T> getCachedMessages(int userId, int targetId, Class<T> messageClass) {
-        try (Jedis jedis = jedisPool.getResource()) {
-            String key = "messages:user:" + userId + ":target:" + targetId;
-            String json = jedis.get(key);
-            if (json != null) {
-                return gson.fromJson(json, 
-                    com.google.gson.reflect.TypeToken.getParameterized(List.class, messageClass).getType());
-            }
-        } catch (Exception e) {
-            System.err.println("Failed to get cached messages: " + e.getMessage());
-        }
-        return null;
+        return read("messages:user:" + userId + ":target:" + targetId,
+            com.google.gson.reflect.TypeToken.getParameterized(List.class, messageClass).getType());
     }
     
     /**
      * Get cached messages as List<Map<String, Object>>
      * This is a convenience method for the common case of message maps
+     * @deprecated Whole-list blob; GET /messages reads the per-dialog timelines (readTimeline) instead
      */
+    @Deprecated
     public java.util.List<java.util.Map<String, Object>> getCachedMessagesAsMapList(int userId, int targetId) {
-        try (Jedis jedis = jedisPool.getResource()) {
-            String key = "messages:user:" + userId + ":target:" + targetId;
-            String json = jedis.get(key);
-            if (json != null) {
-                java.lang.reflect.Type type = com.google.gson.reflect.TypeToken.getParameterized(
-                    java.util.List.class, 
-                    com.google.gson.reflect.TypeToken.getParameterized(
-                        java.util.Map.class, String.class, Object.class
-                    ).getType()
-                ).getType();
-                return gson.fromJson(json, type);
-            }
-        } catch (Exception e) {
-            if (!isConnectionError(e)) {
-                System.err.println("Failed to get cached messages: " + e.getMessage());
-            }
-        }
-        return null;
+        return read("messages:user:" + userId + ":target:" + targetId, MAP_LIST_TYPE);
     }
     
     /**
      * Invalidate cached messages for a conversation
      */
     public void invalidateMessages(int userId, int targetId) {
-        try (Jedis jedis = jedisPool.getResource()) {
-            String key = "messages:user:" + userId + ":target:" + targetId;
-            jedis.del(key);
-        } catch (Exception e) {
-            if (!isConnectionError(e)) {
-                System.err.println("Failed to invalidate cached messages: " + e.getMessage());
-            }
-        }
+        evict("messages:user:" + userId + ":target:" + targetId);
     }
     
     /**
@@ -156,159 +204,832 @@ public class RedisCacheManager {
      * Cache user data
      */
     public void cacheUser(int userId, Object userData, int ttlSeconds) {
-        try (Jedis jedis = jedisPool.getResource()) {
-            String key = "user:" + userId;
-            String json = gson.toJson(userData);
-            jedis.setex(key, ttlSeconds, json);
-        } catch (Exception e) {
-            if (!isConnectionError(e)) {
-                System.err.println("Failed to cache user: " + e.getMessage());
-            }
-        }
+        write("user:" + userId, userData, ttlSeconds);
     }
     
     /**
      * Get cached user data
      */
     public <T> T getCachedUser(int userId, Class<T> userClass) {
-        try (Jedis jedis = jedisPool.getResource()) {
-            String key = "user:" + userId;
-            String json = jedis.get(key);
-            if (json != null) {
-                return gson.fromJson(json, userClass);
-            }
-        } catch (Exception e) {
-            if (!isConnectionError(e)) {
-                System.err.println("Failed to get cached user: " + e.getMessage());
-            }
-        }
-        return null;
+        return read("user:" + userId, userClass);
     }
     
     /**
      * Cache target user data
      */
     public void cacheTarget(int userId, int targetId, Object targetData, int ttlSeconds) {
-        try (Jedis jedis = jedisPool.getResource()) {
-            String key = "target:user:" + userId + ":id:" + targetId;
-            String json = gson.toJson(targetData);
-            jedis.setex(key, ttlSeconds, json);
-        } catch (Exception e) {
-            if (!isConnectionError(e)) {
-                System.err.println("Failed to cache target: " + e.getMessage());
-            }
-        }
+        write("target:user:" + userId + ":id:" + targetId, targetData, ttlSeconds);
     }
     
     /**
      * Get cached target user data
      */
     public <T> T getCachedTarget(int userId, int targetId, Class<T> targetClass) {
-        try (Jedis jedis = jedisPool.getResource()) {
-            String key = "target:user:" + userId + ":id:" + targetId;
-            String json = jedis.get(key);
-            if (json != null) {
-                return gson.fromJson(json, targetClass);
-            }
-        } catch (Exception e) {
-            if (!isConnectionError(e)) {
-                System.err.println("Failed to get cached target: " + e.getMessage());
-            }
-        }
-        return null;
+        return read("target:user:" + userId + ":id:" + targetId, targetClass);
     }
     
     /**
      * Invalidate target user cache
      */
     public void invalidateTarget(int userId, int targetId) {
-        try (Jedis jedis = jedisPool.getResource()) {
-            String key = "target:user:" + userId + ":id:" + targetId;
-            jedis.del(key);
-        } catch (Exception e) {
-            if (!isConnectionError(e)) {
-                System.err.println("Failed to invalidate cached target: " + e.getMessage());
-            }
-        }
+        evict("target:user:" + userId + ":id:" + targetId);
     }
     
     /**
      * Cache analysis data
      */
     public void cacheAnalysis(int userId, Integer targetId, Object analysisData, int ttlSeconds) {
-        try (Jedis jedis = jedisPool.getResource()) {
-            String key = targetId != null 
-                ? "analysis:user:" + userId + ":target:" + targetId
-                : "analysis:user:" + userId + ":general";
-            String json = gson.toJson(analysisData);
-            jedis.setex(key, ttlSeconds, json);
-        } catch (Exception e) {
-            if (!isConnectionError(e)) {
-                System.err.println("Failed to cache analysis: " + e.getMessage());
-            }
-        }
+        String key = targetId != null
+            ? "analysis:user:" + userId + ":target:" + targetId
+            : "analysis:user:" + userId + ":general";
+        write(key, analysisData, ttlSeconds);
     }
     
     /**
      * Get cached analysis data
      */
     public <T> T getCachedAnalysis(int userId, Integer targetId, Class<T> analysisClass) {
-        try (Jedis jedis = jedisPool.getResource()) {
-            String key = targetId != null 
-                ? "analysis:user:" + userId + ":target:" + targetId
-                : "analysis:user:" + userId + ":general";
-            String json = jedis.get(key);
-            if (json != null) {
-                return gson.fromJson(json, analysisClass);
+        String key = targetId != null
+            ? "analysis:user:" + userId + ":target:" + targetId
+            : "analysis:user:" + userId + ":general";
+        return read(key, analysisClass);
+    }
+    
+    /**
+     * Generic cache set
+     */
+    public void set(String key, String value, int ttlSeconds) {
+        write(key, value, ttlSeconds);
+    }
+    
+    /**
+     * Generic cache get
+     */
+    public String get(String key) {
+        return read(key, String.class);
+    }
+    
+    /**
+     * Generic cache delete
+     */
+    public void delete(String key) {
+        evict(key);
+    }
+    
+    // =====================
+    // Batch operations
+    // =====================
+    // One round trip for many keys: MGET for reads (after L1), pipelined SETEX for writes, one DEL and
+    // one invalidation broadcast for deletes.
+
+    /**
+     * Cached targets of a user by id; ids that are not cached are absent from the result
+     */
+    public <T> Map<Integer, T> getCachedTargets(int userId, java.util.Collection<Integer> targetIds, Class<T> targetClass) {
+        Map<String, Integer> keys = new java.util.LinkedHashMap<>();
+        for (Integer targetId : targetIds) {
+            keys.put("target:user:" + userId + ":id:" + targetId, targetId);
+        }
+        Map<Integer, T> out = new java.util.LinkedHashMap<>();
+        Map<String, T> found = readMany(keys.keySet(), targetClass);
+        found.forEach((key, value) -> out.put(keys.get(key), value));
+        return out;
+    }
+
+    /**
+     * Cache several targets of a user
+     */
+    public void cacheTargets(int userId, Map<Integer, ?> targets, int ttlSeconds) {
+        Map<String, Object> values = new java.util.LinkedHashMap<>();
+        targets.forEach((targetId, target) -> values.put("target:user:" + userId + ":id:" + targetId, target));
+        writeMany(values, ttlSeconds);
+    }
+
+    /**
+     * Invalidate several targets of a user
+     */
+    public void invalidateTargets(int userId, java.util.Collection<Integer> targetIds) {
+        invalidateMany(targetIds.stream().map(id -> "target:user:" + userId + ":id:" + id).collect(java.util.stream.Collectors.toList()));
+    }
+
+    /**
+     * Cached exemplar rankings of a user by category; categories that are not cached are absent
+     */
+    public Map<String, List<Map<String, Object>>> getCachedExemplarRankings(int userId, java.util.Collection<String> categories) {
+        Map<String, String> keys = new java.util.LinkedHashMap<>();
+        for (String category : categories) {
+            keys.put("exemplars:user:" + userId + ":category:" + category, category);
+        }
+        Map<String, List<Map<String, Object>>> out = new java.util.LinkedHashMap<>();
+        Map<String, List<Map<String, Object>>> found = readMany(keys.keySet(), MAP_LIST_TYPE);
+        found.forEach((key, value) -> out.put(keys.get(key), value));
+        return out;
+    }
+
+    /**
+     * Cache exemplar rankings of a user by category
+     */
+    public void cacheExemplarRankings(int userId, Map<String, List<Map<String, Object>>> rankings, int ttlSeconds) {
+        Map<String, Object> values = new java.util.LinkedHashMap<>();
+        rankings.forEach((category, ranking) -> values.put("exemplars:user:" + userId + ":category:" + category, ranking));
+        writeMany(values, ttlSeconds);
+    }
+
+    /**
+     * Cached exemplar prompt fragments by dialog id; dialogs that are not cached are absent
+     */
+    public Map<Integer, String> getCachedExemplarFragments(java.util.Collection<Integer> dialogIds) {
+        Map<String, Integer> keys = new java.util.LinkedHashMap<>();
+        for (Integer dialogId : dialogIds) {
+            keys.put("exemplar:dialog:" + dialogId, dialogId);
+        }
+        Map<Integer, String> out = new java.util.LinkedHashMap<>();
+        Map<String, String> found = readMany(keys.keySet(), String.class);
+        found.forEach((key, value) -> out.put(keys.get(key), value));
+        return out;
+    }
+
+    /**
+     * Cache exemplar prompt fragments by dialog id
+     */
+    public void cacheExemplarFragments(Map<Integer, String> fragments, int ttlSeconds) {
+        Map<String, Object> values = new java.util.LinkedHashMap<>();
+        fragments.forEach((dialogId, fragment) -> values.put("exemplar:dialog:" + dialogId, fragment));
+        writeMany(values, ttlSeconds);
+    }
+
+    /**
+     * Invalidate a recategorized dialog's fragment and the rankings of its categories
+     */
+    public void invalidateExemplars(int userId, int dialogId, java.util.Collection<String> categories) {
+        List<String> keys = new ArrayList<>();
+        keys.add("exemplar:dialog:" + dialogId);
+        for (String category : categories) {
+            keys.add("exemplars:user:" + userId + ":category:" + category);
+        }
+        invalidateMany(keys);
+    }
+
+    /**
+     * Cached Telegram peer id of a username on an account: the id, 0 if it is known not to resolve,
+     * or null if not cached
+     */
+    public Long getCachedEntityId(int platformAccountId, String username) {
+        String value = read("entity:account:" + platformAccountId + ":username:" + username, String.class);
+        return value != null ? Long.valueOf(value) : null;
+    }
+
+    /**
+     * Cache the peer id of a username (0 for one that could not be resolved)
+     */
+    public void cacheEntityId(int platformAccountId, String username, long peerId, int ttlSeconds) {
+        write("entity:account:" + platformAccountId + ":username:" + username, String.valueOf(peerId), ttlSeconds);
+    }
+
+    /**
+     * Generic multi-key get; keys that are not cached are absent from the result
+     */
+    public Map<String, String> getMany(java.util.Collection<String> keys) {
+        return readMany(keys, String.class);
+    }
+
+    /**
+     * Generic multi-key set
+     */
+    public void setMany(Map<String, String> values, int ttlSeconds) {
+        writeMany(values, ttlSeconds);
+    }
+
+    /**
+     * Generic multi-key delete
+     */
+    public void invalidateMany(java.util.Collection<String> keys) {
+        if (!keys.isEmpty()) {
+            evict(keys.toArray(new String[0]));
+        }
+    }
+
+    // =====================
+    // Locks
+    // =====================
+    // lock:<name> holds a random token (SET NX EX), so only its holder can release it and a crashed
+    // holder's lock expires on its own. Used by SingleFlight to run expensive work on one node at a time.
+
+    private static final String UNLOCK_SCRIPT =
+        "if redis.call('get', KEYS[1]) == ARGV[1] then return redis.call('del', KEYS[1]) else return 0 end";
+
+    /**
+     * Try to take a cluster-wide lock
+     * @return The token to unlock it with, or null if someone else holds it. While Redis is unavailable
+     *         every caller gets a token, so work goes on per node.
+     */
+    public String tryLock(String name, int ttlSeconds) {
+        String token = nodeId + ":" + UUID.randomUUID();
+        try (Jedis jedis = borrow()) {
+            String reply = jedis.set("lock:" + name, token,
+                redis.clients.jedis.params.SetParams.setParams().nx().ex(ttlSeconds));
+            return "OK".equals(reply) ? token : null;
+        } catch (Exception e) {
+            redisFailed("Failed to take lock " + name, e);
+            return token;
+        }
+    }
+
+    /**
+     * Release a lock taken with tryLock (does nothing if it expired and was taken by someone else)
+     */
+    public void unlock(String name, String token) {
+        try (Jedis jedis = borrow()) {
+            jedis.eval(UNLOCK_SCRIPT, java.util.Collections.singletonList("lock:" + name),
+                java.util.Collections.singletonList(token));
+        } catch (Exception e) {
+            redisFailed("Failed to release lock " + name, e);
+        }
+    }
+
+    /**
+     * @return Whether anyone holds the lock (false if Redis is unavailable)
+     */
+    public boolean isLocked(String name) {
+        try (Jedis jedis = borrow()) {
+            return jedis.exists("lock:" + name);
+        } catch (Exception e) {
+            redisFailed("Failed to check lock " + name, e);
+            return false;
+        }
+    }
+
+    // =====================
+    // Dialog revisions
+    // =====================
+    // dialog:rev:D holds a random token replaced whenever a message of the dialog is edited or deleted or
+    // the dialog is rewritten in bulk (inserts are not counted: readers pick those up by row id). Anything
+    // derived from a dialog's history (e.g. the AI context) stores the token and is rebuilt when it changes.
+
+    private static final int REVISION_TTL_SECONDS = 7 * 24 * 3600;
+
+    /**
+     * Give the dialogs a new revision
+     */
+    public void bumpDialogRevisions(java.util.Collection<Integer> dialogRowIds) {
+        if (dialogRowIds.isEmpty()) {
+            return;
+        }
+        try (Jedis jedis = borrow()) {
+            Pipeline pipeline = jedis.pipelined();
+            for (Integer dialogRowId : dialogRowIds) {
+                pipeline.setex("dialog:rev:" + dialogRowId, REVISION_TTL_SECONDS, UUID.randomUUID().toString());
             }
+            pipeline.sync();
         } catch (Exception e) {
-            if (!isConnectionError(e)) {
-                System.err.println("Failed to get cached analysis: " + e.getMessage());
+            redisFailed("Failed to bump dialog revisions", e);
+        }
+    }
+
+    /**
+     * @return Revision per dialog (null for dialogs never changed), or null if Redis is unavailable
+     */
+    public Map<Integer, String> getDialogRevisions(List<Integer> dialogRowIds) {
+        if (dialogRowIds.isEmpty()) {
+            return new java.util.HashMap<>();
+        }
+        String[] keys = new String[dialogRowIds.size()];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = "dialog:rev:" + dialogRowIds.get(i);
+        }
+        try (Jedis jedis = borrow()) {
+            List<String> values = jedis.mget(keys);
+            Map<Integer, String> revisions = new java.util.HashMap<>();
+            for (int i = 0; i < keys.length; i++) {
+                revisions.put(dialogRowIds.get(i), values.get(i));
             }
+            return revisions;
+        } catch (Exception e) {
+            redisFailed("Failed to read dialog revisions", e);
+            return null;
         }
-        return null;
     }
-    
+
+    // =====================
+    // Dialog timelines
+    // =====================
+    // Per dialog, the newest messages (up to cache.timeline.max.messages) as:
+    //   timeline:dialog:D:z     sorted set, score = timestamp in epoch micros, member = zero-padded messages.id
+    //                           + ":" + message_id, so equal timestamps order by id like the SQL keyset
+    //   timeline:dialog:D:rows  hash message_id -> encoded row (GET /messages shape, text still encrypted)
+    //   timeline:dialog:D:meta  hash, complete=1 when the set holds the whole dialog
+    //   timeline:dialog:D:dirty set of message_ids written since they were cached
+    // A write only marks its message dirty (one SADD); the next read reloads just those rows and applies
+    // them as O(log n) sorted set updates. Timelines live in Redis only (no L1), since every node mutates them.
+
+    private static final String[] TIMELINE_PARTS = {"z", "rows", "meta", "dirty"};
+
+    private static String timelineKey(int dialogRowId, String part) {
+        return TIMELINE_PREFIX + dialogRowId + ":" + part;
+    }
+
+    private static String timelineMember(long rowId, long messageId) {
+        return String.format("%019d:%d", rowId, messageId);
+    }
+
+    private static long memberMessageId(String member) {
+        return Long.parseLong(member.substring(member.indexOf(':') + 1));
+    }
+
     /**
-     * Generic cache set
+     * Record that a message of the dialog was inserted, edited, pinned or deleted
      */
-    public void set(String key, String value, int ttlSeconds) {
-        try (Jedis jedis = jedisPool.getResource()) {
-            jedis.setex(key, ttlSeconds, value);
+    public void markTimelineChanged(int dialogRowId, long messageId) {
+        markTimelineChanges(java.util.Collections.singletonMap(dialogRowId, java.util.Collections.singletonList(messageId)));
+    }
+
+    /**
+     * Record changed messages of several dialogs in one round trip
+     */
+    public void markTimelineChanges(Map<Integer, ? extends java.util.Collection<Long>> changes) {
+        try (Jedis jedis = borrow()) {
+            Pipeline pipeline = jedis.pipelined();
+            for (Map.Entry<Integer, ? extends java.util.Collection<Long>> entry : changes.entrySet()) {
+                if (entry.getValue().isEmpty()) continue;
+                String dirtyKey = timelineKey(entry.getKey(), "dirty");
+                pipeline.sadd(dirtyKey, entry.getValue().stream().map(String::valueOf).toArray(String[]::new));
+                pipeline.expire(dirtyKey, timelineTtlSeconds);
+            }
+            pipeline.sync();
         } catch (Exception e) {
-            if (!isConnectionError(e)) {
-                System.err.println("Failed to set cache: " + e.getMessage());
+            redisFailed("Failed to mark timeline change", e);
+        }
+    }
+
+    /**
+     * Drop a dialog's timeline (e.g. after it was changed in bulk outside the feed)
+     */
+    public void dropTimeline(int dialogRowId) {
+        dropTimelines(java.util.Collections.singletonList(dialogRowId));
+    }
+
+    /**
+     * Drop several dialogs' timelines with one DEL
+     */
+    public void dropTimelines(java.util.Collection<Integer> dialogRowIds) {
+        if (dialogRowIds.isEmpty()) return;
+        List<String> keys = new ArrayList<>(dialogRowIds.size() * 4);
+        for (Integer dialogRowId : dialogRowIds) {
+            for (String part : TIMELINE_PARTS) {
+                keys.add(timelineKey(dialogRowId, part));
             }
         }
+        try (Jedis jedis = borrow()) {
+            jedis.del(keys.toArray(new String[0]));
+        } catch (Exception e) {
+            redisFailed("Failed to drop timeline", e);
+        }
     }
-    
+
     /**
-     * Generic cache get
+     * Start loading a dialog's timeline: forgets earlier changes, so call it before reading the rows
+     * from the database (anything written after this call is marked again and repaired on the next read)
+     * @return false if Redis is unavailable
      */
-    public String get(String key) {
-        try (Jedis jedis = jedisPool.getResource()) {
-            return jedis.get(key);
+    public boolean beginTimelineLoad(int dialogRowId) {
+        try (Jedis jedis = borrow()) {
+            jedis.del(timelineKey(dialogRowId, "dirty"));
+            return true;
         } catch (Exception e) {
-            if (!isConnectionError(e)) {
-                System.err.println("Failed to get cache: " + e.getMessage());
+            redisFailed("Failed to begin timeline load", e);
+            return false;
+        }
+    }
+
+    /**
+     * Store a dialog's newest rows (chronological, each with its "cursor")
+     * @param complete Whether rows is the whole dialog
+     */
+    public void storeTimeline(int dialogRowId, List<Map<String, Object>> rows, boolean complete) {
+        try (Jedis jedis = borrow()) {
+            String zKey = timelineKey(dialogRowId, "z");
+            String rowsKey = timelineKey(dialogRowId, "rows");
+            Pipeline pipeline = jedis.pipelined();
+            pipeline.del(zKey, rowsKey);
+            if (!rows.isEmpty()) {
+                Map<String, Double> members = new java.util.HashMap<>();
+                Map<byte[], byte[]> values = new java.util.HashMap<>();
+                for (Map<String, Object> row : rows) {
+                    com.aria.storage.MessageCursor cursor = com.aria.storage.MessageCursor.decode((String) row.get("cursor"));
+                    long messageId = ((Number) row.get("messageId")).longValue();
+                    members.put(timelineMember(cursor.id, messageId), (double) cursor.epochMicros());
+                    values.put(CacheSerializer.key(Long.toString(messageId)), serializer.serialize(rowsKey, row));
+                }
+                pipeline.zadd(zKey, members);
+                pipeline.hset(CacheSerializer.key(rowsKey), values);
             }
+            pipeline.hset(timelineKey(dialogRowId, "meta"), "complete", complete ? "1" : "0");
+            touchTimeline(pipeline, dialogRowId);
+            pipeline.sync();
+        } catch (Exception e) {
+            redisFailed("Failed to store timeline", e);
+        }
+    }
+
+    /**
+     * Take the message_ids written since the dialog was cached
+     * @return The ids (possibly empty), or null if the dialog is not cached
+     */
+    public Set<Long> takeTimelineChanges(int dialogRowId) {
+        try (Jedis jedis = borrow()) {
+            String dirtyKey = timelineKey(dialogRowId, "dirty");
+            Pipeline pipeline = jedis.pipelined();
+            Response<Boolean> cached = pipeline.exists(timelineKey(dialogRowId, "meta"));
+            Response<Set<String>> members = pipeline.smembers(dirtyKey);
+            pipeline.sync();
+            if (!cached.get()) {
+                return null;
+            }
+            Set<String> dirty = members.get();
+            Set<Long> ids = new java.util.HashSet<>();
+            if (!dirty.isEmpty()) {
+                jedis.srem(dirtyKey, dirty.toArray(new String[0]));
+                for (String id : dirty) {
+                    ids.add(Long.parseLong(id));
+                }
+            }
+            return ids;
+        } catch (Exception e) {
+            redisFailed("Failed to read timeline changes", e);
             return null;
         }
     }
-    
+
     /**
-     * Generic cache delete
+     * Apply reloaded rows to a cached timeline: a row replaces the message, null removes it.
+     * Messages older than the cached window are ignored unless the whole dialog is cached.
      */
-    public void delete(String key) {
-        try (Jedis jedis = jedisPool.getResource()) {
-            jedis.del(key);
+    public void applyTimelineRows(int dialogRowId, Map<Long, Map<String, Object>> rows) {
+        if (rows.isEmpty()) return;
+        try (Jedis jedis = borrow()) {
+            String zKey = timelineKey(dialogRowId, "z");
+            String rowsKey = timelineKey(dialogRowId, "rows");
+            List<Long> messageIds = new ArrayList<>(rows.keySet());
+            byte[][] fields = messageIds.stream().map(id -> CacheSerializer.key(Long.toString(id))).toArray(byte[][]::new);
+
+            // One round trip for the state the update depends on, one for the update itself
+            Pipeline read = jedis.pipelined();
+            Response<String> completeFlag = read.hget(timelineKey(dialogRowId, "meta"), "complete");
+            Response<List<byte[]>> oldValues = read.hmget(CacheSerializer.key(rowsKey), fields);
+            Response<List<redis.clients.jedis.resps.Tuple>> oldestEntry = read.zrangeWithScores(zKey, 0, 0);
+            read.sync();
+            boolean complete = "1".equals(completeFlag.get());
+            redis.clients.jedis.resps.Tuple oldest = oldestEntry.get().isEmpty() ? null : oldestEntry.get().get(0);
+
+            Pipeline write = jedis.pipelined();
+            for (int i = 0; i < messageIds.size(); i++) {
+                long messageId = messageIds.get(i);
+                byte[] old = oldValues.get().get(i);
+                if (old != null) {
+                    Map<String, Object> oldRow = serializer.deserialize(rowsKey, old, Map.class);
+                    com.aria.storage.MessageCursor oldCursor = com.aria.storage.MessageCursor.decode((String) oldRow.get("cursor"));
+                    write.zrem(zKey, timelineMember(oldCursor.id, messageId));
+                    write.hdel(CacheSerializer.key(rowsKey), fields[i]);
+                }
+                Map<String, Object> row = rows.get(messageId);
+                if (row == null) {
+                    continue;
+                }
+                com.aria.storage.MessageCursor cursor = com.aria.storage.MessageCursor.decode((String) row.get("cursor"));
+                String member = timelineMember(cursor.id, messageId);
+                // Only extend the window at its newer end, or it would have a gap
+                if (!complete && old == null && (oldest == null || compare(cursor.epochMicros(), member, oldest) < 0)) {
+                    continue;
+                }
+                write.zadd(zKey, (double) cursor.epochMicros(), member);
+                write.hset(CacheSerializer.key(rowsKey), fields[i], serializer.serialize(rowsKey, row));
+            }
+            Response<Long> size = write.zcard(zKey);
+            write.sync();
+
+            long excess = size.get() - timelineMaxMessages;
+            if (excess > 0) {
+                List<String> trimmed = jedis.zrange(zKey, 0, excess - 1);
+                Pipeline trim = jedis.pipelined();
+                trim.zremrangeByRank(zKey, 0, excess - 1);
+                trim.hdel(rowsKey, trimmed.stream().map(m -> Long.toString(memberMessageId(m))).toArray(String[]::new));
+                trim.hset(timelineKey(dialogRowId, "meta"), "complete", "0");
+                trim.sync();
+            }
+        } catch (Exception e) {
+            redisFailed("Failed to update timeline", e);
+        }
+    }
+
+    /**
+     * Read up to limit rows of a cached dialog, in chronological order: the newest (no cursor), the ones
+     * before the cursor, or with forward the ones after it
+     * @return The rows, or null if the cache can't answer (dialog not cached, or the range leaves the window)
+     */
+    public List<Map<String, Object>> readTimeline(int dialogRowId, Long cursorMicros, Long cursorId, boolean forward, int limit) {
+        try (Jedis jedis = borrow()) {
+            String zKey = timelineKey(dialogRowId, "z");
+            String cursorMember = cursorId != null ? timelineMember(cursorId, 0).substring(0, 19) : null;
+            String score = cursorMicros != null ? Long.toString(cursorMicros) : null;
+
+            // Round trip 1: meta and every range the page can need
+            Pipeline pipeline = jedis.pipelined();
+            Response<String> meta = pipeline.hget(timelineKey(dialogRowId, "meta"), "complete");
+            Response<List<String>> newest = null, sameTimeRange = null, range = null;
+            Response<List<redis.clients.jedis.resps.Tuple>> oldestEntry = null;
+            if (cursorMicros == null) {
+                newest = pipeline.zrevrange(zKey, 0, limit - 1);
+            } else {
+                sameTimeRange = pipeline.zrangeByScore(zKey, score, score);
+                if (forward) {
+                    oldestEntry = pipeline.zrangeWithScores(zKey, 0, 0);
+                    range = pipeline.zrangeByScore(zKey, "(" + score, "+inf", 0, limit);
+                } else {
+                    range = pipeline.zrevrangeByScore(zKey, "(" + score, "-inf", 0, limit);
+                }
+            }
+            pipeline.sync();
+            if (meta.get() == null) {
+                return null;
+            }
+            boolean complete = "1".equals(meta.get());
+
+            List<String> members = new ArrayList<>();
+            if (newest != null) {
+                members.addAll(newest.get());
+                java.util.Collections.reverse(members);
+            } else {
+                // Same timestamp: compare by id; then the strictly older/newer ones
+                List<String> sameTime = new ArrayList<>();
+                for (String member : sameTimeRange.get()) {
+                    int cmp = member.substring(0, 19).compareTo(cursorMember);
+                    if (forward ? cmp > 0 : cmp < 0) {
+                        sameTime.add(member);
+                    }
+                }
+                if (forward) {
+                    List<redis.clients.jedis.resps.Tuple> oldest = oldestEntry.get();
+                    if (!complete && (oldest.isEmpty() || compare(cursorMicros, cursorMember, oldest.get(0)) < 0)) {
+                        return null; // Starts before the window
+                    }
+                    members.addAll(sameTime);
+                    members.addAll(range.get());
+                    if (members.size() > limit) {
+                        members = members.subList(0, limit);
+                    }
+                } else {
+                    List<String> older = new ArrayList<>(range.get());
+                    java.util.Collections.reverse(older);
+                    members.addAll(older);
+                    members.addAll(sameTime);
+                    if (members.size() > limit) {
+                        members = members.subList(members.size() - limit, members.size());
+                    }
+                }
+            }
+            if (!forward && members.size() < limit && !complete) {
+                return null; // Reaches past the oldest cached message
+            }
+            if (members.isEmpty()) {
+                return new ArrayList<>();
+            }
+
+            // Round trip 2: the rows, plus keeping the timeline alive while it is read
+            String rowsKey = timelineKey(dialogRowId, "rows");
+            byte[][] fields = members.stream().map(m -> CacheSerializer.key(Long.toString(memberMessageId(m)))).toArray(byte[][]::new);
+            pipeline = jedis.pipelined();
+            Response<List<byte[]>> values = pipeline.hmget(CacheSerializer.key(rowsKey), fields);
+            touchTimeline(pipeline, dialogRowId);
+            pipeline.sync();
+            List<Map<String, Object>> rows = new ArrayList<>(fields.length);
+            for (byte[] value : values.get()) {
+                if (value == null) {
+                    return null; // Trimmed or dropped meanwhile
+                }
+                rows.add(serializer.deserialize(rowsKey, value, Map.class));
+            }
+            return rows;
         } catch (Exception e) {
-            if (!isConnectionError(e)) {
-                System.err.println("Failed to delete cache: " + e.getMessage());
+            redisFailed("Failed to read timeline", e);
+            return null;
+        }
+    }
+
+    /**
+     * Order of (score, member) relative to a sorted set entry, by timestamp then row id
+     */
+    private static int compare(long micros, String member, redis.clients.jedis.resps.Tuple entry) {
+        int cmp = Double.compare((double) micros, entry.getScore());
+        return cmp != 0 ? cmp : member.substring(0, 19).compareTo(entry.getElement().substring(0, 19));
+    }
+
+    private void touchTimeline(Pipeline pipeline, int dialogRowId) {
+        for (String part : new String[]{"z", "rows", "meta"}) {
+            pipeline.expire(timelineKey(dialogRowId, part), timelineTtlSeconds);
+        }
+    }
+
+    // =====================
+    // Two-tier plumbing
+    // =====================
+
+    /**
+     * Read through L1 then Redis
+     * @return The value as type, or null if absent (or unreadable)
+     */
+    private <T> T read(String key, java.lang.reflect.Type type) {
+        byte[] value = nearCache.get(key);
+        if (value == null) {
+            try (Jedis jedis = borrow()) {
+                value = jedis.get(CacheSerializer.key(key));
+                if (value != null) {
+                    nearCache.put(key, value, nearTtlSeconds);
+                }
+            } catch (Exception e) {
+                redisFailed("Failed to get cache", e);
+                return null;
             }
         }
+        try {
+            return serializer.deserialize(key, value, type);
+        } catch (Exception e) {
+            System.err.println("Failed to decode cached value for " + key + ": " + e.getMessage());
+            return null;
+        }
     }
-    
+
+    /**
+     * Read many keys: L1 first, then one MGET for the rest
+     */
+    @SuppressWarnings("unchecked")
+    private <T> Map<String, T> readMany(java.util.Collection<String> keys, java.lang.reflect.Type type) {
+        Map<String, T> out = new java.util.LinkedHashMap<>();
+        List<String> misses = new ArrayList<>();
+        Map<String, byte[]> found = new java.util.LinkedHashMap<>();
+        for (String key : keys) {
+            byte[] value = nearCache.get(key);
+            if (value != null) {
+                found.put(key, value);
+            } else {
+                misses.add(key);
+            }
+        }
+        if (!misses.isEmpty()) {
+            try (Jedis jedis = borrow()) {
+                List<byte[]> values = jedis.mget(misses.stream().map(CacheSerializer::key).toArray(byte[][]::new));
+                for (int i = 0; i < misses.size(); i++) {
+                    byte[] value = values.get(i);
+                    if (value != null) {
+                        nearCache.put(misses.get(i), value, nearTtlSeconds);
+                        found.put(misses.get(i), value);
+                    }
+                }
+            } catch (Exception e) {
+                redisFailed("Failed to get cache", e);
+            }
+        }
+        found.forEach((key, value) -> {
+            try {
+                T decoded = serializer.deserialize(key, value, type);
+                if (decoded != null) {
+                    out.put(key, decoded);
+                }
+            } catch (Exception e) {
+                System.err.println("Failed to decode cached value for " + key + ": " + e.getMessage());
+            }
+        });
+        return out;
+    }
+
+    /**
+     * Write many keys with one pipelined round of SETEX (MSET can't set a TTL)
+     */
+    private void writeMany(Map<String, ?> values, int ttlSeconds) {
+        if (values.isEmpty()) return;
+        try (Jedis jedis = borrow()) {
+            Pipeline pipeline = jedis.pipelined();
+            for (Map.Entry<String, ?> entry : values.entrySet()) {
+                byte[] data = serializer.serialize(entry.getKey(), entry.getValue());
+                nearCache.put(entry.getKey(), data, nearTtl(ttlSeconds));
+                pipeline.setex(CacheSerializer.key(entry.getKey()), ttlSeconds, data);
+            }
+            pipeline.sync();
+        } catch (Exception e) {
+            redisFailed("Failed to set cache", e);
+        }
+    }
+
+    /**
+     * Encode, write to Redis and keep a local copy
+     */
+    private void write(String key, Object value, int ttlSeconds) {
+        byte[] data;
+        try {
+            data = serializer.serialize(key, value);
+        } catch (Exception e) {
+            System.err.println("Failed to encode cache value for " + key + ": " + e.getMessage());
+            return;
+        }
+        nearCache.put(key, data, nearTtl(ttlSeconds));
+        try (Jedis jedis = borrow()) {
+            jedis.setex(CacheSerializer.key(key), ttlSeconds, data);
+        } catch (Exception e) {
+            // Redis is optional, the app works without it
+            redisFailed("Failed to set cache", e);
+        }
+    }
+
+    /**
+     * How long L1 keeps a written value: briefly while Redis is up (other nodes may change it), longer
+     * while the circuit is open, when L1 is all there is (bounded by cache.l1.max.entries)
+     */
+    private int nearTtl(int ttlSeconds) {
+        return Math.min(ttlSeconds, breaker.isOpen() ? fallbackTtlSeconds : nearTtlSeconds);
+    }
+
+    /**
+     * Delete keys here and in Redis, and tell the other nodes to drop their L1 copies
+     */
+    private void evict(String... keys) {
+        for (String key : keys) {
+            nearCache.remove(key);
+        }
+        try (Jedis jedis = borrow()) {
+            jedis.del(keys);
+            // "nodeId key1 key2 ..." (keys never contain spaces)
+            jedis.publish(INVALIDATION_CHANNEL, nodeId + " " + String.join(" ", keys));
+        } catch (Exception e) {
+            redisFailed("Failed to invalidate cache", e);
+        }
+    }
+
+    /**
+     * Subscribe to invalidations from other nodes on a dedicated connection, reconnecting forever.
+     * L1 is cleared on every (re)subscribe, since broadcasts may have been missed while disconnected.
+     */
+    private void startInvalidationListener(String host, int port, String password) {
+        Thread listener = new Thread(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                try (Jedis jedis = new Jedis(host, port, 2000, 0)) {
+                    if (password != null && !password.isEmpty()) {
+                        jedis.auth(password);
+                    }
+                    jedis.subscribe(new JedisPubSub() {
+                        @Override
+                        public void onSubscribe(String channel, int subscribedChannels) {
+                            nearCache.clear();
+                        }
+
+                        @Override
+                        public void onMessage(String channel, String message) {
+                            String[] parts = message.split(" ");
+                            if (parts.length < 2 || parts[0].equals(nodeId)) {
+                                return;
+                            }
+                            for (int i = 1; i < parts.length; i++) {
+                                nearCache.remove(parts[i]);
+                            }
+                        }
+                    }, INVALIDATION_CHANNEL);
+                } catch (Exception e) {
+                    // Redis unavailable - L1 entries still expire by TTL; retry later
+                }
+                try {
+                    Thread.sleep(5000);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }, "redis-cache-invalidation");
+        listener.setDaemon(true);
+        listener.start();
+    }
+
+    /**
+     * L1 statistics (for metrics)
+     */
+    public Map<String, Object> getNearCacheStats() {
+        return nearCache.getStats();
+    }
+
+    /**
+     * Circuit breaker state (for metrics)
+     */
+    public Map<String, Object> getRedisStats() {
+        Map<String, Object> stats = new java.util.LinkedHashMap<>(breaker.getStats());
+        stats.put("poolActive", jedisPool.getNumActive());
+        stats.put("poolIdle", jedisPool.getNumIdle());
+        stats.put("poolWaiters", jedisPool.getNumWaiters());
+        return stats;
+    }
+
+    /**
+     * Serialized size and encode/decode time per key family (for metrics)
+     */
+    public Map<String, Object> getSerializationStats() {
+        return serializer.getStats();
+    }
+
     /**
      * Close the connection pool
      */
@@ -0,0 +1,160 @@
+package com.aria.cache;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Request coalescing for expensive work keyed by what it computes.
+ *
+ * execute: concurrent callers with the same key on this node share one computation.
+ * executeShared: the same, plus a Redis lock so only one node computes while the others wait for the
+ * result to show up in the cache.
+ * tryAcquire: for fire-and-forget work (ingestion, profile picture downloads) that should not be
+ * started again while it is still running here or on another node.
+ */
+public final class SingleFlight {
+    private static final long POLL_MILLIS = 100;
+
+    private static final Map<String, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+    private static final Set<String> running = ConcurrentHashMap.newKeySet();
+    private static final LongAdder executions = new LongAdder();
+    private static final LongAdder coalesced = new LongAdder();
+    private static final LongAdder remoteWaits = new LongAdder();
+    private static final LongAdder skipped = new LongAdder();
+
+    private SingleFlight() {
+    }
+
+    /**
+     * Run work, or wait for the identical call already running on this node and return its result
+     * (or throw its exception)
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T execute(String key, Callable<T> work) throws Exception {
+        CompletableFuture<Object> mine = new CompletableFuture<>();
+        CompletableFuture<Object> existing = inFlight.putIfAbsent(key, mine);
+        if (existing != null) {
+            coalesced.increment();
+            try {
+                return (T) existing.get();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof Exception) {
+                    throw (Exception) cause;
+                }
+                throw new RuntimeException(cause);
+            }
+        }
+        executions.increment();
+        try {
+            T result = work.call();
+            mine.complete(result);
+            return result;
+        } catch (Throwable t) {
+            mine.completeExceptionally(t);
+            throw t;
+        } finally {
+            inFlight.remove(key, mine);
+        }
+    }
+
+    /**
+     * execute, coalesced across nodes as well. The node that takes the lock runs work; the others poll
+     * cached (a lookup of the cache entry work fills) until it returns a value, and run work themselves
+     * if the lock goes away without one.
+     * @param lockSeconds Longest the work may take before another node gives up waiting
+     * @param cached Returns the cached result or null
+     */
+    public static <T> T executeShared(String key, int lockSeconds, Supplier<T> cached, Callable<T> work) throws Exception {
+        return execute(key, () -> {
+            T value = cached.get();
+            if (value != null) {
+                return value; // Filled while we waited for the local flight
+            }
+            RedisCacheManager cache = RedisCacheManager.getInstance();
+            String token = cache.tryLock(key, lockSeconds);
+            if (token == null) {
+                remoteWaits.increment();
+                long deadline = System.currentTimeMillis() + lockSeconds * 1000L;
+                while (System.currentTimeMillis() < deadline) {
+                    Thread.sleep(POLL_MILLIS);
+                    value = cached.get();
+                    if (value != null) {
+                        return value;
+                    }
+                    if (!cache.isLocked(key)) {
+                        break;
+                    }
+                }
+                value = cached.get();
+                return value != null ? value : work.call();
+            }
+            try {
+                return work.call();
+            } finally {
+                cache.unlock(key, token);
+            }
+        });
+    }
+
+    /**
+     * Claim key for background work
+     * @param lockSeconds How long another node is kept out if this one never releases (crash)
+     * @return A lease to close when the work is done, or null if it is already running
+     */
+    public static Lease tryAcquire(String key, int lockSeconds) {
+        if (!running.add(key)) {
+            skipped.increment();
+            return null;
+        }
+        String token = RedisCacheManager.getInstance().tryLock(key, lockSeconds);
+        if (token == null) {
+            running.remove(key);
+            skipped.increment();
+            return null;
+        }
+        executions.increment();
+        return new Lease(key, token);
+    }
+
+    public static final class Lease implements AutoCloseable {
+        private final String key;
+        private final String token;
+        private boolean closed;
+
+        private Lease(String key, String token) {
+            this.key = key;
+            this.token = token;
+        }
+
+        @Override
+        public synchronized void close() {
+            if (!closed) {
+                closed = true;
+                RedisCacheManager.getInstance().unlock(key, token);
+                running.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Computations run, callers that shared another's result, waits on another node and background
+     * work skipped because it was already running (for metrics)
+     */
+    public static Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("executions", executions.sum());
+        stats.put("coalesced", coalesced.sum());
+        stats.put("remoteWaits", remoteWaits.sum());
+        stats.put("skipped", skipped.sum());
+        stats.put("inFlight", inFlight.size() + running.size());
+        return stats;
+    }
+}
@@ -0,0 +1,167 @@
+package com.aria.platform.telegram;
+
+import com.aria.cache.RedisCacheManager;
+import com.aria.core.ConfigurationManager;
+import com.aria.platform.ConnectorRegistry;
+import com.aria.service.BackgroundTasks;
+import com.aria.storage.DatabaseManager;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cache of Telegram username to peer id resolutions.
+ *
+ * Resolving a username takes a Telegram round trip (sidecar request or get_entity_id.py), so read paths
+ * only look at the cache (getCached) and hand misses to resolveInBackground. Resolved ids are kept for
+ * entity.cache.ttl.seconds and written back to subtarget_users.platform_id, after which dialogs are
+ * found by id directly. Usernames Telegram reports as unknown are remembered for
+ * entity.cache.negative.ttl.seconds so they are not looked up again on every read; failed lookups
+ * (timeouts, sidecar or script errors) are not cached.
+ */
+public class EntityIdResolver {
+    private static EntityIdResolver instance;
+
+    private final int ttlSeconds;
+    private final int negativeTtlSeconds;
+    // SubTarget Users whose platform_id was written back by this node
+    private final Set<Integer> storedSubTargets = ConcurrentHashMap.newKeySet();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder negativeHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder resolved = new LongAdder();
+    private final LongAdder unresolved = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    private EntityIdResolver() {
+        ttlSeconds = ConfigurationManager.getIntProperty("entity.cache.ttl.seconds", 30 * 24 * 3600);
+        negativeTtlSeconds = ConfigurationManager.getIntProperty("entity.cache.negative.ttl.seconds", 600);
+    }
+
+    public static synchronized EntityIdResolver getInstance() {
+        if (instance == null) {
+            instance = new EntityIdResolver();
+        }
+        return instance;
+    }
+
+    /**
+     * Cached peer id, without contacting Telegram
+     * @return The peer id, 0 if the username is known not to resolve, or null if it isn't cached
+     */
+    public Long getCached(int platformAccountId, String username) {
+        Long peerId = RedisCacheManager.getInstance().getCachedEntityId(platformAccountId, normalize(username));
+        if (peerId == null) {
+            misses.increment();
+        } else if (peerId > 0) {
+            hits.increment();
+        } else {
+            negativeHits.increment();
+        }
+        return peerId;
+    }
+
+    /**
+     * Resolve a username that isn't cached yet, off the caller's thread
+     * @param subtargetUserId SubTarget User to store the peer id on, or null
+     */
+    public void resolveInBackground(int platformAccountId, String username, Integer subtargetUserId) {
+        String name = normalize(username);
+        BackgroundTasks.getInstance().submit(BackgroundTasks.Lane.PREFETCH, "entity-id:" + platformAccountId + ":" + name, () -> {
+            try {
+                DatabaseManager.PlatformAccount acc = DatabaseManager.getPlatformAccountById(platformAccountId);
+                if (acc == null) {
+                    return;
+                }
+                Long peerId = resolve(acc, name);
+                if (peerId != null && subtargetUserId != null) {
+                    writeBack(subtargetUserId, peerId);
+                }
+            } catch (Exception e) {
+                System.err.println("Failed to resolve Telegram entity " + name + ": " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Store a cached peer id on a SubTarget User that was loaded without one (off the caller's thread)
+     */
+    public void storeOnSubTarget(int subtargetUserId, long peerId) {
+        if (storedSubTargets.contains(subtargetUserId)) {
+            return; // Already stored; the caller's copy of the SubTarget User is just older
+        }
+        BackgroundTasks.getInstance().submit(BackgroundTasks.Lane.PREFETCH, "entity-id:subtarget:" + subtargetUserId, () -> {
+            try {
+                writeBack(subtargetUserId, peerId);
+            } catch (Exception e) {
+                System.err.println("Failed to store Telegram id for SubTarget User " + subtargetUserId + ": " + e.getMessage());
+            }
+        });
+    }
+
+    private void writeBack(int subtargetUserId, long peerId) throws java.sql.SQLException {
+        if (DatabaseManager.setSubTargetPlatformIdIfMissing(subtargetUserId, peerId)) {
+            System.out.println("Stored Telegram id " + peerId + " for SubTarget User " + subtargetUserId);
+        }
+        storedSubTargets.add(subtargetUserId);
+    }
+
+    /**
+     * Peer id of a username, from the cache or Telegram (blocking; not for read paths)
+     * @return The peer id, or null if it doesn't resolve (or the lookup failed)
+     */
+    public Long resolve(DatabaseManager.PlatformAccount acc, String username) {
+        String name = normalize(username);
+        Long cached = RedisCacheManager.getInstance().getCachedEntityId(acc.id, name);
+        if (cached != null) {
+            return cached > 0 ? cached : null;
+        }
+        TelegramConnector connector = (TelegramConnector) ConnectorRegistry.getInstance().getOrCreateTelegramConnector(acc);
+        Long peerId;
+        try {
+            peerId = connector.resolveEntityId(name);
+        } catch (java.io.IOException e) {
+            // Not an answer from Telegram: nothing is cached, the next read asks again
+            failed.increment();
+            System.err.println("Could not resolve Telegram entity " + name + ": " + e.getMessage());
+            return null;
+        }
+        if (peerId != null && peerId > 0) {
+            resolved.increment();
+            remember(acc.id, name, peerId);
+            return peerId;
+        }
+        unresolved.increment();
+        RedisCacheManager.getInstance().cacheEntityId(acc.id, name, 0, negativeTtlSeconds);
+        return null;
+    }
+
+    /**
+     * Record a resolution learned elsewhere (e.g. an online status check)
+     */
+    public void remember(int platformAccountId, String username, long peerId) {
+        RedisCacheManager.getInstance().cacheEntityId(platformAccountId, normalize(username), peerId, ttlSeconds);
+    }
+
+    /**
+     * Cache hits (positive and negative), misses and Telegram lookups (for metrics)
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("hits", hits.sum());
+        stats.put("negativeHits", negativeHits.sum());
+        stats.put("misses", misses.sum());
+        stats.put("resolved", resolved.sum());
+        stats.put("unresolved", unresolved.sum());
+        stats.put("failed", failed.sum());
+        return stats;
+    }
+
+    private static String normalize(String username) {
+        String name = username.trim().toLowerCase();
+        return name.startsWith("@") ? name.substring(1) : name;
+    }
+}
@@ -0,0 +1,309 @@
+package com.aria.platform.telegram;
+
+import com.aria.core.ConfigurationManager;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Ordered outbound queue of one Telegram account (sends, media, edits, deletes, pins).
+ *
+ * Each account has its own worker thread, so accounts send in parallel while one account's operations
+ * run one at a time in submission order. Operations take a token from a per-account bucket
+ * (telegram.send.burst tokens, refilled at telegram.send.rate.per.minute). When Telegram answers with
+ * a FloodWait the whole account pauses for the requested time and the operation goes back to the head
+ * of the queue, unless the wait is longer than telegram.send.flood.max.wait.seconds. An edit of a
+ * message that already has an edit waiting in the queue replaces that edit's text instead of queueing
+ * a second one.
+ *
+ * Callers wait at most telegram.send.max.wait.seconds for their operation to start. An operation that
+ * would clearly start later (queue depth at the send rate, plus any flood pause) is refused up front,
+ * and one still queued at the deadline is taken out of the queue, so it is never sent after its caller
+ * reported a failure. Once started, the caller waits up to telegram.send.max.run.seconds for it.
+ */
+public class OutboundQueue {
+    private static final Map<Integer, OutboundQueue> queues = new ConcurrentHashMap<>();
+    private static final int MAX_FLOOD_RETRIES = 3;
+
+    private final int platformAccountId;
+    private final double tokensPerMilli;
+    private final double burst;
+    private final long maxFloodWaitMillis;
+    private final long maxWaitMillis;
+    private final long maxRunMillis;
+
+    // Guarded by this
+    private final LinkedList<Operation<?>> pending = new LinkedList<>();
+    private final Map<String, Operation<Boolean>> queuedEdits = new HashMap<>();
+    private double tokens;
+    private long refilledAt;
+    private long pausedUntil;
+
+    private final LongAdder executed = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder floodWaits = new LongAdder();
+    private final LongAdder throttledMillis = new LongAdder();
+    private final LongAdder refused = new LongAdder();
+    private final LongAdder timedOut = new LongAdder();
+
+    private static final class Operation<T> {
+        final String kind;
+        final String editKey; // null unless it's an edit
+        Callable<T> work;
+        final List<CompletableFuture<T>> waiters = new ArrayList<>();
+        final long queuedAt = System.currentTimeMillis();
+        int floodRetries;
+
+        Operation(String kind, String editKey, Callable<T> work) {
+            this.kind = kind;
+            this.editKey = editKey;
+            this.work = work;
+        }
+    }
+
+    private OutboundQueue(int platformAccountId) {
+        this.platformAccountId = platformAccountId;
+        int perMinute = Math.max(1, ConfigurationManager.getIntProperty("telegram.send.rate.per.minute", 30));
+        this.tokensPerMilli = perMinute / 60_000.0;
+        this.burst = Math.max(1, ConfigurationManager.getIntProperty("telegram.send.burst", 5));
+        this.maxFloodWaitMillis = ConfigurationManager.getIntProperty("telegram.send.flood.max.wait.seconds", 300) * 1000L;
+        this.maxWaitMillis = Math.max(1, ConfigurationManager.getIntProperty("telegram.send.max.wait.seconds", 30)) * 1000L;
+        // Longer than the slowest operation (media uploads may take 600s)
+        this.maxRunMillis = Math.max(1, ConfigurationManager.getIntProperty("telegram.send.max.run.seconds", 660)) * 1000L;
+        this.tokens = burst;
+        this.refilledAt = System.currentTimeMillis();
+        Thread worker = new Thread(this::run, "telegram-outbound-" + platformAccountId);
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * The queue of an account (created on first use)
+     */
+    public static OutboundQueue forAccount(int platformAccountId) {
+        return queues.computeIfAbsent(platformAccountId, OutboundQueue::new);
+    }
+
+    /**
+     * Queue an operation behind the account's earlier ones and wait for its result
+     * @param kind What it does (for logs), e.g. "send"
+     * @throws TelethonSidecar.FloodWaitException if Telegram asked for a longer wait than we are willing to do
+     * @throws TimeoutException if it couldn't start within telegram.send.max.wait.seconds (it is not sent)
+     * @throws TelethonSidecar.OutcomeUnknownException if it started but gave no result within
+     *         telegram.send.max.run.seconds (it may have been sent)
+     */
+    public <T> T execute(String kind, Callable<T> work) throws Exception {
+        Operation<T> operation = new Operation<>(kind, null, work);
+        CompletableFuture<T> future = new CompletableFuture<>();
+        operation.waiters.add(future);
+        synchronized (this) {
+            refuseIfBacklogged(kind);
+            pending.add(operation);
+            notifyAll();
+        }
+        return await(operation, future);
+    }
+
+    /**
+     * Queue an edit of messageId. If an edit of the same message is still waiting, it is replaced by
+     * this one and both callers get the result of the edit that is sent.
+     */
+    public boolean executeEdit(String target, long messageId, Callable<Boolean> work) throws Exception {
+        String key = target.toLowerCase() + ":" + messageId;
+        CompletableFuture<Boolean> future = new CompletableFuture<>();
+        Operation<Boolean> operation;
+        synchronized (this) {
+            operation = queuedEdits.get(key);
+            if (operation != null) {
+                // Adds no work to the queue, so nothing to refuse
+                coalesced.increment();
+                operation.work = work;
+                operation.waiters.add(future);
+            } else {
+                refuseIfBacklogged("edit");
+                operation = new Operation<>("edit", key, work);
+                operation.waiters.add(future);
+                queuedEdits.put(key, operation);
+                pending.add(operation);
+                notifyAll();
+            }
+        }
+        return await(operation, future);
+    }
+
+    /**
+     * Refuse a new operation that would start after telegram.send.max.wait.seconds: the remaining flood
+     * pause plus the time the queue ahead of it takes at the send rate (caller holds the lock)
+     */
+    private void refuseIfBacklogged(String kind) throws TimeoutException {
+        long now = System.currentTimeMillis();
+        double available = Math.min(burst, tokens + (now - refilledAt) * tokensPerMilli);
+        double missingTokens = pending.size() + 1 - available;
+        long projected = Math.max(0, pausedUntil - now)
+            + (missingTokens > 0 ? (long) Math.ceil(missingTokens / tokensPerMilli) : 0);
+        if (projected > maxWaitMillis) {
+            refused.increment();
+            throw new TimeoutException("Telegram " + kind + " for account " + platformAccountId + " would wait about "
+                + (projected / 1000) + "s (" + pending.size() + " queued); not sent");
+        }
+    }
+
+    private <T> T await(Operation<T> operation, CompletableFuture<T> future) throws Exception {
+        long deadline = System.currentTimeMillis() + maxWaitMillis;
+        boolean running = false;
+        while (true) {
+            try {
+                return future.get(Math.max(1, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof Exception) {
+                    throw (Exception) cause;
+                }
+                throw new RuntimeException(cause);
+            } catch (TimeoutException e) {
+                synchronized (this) {
+                    if (pending.contains(operation)) {
+                        withdraw(operation, future);
+                        timedOut.increment();
+                        throw new TimeoutException("Telegram " + operation.kind + " for account " + platformAccountId
+                            + " still queued after " + (maxWaitMillis / 1000) + "s; not sent");
+                    }
+                }
+                if (running) {
+                    timedOut.increment();
+                    throw new TelethonSidecar.OutcomeUnknownException("Telegram " + operation.kind + " for account " + platformAccountId
+                        + " gave no result within " + (maxRunMillis / 1000) + "s", e);
+                }
+                // Started already: give it the time the slowest operation may take
+                running = true;
+                deadline = System.currentTimeMillis() + maxRunMillis;
+            }
+        }
+    }
+
+    /**
+     * Stop waiting for a queued operation; it is dropped unless another caller still waits for it
+     * (caller holds the lock)
+     */
+    private void withdraw(Operation<?> operation, CompletableFuture<?> future) {
+        operation.waiters.remove(future);
+        if (operation.waiters.isEmpty()) {
+            pending.remove(operation);
+            if (operation.editKey != null) {
+                queuedEdits.remove(operation.editKey, operation);
+            }
+        }
+    }
+
+    private void run() {
+        while (true) {
+            Operation<?> operation;
+            try {
+                operation = next();
+            } catch (InterruptedException e) {
+                return;
+            }
+            perform(operation);
+        }
+    }
+
+    /**
+     * Wait for an operation and a token (and for any flood wait to pass), then take both
+     */
+    private synchronized Operation<?> next() throws InterruptedException {
+        while (true) {
+            long now = System.currentTimeMillis();
+            tokens = Math.min(burst, tokens + (now - refilledAt) * tokensPerMilli);
+            refilledAt = now;
+            if (pending.isEmpty()) {
+                wait();
+                continue;
+            }
+            long waitMillis = Math.max(pausedUntil - now, tokens >= 1 ? 0 : (long) Math.ceil((1 - tokens) / tokensPerMilli));
+            if (waitMillis > 0) {
+                wait(waitMillis);
+                throttledMillis.add(System.currentTimeMillis() - now);
+                continue;
+            }
+            tokens -= 1;
+            Operation<?> operation = pending.removeFirst();
+            // From here on a new edit of the same message queues behind this one
+            if (operation.editKey != null) {
+                queuedEdits.remove(operation.editKey, operation);
+            }
+            return operation;
+        }
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private void perform(Operation operation) {
+        Callable work;
+        List<CompletableFuture> waiters;
+        synchronized (this) {
+            work = operation.work;
+            waiters = new ArrayList<>(operation.waiters);
+        }
+        try {
+            Object result = work.call();
+            executed.increment();
+            waiters.forEach(f -> f.complete(result));
+        } catch (TelethonSidecar.FloodWaitException e) {
+            floodWaits.increment();
+            long waitMillis = e.seconds * 1000L;
+            System.err.println("Telegram flood wait of " + e.seconds + "s for account " + platformAccountId
+                + " (" + operation.kind + ")");
+            synchronized (this) {
+                pausedUntil = Math.max(pausedUntil, System.currentTimeMillis() + waitMillis);
+                if (waitMillis <= maxFloodWaitMillis && operation.floodRetries < MAX_FLOOD_RETRIES
+                        && !operation.waiters.isEmpty()) {
+                    // Retried first once the pause is over; the worker waits in next(), where callers
+                    // that give up can still take it out of the queue
+                    operation.floodRetries++;
+                    pending.addFirst(operation);
+                    if (operation.editKey != null) {
+                        queuedEdits.putIfAbsent(operation.editKey, operation);
+                    }
+                    return;
+                }
+            }
+            waiters.forEach(f -> f.completeExceptionally(e));
+        } catch (Throwable t) {
+            waiters.forEach(f -> f.completeExceptionally(t));
+        }
+    }
+
+    /**
+     * Per account: queued operations, counts, and time spent waiting for tokens (for metrics)
+     */
+    public static Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long now = System.currentTimeMillis();
+        for (OutboundQueue queue : queues.values()) {
+            Map<String, Object> account = new LinkedHashMap<>();
+            synchronized (queue) {
+                account.put("queued", queue.pending.size());
+                account.put("oldestQueuedMillis", queue.pending.isEmpty() ? 0 : now - queue.pending.getFirst().queuedAt);
+                account.put("pausedForMillis", Math.max(0, queue.pausedUntil - now));
+            }
+            account.put("executed", queue.executed.sum());
+            account.put("coalescedEdits", queue.coalesced.sum());
+            account.put("floodWaits", queue.floodWaits.sum());
+            account.put("throttledMillis", queue.throttledMillis.sum());
+            account.put("refused", queue.refused.sum());
+            account.put("timedOut", queue.timedOut.sum());
+            stats.put(String.valueOf(queue.platformAccountId), account);
+        }
+        return stats;
+    }
+}
@@ -2,6 +2,7 @@ package com.aria.platform.telegram;
 
 import com.aria.platform.PlatformConnector;
 import com.aria.core.model.Message;
+import com.google.gson.JsonObject;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
@@ -9,6 +10,7 @@ import java.nio.file.Paths;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
 
 public class TelegramConnector implements PlatformConnector {
     private final String apiId;
@@ -88,6 +90,7 @@ public class TelegramConnector implements PlatformConnector {
             env.put("TELEGRAM_USERNAME", this.username);
             env.put("PLATFORM_ACCOUNT_ID", String.valueOf(this.platformAccountId));
             env.put("TELETHON_SESSION_PATH", buildSessionPath(this.username, this.phoneNumber));
+            env.put("TELETHON_LOCK_PATH", buildLockPath());
             // Database config
             env.put("DB_HOST", System.getenv("DB_HOST") != null ? System.getenv("DB_HOST") : "aria-postgres");
             env.put("DB_PORT", System.getenv("DB_PORT") != null ? System.getenv("DB_PORT") : "5432");
@@ -107,6 +110,7 @@ public class TelegramConnector implements PlatformConnector {
             }
 
             int exitCode = process.waitFor();
+            com.aria.service.MediaPreviewService.getInstance().scheduleForAccount(this.platformAccountId);
             if (exitCode != 0) {
                 System.err.println("Priority ingestion script failed with exit code: " + exitCode);
             }
@@ -140,7 +144,7 @@ public class TelegramConnector implements PlatformConnector {
             env.put("TELEGRAM_PHONE", this.phoneNumber);
             env.put("TELEGRAM_USERNAME", this.username);
             env.put("PLATFORM_ACCOUNT_ID", String.valueOf(this.platformAccountId));
-            env.put("TELETHON_LOCK_PATH", "/app/telethon_send.lock");
+            env.put("TELETHON_LOCK_PATH", buildLockPath());
             env.put("TELETHON_SESSION_PATH", buildSessionPath(this.username, this.phoneNumber));
             if (priorityTargetUsername != null && !priorityTargetUsername.isEmpty()) {
                 env.put("PRIORITY_TARGET_USERNAME", priorityTargetUsername);
@@ -159,6 +163,9 @@ public class TelegramConnector implements PlatformConnector {
             }
 
             int exitCode = process.waitFor();
+            // Even a failed run may have written (or deleted) messages
+            dropCachedDialogs();
+            com.aria.service.MediaPreviewService.getInstance().scheduleForAccount(this.platformAccountId);
 
             if (exitCode == 0) {
                 System.out.println("Chat ingestion completed successfully!");
@@ -172,6 +179,21 @@ public class TelegramConnector implements PlatformConnector {
         }
     }
 
+    /**
+     * The ingestor writes messages (and deletes those gone on Telegram) straight to the database, past the
+     * feed: drop the account's cached timelines and tell open views to reload
+     */
+    private void dropCachedDialogs() {
+        try {
+            List<Integer> dialogRowIds = com.aria.storage.DatabaseManager.getDialogRowIdsForPlatformAccount(this.platformAccountId);
+            if (!dialogRowIds.isEmpty()) {
+                com.aria.service.MessageFeedService.getInstance().invalidate(dialogRowIds);
+            }
+        } catch (Exception e) {
+            System.err.println("Failed to drop cached dialogs of account " + this.platformAccountId + ": " + e.getMessage());
+        }
+    }
+
     @Override
     public boolean sendMessage(String target, String message) {
         SendMessageResult result = sendMessageAndGetResult(target, message);
@@ -185,11 +207,23 @@ public class TelegramConnector implements PlatformConnector {
         public final Long messageId;
         public final Long peerId;
         public final boolean success;
+        // The send was handed to Telegram but not confirmed (see TelethonSidecar.OutcomeUnknownException):
+        // it may still be delivered, so it must not be reported as failed
+        public final boolean outcomeUnknown;
         
         public SendMessageResult(Long messageId, Long peerId, boolean success) {
+            this(messageId, peerId, success, false);
+        }
+
+        private SendMessageResult(Long messageId, Long peerId, boolean success, boolean outcomeUnknown) {
             this.messageId = messageId;
             this.peerId = peerId;
             this.success = success;
+            this.outcomeUnknown = outcomeUnknown;
+        }
+
+        static SendMessageResult unknownOutcome() {
+            return new SendMessageResult(null, null, false, true);
         }
     }
 
@@ -206,14 +240,40 @@ public class TelegramConnector implements PlatformConnector {
      * @param target Target username
      * @param message Message text
      * @param replyToMessageId Telegram message ID to reply to (null if not a reply)
-     * @return The result containing message ID and peer ID, or null if sending failed
+     * @return The result containing message ID and peer ID, an outcomeUnknown result if Telegram didn't
+     *         confirm it in time, or null if sending failed
      */
     public SendMessageResult sendMessageAndGetResult(String target, String message, Long replyToMessageId) {
+        return queuedSend("send", () -> sendMessageNow(target, message, replyToMessageId));
+    }
+
+    // Runs on the account's OutboundQueue worker
+    private SendMessageResult sendMessageNow(String target, String message, Long replyToMessageId) {
         if (!isConfigured()) {
             System.err.println("Telegram connector not configured");
             return null;
         }
 
+        if (TelethonSidecar.isEnabled()) {
+            JsonObject params = new JsonObject();
+            params.addProperty("target", target);
+            params.addProperty("text", message);
+            if (replyToMessageId != null && replyToMessageId > 0) {
+                params.addProperty("replyTo", replyToMessageId);
+            }
+            try {
+                return toSendMessageResult(sidecar().call("send_message", params, 60));
+            } catch (TelethonSidecar.SidecarUnavailableException e) {
+                System.err.println("Telethon sidecar unavailable, falling back to script: " + e.getMessage());
+            } catch (TelethonSidecar.OutcomeUnknownException e) {
+                System.err.println("Message to " + target + " not confirmed, it may still be delivered: " + e.getMessage());
+                return SendMessageResult.unknownOutcome();
+            } catch (IOException e) {
+                System.err.println("Error sending message: " + e.getMessage());
+                return null;
+            }
+        }
+
         try {
             ProcessBuilder processBuilder;
             if (replyToMessageId != null && replyToMessageId > 0) {
@@ -239,7 +299,7 @@ public class TelegramConnector implements PlatformConnector {
             env.put("TELEGRAM_PHONE", this.phoneNumber);
             env.put("TELEGRAM_USERNAME", this.username);
             env.put("PLATFORM_ACCOUNT_ID", String.valueOf(this.platformAccountId));
-            env.put("TELETHON_LOCK_PATH", "/app/telethon_send.lock");
+            env.put("TELETHON_LOCK_PATH", buildLockPath());
             env.put("TELETHON_SESSION_PATH", buildSessionPath(this.username, this.phoneNumber));
 
             processBuilder.directory(Paths.get("").toAbsolutePath().toFile());
@@ -321,10 +381,36 @@ public class TelegramConnector implements PlatformConnector {
      * @return The result containing message ID and peer ID, or null if sending failed
      */
     public SendMessageResult sendMediaAndGetResult(String target, String filePath, String caption, Long replyToMessageId) {
+        return queuedSend("send-media", () -> sendMediaNow(target, filePath, caption, replyToMessageId));
+    }
+
+    // Runs on the account's OutboundQueue worker
+    private SendMessageResult sendMediaNow(String target, String filePath, String caption, Long replyToMessageId) {
         if (!isConfigured()) {
             System.err.println("Telegram connector not configured");
             return null;
         }
+        if (TelethonSidecar.isEnabled()) {
+            JsonObject params = new JsonObject();
+            params.addProperty("target", target);
+            params.addProperty("filePath", filePath);
+            params.addProperty("caption", caption != null ? caption : "");
+            if (replyToMessageId != null && replyToMessageId > 0) {
+                params.addProperty("replyTo", replyToMessageId);
+            }
+            try {
+                // Uploads can be large, so allow much longer than for text messages
+                return toSendMessageResult(sidecar().call("send_media", params, 600));
+            } catch (TelethonSidecar.SidecarUnavailableException e) {
+                System.err.println("Telethon sidecar unavailable, falling back to script: " + e.getMessage());
+            } catch (TelethonSidecar.OutcomeUnknownException e) {
+                System.err.println("Media to " + target + " not confirmed, it may still be delivered: " + e.getMessage());
+                return SendMessageResult.unknownOutcome();
+            } catch (IOException e) {
+                System.err.println("Error sending media: " + e.getMessage());
+                return null;
+            }
+        }
         try {
             ProcessBuilder processBuilder;
             if (replyToMessageId != null && replyToMessageId > 0) {
@@ -351,7 +437,7 @@ public class TelegramConnector implements PlatformConnector {
             env.put("TELEGRAM_PHONE", this.phoneNumber);
             env.put("TELEGRAM_USERNAME", this.username);
             env.put("PLATFORM_ACCOUNT_ID", String.valueOf(this.platformAccountId));
-            env.put("TELETHON_LOCK_PATH", "/app/telethon_send.lock");
+            env.put("TELETHON_LOCK_PATH", buildLockPath());
             env.put("TELETHON_SESSION_PATH", buildSessionPath(this.username, this.phoneNumber));
 
             processBuilder.directory(Paths.get("").toAbsolutePath().toFile());
@@ -400,11 +486,39 @@ public class TelegramConnector implements PlatformConnector {
         }
     }
 
+    /**
+     * Edit a message's text. Rapid edits of the same message are coalesced (see OutboundQueue).
+     */
     public boolean editMessage(String target, int messageId, String newText) {
+        try {
+            return OutboundQueue.forAccount(platformAccountId).executeEdit(target, messageId,
+                    () -> editMessageNow(target, messageId, newText));
+        } catch (Exception e) {
+            System.err.println("Error editing message: " + e.getMessage());
+            return false;
+        }
+    }
+
+    // Runs on the account's OutboundQueue worker
+    private boolean editMessageNow(String target, int messageId, String newText) {
         if (!isConfigured()) {
             System.err.println("Telegram connector not configured");
             return false;
         }
+        if (TelethonSidecar.isEnabled()) {
+            JsonObject params = new JsonObject();
+            params.addProperty("target", target);
+            params.addProperty("messageId", messageId);
+            params.addProperty("text", newText);
+            try {
+                return isSuccess(sidecar().call("edit_message", params, 60));
+            } catch (TelethonSidecar.SidecarUnavailableException e) {
+                System.err.println("Telethon sidecar unavailable, falling back to script: " + e.getMessage());
+            } catch (IOException e) {
+                System.err.println("Error editing message: " + e.getMessage());
+                return false;
+            }
+        }
         try {
             ProcessBuilder processBuilder = new ProcessBuilder(
                     "python3",
@@ -419,7 +533,7 @@ public class TelegramConnector implements PlatformConnector {
             env.put("TELEGRAM_PHONE", this.phoneNumber);
             env.put("TELEGRAM_USERNAME", this.username);
             env.put("PLATFORM_ACCOUNT_ID", String.valueOf(this.platformAccountId));
-            env.put("TELETHON_LOCK_PATH", "/app/telethon_send.lock");
+            env.put("TELETHON_LOCK_PATH", buildLockPath());
             env.put("TELETHON_SESSION_PATH", buildSessionPath(this.username, this.phoneNumber));
 
             processBuilder.directory(Paths.get("").toAbsolutePath().toFile());
@@ -449,10 +563,30 @@ public class TelegramConnector implements PlatformConnector {
      * @return true if successful
      */
     public boolean editMediaMessage(String target, int messageId, String filePath, String caption) {
+        return queued("edit-media", () -> editMediaMessageNow(target, messageId, filePath, caption), false);
+    }
+
+    // Runs on the account's OutboundQueue worker
+    private boolean editMediaMessageNow(String target, int messageId, String filePath, String caption) {
         if (!isConfigured()) {
             System.err.println("Telegram connector not configured");
             return false;
         }
+        if (TelethonSidecar.isEnabled()) {
+            JsonObject params = new JsonObject();
+            params.addProperty("target", target);
+            params.addProperty("messageId", messageId);
+            params.addProperty("filePath", filePath);
+            params.addProperty("text", caption != null ? caption : "");
+            try {
+                return isSuccess(sidecar().call("edit_message", params, 600));
+            } catch (TelethonSidecar.SidecarUnavailableException e) {
+                System.err.println("Telethon sidecar unavailable, falling back to script: " + e.getMessage());
+            } catch (IOException e) {
+                System.err.println("Error editing media message: " + e.getMessage());
+                return false;
+            }
+        }
         try {
             ProcessBuilder processBuilder = new ProcessBuilder(
                     "python3",
@@ -468,7 +602,7 @@ public class TelegramConnector implements PlatformConnector {
             env.put("TELEGRAM_PHONE", this.phoneNumber);
             env.put("TELEGRAM_USERNAME", this.username);
             env.put("PLATFORM_ACCOUNT_ID", String.valueOf(this.platformAccountId));
-            env.put("TELETHON_LOCK_PATH", "/app/telethon_send.lock");
+            env.put("TELETHON_LOCK_PATH", buildLockPath());
             env.put("TELETHON_SESSION_PATH", buildSessionPath(this.username, this.phoneNumber));
 
             processBuilder.directory(Paths.get("").toAbsolutePath().toFile());
@@ -502,10 +636,35 @@ public class TelegramConnector implements PlatformConnector {
     }
     
     public DeleteMessageResult deleteMessage(String target, int messageId, boolean revoke) {
+        try {
+            return OutboundQueue.forAccount(platformAccountId).execute("delete", () -> deleteMessageNow(target, messageId, revoke));
+        } catch (Exception e) {
+            System.err.println("Error deleting message: " + e.getMessage());
+            return new DeleteMessageResult(false, false, e.getMessage());
+        }
+    }
+
+    // Runs on the account's OutboundQueue worker
+    private DeleteMessageResult deleteMessageNow(String target, int messageId, boolean revoke) {
         if (!isConfigured()) {
             System.err.println("Telegram connector not configured");
             return new DeleteMessageResult(false, false, "Connector not configured");
         }
+        if (TelethonSidecar.isEnabled()) {
+            JsonObject params = new JsonObject();
+            params.addProperty("target", target);
+            params.addProperty("messageId", messageId);
+            params.addProperty("revoke", revoke);
+            try {
+                JsonObject result = sidecar().call("delete_message", params, 60);
+                boolean revokedResult = result.has("revoked") && result.get("revoked").getAsBoolean();
+                return new DeleteMessageResult(isSuccess(result), revokedResult, null);
+            } catch (TelethonSidecar.SidecarUnavailableException e) {
+                System.err.println("Telethon sidecar unavailable, falling back to script: " + e.getMessage());
+            } catch (IOException e) {
+                return new DeleteMessageResult(false, false, e.getMessage());
+            }
+        }
         try {
             ProcessBuilder processBuilder = new ProcessBuilder(
                     "python3",
@@ -520,7 +679,7 @@ public class TelegramConnector implements PlatformConnector {
             env.put("TELEGRAM_PHONE", this.phoneNumber);
             env.put("TELEGRAM_USERNAME", this.username);
             env.put("PLATFORM_ACCOUNT_ID", String.valueOf(this.platformAccountId));
-            env.put("TELETHON_LOCK_PATH", "/app/telethon_send.lock");
+            env.put("TELETHON_LOCK_PATH", buildLockPath());
             env.put("TELETHON_SESSION_PATH", buildSessionPath(this.username, this.phoneNumber));
 
             processBuilder.directory(Paths.get("").toAbsolutePath().toFile());
@@ -567,10 +726,29 @@ public class TelegramConnector implements PlatformConnector {
     }
 
     public boolean pinMessage(String target, int messageId, boolean pin) {
+        return queued("pin", () -> pinMessageNow(target, messageId, pin), false);
+    }
+
+    // Runs on the account's OutboundQueue worker
+    private boolean pinMessageNow(String target, int messageId, boolean pin) {
         if (!isConfigured()) {
             System.err.println("Telegram connector not configured");
             return false;
         }
+        if (TelethonSidecar.isEnabled()) {
+            JsonObject params = new JsonObject();
+            params.addProperty("target", target);
+            params.addProperty("messageId", messageId);
+            params.addProperty("pin", pin);
+            try {
+                return isSuccess(sidecar().call("pin_message", params, 60));
+            } catch (TelethonSidecar.SidecarUnavailableException e) {
+                System.err.println("Telethon sidecar unavailable, falling back to script: " + e.getMessage());
+            } catch (IOException e) {
+                System.err.println("Error pinning message: " + e.getMessage());
+                return false;
+            }
+        }
         try {
             ProcessBuilder processBuilder = new ProcessBuilder(
                     "python3",
@@ -585,7 +763,7 @@ public class TelegramConnector implements PlatformConnector {
             env.put("TELEGRAM_PHONE", this.phoneNumber);
             env.put("TELEGRAM_USERNAME", this.username);
             env.put("PLATFORM_ACCOUNT_ID", String.valueOf(this.platformAccountId));
-            env.put("TELETHON_LOCK_PATH", "/app/telethon_send.lock");
+            env.put("TELETHON_LOCK_PATH", buildLockPath());
             env.put("TELETHON_SESSION_PATH", buildSessionPath(this.username, this.phoneNumber));
 
             processBuilder.directory(Paths.get("").toAbsolutePath().toFile());
@@ -618,6 +796,90 @@ public class TelegramConnector implements PlatformConnector {
         }
     }
 
+    /**
+     * Subscribe to pushed Telegram updates (new/edited/deleted/pinned messages) for this account.
+     * @param listener Receives each event frame ({"event": ..., "data": ...}) from the sidecar
+     * @return true if the subscription is active
+     */
+    public boolean subscribeToUpdates(Consumer<JsonObject> listener) {
+        if (!isConfigured() || !TelethonSidecar.isEnabled()) {
+            return false;
+        }
+        try {
+            sidecar().subscribe(listener);
+            return true;
+        } catch (IOException e) {
+            System.err.println("Failed to subscribe to Telegram updates: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Whether pushed updates are currently flowing for this account
+     */
+    public boolean isStreamingUpdates() {
+        return isConfigured() && TelethonSidecar.isEnabled() && sidecar().isStreaming();
+    }
+
+    /**
+     * Run an outbound operation through this account's OutboundQueue
+     * @return Its result, or failed if it threw (e.g. a flood wait too long to sit out)
+     */
+    /**
+     * queued(...) for sends: an operation that started but gave no result is reported as outcomeUnknown
+     */
+    private SendMessageResult queuedSend(String kind, java.util.concurrent.Callable<SendMessageResult> work) {
+        try {
+            return OutboundQueue.forAccount(platformAccountId).execute(kind, work);
+        } catch (TelethonSidecar.OutcomeUnknownException e) {
+            System.err.println("Telegram " + kind + " not confirmed, it may still be delivered: " + e.getMessage());
+            return SendMessageResult.unknownOutcome();
+        } catch (Exception e) {
+            System.err.println("Error in Telegram " + kind + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    private <T> T queued(String kind, java.util.concurrent.Callable<T> work, T failed) {
+        try {
+            return OutboundQueue.forAccount(platformAccountId).execute(kind, work);
+        } catch (Exception e) {
+            System.err.println("Error in Telegram " + kind + ": " + e.getMessage());
+            return failed;
+        }
+    }
+
+    /**
+     * Long-lived Telethon process for this account (see TelethonSidecar)
+     */
+    private TelethonSidecar sidecar() {
+        Map<String, String> env = new HashMap<>();
+        env.put("TELEGRAM_API_ID", this.apiId);
+        env.put("TELEGRAM_API_HASH", this.apiHash);
+        env.put("TELEGRAM_PHONE", this.phoneNumber);
+        env.put("TELEGRAM_USERNAME", this.username);
+        env.put("PLATFORM_ACCOUNT_ID", String.valueOf(this.platformAccountId));
+        env.put("TELETHON_LOCK_PATH", buildLockPath());
+        String sessionPath = buildSessionPath(this.username, this.phoneNumber);
+        env.put("TELETHON_SESSION_PATH", sessionPath);
+        return TelethonSidecar.forAccount(sessionPath, env);
+    }
+
+    private static SendMessageResult toSendMessageResult(JsonObject result) {
+        if (!isSuccess(result)) {
+            return null;
+        }
+        long msgId = result.has("messageId") && !result.get("messageId").isJsonNull()
+                ? result.get("messageId").getAsLong() : -1L;
+        Long peerId = result.has("peerId") && !result.get("peerId").isJsonNull()
+                ? result.get("peerId").getAsLong() : null;
+        return new SendMessageResult(msgId, peerId, true);
+    }
+
+    private static boolean isSuccess(JsonObject result) {
+        return result.has("success") && result.get("success").getAsBoolean();
+    }
+
     private String buildSessionPath(String username, String phone) {
         String userPart = (username != null && !username.isBlank()) ? username : (phone != null ? phone : "unknown");
         if (userPart.startsWith("@")) userPart = userPart.substring(1);
@@ -626,6 +888,14 @@ public class TelegramConnector implements PlatformConnector {
         // Telethon will append ".session" automatically to this base path.
         return "Session/telegramConnector/user_" + userPart + "/user_" + userPart;
     }
+    /**
+     * Priority lock that makes this account's ingestion yield while it sends. Next to the account's
+     * session (the resource actually contended), so other accounts' ingestion keeps running.
+     */
+    private String buildLockPath() {
+        return buildSessionPath(this.username, this.phoneNumber) + ".send.lock";
+    }
+
     private void parseChatExport() {
         TelethonBridge bridge = new TelethonBridge();
         Map<String, List<Message>> chats = bridge.parseChatExport();
@@ -685,10 +955,17 @@ public class TelegramConnector implements PlatformConnector {
     public static class OnlineStatus {
         public final boolean online;
         public final String lastActive;
+        /** Telegram user id of the target, when the check resolved it */
+        public final Long peerId;
         
         public OnlineStatus(boolean online, String lastActive) {
+            this(online, lastActive, null);
+        }
+
+        public OnlineStatus(boolean online, String lastActive, Long peerId) {
             this.online = online;
             this.lastActive = lastActive;
+            this.peerId = peerId;
         }
     }
     
@@ -697,6 +974,21 @@ public class TelegramConnector implements PlatformConnector {
             System.err.println("Telegram connector not configured");
             return new OnlineStatus(false, "unknown");
         }
+        if (TelethonSidecar.isEnabled()) {
+            JsonObject params = new JsonObject();
+            params.addProperty("target", target);
+            try {
+                JsonObject result = sidecar().call("check_online", params, 30);
+                boolean online = result.has("online") && result.get("online").getAsBoolean();
+                String lastActive = result.has("lastActive") ? result.get("lastActive").getAsString() : "unknown";
+                return new OnlineStatus(online, lastActive);
+            } catch (TelethonSidecar.SidecarUnavailableException e) {
+                System.err.println("Telethon sidecar unavailable, falling back to script: " + e.getMessage());
+            } catch (IOException e) {
+                System.err.println("Error checking online status: " + e.getMessage());
+                return new OnlineStatus(false, "unknown");
+            }
+        }
         try {
             ProcessBuilder processBuilder = new ProcessBuilder(
                     "python3",
@@ -757,6 +1049,151 @@ public class TelegramConnector implements PlatformConnector {
         }
     }
 
+    /**
+     * Online status of many users in one sidecar request (or one online_checker.py run)
+     * @return Status per username as given; users that could not be checked are missing
+     */
+    public Map<String, OnlineStatus> checkUsersOnline(java.util.Collection<String> targets) {
+        Map<String, OnlineStatus> statuses = new HashMap<>();
+        if (targets.isEmpty()) {
+            return statuses;
+        }
+        if (!isConfigured()) {
+            System.err.println("Telegram connector not configured");
+            return statuses;
+        }
+        if (TelethonSidecar.isEnabled()) {
+            JsonObject params = new JsonObject();
+            com.google.gson.JsonArray list = new com.google.gson.JsonArray();
+            targets.forEach(list::add);
+            params.add("targets", list);
+            try {
+                JsonObject result = sidecar().call("check_online_many", params, 30 + targets.size());
+                return parseOnlineStatuses(result);
+            } catch (TelethonSidecar.SidecarUnavailableException e) {
+                System.err.println("Telethon sidecar unavailable, falling back to script: " + e.getMessage());
+            } catch (IOException e) {
+                System.err.println("Error checking online statuses: " + e.getMessage());
+                return statuses;
+            }
+        }
+        try {
+            List<String> command = new java.util.ArrayList<>(List.of("python3", "scripts/telethon/online_checker.py", "--many"));
+            command.addAll(targets);
+            ProcessBuilder processBuilder = new ProcessBuilder(command);
+            Map<String, String> env = processBuilder.environment();
+            env.put("TELEGRAM_API_ID", this.apiId);
+            env.put("TELEGRAM_API_HASH", this.apiHash);
+            env.put("TELEGRAM_PHONE", this.phoneNumber);
+            env.put("TELEGRAM_USERNAME", this.username);
+            env.put("PLATFORM_ACCOUNT_ID", String.valueOf(this.platformAccountId));
+            env.put("TELETHON_SESSION_PATH", buildSessionPath(this.username, this.phoneNumber));
+
+            processBuilder.directory(Paths.get("").toAbsolutePath().toFile());
+            processBuilder.redirectErrorStream(true);
+
+            Process process = processBuilder.start();
+            String jsonLine = null;
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.trim().startsWith("{\"statuses\"")) {
+                        jsonLine = line.trim();
+                    } else {
+                        System.out.println("Python: " + line);
+                    }
+                }
+            }
+            process.waitFor();
+            if (jsonLine != null) {
+                return parseOnlineStatuses(com.google.gson.JsonParser.parseString(jsonLine).getAsJsonObject());
+            }
+        } catch (Exception e) {
+            System.err.println("Error checking online statuses: " + e.getMessage());
+        }
+        return statuses;
+    }
+
+    /**
+     * Telegram peer id of a username, through the sidecar or get_entity_id.py. Makes a Telegram round
+     * trip; callers should go through EntityIdResolver, which caches the answer.
+     * @return The peer id, or null if Telegram has no such username
+     * @throws IOException If the lookup itself failed (not connected, timeout, script error)
+     */
+    public Long resolveEntityId(String target) throws IOException {
+        if (!isConfigured()) {
+            throw new IOException("Telegram connector not configured");
+        }
+        if (TelethonSidecar.isEnabled()) {
+            JsonObject params = new JsonObject();
+            params.addProperty("target", target);
+            try {
+                JsonObject result = sidecar().call("get_entity_id", params, 30);
+                return result.has("entityId") && !result.get("entityId").isJsonNull() ? result.get("entityId").getAsLong() : null;
+            } catch (TelethonSidecar.SidecarUnavailableException e) {
+                System.err.println("Telethon sidecar unavailable, falling back to script: " + e.getMessage());
+            }
+        }
+        ProcessBuilder processBuilder = new ProcessBuilder("python3", "scripts/telethon/get_entity_id.py", target);
+        Map<String, String> env = processBuilder.environment();
+        env.put("TELEGRAM_API_ID", this.apiId);
+        env.put("TELEGRAM_API_HASH", this.apiHash);
+        env.put("TELEGRAM_PHONE", this.phoneNumber);
+        env.put("TELEGRAM_USERNAME", this.username);
+        env.put("TELETHON_SESSION_PATH", buildSessionPath(this.username, this.phoneNumber));
+
+        processBuilder.directory(Paths.get("").toAbsolutePath().toFile());
+        processBuilder.redirectErrorStream(true);
+
+        Process process = processBuilder.start();
+        String jsonLine = null;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.trim().startsWith("{")) {
+                    jsonLine = line.trim();
+                }
+            }
+        }
+        try {
+            process.waitFor();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while resolving " + target, e);
+        }
+        if (jsonLine == null) {
+            throw new IOException("get_entity_id.py exited with code " + process.exitValue() + " and no result");
+        }
+        JsonObject json;
+        try {
+            json = com.google.gson.JsonParser.parseString(jsonLine).getAsJsonObject();
+        } catch (RuntimeException e) {
+            throw new IOException("Unreadable get_entity_id.py result: " + jsonLine, e);
+        }
+        if (json.has("success") && json.get("success").getAsBoolean()
+                && json.has("entityId") && !json.get("entityId").isJsonNull()) {
+            return json.get("entityId").getAsLong();
+        }
+        if (json.has("notFound") && json.get("notFound").getAsBoolean()) {
+            return null;
+        }
+        throw new IOException(json.has("error") ? json.get("error").getAsString() : "get_entity_id.py failed");
+    }
+
+    private static Map<String, OnlineStatus> parseOnlineStatuses(JsonObject result) {
+        Map<String, OnlineStatus> statuses = new HashMap<>();
+        if (result.has("statuses") && result.get("statuses").isJsonObject()) {
+            for (Map.Entry<String, com.google.gson.JsonElement> entry : result.getAsJsonObject("statuses").entrySet()) {
+                JsonObject json = entry.getValue().getAsJsonObject();
+                boolean online = json.has("online") && json.get("online").getAsBoolean();
+                String lastActive = json.has("lastActive") ? json.get("lastActive").getAsString() : "unknown";
+                Long peerId = json.has("peerId") && !json.get("peerId").isJsonNull() ? json.get("peerId").getAsLong() : null;
+                statuses.put(entry.getKey(), new OnlineStatus(online, lastActive, peerId));
+            }
+        }
+        return statuses;
+    }
+
     private boolean isConfigured() {
         return apiId != null && !apiId.isEmpty() &&
                 apiHash != null && !apiHash.isEmpty() &&
@@ -0,0 +1,237 @@
+package com.aria.platform.telegram;
+
+import com.aria.service.MediaPreviewService;
+import com.aria.service.MessageFeedService;
+import com.aria.service.PresenceService;
+import com.aria.storage.DatabaseManager;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Applies Telegram updates pushed by the account's Telethon sidecar to the database as they happen.
+ *
+ * Replaces re-running priority_ingestor.py every 5 seconds for each open conversation: once an account
+ * is streaming, new, edited, deleted and pinned messages are written through DatabaseManager within
+ * moments of Telegram delivering them, and idle conversations cost nothing. Every applied change is
+ * also published to {@link MessageFeedService} so open conversation views receive it as a delta.
+ *
+ * Events arrive on the sidecar's stdout reader thread, which also delivers request responses, so
+ * they are only handed over there: each account applies its events on its own single thread, in the
+ * order Telegram sent them.
+ */
+public class TelegramUpdateStream implements Consumer<JsonObject> {
+    private static final Map<Integer, TelegramUpdateStream> streams = new ConcurrentHashMap<>();
+
+    private final int platformAccountId;
+    private final int userId;
+    // Targets that had a one-off catch-up ingestion since the stream went live
+    private final Set<String> caughtUpTargets = ConcurrentHashMap.newKeySet();
+
+    // Applies this account's events one at a time, in arrival order
+    private final ExecutorService applier;
+
+    private TelegramUpdateStream(int platformAccountId, int userId) {
+        this.platformAccountId = platformAccountId;
+        this.userId = userId;
+        this.applier = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), r -> {
+            Thread t = new Thread(r, "telegram-updates-" + platformAccountId);
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Make sure pushed updates are flowing for this account, subscribing if necessary.
+     * @return The live stream, or null if streaming is unavailable (callers should fall back to polling ingestion)
+     */
+    public static TelegramUpdateStream ensureLive(DatabaseManager.PlatformAccount acc, TelegramConnector connector) {
+        if (acc == null || connector == null) {
+            return null;
+        }
+        TelegramUpdateStream stream = streams.get(acc.id);
+        if (stream == null) {
+            try {
+                Integer userId = DatabaseManager.getUserIdForPlatformAccount(acc.id);
+                if (userId == null) {
+                    return null;
+                }
+                stream = streams.computeIfAbsent(acc.id, id -> new TelegramUpdateStream(id, userId));
+            } catch (Exception e) {
+                System.err.println("Failed to start update stream for account " + acc.id + ": " + e.getMessage());
+                return null;
+            }
+        }
+        if (connector.isStreamingUpdates()) {
+            return stream;
+        }
+        // (Re)subscribing: anything that happened while we weren't listening needs a catch-up ingestion
+        stream.caughtUpTargets.clear();
+        return connector.subscribeToUpdates(stream) ? stream : null;
+    }
+
+    /**
+     * Record that a target's conversation is being caught up.
+     * @return true the first time for this target since the stream went live
+     */
+    public boolean markCaughtUp(String targetUsername) {
+        return caughtUpTargets.add(targetUsername.toLowerCase());
+    }
+
+    /**
+     * Called on the sidecar's reader thread: queue the event and return
+     */
+    @Override
+    public void accept(JsonObject frame) {
+        String event = frame.get("event").getAsString();
+        JsonObject data = frame.has("data") && frame.get("data").isJsonObject()
+                ? frame.getAsJsonObject("data") : new JsonObject();
+        applier.execute(() -> apply(event, data));
+    }
+
+    /**
+     * Events queued but not applied yet (for metrics)
+     */
+    public static Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        for (TelegramUpdateStream stream : streams.values()) {
+            stats.put(String.valueOf(stream.platformAccountId), ((ThreadPoolExecutor) stream.applier).getQueue().size());
+        }
+        return stats;
+    }
+
+    private void apply(String event, JsonObject data) {
+        try {
+            switch (event) {
+                case "new_message" -> applyMessage(data, false);
+                case "message_edited" -> applyMessage(data, true);
+                case "message_deleted" -> {
+                    List<Long> messageIds = getLongList(data, "messageIds");
+                    List<Integer> dialogRowIds = DatabaseManager.deleteTelegramMessages(
+                            userId, platformAccountId, getLong(data, "peerId"), messageIds);
+                    MessageFeedService.getInstance().publish(dialogRowIds, MessageFeedService.DELETE, messageIds);
+                }
+                case "message_pinned" -> {
+                    Long peerId = getLong(data, "peerId");
+                    if (peerId != null) {
+                        List<Long> messageIds = getLongList(data, "messageIds");
+                        List<Integer> dialogRowIds = DatabaseManager.setTelegramMessagesPinned(userId, platformAccountId,
+                                peerId, messageIds, data.has("pinned") && data.get("pinned").getAsBoolean());
+                        MessageFeedService.getInstance().publish(dialogRowIds, MessageFeedService.PIN, messageIds);
+                    }
+                }
+                case "media_downloaded" -> applyMedia(data);
+                case "user_status" -> applyUserStatus(data);
+                default -> System.out.println("Ignoring unknown Telegram update event: " + event);
+            }
+        } catch (Exception e) {
+            System.err.println("Failed to apply Telegram " + event + " for account " + platformAccountId + ": " + e.getMessage());
+        }
+    }
+
+    private void applyMessage(JsonObject data, boolean edited) throws Exception {
+        Long peerId = getLong(data, "peerId");
+        Long messageId = getLong(data, "messageId");
+        if (peerId == null || messageId == null) {
+            return;
+        }
+        if (data.has("isBot") && data.get("isBot").getAsBoolean()) {
+            return; // Bot chats are never stored as dialogs
+        }
+        String chatName = getString(data, "chatName");
+        boolean outgoing = data.has("out") && data.get("out").getAsBoolean();
+        String date = getString(data, "date");
+        boolean hasMedia = data.has("hasMedia") && data.get("hasMedia").getAsBoolean();
+
+        DatabaseManager.AppliedMessage applied = DatabaseManager.applyTelegramMessage(
+                userId, platformAccountId, peerId, chatName, messageId,
+                outgoing ? "me" : chatName,
+                getString(data, "text"),
+                date != null ? OffsetDateTime.parse(date) : OffsetDateTime.now(),
+                hasMedia,
+                getLong(data, "replyTo"),
+                edited);
+
+        if (applied == null) {
+            return; // Deleted through the app
+        }
+        MessageFeedService.getInstance().publish(applied.dialogRowId,
+                applied.inserted ? MessageFeedService.INSERT : MessageFeedService.EDIT, messageId);
+    }
+
+    /**
+     * Media of a message applied earlier, sent by the sidecar once its download finished
+     */
+    private void applyMedia(JsonObject data) throws Exception {
+        Long peerId = getLong(data, "peerId");
+        Long messageId = getLong(data, "messageId");
+        if (peerId == null || messageId == null || !data.has("media") || !data.get("media").isJsonObject()) {
+            return;
+        }
+        DatabaseManager.AppliedMessage applied = DatabaseManager.findTelegramMessage(userId, platformAccountId, peerId, messageId);
+        if (applied == null) {
+            return; // Skipped (bot chat, deleted through the app)
+        }
+        JsonObject media = data.getAsJsonObject("media");
+        Long fileSize = getLong(media, "file_size");
+        DatabaseManager.saveMediaIfAbsent(applied.messageRowId,
+                getString(media, "type"),
+                getString(media, "file_path"),
+                getString(media, "file_name"),
+                fileSize != null ? fileSize : 0L,
+                getString(media, "mime_type"));
+        MediaPreviewService.getInstance().scheduleForMessages(List.of(applied.messageRowId));
+        MessageFeedService.getInstance().publish(applied.dialogRowId, MessageFeedService.EDIT, messageId);
+    }
+
+    private void applyUserStatus(JsonObject data) throws Exception {
+        Long peerId = getLong(data, "peerId");
+        if (peerId == null) {
+            return;
+        }
+        boolean online = data.has("online") && data.get("online").getAsBoolean();
+        PresenceService.getInstance().recordPush(platformAccountId, peerId, online, getString(data, "lastActive"));
+        Integer dialogRowId = DatabaseManager.getPrivateDialogRowId(userId, platformAccountId, peerId);
+        if (dialogRowId == null) {
+            return; // Not someone we have a conversation with
+        }
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("online", online);
+        status.put("lastActive", getString(data, "lastActive"));
+        MessageFeedService.getInstance().publish(dialogRowId, MessageFeedService.STATUS, null, status);
+    }
+
+    private static String getString(JsonObject obj, String key) {
+        JsonElement value = obj.get(key);
+        return value != null && !value.isJsonNull() ? value.getAsString() : null;
+    }
+
+    private static Long getLong(JsonObject obj, String key) {
+        JsonElement value = obj.get(key);
+        return value != null && !value.isJsonNull() ? value.getAsLong() : null;
+    }
+
+    private static List<Long> getLongList(JsonObject obj, String key) {
+        List<Long> values = new ArrayList<>();
+        if (obj.has(key) && obj.get(key).isJsonArray()) {
+            JsonArray array = obj.getAsJsonArray(key);
+            for (JsonElement element : array) {
+                values.add(element.getAsLong());
+            }
+        }
+        return values;
+    }
+}
@@ -0,0 +1,373 @@
+package com.aria.platform.telegram;
+
+import com.aria.core.ConfigurationManager;
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Long-lived Telethon process (scripts/telethon/sidecar.py) for one platform account.
+ *
+ * The sidecar keeps the Telethon client connected, so a send/edit/delete/pin/online check no longer
+ * pays interpreter startup, Telethon import, session open and MTProto reconnect on every call.
+ * Requests are newline-delimited JSON frames over stdin/stdout, tagged with an id so many requests
+ * can be in flight at once; responses are matched back to callers by id.
+ *
+ * After {@link #subscribe} the sidecar also pushes Telegram update events (frames without an id);
+ * if the process dies while subscribed it is restarted and re-subscribed automatically.
+ */
+public class TelethonSidecar {
+    private static final Map<String, TelethonSidecar> sidecars = new ConcurrentHashMap<>();
+    private static final Gson gson = new Gson();
+    private static final long RESTART_DELAY_MS = 5000;
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(TelethonSidecar::shutdownAll, "telethon-sidecar-shutdown"));
+    }
+
+    private final String key;
+    private final Map<String, String> environment;
+    private final AtomicLong nextRequestId = new AtomicLong(1);
+    private final Map<Long, CompletableFuture<JsonObject>> pending = new ConcurrentHashMap<>();
+    private final List<Consumer<JsonObject>> eventListeners = new CopyOnWriteArrayList<>();
+    private volatile boolean subscribed;
+    private volatile boolean stopped;
+    private Process process;
+    private BufferedWriter writer;
+
+    /**
+     * Thrown when a request could not be delivered to the sidecar at all (e.g. python3 could not start).
+     * The request was certainly not executed, so callers may safely fall back to the one-shot scripts.
+     */
+    public static class SidecarUnavailableException extends IOException {
+        public SidecarUnavailableException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+
+    /**
+     * The request reached the sidecar but no result came back (no answer in time, or the process exited),
+     * so it may or may not have been executed. A send must not be reported as failed (and retried) on this.
+     */
+    public static class OutcomeUnknownException extends IOException {
+        public OutcomeUnknownException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+
+    /**
+     * Telegram refused the request until a wait has passed (FloodWaitError). Unchecked, so it passes through
+     * the connector methods (which swallow IOExceptions) to OutboundQueue, which backs off and retries.
+     */
+    public static class FloodWaitException extends RuntimeException {
+        public final int seconds;
+
+        public FloodWaitException(int seconds, String message) {
+            super(message);
+            this.seconds = seconds;
+        }
+    }
+
+    private TelethonSidecar(String key, Map<String, String> environment) {
+        this.key = key;
+        this.environment = environment;
+    }
+
+    /**
+     * Whether operations should go through the sidecar (TELETHON_SIDECAR_ENABLED, default true)
+     */
+    public static boolean isEnabled() {
+        return ConfigurationManager.getBooleanProperty("telethon.sidecar.enabled", true);
+    }
+
+    /**
+     * Get (or lazily create) the sidecar for an account. The key should identify the account
+     * session, e.g. its session path, so each account gets exactly one process.
+     */
+    public static TelethonSidecar forAccount(String key, Map<String, String> environment) {
+        return sidecars.computeIfAbsent(key, k -> new TelethonSidecar(k, Map.copyOf(environment)));
+    }
+
+    /**
+     * Stop every running sidecar (JVM shutdown)
+     */
+    public static void shutdownAll() {
+        for (TelethonSidecar sidecar : sidecars.values()) {
+            sidecar.stop();
+        }
+        sidecars.clear();
+    }
+
+    /**
+     * Call a sidecar method and wait for its result.
+     * @return The "result" object of the response
+     * @throws SidecarUnavailableException if the request could not be delivered to the sidecar
+     * @throws OutcomeUnknownException if the sidecar exited or did not answer in time (the request is
+     *         cancelled in the sidecar, but may already have been executed)
+     * @throws IOException if the sidecar reported an error
+     * @throws FloodWaitException if Telegram asked to wait before retrying
+     */
+    public JsonObject call(String method, JsonObject params, long timeoutSeconds) throws IOException {
+        long requestId = nextRequestId.getAndIncrement();
+        CompletableFuture<JsonObject> future = new CompletableFuture<>();
+        pending.put(requestId, future);
+
+        JsonObject request = new JsonObject();
+        request.addProperty("id", requestId);
+        request.addProperty("method", method);
+        request.add("params", params != null ? params : new JsonObject());
+
+        try {
+            write(gson.toJson(request));
+        } catch (IOException e) {
+            pending.remove(requestId);
+            throw new SidecarUnavailableException("Telethon sidecar unavailable: " + e.getMessage(), e);
+        }
+
+        JsonObject response;
+        try {
+            response = future.get(timeoutSeconds, TimeUnit.SECONDS);
+        } catch (TimeoutException e) {
+            cancel(requestId);
+            throw new OutcomeUnknownException("Telethon sidecar gave no result for " + method + " within " + timeoutSeconds + "s", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            cancel(requestId);
+            throw new OutcomeUnknownException("Interrupted waiting for Telethon sidecar", e);
+        } catch (ExecutionException e) {
+            throw new OutcomeUnknownException("Telethon sidecar exited: " + e.getCause().getMessage(), e.getCause());
+        } finally {
+            pending.remove(requestId);
+        }
+
+        if (response.has("error") && !response.get("error").isJsonNull()) {
+            if (response.has("floodWait") && !response.get("floodWait").isJsonNull()) {
+                throw new FloodWaitException(response.get("floodWait").getAsInt(), response.get("error").getAsString());
+            }
+            throw new IOException(response.get("error").getAsString());
+        }
+        JsonElement result = response.get("result");
+        return result != null && result.isJsonObject() ? result.getAsJsonObject() : new JsonObject();
+    }
+
+    /**
+     * Start receiving Telegram update events (new/edited/deleted/pinned messages) from this sidecar.
+     * Each event is passed to the listener as {"event": name, "data": {...}} on the sidecar reader
+     * thread, so listeners should not block for long.
+     */
+    public void subscribe(Consumer<JsonObject> listener) throws IOException {
+        if (!eventListeners.contains(listener)) {
+            eventListeners.add(listener);
+        }
+        stopped = false;
+        call("subscribe", new JsonObject(), 60);
+        subscribed = true;
+    }
+
+    /**
+     * Whether the process is running and has an active update subscription
+     */
+    public synchronized boolean isStreaming() {
+        return subscribed && process != null && process.isAlive();
+    }
+
+    /**
+     * Ask the sidecar to drop a request nobody waits for any more, so it isn't sent late (best effort)
+     */
+    private synchronized void cancel(long requestId) {
+        if (process == null || !process.isAlive()) {
+            return; // Gone with the process
+        }
+        JsonObject params = new JsonObject();
+        params.addProperty("id", requestId);
+        JsonObject frame = new JsonObject();
+        frame.addProperty("method", "cancel");
+        frame.add("params", params);
+        try {
+            writer.write(gson.toJson(frame));
+            writer.write('\n');
+            writer.flush();
+        } catch (IOException e) {
+            System.err.println("Failed to cancel Telethon sidecar request " + requestId + ": " + e.getMessage());
+        }
+    }
+
+    private synchronized void write(String frame) throws IOException {
+        ensureStarted();
+        writer.write(frame);
+        writer.write('\n');
+        writer.flush();
+    }
+
+    private synchronized void ensureStarted() throws IOException {
+        if (process != null && process.isAlive()) {
+            return;
+        }
+        ProcessBuilder processBuilder = new ProcessBuilder("python3", "scripts/telethon/sidecar.py");
+        processBuilder.environment().putAll(environment);
+        processBuilder.directory(Paths.get("").toAbsolutePath().toFile());
+
+        Process started = processBuilder.start();
+        process = started;
+        writer = new BufferedWriter(new OutputStreamWriter(started.getOutputStream(), StandardCharsets.UTF_8));
+
+        Thread responseReader = new Thread(() -> readResponses(started), "telethon-sidecar-out-" + key);
+        responseReader.setDaemon(true);
+        responseReader.start();
+
+        Thread logReader = new Thread(() -> readLogs(started), "telethon-sidecar-err-" + key);
+        logReader.setDaemon(true);
+        logReader.start();
+        System.out.println("Started Telethon sidecar for " + key);
+
+        if (subscribed) {
+            // Restarted after a crash: re-subscribe without blocking; if that fails, callers see
+            // isStreaming() == false and subscribe again themselves
+            long requestId = nextRequestId.getAndIncrement();
+            CompletableFuture<JsonObject> resubscribed = new CompletableFuture<>();
+            resubscribed.whenComplete((response, error) -> {
+                pending.remove(requestId);
+                if (error != null || response.has("error")) {
+                    subscribed = false;
+                }
+            });
+            pending.put(requestId, resubscribed);
+            JsonObject request = new JsonObject();
+            request.addProperty("id", requestId);
+            request.addProperty("method", "subscribe");
+            request.add("params", new JsonObject());
+            writer.write(gson.toJson(request));
+            writer.write('\n');
+            writer.flush();
+        }
+    }
+
+    private void readResponses(Process owner) {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(owner.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.trim().startsWith("{")) {
+                    System.out.println("Python (sidecar): " + line);
+                    continue;
+                }
+                try {
+                    JsonObject response = JsonParser.parseString(line).getAsJsonObject();
+                    if (response.has("event")) {
+                        dispatchEvent(response);
+                        continue;
+                    }
+                    if (!response.has("id") || response.get("id").isJsonNull()) {
+                        continue;
+                    }
+                    CompletableFuture<JsonObject> future = pending.get(response.get("id").getAsLong());
+                    if (future != null) {
+                        future.complete(response);
+                    }
+                } catch (Exception e) {
+                    System.err.println("Invalid frame from Telethon sidecar: " + e.getMessage());
+                }
+            }
+        } catch (IOException e) {
+            // Process exited - handled below
+        }
+        failPending(owner, new IOException("sidecar process exited"));
+    }
+
+    private void dispatchEvent(JsonObject event) {
+        for (Consumer<JsonObject> listener : eventListeners) {
+            try {
+                listener.accept(event);
+            } catch (Exception e) {
+                System.err.println("Error handling Telethon sidecar event: " + e.getMessage());
+            }
+        }
+    }
+
+    private void readLogs(Process owner) {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(owner.getErrorStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                System.out.println("Python (sidecar): " + line);
+            }
+        } catch (IOException e) {
+            // Process exited
+        }
+    }
+
+    private void failPending(Process owner, IOException cause) {
+        synchronized (this) {
+            if (process != null && process != owner) {
+                return; // A newer process is already serving requests
+            }
+            process = null;
+            writer = null;
+        }
+        for (CompletableFuture<JsonObject> future : pending.values()) {
+            future.completeExceptionally(cause);
+        }
+        if (subscribed && !stopped) {
+            scheduleRestart();
+        }
+    }
+
+    private void scheduleRestart() {
+        Thread restarter = new Thread(() -> {
+            try {
+                Thread.sleep(RESTART_DELAY_MS);
+                if (!stopped) {
+                    ensureStarted();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (IOException e) {
+                System.err.println("Failed to restart Telethon sidecar for " + key + ": " + e.getMessage());
+                scheduleRestart();
+            }
+        }, "telethon-sidecar-restart-" + key);
+        restarter.setDaemon(true);
+        restarter.start();
+    }
+
+    /**
+     * Stop the sidecar process. It will be restarted on the next call.
+     */
+    public synchronized void stop() {
+        stopped = true;
+        if (process == null) {
+            return;
+        }
+        try {
+            writer.close(); // EOF on stdin lets the sidecar disconnect cleanly
+        } catch (IOException ignored) {
+        }
+        try {
+            if (!process.waitFor(5, TimeUnit.SECONDS)) {
+                process.destroyForcibly();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            process.destroyForcibly();
+        }
+        process = null;
+        writer = null;
+    }
+}
@@ -0,0 +1,238 @@
+package com.aria.service;
+
+import com.aria.core.ConfigurationManager;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded thread pools for work the API hands off instead of doing in the request.
+ *
+ * Each lane is its own pool with a bounded queue (tasks.&lt;lane&gt;.threads / tasks.&lt;lane&gt;.queue), so a
+ * burst of one kind of work can't starve another or create unbounded threads and processes. What
+ * happens when a lane is full depends on the lane (see Lane). Tasks may carry a key: a task whose key
+ * is already queued or running is not submitted again.
+ */
+public class BackgroundTasks {
+
+    /**
+     * Lanes, by how much someone is waiting for the work
+     */
+    public enum Lane {
+        /** Follow-ups of a user action (persisting a sent message, priority ingestion); runs in the caller when full */
+        INTERACTIVE(8, 500, Overflow.CALLER_RUNS),
+        /** Long jobs (account ingestion, categorization); refused when full */
+        BATCH(2, 20, Overflow.REJECT),
+        /** Best-effort prefetching (profile pictures); dropped when full */
+        PREFETCH(2, 100, Overflow.DISCARD),
+        /** CPU-bound media derivation (thumbnails, video poster frames); dropped when full, redone when viewed */
+        MEDIA(2, 200, Overflow.DISCARD);
+
+        final int defaultThreads;
+        final int defaultQueue;
+        final Overflow overflow;
+
+        Lane(int defaultThreads, int defaultQueue, Overflow overflow) {
+            this.defaultThreads = defaultThreads;
+            this.defaultQueue = defaultQueue;
+            this.overflow = overflow;
+        }
+    }
+
+    private enum Overflow { CALLER_RUNS, REJECT, DISCARD }
+
+    /**
+     * Outcome of submit
+     */
+    public enum Submission {
+        ACCEPTED,
+        /** A task with the same key is already queued or running */
+        DUPLICATE,
+        /** The lane is full */
+        REJECTED
+    }
+
+    private static BackgroundTasks instance;
+
+    private final Map<Lane, LanePool> lanes = new EnumMap<>(Lane.class);
+    private final Set<String> activeKeys = ConcurrentHashMap.newKeySet();
+    private final LongAdder duplicates = new LongAdder();
+
+    private static final class LanePool {
+        ThreadPoolExecutor executor;
+        final int queueCapacity;
+        final LongAdder submitted = new LongAdder();
+        final LongAdder started = new LongAdder();
+        final LongAdder completed = new LongAdder();
+        final LongAdder failed = new LongAdder();
+        final LongAdder rejected = new LongAdder();
+        final LongAdder callerRuns = new LongAdder();
+        final LongAdder waitMillis = new LongAdder();
+        final LongAdder runMillis = new LongAdder();
+        final LongAccumulator maxWaitMillis = new LongAccumulator(Math::max, 0);
+
+        LanePool(int queueCapacity) {
+            this.queueCapacity = queueCapacity;
+        }
+    }
+
+    /**
+     * Thrown inside submit when a REJECT/DISCARD lane is full
+     */
+    private static final class LaneFullException extends RuntimeException {
+        static final LaneFullException INSTANCE = new LaneFullException();
+
+        private LaneFullException() {
+            super("Lane full", null, false, false);
+        }
+    }
+
+    private BackgroundTasks() {
+        for (Lane lane : Lane.values()) {
+            String name = lane.name().toLowerCase();
+            int threads = Math.max(1, ConfigurationManager.getIntProperty("tasks." + name + ".threads", lane.defaultThreads));
+            int queue = Math.max(1, ConfigurationManager.getIntProperty("tasks." + name + ".queue", lane.defaultQueue));
+            AtomicInteger counter = new AtomicInteger();
+            LanePool pool = new LanePool(queue);
+            RejectedExecutionHandler overflow = lane.overflow == Overflow.CALLER_RUNS
+                ? (task, executor) -> {
+                    // Backpressure: the submitting request thread does the work (also after shutdown)
+                    pool.callerRuns.increment();
+                    task.run();
+                }
+                : (task, executor) -> { throw LaneFullException.INSTANCE; };
+            pool.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queue), r -> {
+                    Thread t = new Thread(r, "aria-" + name + "-" + counter.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }, overflow);
+            pool.executor.allowCoreThreadTimeOut(true);
+            lanes.put(lane, pool);
+        }
+    }
+
+    public static synchronized BackgroundTasks getInstance() {
+        if (instance == null) {
+            instance = new BackgroundTasks();
+        }
+        return instance;
+    }
+
+    /**
+     * Run task in the lane's pool
+     */
+    public Submission submit(Lane lane, Runnable task) {
+        return submit(lane, null, task);
+    }
+
+    /**
+     * Run task in the lane's pool, unless a task with the same key is queued or running
+     * @param key Identifies the work (e.g. "profile-picture:42"), or null to always submit
+     */
+    public Submission submit(Lane lane, String key, Runnable task) {
+        if (key != null && !activeKeys.add(key)) {
+            duplicates.increment();
+            return Submission.DUPLICATE;
+        }
+        LanePool pool = lanes.get(lane);
+        long queuedAt = System.currentTimeMillis();
+        pool.submitted.increment();
+        try {
+            pool.executor.execute(() -> {
+                long started = System.currentTimeMillis();
+                pool.started.increment();
+                pool.waitMillis.add(started - queuedAt);
+                pool.maxWaitMillis.accumulate(started - queuedAt);
+                try {
+                    task.run();
+                    pool.completed.increment();
+                } catch (Throwable t) {
+                    pool.failed.increment();
+                    System.err.println("Background task failed (" + lane.name().toLowerCase()
+                        + (key != null ? ", " + key : "") + "): " + t.getMessage());
+                    t.printStackTrace();
+                } finally {
+                    pool.runMillis.add(System.currentTimeMillis() - started);
+                    if (key != null) {
+                        activeKeys.remove(key);
+                    }
+                }
+            });
+        } catch (LaneFullException e) {
+            pool.submitted.decrement();
+            pool.rejected.increment();
+            if (key != null) {
+                activeKeys.remove(key);
+            }
+            if (lane.overflow == Overflow.REJECT) {
+                System.err.println("Background " + lane.name().toLowerCase() + " lane full, refusing "
+                    + (key != null ? key : "task"));
+            }
+            return Submission.REJECTED;
+        }
+        return Submission.ACCEPTED;
+    }
+
+    /**
+     * Stop taking tasks and give queued ones up to timeoutMillis to finish (called on shutdown,
+     * before the connection pool is closed)
+     */
+    public void shutdown(long timeoutMillis) {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        for (LanePool pool : lanes.values()) {
+            pool.executor.shutdown();
+        }
+        for (Map.Entry<Lane, LanePool> entry : lanes.entrySet()) {
+            try {
+                long left = Math.max(0, deadline - System.currentTimeMillis());
+                if (!entry.getValue().executor.awaitTermination(left, TimeUnit.MILLISECONDS)) {
+                    System.err.println("Background " + entry.getKey().name().toLowerCase() + " lane still busy at shutdown, "
+                        + entry.getValue().executor.getQueue().size() + " tasks dropped");
+                    entry.getValue().executor.shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Per lane: threads, queue depth, counts and average/max queue wait and run time (for metrics)
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        for (Map.Entry<Lane, LanePool> entry : lanes.entrySet()) {
+            LanePool pool = entry.getValue();
+            long started = pool.started.sum();
+            long finished = pool.completed.sum() + pool.failed.sum();
+            Map<String, Object> lane = new LinkedHashMap<>();
+            lane.put("threads", pool.executor.getPoolSize());
+            lane.put("active", pool.executor.getActiveCount());
+            lane.put("queued", pool.executor.getQueue().size());
+            lane.put("queueCapacity", pool.queueCapacity);
+            lane.put("submitted", pool.submitted.sum());
+            lane.put("completed", pool.completed.sum());
+            lane.put("failed", pool.failed.sum());
+            lane.put("rejected", pool.rejected.sum());
+            lane.put("callerRuns", pool.callerRuns.sum());
+            lane.put("avgWaitMillis", started > 0 ? pool.waitMillis.sum() / started : 0);
+            lane.put("maxWaitMillis", pool.maxWaitMillis.get());
+            lane.put("avgRunMillis", finished > 0 ? pool.runMillis.sum() / finished : 0);
+            stats.put(entry.getKey().name().toLowerCase(), lane);
+        }
+        stats.put("duplicates", duplicates.sum());
+        return stats;
+    }
+}
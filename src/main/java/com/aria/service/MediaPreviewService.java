@@ -0,0 +1,287 @@
+package com.aria.service;
+
+import com.aria.core.ConfigurationManager;
+import com.aria.storage.DatabaseManager;
+import com.aria.storage.MediaPaths;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Derives small JPEG previews of media so chat views don't download full images and videos to show
+ * them inline: image thumbnails (ImageIO) and video poster frames (ffmpeg), at most media.preview.max.size
+ * pixels on the long side, written to media.preview.dir and recorded in media.preview_path.
+ *
+ * Previews are made in the MEDIA lane of BackgroundTasks, so derivation is bounded by tasks.media.threads
+ * however much media arrives. They are scheduled when media is pushed or sent, for all of an account's
+ * media without one after a Python ingestion run, and again when a preview is requested that doesn't
+ * exist yet. Media that can't be previewed (unsupported format,
+ * unreadable file) gets preview_path '' and is not tried again.
+ */
+public class MediaPreviewService {
+    private static MediaPreviewService instance;
+
+    private final int maxSize;
+    private final Path previewDir;
+    private final int videoTimeoutSeconds;
+    // Cleared when ffmpeg can't be started; video posters are then skipped (and left to try after a restart)
+    private volatile boolean ffmpegAvailable = true;
+
+    private final LongAdder generated = new LongAdder();
+    private final LongAdder unsupported = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder generateMillis = new LongAdder();
+
+    private MediaPreviewService() {
+        maxSize = Math.max(16, ConfigurationManager.getIntProperty("media.preview.max.size", 320));
+        previewDir = Paths.get(ConfigurationManager.getProperty("media.preview.dir",
+            Paths.get(System.getProperty("user.dir"), "media", "previews").toString()));
+        videoTimeoutSeconds = ConfigurationManager.getIntProperty("media.preview.video.timeout.seconds", 30);
+    }
+
+    public static synchronized MediaPreviewService getInstance() {
+        if (instance == null) {
+            instance = new MediaPreviewService();
+        }
+        return instance;
+    }
+
+    /**
+     * Whether a preview can be made for this MIME type
+     */
+    public static boolean isPreviewable(String mimeType) {
+        return mimeType != null && (mimeType.startsWith("image/") || mimeType.startsWith("video/"));
+    }
+
+    /**
+     * Make the preview of one media row (off the caller's thread)
+     */
+    public void schedule(int mediaId) {
+        BackgroundTasks.getInstance().submit(BackgroundTasks.Lane.MEDIA, "media-preview:" + mediaId, () -> {
+            try {
+                DatabaseManager.MediaFile media = DatabaseManager.getMediaFile(mediaId);
+                if (media != null && media.previewPath == null) {
+                    generate(media);
+                }
+            } catch (Exception e) {
+                System.err.println("Failed to load media " + mediaId + " for preview: " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Make the previews of the media of these messages (messages.id) that have none yet, in one task
+     */
+    public void scheduleForMessages(Collection<Integer> messageRowIds) {
+        if (messageRowIds.isEmpty()) {
+            return;
+        }
+        List<Integer> ids = List.copyOf(messageRowIds);
+        BackgroundTasks.getInstance().submit(BackgroundTasks.Lane.MEDIA, () -> {
+            try {
+                for (DatabaseManager.MediaFile media : DatabaseManager.getMediaWithoutPreview(ids)) {
+                    generate(media);
+                }
+            } catch (Exception e) {
+                System.err.println("Failed to load media for previews: " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Make the previews of all media of the account that have none yet (after the Python ingestors, which
+     * write media rows straight to the database), in one task that pages through them by id
+     */
+    public void scheduleForAccount(int platformAccountId) {
+        BackgroundTasks.getInstance().submit(BackgroundTasks.Lane.MEDIA, "media-preview-account:" + platformAccountId, () -> {
+            try {
+                int afterMediaId = 0;
+                List<DatabaseManager.MediaFile> page;
+                do {
+                    page = DatabaseManager.getMediaWithoutPreviewForAccount(platformAccountId, afterMediaId, 100);
+                    for (DatabaseManager.MediaFile media : page) {
+                        generate(media);
+                        afterMediaId = media.id; // Media not downloaded yet stays without preview; don't revisit it
+                    }
+                } while (!page.isEmpty());
+            } catch (Exception e) {
+                System.err.println("Failed to load media of account " + platformAccountId + " for previews: " + e.getMessage());
+            }
+        });
+    }
+
+    private void generate(DatabaseManager.MediaFile media) {
+        if (!isPreviewable(media.mimeType) || media.filePath == null) {
+            record(media, null, "");
+            return;
+        }
+        boolean video = media.mimeType.startsWith("video/");
+        if (video && !ffmpegAvailable) {
+            return;
+        }
+        Path source = MediaPaths.resolve(media.id, media.filePath);
+        if (source == null) {
+            failed.increment();
+            return; // Not downloaded yet, or on another node; tried again when it's viewed
+        }
+        long started = System.currentTimeMillis();
+        Path target = previewDir.resolve(media.id + ".jpg");
+        Path temp = previewDir.resolve(media.id + ".jpg.tmp");
+        try {
+            Files.createDirectories(previewDir);
+            boolean made = video ? writePosterFrame(source, temp) : writeThumbnail(source, temp);
+            if (!made) {
+                unsupported.increment();
+                Files.deleteIfExists(temp);
+                record(media, source, "");
+                return;
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            generated.increment();
+            generateMillis.add(System.currentTimeMillis() - started);
+            record(media, source, target.toAbsolutePath().toString());
+        } catch (Exception e) {
+            failed.increment();
+            System.err.println("Failed to make preview of media " + media.id + ": " + e.getMessage());
+            try {
+                Files.deleteIfExists(temp);
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private void record(DatabaseManager.MediaFile media, Path source, String previewPath) {
+        try {
+            DatabaseManager.setMediaPreviewPath(media.id, media.filePath, source != null ? source.toString() : null, previewPath);
+        } catch (Exception e) {
+            System.err.println("Failed to store preview of media " + media.id + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Downscale an image. Large images are subsampled while decoding, so the full-size pixels are never
+     * held in memory.
+     * @return false if ImageIO can't read the format
+     */
+    private boolean writeThumbnail(Path source, Path target) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(source.toFile())) {
+            Iterator<ImageReader> readers = in != null ? ImageIO.getImageReaders(in) : null;
+            if (readers == null || !readers.hasNext()) {
+                return false;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                ImageReadParam param = reader.getDefaultReadParam();
+                // Decode at no less than twice the preview size, then scale smoothly
+                int subsampling = Math.max(1, Math.max(width, height) / (maxSize * 2));
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                BufferedImage image = reader.read(0, param);
+                writeJpeg(scale(image), target);
+                return true;
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Grab a frame about a second into a video (or its first frame if it's shorter) with ffmpeg
+     * @return false if ffmpeg couldn't decode one
+     */
+    private boolean writePosterFrame(Path source, Path target) throws IOException, InterruptedException {
+        String scale = "scale=w=" + maxSize + ":h=" + maxSize + ":force_original_aspect_ratio=decrease";
+        for (String offset : new String[] {"1", "0"}) {
+            ProcessBuilder processBuilder = new ProcessBuilder("ffmpeg", "-v", "error", "-y",
+                "-ss", offset, "-i", source.toString(), "-frames:v", "1", "-vf", scale, "-f", "image2", target.toString());
+            processBuilder.redirectErrorStream(true);
+            processBuilder.redirectOutput(ProcessBuilder.Redirect.DISCARD);
+            Process process;
+            try {
+                process = processBuilder.start();
+            } catch (IOException e) {
+                ffmpegAvailable = false;
+                System.err.println("ffmpeg not available, video previews disabled: " + e.getMessage());
+                throw e;
+            }
+            if (!process.waitFor(videoTimeoutSeconds, TimeUnit.SECONDS)) {
+                process.destroyForcibly();
+                throw new IOException("ffmpeg timed out after " + videoTimeoutSeconds + "s");
+            }
+            if (process.exitValue() == 0 && Files.isRegularFile(target) && Files.size(target) > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private BufferedImage scale(BufferedImage image) {
+        double factor = Math.min(1.0, (double) maxSize / Math.max(image.getWidth(), image.getHeight()));
+        int width = Math.max(1, (int) Math.round(image.getWidth() * factor));
+        int height = Math.max(1, (int) Math.round(image.getHeight() * factor));
+        // JPEG has no alpha: draw onto white
+        BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = scaled.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g.setColor(Color.WHITE);
+            g.fillRect(0, 0, width, height);
+            g.drawImage(image, 0, 0, width, height, null);
+        } finally {
+            g.dispose();
+        }
+        return scaled;
+    }
+
+    private static void writeJpeg(BufferedImage image, Path target) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        param.setCompressionQuality(0.8f);
+        try (ImageOutputStream out = ImageIO.createImageOutputStream(target.toFile())) {
+            writer.setOutput(out);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+    }
+
+    /**
+     * Previews made, media that can't be previewed, failures and average derivation time (for metrics)
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long made = generated.sum();
+        stats.put("generated", made);
+        stats.put("unsupported", unsupported.sum());
+        stats.put("failed", failed.sum());
+        stats.put("avgGenerateMillis", made > 0 ? generateMillis.sum() / made : 0);
+        stats.put("videoPreviews", ffmpegAvailable);
+        return stats;
+    }
+}
@@ -0,0 +1,495 @@
+package com.aria.service;
+
+import com.aria.cache.RedisCacheManager;
+import com.aria.core.ConfigurationManager;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * In-process feed of message changes (insert/edit/delete/pin/status) per dialog.
+ *
+ * Writers (the Telegram update stream and the conversation endpoints) publish a small event after
+ * they change a message; open conversation views subscribe to the dialogs they show and receive only
+ * those deltas instead of re-reading the whole message list every few seconds.
+ *
+ * Every event gets a cursor. The last feed.replay.size events per dialog are kept so a client that
+ * reconnects with its last cursor gets exactly what it missed; if that is no longer possible (cursor
+ * too old, or from before a restart) the subscriber is told to reset and reload the list once. The
+ * events of a dialog nobody is subscribed to are dropped once the newest is older than
+ * feed.replay.seconds.
+ *
+ * Each subscription is delivered to in order from its own queue. Queues drain on a pool that grows with
+ * the number of subscriptions being written to (SSE writes block while a client's TCP buffer is full), so a
+ * slow client (or the row load for its event) only delays itself. A subscription is closed when a single
+ * delivery blocks for more than feed.subscriber.write.timeout.seconds or its queue exceeds
+ * feed.subscriber.queue events; its client reconnects with its cursor.
+ */
+public class MessageFeedService {
+    public static final String INSERT = "insert";
+    public static final String EDIT = "edit";
+    public static final String DELETE = "delete";
+    public static final String PIN = "pin";
+    public static final String STATUS = "status";
+
+    private static MessageFeedService instance;
+
+    // Distinguishes cursors issued by this process from ones issued before a restart
+    private final String epoch = Long.toString(System.currentTimeMillis(), 36);
+    private final AtomicLong sequence = new AtomicLong();
+    private final int replaySize;
+    private final long replayWindowMillis;
+    private final int subscriberQueueLimit;
+    private final long writeTimeoutNanos;
+    private final Map<Integer, DialogLog> logs = new ConcurrentHashMap<>();
+    // seq of the newest event in a dialog log dropped as idle; older cursors can't be trusted for dialogs without a log
+    private long droppedLogsThrough;
+    private final Map<Integer, Set<Subscription>> subscribers = new ConcurrentHashMap<>();
+    // Runs the subscriptions' delivery queues; each subscription drains on at most one thread at a time.
+    // Unbounded, so subscriptions blocked in a write never hold up the others.
+    private final ExecutorService deliveryPool;
+    private final ScheduledExecutorService heartbeats = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "message-feed-heartbeat");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * A single change to one message (or, for STATUS, to the dialog's peer)
+     */
+    public static class FeedEvent {
+        public final long seq;
+        public final String cursor;
+        public final int dialogRowId;
+        public final String type;
+        public final Long messageId;
+        public final Map<String, Object> data;
+        final long publishedAt = System.currentTimeMillis();
+        private volatile Map<String, Object> row;
+
+        FeedEvent(long seq, String cursor, int dialogRowId, String type, Long messageId, Map<String, Object> data) {
+            this.seq = seq;
+            this.cursor = cursor;
+            this.dialogRowId = dialogRowId;
+            this.type = type;
+            this.messageId = messageId;
+            this.data = data != null ? data : Collections.emptyMap();
+        }
+
+        /**
+         * Load the message row for this event once and share it between all subscribers
+         */
+        public Map<String, Object> getRow(Supplier<Map<String, Object>> loader) {
+            Map<String, Object> loaded = row;
+            if (loaded == null) {
+                synchronized (this) {
+                    loaded = row;
+                    if (loaded == null) {
+                        loaded = loader.get();
+                        row = loaded != null ? loaded : Collections.emptyMap();
+                    }
+                }
+            }
+            return loaded == null || loaded.isEmpty() ? null : loaded;
+        }
+    }
+
+    /**
+     * Receives events for the dialogs it subscribed to. Throwing closes the subscription.
+     */
+    public interface Listener {
+        void onEvent(FeedEvent event) throws Exception;
+
+        /** Called when the cursor could not be honoured: the client must reload the message list */
+        void onReset(String cursor) throws Exception;
+
+        /** Called periodically so dead connections are noticed even when nothing changes */
+        default void onHeartbeat() throws Exception {}
+
+        default void onClose() {}
+    }
+
+    public class Subscription {
+        private final Set<Integer> dialogRowIds;
+        private final Listener listener;
+        private volatile boolean closed;
+        // Guarded by itself
+        private final ArrayDeque<Runnable> queue = new ArrayDeque<>();
+        private boolean draining;
+        // System.nanoTime() when the running delivery started (0 while idle) and its thread; set under queue
+        private volatile long busySince;
+        private Thread drainer;
+
+        private Subscription(Set<Integer> dialogRowIds, Listener listener) {
+            this.dialogRowIds = dialogRowIds;
+            this.listener = listener;
+        }
+
+        public void close() {
+            if (closed) return;
+            closed = true;
+            synchronized (MessageFeedService.this) {
+                for (Integer dialogRowId : dialogRowIds) {
+                    Set<Subscription> subs = subscribers.get(dialogRowId);
+                    if (subs != null) {
+                        subs.remove(this);
+                        if (subs.isEmpty()) {
+                            subscribers.remove(dialogRowId);
+                        }
+                    }
+                }
+            }
+            listener.onClose();
+        }
+
+        private void deliver(FeedEvent event) {
+            if (closed) return;
+            try {
+                listener.onEvent(event);
+            } catch (Exception e) {
+                close();
+            }
+        }
+
+        /**
+         * Queue work for this subscription; it runs after everything queued before it
+         */
+        private void enqueue(Runnable task) {
+            synchronized (queue) {
+                if (closed) return;
+                if (queue.size() >= subscriberQueueLimit) {
+                    System.err.println("Message feed subscriber fell " + queue.size() + " events behind, closing it");
+                    queue.clear();
+                    deliveryPool.execute(this::close);
+                    return;
+                }
+                queue.addLast(task);
+                if (draining) return;
+                draining = true;
+            }
+            deliveryPool.execute(this::drain);
+        }
+
+        private void drain() {
+            while (true) {
+                Runnable task;
+                synchronized (queue) {
+                    busySince = 0;
+                    Thread.interrupted(); // An interrupt from closeIfBlocked was meant for the task that just ended
+                    task = queue.pollFirst();
+                    if (task == null || closed) {
+                        queue.clear();
+                        draining = false;
+                        drainer = null;
+                        return;
+                    }
+                    drainer = Thread.currentThread();
+                    busySince = System.nanoTime();
+                }
+                task.run();
+            }
+        }
+
+        /**
+         * Close the subscription if its current delivery has been blocked for longer than the write timeout.
+         * The close runs on its own thread: the listener's close may wait for the blocked write.
+         */
+        private void closeIfBlocked(long now) {
+            long started = busySince;
+            if (closed || started == 0 || now - started < writeTimeoutNanos) return;
+            System.err.println("Message feed subscriber blocked for " + TimeUnit.NANOSECONDS.toSeconds(now - started) + "s in a write, closing it");
+            synchronized (queue) {
+                queue.clear();
+                if (busySince == started) {
+                    drainer.interrupt(); // Still in that delivery: try to break the write
+                }
+            }
+            deliveryPool.execute(this::close);
+        }
+
+        private void notifyReset(String cursor) {
+            if (closed) return;
+            try {
+                listener.onReset(cursor);
+            } catch (Exception e) {
+                close();
+            }
+        }
+    }
+
+    private static class DialogLog {
+        final ArrayDeque<FeedEvent> events = new ArrayDeque<>();
+        long evictedThrough; // seq of the newest event no longer kept
+    }
+
+    private MessageFeedService() {
+        replaySize = ConfigurationManager.getIntProperty("feed.replay.size", 256);
+        replayWindowMillis = ConfigurationManager.getIntProperty("feed.replay.seconds", 600) * 1000L;
+        subscriberQueueLimit = Math.max(1, ConfigurationManager.getIntProperty("feed.subscriber.queue", 1000));
+        writeTimeoutNanos = TimeUnit.SECONDS.toNanos(Math.max(1, ConfigurationManager.getIntProperty("feed.subscriber.write.timeout.seconds", 10)));
+        AtomicInteger counter = new AtomicInteger();
+        deliveryPool = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS, new SynchronousQueue<>(), r -> {
+            Thread t = new Thread(r, "message-feed-deliver-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        int heartbeatSeconds = ConfigurationManager.getIntProperty("feed.heartbeat.seconds", 20);
+        heartbeats.scheduleAtFixedRate(() -> {
+            sendHeartbeats();
+            dropIdleLogs();
+        }, heartbeatSeconds, heartbeatSeconds, TimeUnit.SECONDS);
+        heartbeats.scheduleAtFixedRate(this::closeBlockedSubscriptions, 1, 1, TimeUnit.SECONDS);
+    }
+
+    public static synchronized MessageFeedService getInstance() {
+        if (instance == null) {
+            instance = new MessageFeedService();
+        }
+        return instance;
+    }
+
+    /**
+     * Cursor for "now": subscribing with it replays nothing
+     */
+    public String currentCursor() {
+        return epoch + ":" + sequence.get();
+    }
+
+    public void publish(int dialogRowId, String type, Long messageId) {
+        publish(dialogRowId, type, messageId, null);
+    }
+
+    /**
+     * Record a change and push it to every subscriber of the dialog
+     */
+    public void publish(int dialogRowId, String type, Long messageId, Map<String, Object> data) {
+        if (!STATUS.equals(type)) {
+            // The cached timeline reloads this message on its next read (outside the lock: it talks to Redis)
+            if (messageId != null) {
+                RedisCacheManager.getInstance().markTimelineChanged(dialogRowId, messageId);
+            } else {
+                RedisCacheManager.getInstance().dropTimeline(dialogRowId);
+            }
+        }
+        if (rewritesHistory(type, messageId == null)) {
+            RedisCacheManager.getInstance().bumpDialogRevisions(java.util.Collections.singletonList(dialogRowId));
+        }
+        record(dialogRowId, type, messageId, data);
+    }
+
+    private synchronized void record(int dialogRowId, String type, Long messageId, Map<String, Object> data) {
+        long seq = sequence.incrementAndGet();
+        FeedEvent event = new FeedEvent(seq, epoch + ":" + seq, dialogRowId, type, messageId, data);
+
+        DialogLog log = logs.computeIfAbsent(dialogRowId, id -> new DialogLog());
+        log.events.addLast(event);
+        while (log.events.size() > replaySize) {
+            log.evictedThrough = log.events.removeFirst().seq;
+        }
+
+        Set<Subscription> subs = subscribers.get(dialogRowId);
+        if (subs != null) {
+            for (Subscription sub : subs) {
+                sub.enqueue(() -> sub.deliver(event));
+            }
+        }
+    }
+
+    /**
+     * Drop the logs of dialogs nobody is subscribed to whose newest event is older than the replay window
+     */
+    private synchronized void dropIdleLogs() {
+        long cutoff = System.currentTimeMillis() - replayWindowMillis;
+        logs.entrySet().removeIf(entry -> {
+            FeedEvent newest = entry.getValue().events.peekLast();
+            if (subscribers.containsKey(entry.getKey()) || (newest != null && newest.publishedAt >= cutoff)) {
+                return false;
+            }
+            if (newest != null) {
+                droppedLogsThrough = Math.max(droppedLogsThrough, newest.seq);
+            }
+            return true;
+        });
+    }
+
+    /**
+     * Publish the same change for several messages (e.g. a bulk delete)
+     */
+    public void publish(Collection<Integer> dialogRowIds, String type, Collection<Long> messageIds) {
+        if (!STATUS.equals(type)) {
+            // One pipelined round trip for all of them
+            Map<Integer, Collection<Long>> changes = new java.util.HashMap<>();
+            for (Integer dialogRowId : dialogRowIds) {
+                changes.put(dialogRowId, messageIds);
+            }
+            RedisCacheManager.getInstance().markTimelineChanges(changes);
+        }
+        if (rewritesHistory(type, false)) {
+            RedisCacheManager.getInstance().bumpDialogRevisions(dialogRowIds);
+        }
+        for (Integer dialogRowId : dialogRowIds) {
+            for (Long messageId : messageIds) {
+                record(dialogRowId, type, messageId, null);
+            }
+        }
+    }
+
+    /**
+     * Tell subscribers of a dialog to reload it once, after it was changed in bulk outside the feed
+     * (e.g. by a priority ingestion run)
+     */
+    public void invalidate(int dialogRowId) {
+        invalidate(java.util.Collections.singletonList(dialogRowId));
+    }
+
+    /**
+     * Same as invalidate(dialogRowId) for several dialogs, with one Redis round trip
+     */
+    public void invalidate(Collection<Integer> dialogRowIds) {
+        RedisCacheManager.getInstance().dropTimelines(dialogRowIds);
+        RedisCacheManager.getInstance().bumpDialogRevisions(dialogRowIds);
+        for (Integer dialogRowId : dialogRowIds) {
+            resetSubscribers(dialogRowId);
+        }
+    }
+
+    /**
+     * Whether the change alters messages already in the dialog's history (so copies of the history,
+     * like the AI context, must be rebuilt rather than appended to)
+     */
+    private static boolean rewritesHistory(String type, boolean wholeDialog) {
+        return EDIT.equals(type) || DELETE.equals(type) || (wholeDialog && !STATUS.equals(type));
+    }
+
+    private synchronized void resetSubscribers(int dialogRowId) {
+        Set<Subscription> subs = subscribers.get(dialogRowId);
+        if (subs == null) {
+            return;
+        }
+        String now = currentCursor();
+        for (Subscription sub : subs) {
+            sub.enqueue(() -> sub.notifyReset(now));
+        }
+    }
+
+    /**
+     * Subscribe to changes of the given dialogs.
+     * @param cursor Last cursor the client saw, or null to start from now. Events after it are replayed
+     *               first; if they are no longer available the listener gets onReset instead.
+     */
+    public synchronized Subscription subscribe(Collection<Integer> dialogRowIds, String cursor, Listener listener) {
+        Subscription subscription = new Subscription(Set.copyOf(dialogRowIds), listener);
+        List<FeedEvent> replay = cursor != null ? collectReplay(subscription.dialogRowIds, cursor) : List.of();
+        for (Integer dialogRowId : subscription.dialogRowIds) {
+            subscribers.computeIfAbsent(dialogRowId, id -> ConcurrentHashMap.newKeySet()).add(subscription);
+        }
+        String now = currentCursor();
+        // Queued under the publish lock, so nothing published later can overtake the replay
+        subscription.enqueue(() -> {
+            if (replay == null) {
+                subscription.notifyReset(now);
+                return;
+            }
+            for (FeedEvent event : replay) {
+                subscription.deliver(event);
+            }
+        });
+        return subscription;
+    }
+
+    /**
+     * @return Events after the cursor in publish order, or null if some of them are gone
+     */
+    private List<FeedEvent> collectReplay(Set<Integer> dialogRowIds, String cursor) {
+        int sep = cursor.lastIndexOf(':');
+        if (sep <= 0 || !cursor.substring(0, sep).equals(epoch)) {
+            return null;
+        }
+        long after;
+        try {
+            after = Long.parseLong(cursor.substring(sep + 1));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        if (after > sequence.get()) {
+            return null;
+        }
+        List<FeedEvent> replay = new ArrayList<>();
+        for (Integer dialogRowId : dialogRowIds) {
+            DialogLog log = logs.get(dialogRowId);
+            if (log == null) {
+                if (after < droppedLogsThrough) {
+                    return null; // This dialog's events may have been dropped
+                }
+                continue;
+            }
+            if (log.evictedThrough > after) {
+                return null;
+            }
+            for (FeedEvent event : log.events) {
+                if (event.seq > after) {
+                    replay.add(event);
+                }
+            }
+        }
+        replay.sort((a, b) -> Long.compare(a.seq, b.seq));
+        return replay;
+    }
+
+    private void closeBlockedSubscriptions() {
+        long now = System.nanoTime();
+        for (Subscription sub : allSubscriptions()) {
+            sub.closeIfBlocked(now);
+        }
+    }
+
+    private void sendHeartbeats() {
+        for (Subscription sub : allSubscriptions()) {
+            sub.enqueue(() -> {
+                if (sub.closed) return;
+                try {
+                    sub.listener.onHeartbeat();
+                } catch (Exception e) {
+                    sub.close();
+                }
+            });
+        }
+    }
+
+    /**
+     * Number of open subscriptions (for metrics)
+     */
+    public int getSubscriptionCount() {
+        return allSubscriptions().size();
+    }
+
+    /**
+     * Dialogs with a replay log (for metrics)
+     */
+    public int getDialogLogCount() {
+        return logs.size();
+    }
+
+    private Set<Subscription> allSubscriptions() {
+        Set<Subscription> all = ConcurrentHashMap.newKeySet();
+        for (Set<Subscription> subs : subscribers.values()) {
+            all.addAll(subs);
+        }
+        return all;
+    }
+}
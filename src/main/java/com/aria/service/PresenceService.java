@@ -0,0 +1,201 @@
+package com.aria.service;
+
+import com.aria.cache.SingleFlight;
+import com.aria.core.ConfigurationManager;
+import com.aria.platform.ConnectorRegistry;
+import com.aria.platform.telegram.EntityIdResolver;
+import com.aria.platform.telegram.TelegramConnector;
+import com.aria.storage.DatabaseManager;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Online status of targets, served from memory.
+ *
+ * Statuses are looked up per account in batches (one sidecar request or one online_checker.py run for
+ * all usernames) and kept for presence.ttl.seconds. Once expired they are still served, up to
+ * presence.stale.seconds, while one background refresh per account fetches all expired ones; only
+ * usernames never seen (or older than that) are looked up in the request. Status changes pushed by
+ * an account's update stream replace the cached status and are trusted for presence.push.ttl.seconds.
+ */
+public class PresenceService {
+    private static PresenceService instance;
+
+    private final long ttlMillis;
+    private final long staleMillis;
+    private final long pushTtlMillis;
+    // "accountId:username" (lower case) -> status
+    private final Map<String, Status> statuses = new ConcurrentHashMap<>();
+    // "accountId:peerId" -> "accountId:username", learned from lookups, to match pushed updates
+    private final Map<String, String> peers = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder staleHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder lookups = new LongAdder();
+    private final LongAdder pushes = new LongAdder();
+
+    /**
+     * A known online status
+     */
+    public static final class Status {
+        public final boolean online;
+        public final String lastActive;
+        final long updatedAt;
+        final long ttlMillis;
+
+        Status(boolean online, String lastActive, long updatedAt, long ttlMillis) {
+            this.online = online;
+            this.lastActive = lastActive;
+            this.updatedAt = updatedAt;
+            this.ttlMillis = ttlMillis;
+        }
+
+        boolean isFresh(long now) {
+            return now - updatedAt < ttlMillis;
+        }
+    }
+
+    private PresenceService() {
+        ttlMillis = ConfigurationManager.getIntProperty("presence.ttl.seconds", 10) * 1000L;
+        staleMillis = ConfigurationManager.getIntProperty("presence.stale.seconds", 300) * 1000L;
+        pushTtlMillis = ConfigurationManager.getIntProperty("presence.push.ttl.seconds", 120) * 1000L;
+    }
+
+    public static synchronized PresenceService getInstance() {
+        if (instance == null) {
+            instance = new PresenceService();
+        }
+        return instance;
+    }
+
+    /**
+     * Status of one user of a Telegram account
+     */
+    public Status getStatus(DatabaseManager.PlatformAccount acc, String username) {
+        return getStatuses(acc, List.of(username)).get(username);
+    }
+
+    /**
+     * Statuses of many users of one Telegram account, keyed by username as given. Users whose status
+     * could not be determined get lastActive "unknown".
+     */
+    public Map<String, Status> getStatuses(DatabaseManager.PlatformAccount acc, Collection<String> usernames) {
+        long now = System.currentTimeMillis();
+        Map<String, Status> result = new LinkedHashMap<>();
+        List<String> missing = new ArrayList<>();
+        boolean expired = false;
+        for (String username : usernames) {
+            if (username == null || username.isBlank()) {
+                continue;
+            }
+            Status status = statuses.get(key(acc.id, username));
+            if (status != null && status.isFresh(now)) {
+                hits.increment();
+                result.put(username, status);
+            } else if (status != null && now - status.updatedAt < staleMillis) {
+                staleHits.increment();
+                expired = true;
+                result.put(username, status);
+            } else {
+                misses.increment();
+                missing.add(username);
+            }
+        }
+        if (!missing.isEmpty()) {
+            Map<String, Status> looked = lookup(acc, missing);
+            for (String username : missing) {
+                result.put(username, looked.getOrDefault(username, new Status(false, "unknown", now, 0)));
+            }
+        }
+        if (expired) {
+            BackgroundTasks.getInstance().submit(BackgroundTasks.Lane.PREFETCH, "presence:" + acc.id,
+                () -> refreshExpired(acc));
+        }
+        return result;
+    }
+
+    /**
+     * Apply a status change pushed by the account's update stream
+     */
+    public void recordPush(int platformAccountId, long peerId, boolean online, String lastActive) {
+        String key = peers.get(platformAccountId + ":" + peerId);
+        if (key != null) {
+            pushes.increment();
+            statuses.put(key, new Status(online, lastActive, System.currentTimeMillis(), pushTtlMillis));
+        }
+    }
+
+    /**
+     * Cached status count and how requests were served (for metrics)
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("statuses", statuses.size());
+        stats.put("hits", hits.sum());
+        stats.put("staleHits", staleHits.sum());
+        stats.put("misses", misses.sum());
+        stats.put("lookups", lookups.sum());
+        stats.put("pushes", pushes.sum());
+        return stats;
+    }
+
+    private void refreshExpired(DatabaseManager.PlatformAccount acc) {
+        long now = System.currentTimeMillis();
+        String prefix = acc.id + ":";
+        List<String> expired = new ArrayList<>();
+        for (Map.Entry<String, Status> entry : statuses.entrySet()) {
+            if (entry.getKey().startsWith(prefix) && !entry.getValue().isFresh(now)
+                    && now - entry.getValue().updatedAt < staleMillis) {
+                expired.add(entry.getKey().substring(prefix.length()));
+            }
+        }
+        lookup(acc, expired);
+    }
+
+    /**
+     * One batched lookup for usernames, stored in the cache. Concurrent requests for the same set share it.
+     */
+    private Map<String, Status> lookup(DatabaseManager.PlatformAccount acc, List<String> usernames) {
+        if (usernames.isEmpty()) {
+            return Map.of();
+        }
+        String flightKey = "presence:" + acc.id + ":" + String.join(",", new TreeSet<>(usernames));
+        try {
+            return SingleFlight.execute(flightKey, () -> {
+                lookups.increment();
+                TelegramConnector connector = (TelegramConnector) ConnectorRegistry.getInstance().getOrCreateTelegramConnector(acc);
+                Map<String, TelegramConnector.OnlineStatus> found = connector.checkUsersOnline(usernames);
+                long now = System.currentTimeMillis();
+                Map<String, Status> looked = new HashMap<>();
+                for (Map.Entry<String, TelegramConnector.OnlineStatus> entry : found.entrySet()) {
+                    TelegramConnector.OnlineStatus online = entry.getValue();
+                    Status status = new Status(online.online, online.lastActive, now, ttlMillis);
+                    String key = key(acc.id, entry.getKey());
+                    statuses.put(key, status);
+                    if (online.peerId != null && peers.put(acc.id + ":" + online.peerId, key) == null) {
+                        // Saves message reads a Telegram lookup for this username
+                        EntityIdResolver.getInstance().remember(acc.id, entry.getKey(), online.peerId);
+                    }
+                    looked.put(entry.getKey(), status);
+                }
+                return looked;
+            });
+        } catch (Exception e) {
+            System.err.println("Error checking online statuses for account " + acc.id + ": " + e.getMessage());
+            return Map.of();
+        }
+    }
+
+    private static String key(int platformAccountId, String username) {
+        String name = username.trim().toLowerCase();
+        return platformAccountId + ":" + (name.startsWith("@") ? name.substring(1) : name);
+    }
+}
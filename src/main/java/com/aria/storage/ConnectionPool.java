@@ -0,0 +1,210 @@
+package com.aria.storage;
+
+import com.aria.core.ConfigurationManager;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.metrics.IMetricsTracker;
+import com.zaxxer.hikari.metrics.MetricsTrackerFactory;
+import com.zaxxer.hikari.metrics.PoolStats;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Central pooled DataSource for every JDBC call site.
+ *
+ * Opening a physical Postgres connection (TCP + auth) per query dominated request latency,
+ * so all code paths borrow from a bounded HikariCP pool instead. The pool also enables the
+ * pgjdbc server-side prepared statement cache, leak detection for connections that are never
+ * returned, and records wait/usage metrics per pool (see {@link #getStats()}).
+ *
+ * Settings can be overridden with environment variables (e.g. DB_POOL_MAX_SIZE) or config.properties.
+ */
+public final class ConnectionPool {
+    public static final String MAIN_POOL = "aria-main";
+
+    private static final Map<String, PoolMetrics> metricsByPool = new ConcurrentHashMap<>();
+    private static volatile HikariDataSource dataSource;
+
+    private ConnectionPool() {}
+
+    private static String getJdbcUrl() {
+        String dbUrl = System.getenv("DATABASE_URL");
+        if (dbUrl != null && !dbUrl.isEmpty()) {
+            return dbUrl;
+        }
+        String dbHost = System.getenv("DB_HOST");
+        return "jdbc:postgresql://" + (dbHost != null ? dbHost : "localhost") + ":5432/aria";
+    }
+
+    private static String getDbUser() {
+        String user = System.getenv("DATABASE_USER");
+        return user != null ? user : "postgres";
+    }
+
+    private static String getDbPassword() {
+        String password = System.getenv("DATABASE_PASSWORD");
+        return password != null ? password : "Ezekiel(23)";
+    }
+
+    /**
+     * Get the shared DataSource, creating the pool lazily on first use
+     */
+    public static DataSource getDataSource() {
+        HikariDataSource ds = dataSource;
+        if (ds == null) {
+            synchronized (ConnectionPool.class) {
+                ds = dataSource;
+                if (ds == null) {
+                    ds = createDataSource();
+                    dataSource = ds;
+                }
+            }
+        }
+        return ds;
+    }
+
+    /**
+     * Borrow a connection from the shared pool. Closing the connection returns it to the pool.
+     */
+    public static Connection getConnection() throws SQLException {
+        return getDataSource().getConnection();
+    }
+
+    private static HikariDataSource createDataSource() {
+        HikariConfig config = new HikariConfig();
+        config.setPoolName(MAIN_POOL);
+        config.setJdbcUrl(getJdbcUrl());
+        config.setUsername(getDbUser());
+        config.setPassword(getDbPassword());
+        config.setDriverClassName("org.postgresql.Driver");
+
+        config.setMaximumPoolSize(ConfigurationManager.getIntProperty("db.pool.max.size", 20));
+        config.setMinimumIdle(ConfigurationManager.getIntProperty("db.pool.min.idle", 4));
+        config.setConnectionTimeout(ConfigurationManager.getIntProperty("db.pool.connection.timeout.ms", 10000));
+        config.setIdleTimeout(ConfigurationManager.getIntProperty("db.pool.idle.timeout.ms", 300000));
+        config.setMaxLifetime(ConfigurationManager.getIntProperty("db.pool.max.lifetime.ms", 1800000));
+        // Log a stack trace for connections held longer than this (0 disables leak detection)
+        config.setLeakDetectionThreshold(ConfigurationManager.getIntProperty("db.pool.leak.detection.ms", 30000));
+        // Don't fail startup if Postgres is not up yet; the first borrow will retry
+        config.setInitializationFailTimeout(-1);
+
+        // pgjdbc statement cache: switch to server-side prepared statements on first reuse
+        config.addDataSourceProperty("prepareThreshold",
+                ConfigurationManager.getIntProperty("db.statement.prepare.threshold", 1));
+        config.addDataSourceProperty("preparedStatementCacheQueries",
+                ConfigurationManager.getIntProperty("db.statement.cache.queries", 256));
+        config.addDataSourceProperty("preparedStatementCacheSizeMiB",
+                ConfigurationManager.getIntProperty("db.statement.cache.size.mib", 5));
+
+        config.setMetricsTrackerFactory(new PoolMetricsFactory());
+        return new HikariDataSource(config);
+    }
+
+    /**
+     * Snapshot of wait/usage metrics for every pool, keyed by pool name
+     */
+    public static Map<String, Map<String, Object>> getStats() {
+        Map<String, Map<String, Object>> stats = new LinkedHashMap<>();
+        for (Map.Entry<String, PoolMetrics> entry : metricsByPool.entrySet()) {
+            stats.put(entry.getKey(), entry.getValue().snapshot());
+        }
+        return stats;
+    }
+
+    /**
+     * Close the pool (used on application shutdown)
+     */
+    public static synchronized void shutdown() {
+        if (dataSource != null && !dataSource.isClosed()) {
+            dataSource.close();
+        }
+        dataSource = null;
+    }
+
+    private static class PoolMetricsFactory implements MetricsTrackerFactory {
+        @Override
+        public IMetricsTracker create(String poolName, PoolStats poolStats) {
+            PoolMetrics metrics = new PoolMetrics(poolStats);
+            metricsByPool.put(poolName, metrics);
+            return metrics;
+        }
+    }
+
+    /**
+     * Collects borrow wait time, hold (usage) time, creation time and timeouts for one pool
+     */
+    private static class PoolMetrics implements IMetricsTracker {
+        private final PoolStats poolStats;
+        private final LongAdder acquireCount = new LongAdder();
+        private final LongAdder acquireNanos = new LongAdder();
+        private final AtomicLong maxAcquireNanos = new AtomicLong();
+        private final LongAdder usageCount = new LongAdder();
+        private final LongAdder usageMillis = new LongAdder();
+        private final AtomicLong maxUsageMillis = new AtomicLong();
+        private final LongAdder createdCount = new LongAdder();
+        private final LongAdder createdMillis = new LongAdder();
+        private final LongAdder timeouts = new LongAdder();
+
+        PoolMetrics(PoolStats poolStats) {
+            this.poolStats = poolStats;
+        }
+
+        @Override
+        public void recordConnectionCreatedMillis(long connectionCreatedMillis) {
+            createdCount.increment();
+            createdMillis.add(connectionCreatedMillis);
+        }
+
+        @Override
+        public void recordConnectionAcquiredNanos(long elapsedAcquiredNanos) {
+            acquireCount.increment();
+            acquireNanos.add(elapsedAcquiredNanos);
+            maxAcquireNanos.accumulateAndGet(elapsedAcquiredNanos, Math::max);
+        }
+
+        @Override
+        public void recordConnectionUsageMillis(long elapsedBorrowedMillis) {
+            usageCount.increment();
+            usageMillis.add(elapsedBorrowedMillis);
+            maxUsageMillis.accumulateAndGet(elapsedBorrowedMillis, Math::max);
+        }
+
+        @Override
+        public void recordConnectionTimeout() {
+            timeouts.increment();
+        }
+
+        Map<String, Object> snapshot() {
+            Map<String, Object> snapshot = new LinkedHashMap<>();
+            snapshot.put("totalConnections", poolStats.getTotalConnections());
+            snapshot.put("activeConnections", poolStats.getActiveConnections());
+            snapshot.put("idleConnections", poolStats.getIdleConnections());
+            snapshot.put("pendingThreads", poolStats.getPendingThreads());
+            snapshot.put("maxConnections", poolStats.getMaxConnections());
+
+            long acquired = acquireCount.sum();
+            snapshot.put("acquireCount", acquired);
+            snapshot.put("avgWaitMillis", acquired == 0 ? 0.0
+                    : TimeUnit.NANOSECONDS.toMicros(acquireNanos.sum() / acquired) / 1000.0);
+            snapshot.put("maxWaitMillis", TimeUnit.NANOSECONDS.toMicros(maxAcquireNanos.get()) / 1000.0);
+
+            long used = usageCount.sum();
+            snapshot.put("avgUsageMillis", used == 0 ? 0.0 : (double) usageMillis.sum() / used);
+            snapshot.put("maxUsageMillis", maxUsageMillis.get());
+
+            long created = createdCount.sum();
+            snapshot.put("connectionsCreated", created);
+            snapshot.put("avgCreateMillis", created == 0 ? 0.0 : (double) createdMillis.sum() / created);
+            snapshot.put("timeouts", timeouts.sum());
+            return snapshot;
+        }
+    }
+}
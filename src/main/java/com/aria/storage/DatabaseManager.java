@@ -9,35 +9,11 @@ import com.aria.platform.UserPlatform;
 import java.sql.*;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 
 public class DatabaseManager {
-    // PostgresSQL connection details - support both localhost (local dev) and postgres (Docker)
-    // Check environment variables first (Docker), then fall back to defaults
-    private static String getDbHost() {
-        String dbUrl = System.getenv("DATABASE_URL");
-        if (dbUrl != null && !dbUrl.isEmpty()) {
-            // Extract host from jdbc:postgresql://host:port/database
-            try {
-                String withoutJdbc = dbUrl.replace("jdbc:postgresql://", "");
-                return withoutJdbc.split(":")[0];
-            } catch (Exception e) {
-                // Fall through to default
-            }
-        }
-        // Check DB_HOST environment variable
-        String dbHost = System.getenv("DB_HOST");
-        return dbHost != null ? dbHost : "localhost";
-    }
-    
-    private static final String DB_HOST = getDbHost();
-    private static final String URL = "jdbc:postgresql://" + DB_HOST + ":5432/aria";
-    private static final String USER = System.getenv("DATABASE_USER") != null 
-        ? System.getenv("DATABASE_USER") 
-        : "postgres";
-    private static final String PASSWORD = System.getenv("DATABASE_PASSWORD") != null 
-        ? System.getenv("DATABASE_PASSWORD") 
-        : "Ezekiel(23)";
+    // Connections are borrowed from the shared pool (see ConnectionPool)
 
     // Changed from static initializer to avoid early initialization errors
     // Now initialized explicitly in ApplicationInitializer to ensure proper order
@@ -88,7 +64,7 @@ public class DatabaseManager {
     }
 
     private static Connection getConnection() throws SQLException {
-        return DriverManager.getConnection(URL, USER, PASSWORD);
+        return ConnectionPool.getConnection();
     }
 
     private static void initializeDatabase() throws SQLException {
@@ -156,7 +132,7 @@ public class DatabaseManager {
                     message_id BIGINT NOT NULL,
                     sender TEXT,
                     text TEXT,
-                    timestamp TIMESTAMPTZ,
+                    timestamp TIMESTAMPTZ NOT NULL,
                     has_media BOOLEAN DEFAULT FALSE,
                     raw_json JSONB,
                     reference_id BIGINT,
@@ -333,6 +309,11 @@ public class DatabaseManager {
             stmt.execute(createMessagesTable);
             // Ensure unique index for message upsert on (dialog_id, message_id)
             stmt.execute("CREATE UNIQUE INDEX IF NOT EXISTS messages_dialog_message_uidx ON messages(dialog_id, message_id)");
+            // Keyset pagination of a dialog's timeline: (timestamp, id) before/after a cursor is a range scan
+            stmt.execute("CREATE INDEX IF NOT EXISTS messages_dialog_timestamp_id_idx ON messages(dialog_id, timestamp, id)");
+            // Pages need a timestamp on every row: rows stored without one (listed newest before) get NOW()
+            stmt.execute("UPDATE messages SET timestamp = NOW() WHERE timestamp IS NULL");
+            stmt.execute("ALTER TABLE messages ALTER COLUMN timestamp SET NOT NULL");
             // Ensure raw_json column exists for Python ingestor compatibility
             stmt.execute("ALTER TABLE messages ADD COLUMN IF NOT EXISTS raw_json JSONB");
             // Ensure reference_id column exists for message replies
@@ -370,6 +351,10 @@ public class DatabaseManager {
             """);
             
             stmt.execute(createMediaTable);
+            // Message rows join their first media row by message_id
+            stmt.execute("CREATE INDEX IF NOT EXISTS media_message_id_idx ON media(message_id, id)");
+            // Downscaled preview (image thumbnail / video poster frame); '' when none can be made
+            stmt.execute("ALTER TABLE media ADD COLUMN IF NOT EXISTS preview_path TEXT");
             stmt.execute(createTargetUsersTable);
             stmt.execute(createSubTargetUsersTable);
             stmt.execute(createTargetGroupsTable);
@@ -682,6 +667,38 @@ public class DatabaseManager {
         return accounts;
     }
 
+    /**
+     * Load several platform accounts in one query
+     * @return Accounts keyed by id (ids that don't exist are absent)
+     */
+    public static java.util.Map<Integer, PlatformAccount> getPlatformAccountsByIds(java.util.Collection<Integer> accountIds) throws SQLException {
+        java.util.Map<Integer, PlatformAccount> accounts = new java.util.HashMap<>();
+        if (accountIds == null || accountIds.isEmpty()) return accounts;
+        String sql = """
+            SELECT id, platform, username, number, api_id, api_hash, account_name
+            FROM platform_accounts
+            WHERE id = ANY(?)
+        """;
+        try (Connection conn = getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setArray(1, conn.createArrayOf("integer", accountIds.toArray()));
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    accounts.put(rs.getInt("id"), new PlatformAccount(
+                        rs.getInt("id"),
+                        rs.getString("platform"),
+                        rs.getString("username"),
+                        rs.getString("number"),
+                        rs.getString("api_id"),
+                        rs.getString("api_hash"),
+                        rs.getString("account_name")
+                    ));
+                }
+            }
+        }
+        return accounts;
+    }
+
     public static PlatformAccount getPlatformAccountById(int accountId) throws SQLException {
         String sql = """
             SELECT id, platform, username, number, api_id, api_hash, account_name
@@ -917,6 +934,241 @@ public class DatabaseManager {
         }
     }
 
+    // =====================
+    // Live Update Operations (pushed Telegram events)
+    // =====================
+
+    /**
+     * Look up the user that owns a platform account
+     */
+    public static Integer getUserIdForPlatformAccount(int platformAccountId) throws SQLException {
+        String sql = "SELECT user_id FROM platform_accounts WHERE id = ?";
+        try (Connection conn = getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setInt(1, platformAccountId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next() ? rs.getInt(1) : null;
+            }
+        }
+    }
+
+    /**
+     * Result of applying a pushed message: the rows it touched and whether it was new
+     */
+    public static class AppliedMessage {
+        public final int messageRowId;
+        public final int dialogRowId;
+        public final boolean inserted;
+
+        public AppliedMessage(int messageRowId, int dialogRowId, boolean inserted) {
+            this.messageRowId = messageRowId;
+            this.dialogRowId = dialogRowId;
+            this.inserted = inserted;
+        }
+    }
+
+    /**
+     * All dialog rows of a platform account (dialogs.id)
+     */
+    public static List<Integer> getDialogRowIdsForPlatformAccount(int platformAccountId) throws SQLException {
+        String sql = "SELECT id FROM dialogs WHERE platform_account_id = ?";
+        List<Integer> dialogRowIds = new ArrayList<>();
+        try (Connection conn = getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setInt(1, platformAccountId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    dialogRowIds.add(rs.getInt(1));
+                }
+            }
+        }
+        return dialogRowIds;
+    }
+
+    /**
+     * Find the private dialog row for a Telegram peer
+     * @return dialogs.id, or null if the chat has not been stored yet
+     */
+    public static Integer getPrivateDialogRowId(int userId, int platformAccountId, long peerId) throws SQLException {
+        String sql = "SELECT id FROM dialogs WHERE user_id = ? AND platform_account_id = ? AND dialog_id = ? AND type = 'private'";
+        try (Connection conn = getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setInt(1, userId);
+            pstmt.setInt(2, platformAccountId);
+            pstmt.setLong(3, peerId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next() ? rs.getInt(1) : null;
+            }
+        }
+    }
+
+    /**
+     * Find a message of a private Telegram dialog
+     * @return The affected rows (inserted = false), or null if the message has not been stored
+     */
+    public static AppliedMessage findTelegramMessage(int userId, int platformAccountId, long peerId, long messageId) throws SQLException {
+        String sql = """
+            SELECT m.id, m.dialog_id FROM messages m
+            JOIN dialogs d ON m.dialog_id = d.id
+            WHERE d.user_id = ? AND d.platform_account_id = ? AND d.dialog_id = ? AND d.type = 'private' AND m.message_id = ?
+        """;
+        try (Connection conn = getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setInt(1, userId);
+            pstmt.setInt(2, platformAccountId);
+            pstmt.setLong(3, peerId);
+            pstmt.setLong(4, messageId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next() ? new AppliedMessage(rs.getInt(1), rs.getInt(2), false) : null;
+            }
+        }
+    }
+
+    /**
+     * Apply a single message pushed by the Telegram update stream (new, or edited on Telegram).
+     * Creates the private dialog if needed, skips messages deleted via the app, and (like priority
+     * ingestion) keeps the DB text if the message was edited through the app in the last 5 seconds.
+     * @return The affected rows, or null if the message was skipped
+     */
+    public static AppliedMessage applyTelegramMessage(int userId, int platformAccountId, long peerId, String chatName,
+                                           long messageId, String sender, String text,
+                                           java.time.OffsetDateTime timestamp, boolean hasMedia,
+                                           Long referenceId, boolean editedOnTelegram) throws SQLException {
+        String dialogSql = """
+            INSERT INTO dialogs (user_id, platform_account_id, dialog_id, name, type, message_count, media_count, last_synced)
+            VALUES (?, ?, ?, ?, 'private', 0, 0, NOW())
+            ON CONFLICT (user_id, platform_account_id, dialog_id) DO UPDATE
+            SET name = COALESCE(EXCLUDED.name, dialogs.name),
+                last_synced = NOW()
+            RETURNING id
+        """;
+        String onConflict = editedOnTelegram
+            ? """
+                ON CONFLICT (dialog_id, message_id) DO UPDATE SET
+                    text = CASE WHEN messages.last_updated > NOW() - INTERVAL '5 seconds'
+                                THEN messages.text ELSE EXCLUDED.text END,
+                    has_media = EXCLUDED.has_media,
+                    reference_id = EXCLUDED.reference_id,
+                    last_updated = CASE WHEN messages.last_updated > NOW() - INTERVAL '5 seconds'
+                                        THEN messages.last_updated ELSE NOW() END
+              """
+            : """
+                ON CONFLICT (dialog_id, message_id) DO UPDATE SET
+                    has_media = EXCLUDED.has_media,
+                    reference_id = EXCLUDED.reference_id
+              """;
+        String messageSql = """
+            INSERT INTO messages (dialog_id, message_id, sender, text, timestamp, has_media, reference_id, status, last_updated)
+            SELECT ?, ?, ?, ?, CAST(? AS TIMESTAMPTZ), ?, CAST(? AS BIGINT), 'sent', CAST(? AS TIMESTAMPTZ)
+            WHERE NOT EXISTS (SELECT 1 FROM app_deleted_messages WHERE dialog_id = ? AND message_id = ?)
+            """ + onConflict + " RETURNING id, (xmax = 0) AS inserted";
+
+        try (Connection conn = getConnection()) {
+            int dialogRowId;
+            try (PreparedStatement pstmt = conn.prepareStatement(dialogSql)) {
+                pstmt.setInt(1, userId);
+                pstmt.setInt(2, platformAccountId);
+                pstmt.setLong(3, peerId);
+                pstmt.setString(4, chatName);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    if (!rs.next()) {
+                        throw new SQLException("Failed to save dialog for peer " + peerId);
+                    }
+                    dialogRowId = rs.getInt(1);
+                }
+            }
+            try (PreparedStatement pstmt = conn.prepareStatement(messageSql)) {
+                pstmt.setInt(1, dialogRowId);
+                pstmt.setLong(2, messageId);
+                pstmt.setString(3, sender);
+                pstmt.setString(4, text != null ? SecureStorage.encrypt(text) : null);
+                pstmt.setObject(5, timestamp);
+                pstmt.setBoolean(6, hasMedia);
+                pstmt.setObject(7, referenceId);
+                pstmt.setObject(8, editedOnTelegram ? java.time.OffsetDateTime.now() : null);
+                pstmt.setInt(9, dialogRowId);
+                pstmt.setLong(10, messageId);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    return rs.next() ? new AppliedMessage(rs.getInt(1), dialogRowId, rs.getBoolean(2)) : null;
+                }
+            }
+        }
+    }
+
+    /**
+     * Delete messages that were deleted on Telegram.
+     * @param peerId Telegram peer of the chat, or null when Telegram doesn't say (private chats,
+     *               where message IDs are unique per account)
+     * @return Dialog row IDs that lost at least one message
+     */
+    public static List<Integer> deleteTelegramMessages(int userId, int platformAccountId, Long peerId,
+                                                       List<Long> messageIds) throws SQLException {
+        List<Integer> dialogRowIds = new ArrayList<>();
+        if (messageIds == null || messageIds.isEmpty()) return dialogRowIds;
+        String sql = """
+            DELETE FROM messages m
+            USING dialogs d
+            WHERE m.dialog_id = d.id
+              AND d.user_id = ? AND d.platform_account_id = ?
+              AND (CAST(? AS BIGINT) IS NULL OR d.dialog_id = ?)
+              AND d.type = 'private'
+              AND m.message_id = ANY(?)
+            RETURNING m.dialog_id
+        """;
+        try (Connection conn = getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setInt(1, userId);
+            pstmt.setInt(2, platformAccountId);
+            pstmt.setObject(3, peerId, Types.BIGINT);
+            pstmt.setObject(4, peerId, Types.BIGINT);
+            pstmt.setArray(5, conn.createArrayOf("bigint", messageIds.toArray()));
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    int dialogRowId = rs.getInt(1);
+                    if (!dialogRowIds.contains(dialogRowId)) {
+                        dialogRowIds.add(dialogRowId);
+                    }
+                }
+            }
+        }
+        return dialogRowIds;
+    }
+
+    /**
+     * Update the pinned flag for messages pinned/unpinned on Telegram
+     * @return Dialog row IDs that were updated
+     */
+    public static List<Integer> setTelegramMessagesPinned(int userId, int platformAccountId, long peerId,
+                                                          List<Long> messageIds, boolean pinned) throws SQLException {
+        List<Integer> dialogRowIds = new ArrayList<>();
+        if (messageIds == null || messageIds.isEmpty()) return dialogRowIds;
+        String sql = """
+            UPDATE messages m SET pinned = ?
+            FROM dialogs d
+            WHERE m.dialog_id = d.id
+              AND d.user_id = ? AND d.platform_account_id = ? AND d.dialog_id = ?
+              AND m.message_id = ANY(?)
+            RETURNING m.dialog_id
+        """;
+        try (Connection conn = getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setBoolean(1, pinned);
+            pstmt.setInt(2, userId);
+            pstmt.setInt(3, platformAccountId);
+            pstmt.setLong(4, peerId);
+            pstmt.setArray(5, conn.createArrayOf("bigint", messageIds.toArray()));
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    int dialogRowId = rs.getInt(1);
+                    if (!dialogRowIds.contains(dialogRowId)) {
+                        dialogRowIds.add(dialogRowId);
+                    }
+                }
+            }
+        }
+        return dialogRowIds;
+    }
+
     // =====================
     // Media Operations
     // =====================
@@ -938,6 +1190,29 @@ public class DatabaseManager {
         }
     }
 
+    /**
+     * Save media for a message unless a media row already exists for it
+     */
+    public static void saveMediaIfAbsent(int messageId, String type, String filePath,
+                                         String fileName, long fileSize, String mimeType) throws SQLException {
+        String sql = """
+            INSERT INTO media (message_id, type, file_path, file_name, file_size, mime_type)
+            SELECT ?, ?, ?, ?, ?, ?
+            WHERE NOT EXISTS (SELECT 1 FROM media WHERE message_id = ?)
+        """;
+        try (Connection conn = getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setInt(1, messageId);
+            pstmt.setString(2, type);
+            pstmt.setString(3, filePath);
+            pstmt.setString(4, fileName);
+            pstmt.setLong(5, fileSize);
+            pstmt.setString(6, mimeType);
+            pstmt.setInt(7, messageId);
+            pstmt.executeUpdate();
+        }
+    }
+
     // =====================
     // Query Helpers
     // =====================
@@ -963,11 +1238,10 @@ public class DatabaseManager {
             pstmt.setInt(1, dialogId);
             ResultSet rs = pstmt.executeQuery();
             while (rs.next()) {
-                String encrypted = rs.getString("text");
-                messages.add(encrypted != null ? SecureStorage.decrypt(encrypted) : null);
+                messages.add(rs.getString("text"));
             }
         }
-        return messages;
+        return SecureStorage.decryptAll(messages);
     }
 
     public static List<String> getMediaForMessage(int messageId) throws SQLException {
@@ -1051,10 +1325,13 @@ public class DatabaseManager {
         return null;
     }
 
+    /**
+     * Load all target users of a user with their SubTarget Users and legacy platforms.
+     * Three set-based queries (targets, subtargets, legacy platforms) regardless of the number of targets.
+     */
     public List<TargetUser> getTargetUsersByUserId(int userId) throws SQLException {
-        List<TargetUser> targetUsers = new ArrayList<>();
+        java.util.Map<Integer, TargetUser> targetsById = new java.util.LinkedHashMap<>();
 
-        // First, get all target users with their new fields
         String targetSql = """
             SELECT id, name, bio, desired_outcome, meeting_context, important_details, 
                    cross_platform_context_enabled, profile_json, profile_picture_url
@@ -1062,43 +1339,69 @@ public class DatabaseManager {
             WHERE user_id = ?
             ORDER BY name
         """;
+        // Ordered like getSubTargetUsersByTargetUserId within each target
+        String subTargetSql = """
+            SELECT s.id, s.target_user_id, s.name, s.username, s.platform, s.platform_account_id,
+                   s.platform_id, s.number, s.advanced_communication_settings, s.created_at
+            FROM subtarget_users s
+            JOIN target_users t ON t.id = s.target_user_id
+            WHERE t.user_id = ?
+            ORDER BY s.target_user_id, s.platform, s.created_at
+        """;
+        // Legacy: target_user_platforms for backward compatibility
+        String legacySql = """
+            SELECT p.target_user_id, p.platform, p.username, p.number, p.platform_id
+            FROM target_user_platforms p
+            JOIN target_users t ON t.id = p.target_user_id
+            WHERE t.user_id = ?
+        """;
 
-        try (Connection conn = getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(targetSql)) {
-            pstmt.setInt(1, userId);
-            ResultSet rs = pstmt.executeQuery();
+        try (Connection conn = getConnection()) {
+            try (PreparedStatement pstmt = conn.prepareStatement(targetSql)) {
+                pstmt.setInt(1, userId);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        TargetUser targetUser = new TargetUser();
+                        int targetId = rs.getInt("id");
+                        targetUser.setTargetId(targetId);
+                        targetUser.setUserId(userId);
+                        targetUser.setName(rs.getString("name"));
+                        targetUser.setBio(rs.getString("bio"));
+                        targetUser.setDesiredOutcome(rs.getString("desired_outcome"));
+                        targetUser.setMeetingContext(rs.getString("meeting_context"));
+                        targetUser.setImportantDetails(rs.getString("important_details"));
+                        targetUser.setCrossPlatformContextEnabled(rs.getBoolean("cross_platform_context_enabled"));
+                        targetUser.setProfileJson(rs.getString("profile_json"));
+                        targetUser.setProfilePictureUrl(rs.getString("profile_picture_url"));
+                        targetUser.setSubTargetUsers(new ArrayList<>());
+                        targetUser.setPlatforms(new ArrayList<>());
+                        targetsById.put(targetId, targetUser);
+                    }
+                }
+            }
+            if (targetsById.isEmpty()) {
+                return new ArrayList<>();
+            }
 
-            while (rs.next()) {
-                TargetUser targetUser = new TargetUser();
-                int targetId = rs.getInt("id");
-                targetUser.setTargetId(targetId);
-                targetUser.setUserId(userId);
-                targetUser.setName(rs.getString("name"));
-                targetUser.setBio(rs.getString("bio"));
-                targetUser.setDesiredOutcome(rs.getString("desired_outcome"));
-                targetUser.setMeetingContext(rs.getString("meeting_context"));
-                targetUser.setImportantDetails(rs.getString("important_details"));
-                targetUser.setCrossPlatformContextEnabled(rs.getBoolean("cross_platform_context_enabled"));
-                targetUser.setProfileJson(rs.getString("profile_json"));
-                targetUser.setProfilePictureUrl(rs.getString("profile_picture_url"));
-                
-                // Load SubTarget Users
-                List<com.aria.core.model.SubTargetUser> subTargets = getSubTargetUsersByTargetUserId(targetId);
-                targetUser.setSubTargetUsers(subTargets);
-                
-                // Legacy: Also load from target_user_platforms for backward compatibility
-                targetUser.setPlatforms(new ArrayList<>());
-                String legacySql = """
-                    SELECT platform, username, number, platform_id
-                    FROM target_user_platforms
-                    WHERE target_user_id = ?
-                """;
-                try (PreparedStatement legacyPstmt = conn.prepareStatement(legacySql)) {
-                    legacyPstmt.setInt(1, targetId);
-                    ResultSet legacyRs = legacyPstmt.executeQuery();
+            try (PreparedStatement pstmt = conn.prepareStatement(subTargetSql)) {
+                pstmt.setInt(1, userId);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        TargetUser targetUser = targetsById.get(rs.getInt("target_user_id"));
+                        if (targetUser != null) {
+                            targetUser.getSubTargetUsers().add(mapSubTargetUserFromResultSet(rs));
+                        }
+                    }
+                }
+            }
+
+            try (PreparedStatement pstmt = conn.prepareStatement(legacySql)) {
+                pstmt.setInt(1, userId);
+                try (ResultSet legacyRs = pstmt.executeQuery()) {
                     while (legacyRs.next()) {
+                        TargetUser targetUser = targetsById.get(legacyRs.getInt("target_user_id"));
                         String platformName = legacyRs.getString("platform");
-                        if (platformName != null) {
+                        if (targetUser != null && platformName != null) {
                             try {
                                 Platform platform = Platform.valueOf(platformName.toUpperCase());
                                 UserPlatform userPlatform = new UserPlatform(
@@ -1114,11 +1417,9 @@ public class DatabaseManager {
                         }
                     }
                 }
-                
-                targetUsers.add(targetUser);
             }
         }
-        return targetUsers;
+        return new ArrayList<>(targetsById.values());
     }
 
     public boolean saveTargetUser(int userId, TargetUser targetUser) throws SQLException {
@@ -1424,6 +1725,126 @@ public class DatabaseManager {
         }
     }
 
+    /**
+     * A media row as needed to derive its preview
+     */
+    public static class MediaFile {
+        public final int id;
+        public final String filePath;
+        public final String mimeType;
+        public final String previewPath;
+
+        public MediaFile(int id, String filePath, String mimeType, String previewPath) {
+            this.id = id;
+            this.filePath = filePath;
+            this.mimeType = mimeType;
+            this.previewPath = previewPath;
+        }
+    }
+
+    /**
+     * Media rows of the given messages (messages.id) that have no preview yet
+     */
+    public static List<MediaFile> getMediaWithoutPreview(Collection<Integer> messageRowIds) throws SQLException {
+        String sql = "SELECT id, file_path, mime_type, preview_path FROM media WHERE message_id = ANY(?) AND preview_path IS NULL";
+        List<MediaFile> media = new ArrayList<>();
+        try (Connection conn = getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setArray(1, conn.createArrayOf("integer", messageRowIds.toArray()));
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    media.add(new MediaFile(rs.getInt(1), rs.getString(2), rs.getString(3), rs.getString(4)));
+                }
+            }
+        }
+        return media;
+    }
+
+    /**
+     * Media rows of a platform account's messages that have no preview yet, by id after afterMediaId
+     */
+    public static List<MediaFile> getMediaWithoutPreviewForAccount(int platformAccountId, int afterMediaId, int limit) throws SQLException {
+        String sql = """
+            SELECT md.id, md.file_path, md.mime_type, md.preview_path FROM media md
+            JOIN messages m ON md.message_id = m.id
+            JOIN dialogs d ON m.dialog_id = d.id
+            WHERE d.platform_account_id = ? AND md.preview_path IS NULL AND md.id > ?
+            ORDER BY md.id
+            LIMIT ?
+        """;
+        List<MediaFile> media = new ArrayList<>();
+        try (Connection conn = getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setInt(1, platformAccountId);
+            pstmt.setInt(2, afterMediaId);
+            pstmt.setInt(3, limit);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    media.add(new MediaFile(rs.getInt(1), rs.getString(2), rs.getString(3), rs.getString(4)));
+                }
+            }
+        }
+        return media;
+    }
+
+    public static MediaFile getMediaFile(int mediaId) throws SQLException {
+        String sql = "SELECT id, file_path, mime_type, preview_path FROM media WHERE id = ?";
+        try (Connection conn = getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setInt(1, mediaId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next() ? new MediaFile(rs.getInt(1), rs.getString(2), rs.getString(3), rs.getString(4)) : null;
+            }
+        }
+    }
+
+    /**
+     * Record a media row's preview, unless its file was replaced while the preview was being made
+     * @param filePath The stored file path the preview was made from
+     * @param resolvedPath Where that file was found (MediaPaths may have stored it meanwhile)
+     * @param previewPath The preview file, or "" if none can be made
+     */
+    public static boolean setMediaPreviewPath(int mediaId, String filePath, String resolvedPath, String previewPath) throws SQLException {
+        String sql = "UPDATE media SET preview_path = ? WHERE id = ? AND file_path IN (?, ?)";
+        try (Connection conn = getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setString(1, previewPath);
+            pstmt.setInt(2, mediaId);
+            pstmt.setString(3, filePath);
+            pstmt.setString(4, resolvedPath != null ? resolvedPath : filePath);
+            return pstmt.executeUpdate() > 0;
+        }
+    }
+
+    /**
+     * Replace a media row's file path with where the file was actually found, unless it changed meanwhile
+     * @return Whether the row was updated
+     */
+    public static boolean updateMediaFilePath(int mediaId, String oldPath, String newPath) throws SQLException {
+        String sql = "UPDATE media SET file_path = ? WHERE id = ? AND file_path = ?";
+        try (Connection conn = getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setString(1, newPath);
+            pstmt.setInt(2, mediaId);
+            pstmt.setString(3, oldPath);
+            return pstmt.executeUpdate() > 0;
+        }
+    }
+
+    /**
+     * Record the resolved Telegram peer id of a SubTarget User that doesn't have one yet
+     * @return Whether the row was updated
+     */
+    public static boolean setSubTargetPlatformIdIfMissing(int subtargetUserId, long platformId) throws SQLException {
+        String sql = "UPDATE subtarget_users SET platform_id = ? WHERE id = ? AND (platform_id IS NULL OR platform_id = 0)";
+        try (Connection conn = getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setLong(1, platformId);
+            pstmt.setInt(2, subtargetUserId);
+            return pstmt.executeUpdate() > 0;
+        }
+    }
+
     public boolean deleteSubTargetUser(int subtargetUserId) throws SQLException {
         String sql = "DELETE FROM subtarget_users WHERE id = ?";
         try (Connection conn = getConnection();
@@ -9,31 +9,7 @@ import java.sql.Statement;
  * goal-based queries, conversation states, quizzes, and summaries.
  */
 public class DatabaseSchema {
-    // Use same connection logic as DatabaseManager for consistency
-    private static String getDbHost() {
-        String dbUrl = System.getenv("DATABASE_URL");
-        if (dbUrl != null && !dbUrl.isEmpty()) {
-            // Extract host from jdbc:postgresql://host:port/database
-            try {
-                String withoutJdbc = dbUrl.replace("jdbc:postgresql://", "");
-                return withoutJdbc.split(":")[0];
-            } catch (Exception e) {
-                // Fall through to default
-            }
-        }
-        // Check DB_HOST environment variable
-        String dbHost = System.getenv("DB_HOST");
-        return dbHost != null ? dbHost : "localhost";
-    }
-    
-    private static final String DB_HOST = getDbHost();
-    private static final String URL = "jdbc:postgresql://" + DB_HOST + ":5432/aria";
-    private static final String USER = System.getenv("DATABASE_USER") != null 
-        ? System.getenv("DATABASE_USER") 
-        : "postgres";
-    private static final String PASSWORD = System.getenv("DATABASE_PASSWORD") != null 
-        ? System.getenv("DATABASE_PASSWORD") 
-        : "Ezekiel(23)";
+    // Use the same pooled connections as DatabaseManager for consistency
 
     public static void initializeSchema() throws SQLException {
         try (Connection conn = getConnection(); Statement stmt = conn.createStatement()) {
@@ -228,6 +204,7 @@ public class DatabaseSchema {
 
         // Message indexes
         stmt.execute("CREATE INDEX IF NOT EXISTS idx_messages_dialog_id ON messages(dialog_id)");
+        stmt.execute("CREATE INDEX IF NOT EXISTS messages_dialog_timestamp_id_idx ON messages(dialog_id, timestamp, id)");
         stmt.execute("CREATE INDEX IF NOT EXISTS idx_messages_timestamp ON messages(timestamp DESC)");
         stmt.execute("CREATE INDEX IF NOT EXISTS idx_messages_sender ON messages(sender)");
 
@@ -336,7 +313,7 @@ public class DatabaseSchema {
         }
 
     private static Connection getConnection() throws SQLException {
-        return java.sql.DriverManager.getConnection(URL, USER, PASSWORD);
+        return ConnectionPool.getConnection();
     }
 
     public static Connection getConnectionInstance() throws SQLException {
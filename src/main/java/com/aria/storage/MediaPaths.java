@@ -0,0 +1,94 @@
+package com.aria.storage;
+
+import com.aria.core.ConfigurationManager;
+import com.aria.service.BackgroundTasks;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Locates media files from the paths stored in media.file_path, which may be relative or written on
+ * another host (Windows, outside Docker).
+ *
+ * The first lookup of a stored path probes the candidate locations; the result is remembered and,
+ * when it differs, written back to media.file_path so other nodes and restarts start there.
+ * At most media.paths.cache.max.entries locations are remembered (least recently used first).
+ */
+public final class MediaPaths {
+    private static final int MAX_ENTRIES = Math.max(1, ConfigurationManager.getIntProperty("media.paths.cache.max.entries", 10000));
+    // media.file_path as stored -> where the file was found on this node
+    private static final Map<String, Path> resolved = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Path> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    });
+
+    private MediaPaths() {}
+
+    /**
+     * @return The file, or null if it's in none of the candidate locations
+     */
+    public static Path resolve(int mediaId, String filePath) {
+        Path cached = resolved.get(filePath);
+        if (cached != null) {
+            return cached;
+        }
+        // Normalize path separators first (convert backslashes to forward slashes if needed)
+        String normalizedPath = filePath.replace("\\", "/");
+        List<Path> candidates = new ArrayList<>();
+        Path asIs = Paths.get(normalizedPath);
+        if (asIs.isAbsolute()) {
+            candidates.add(asIs);
+        }
+        candidates.add(Paths.get("/app", normalizedPath)); // Docker
+        candidates.add(Paths.get(System.getProperty("user.dir"), normalizedPath));
+        candidates.add(asIs);
+        int mediaIdx = normalizedPath.indexOf("media/");
+        if (mediaIdx >= 0) {
+            // Windows-style paths in Docker (if running on Windows host but in Linux container)
+            candidates.add(Paths.get("/app", normalizedPath.substring(mediaIdx)));
+        }
+
+        for (Path candidate : candidates) {
+            if (Files.isRegularFile(candidate)) {
+                Path found = candidate.toAbsolutePath().normalize();
+                resolved.put(filePath, found);
+                if (!found.toString().equals(filePath)) {
+                    BackgroundTasks.getInstance().submit(BackgroundTasks.Lane.PREFETCH, "media-path:" + mediaId, () -> {
+                        try {
+                            DatabaseManager.updateMediaFilePath(mediaId, filePath, found.toString());
+                        } catch (SQLException e) {
+                            System.err.println("Failed to store resolved path of media " + mediaId + ": " + e.getMessage());
+                        }
+                    });
+                }
+                return found;
+            }
+        }
+
+        System.err.println("=== File not found error ===");
+        System.err.println("Original filePath from DB: " + filePath);
+        System.err.println("Current working directory: " + System.getProperty("user.dir"));
+        System.err.println("Tried paths:");
+        for (Path tried : candidates) {
+            System.err.println("  - " + tried);
+        }
+        System.err.println("============================");
+        return null;
+    }
+
+    /**
+     * Drop a remembered location (the file was moved or deleted since)
+     */
+    public static void forget(String filePath) {
+        resolved.remove(filePath);
+    }
+}
@@ -0,0 +1,64 @@
+package com.aria.storage;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.Base64;
+
+/**
+ * Position of a message in a conversation timeline, ordered by (timestamp, messages.id).
+ *
+ * Used for keyset pagination: "the page before/after this message" is an index range scan on
+ * messages(dialog_id, timestamp, id) whose cost does not depend on how deep into the history it is.
+ * The token is opaque to clients (base64url of "epochMicros:id") and stays valid as messages are
+ * added or removed around it.
+ */
+public final class MessageCursor {
+    public final OffsetDateTime timestamp;
+    public final long id;
+
+    public MessageCursor(OffsetDateTime timestamp, long id) {
+        this.timestamp = timestamp;
+        this.id = id;
+    }
+
+    /**
+     * Encode a cursor token for the message at (timestamp, id)
+     */
+    public static String encode(OffsetDateTime timestamp, long id) {
+        Instant instant = timestamp.toInstant();
+        long micros = ChronoUnit.MICROS.between(Instant.EPOCH, instant);
+        String raw = micros + ":" + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public String encode() {
+        return encode(timestamp, id);
+    }
+
+    /**
+     * Timestamp as microseconds since the epoch (the precision of the token)
+     */
+    public long epochMicros() {
+        return ChronoUnit.MICROS.between(Instant.EPOCH, timestamp.toInstant());
+    }
+
+    /**
+     * Parse a cursor token
+     * @throws IllegalArgumentException if the token is malformed
+     */
+    public static MessageCursor decode(String token) {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+            int sep = raw.indexOf(':');
+            long micros = Long.parseLong(raw.substring(0, sep));
+            long id = Long.parseLong(raw.substring(sep + 1));
+            Instant instant = Instant.EPOCH.plus(micros, ChronoUnit.MICROS);
+            return new MessageCursor(OffsetDateTime.ofInstant(instant, ZoneOffset.UTC), id);
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Invalid cursor: " + token);
+        }
+    }
+}
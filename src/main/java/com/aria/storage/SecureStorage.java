@@ -1,39 +1,122 @@
 package com.aria.storage;
 
+import com.aria.core.ConfigurationManager;
+
 import javax.crypto.Cipher;
-import javax.crypto.KeyGenerator;
 import javax.crypto.SecretKey;
 import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 import java.nio.charset.StandardCharsets;
 import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Base64;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
 
 /**
  * Utility for encrypting/decrypting sensitive data (messages, etc.)
  * Uses AES-256-GCM for authenticated encryption.
+ *
+ * Keys are parsed once and each thread reuses its own Cipher, so a message load pays for the AES
+ * work only. Keys are versioned for rotation: when ARIA_ENCRYPTION_KEY_ID is set, new values are
+ * written as "k{id}:" + Base64(IV + ciphertext) and decrypted with that key; retired keys stay
+ * readable through ARIA_ENCRYPTION_PREVIOUS_KEYS ("id:base64key,id:base64key"). Values without a
+ * prefix (written before versioning) are tried against the current key, then the previous ones.
  */
 public class SecureStorage {
     private static final String ALGORITHM = "AES/GCM/NoPadding";
     private static final int IV_LENGTH = 12; // 96 bits for GCM
     private static final int GCM_TAG_LENGTH = 128; // 128 bits for GCM tag
     private static final int KEY_LENGTH = 256; // 256 bits = 32 bytes
+    private static final String VERSION_PREFIX = "k";
+
+    private static final SecureRandom random = new SecureRandom();
+    private static final ThreadLocal<Cipher> ciphers = ThreadLocal.withInitial(() -> {
+        try {
+            return Cipher.getInstance(ALGORITHM);
+        } catch (Exception e) {
+            throw new IllegalStateException("AES-GCM is not available", e);
+        }
+    });
+    private static volatile KeyRing keyRing;
 
-    private static SecretKey getSecretKey() {
+    /**
+     * The current key (used for encryption) and every key that may still be needed for decryption
+     */
+    private static class KeyRing {
+        final String currentId; // null = unversioned (legacy format)
+        final SecretKey current;
+        final Map<String, SecretKey> byId;
+        final List<SecretKey> fallbackOrder;
+
+        KeyRing(String currentId, SecretKey current, Map<String, SecretKey> byId) {
+            this.currentId = currentId;
+            this.current = current;
+            this.byId = byId;
+            List<SecretKey> order = new ArrayList<>();
+            order.add(current);
+            for (SecretKey key : byId.values()) {
+                if (key != current) order.add(key);
+            }
+            this.fallbackOrder = Collections.unmodifiableList(order);
+        }
+    }
+
+    private static KeyRing getKeyRing() {
+        KeyRing ring = keyRing;
+        if (ring == null) {
+            synchronized (SecureStorage.class) {
+                ring = keyRing;
+                if (ring == null) {
+                    ring = loadKeyRing();
+                    keyRing = ring;
+                }
+            }
+        }
+        return ring;
+    }
+
+    private static KeyRing loadKeyRing() {
         String keyEnv = System.getenv("ARIA_ENCRYPTION_KEY");
         if (keyEnv == null || keyEnv.trim().isEmpty()) {
             // Fallback: generate a development key (not secure for production)
             // This is a 32-byte key in Base64 format
             keyEnv = "AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA="; // 32 bytes of zeros
         }
+        SecretKey current = parseKey(keyEnv.trim());
+        String currentId = ConfigurationManager.getProperty("aria.encryption.key.id", null);
+        if (currentId != null && currentId.trim().isEmpty()) {
+            currentId = null;
+        }
+
+        Map<String, SecretKey> byId = new LinkedHashMap<>();
+        if (currentId != null) {
+            byId.put(currentId.trim(), current);
+            currentId = currentId.trim();
+        }
+        String previous = ConfigurationManager.getProperty("aria.encryption.previous.keys", "");
+        for (String entry : previous.split(",")) {
+            entry = entry.trim();
+            if (entry.isEmpty()) continue;
+            int sep = entry.indexOf(':');
+            if (sep <= 0) {
+                throw new IllegalStateException("ARIA_ENCRYPTION_PREVIOUS_KEYS entries must be id:base64key");
+            }
+            byId.putIfAbsent(entry.substring(0, sep).trim(), parseKey(entry.substring(sep + 1).trim()));
+        }
+        return new KeyRing(currentId, current, byId);
+    }
 
+    private static SecretKey parseKey(String base64Key) {
         try {
-            byte[] keyBytes = Base64.getDecoder().decode(keyEnv);
+            byte[] keyBytes = Base64.getDecoder().decode(base64Key);
             // Ensure key is exactly 32 bytes
-            if (keyBytes.length != 32) {
-                byte[] padded = new byte[32];
-                System.arraycopy(keyBytes, 0, padded, 0, Math.min(keyBytes.length, 32));
-                keyBytes = padded;
+            if (keyBytes.length != KEY_LENGTH / 8) {
+                keyBytes = Arrays.copyOf(keyBytes, KEY_LENGTH / 8);
             }
             return new SecretKeySpec(keyBytes, "AES");
         } catch (IllegalArgumentException e) {
@@ -47,18 +130,23 @@ public class SecureStorage {
     public static String encrypt(String plainText) {
         try {
             if (plainText == null) return null;
-            SecretKey key = getSecretKey();
-            Cipher cipher = Cipher.getInstance(ALGORITHM);
-            cipher.init(Cipher.ENCRYPT_MODE, key);
-            byte[] encrypted = cipher.doFinal(plainText.getBytes(StandardCharsets.UTF_8));
-            byte[] iv = cipher.getIV();
-            
+            KeyRing ring = getKeyRing();
+            byte[] iv = new byte[IV_LENGTH];
+            random.nextBytes(iv);
+            Cipher cipher = ciphers.get();
+            cipher.init(Cipher.ENCRYPT_MODE, ring.current, new GCMParameterSpec(GCM_TAG_LENGTH, iv));
+            byte[] plain = plainText.getBytes(StandardCharsets.UTF_8);
+
             // Combine IV and encrypted data
-            byte[] combined = new byte[IV_LENGTH + encrypted.length];
+            byte[] combined = new byte[IV_LENGTH + cipher.getOutputSize(plain.length)];
             System.arraycopy(iv, 0, combined, 0, IV_LENGTH);
-            System.arraycopy(encrypted, 0, combined, IV_LENGTH, encrypted.length);
-            
-            return Base64.getEncoder().encodeToString(combined);
+            int written = cipher.doFinal(plain, 0, plain.length, combined, IV_LENGTH);
+            if (IV_LENGTH + written != combined.length) {
+                combined = Arrays.copyOf(combined, IV_LENGTH + written);
+            }
+
+            String encoded = Base64.getEncoder().encodeToString(combined);
+            return ring.currentId != null ? VERSION_PREFIX + ring.currentId + ":" + encoded : encoded;
         } catch (Exception e) {
             throw new RuntimeException("Encryption failed", e);
         }
@@ -71,37 +159,65 @@ public class SecureStorage {
     public static String decrypt(String data) {
         try {
             if (data == null) return null;
+            KeyRing ring = getKeyRing();
+
+            String payload = data;
+            List<SecretKey> candidates = ring.fallbackOrder;
+            int sep = data.indexOf(':');
+            if (sep > VERSION_PREFIX.length() && data.startsWith(VERSION_PREFIX)) {
+                SecretKey versioned = ring.byId.get(data.substring(VERSION_PREFIX.length(), sep));
+                if (versioned != null) {
+                    payload = data.substring(sep + 1);
+                    candidates = List.of(versioned);
+                }
+            }
+
             // Try to detect if data is encrypted (Base64 encoded with IV+GCM tag structure)
+            byte[] combined;
             try {
-                byte[] combined = Base64.getDecoder().decode(data);
-                // Encrypted data should have IV (12 bytes) + ciphertext (at least GCM tag 16 bytes)
-                if (combined.length < IV_LENGTH + 16) {
-                    // Too short to be encrypted, return as-is (plaintext)
-                    return data;
-                }
-                byte[] iv = new byte[IV_LENGTH];
-                byte[] cipherText = new byte[combined.length - IV_LENGTH];
-                System.arraycopy(combined, 0, iv, 0, IV_LENGTH);
-                System.arraycopy(combined, IV_LENGTH, cipherText, 0, cipherText.length);
-
-                Cipher cipher = Cipher.getInstance(ALGORITHM);
-                GCMParameterSpec spec = new GCMParameterSpec(GCM_TAG_LENGTH, iv);
-                cipher.init(Cipher.DECRYPT_MODE, getSecretKey(), spec);
-                byte[] plain = cipher.doFinal(cipherText);
-                return new String(plain, StandardCharsets.UTF_8);
-            } catch (java.lang.IllegalArgumentException e) {
+                combined = Base64.getDecoder().decode(payload);
+            } catch (IllegalArgumentException e) {
                 // Not valid Base64, return as-is (plaintext from Python ingestion)
                 return data;
-            } catch (javax.crypto.AEADBadTagException e) {
-                // Decryption failed (wrong key or not encrypted), return as-is
-                return data;
-            } catch (Exception e) {
-                // Other decryption errors - return as-is (might be plaintext)
+            }
+            // Encrypted data should have IV (12 bytes) + ciphertext (at least GCM tag 16 bytes)
+            if (combined.length < IV_LENGTH + 16) {
+                // Too short to be encrypted, return as-is (plaintext)
                 return data;
             }
+
+            Cipher cipher = ciphers.get();
+            GCMParameterSpec spec = new GCMParameterSpec(GCM_TAG_LENGTH, combined, 0, IV_LENGTH);
+            for (SecretKey key : candidates) {
+                try {
+                    cipher.init(Cipher.DECRYPT_MODE, key, spec);
+                    byte[] plain = cipher.doFinal(combined, IV_LENGTH, combined.length - IV_LENGTH);
+                    return new String(plain, StandardCharsets.UTF_8);
+                } catch (javax.crypto.AEADBadTagException e) {
+                    // Wrong key (or not encrypted) - try the next one
+                }
+            }
+            return data;
         } catch (Exception e) {
             // If anything fails, return the original data (might be plaintext)
             return data;
         }
     }
+
+    /**
+     * Decrypt many values, e.g. a whole result set. Batches of crypto.parallel.threshold or more are
+     * spread over all cores (single-core hosts stay sequential; fork-join only costs there);
+     * the result has the same order as the input and follows decrypt(...) for every element.
+     */
+    public static List<String> decryptAll(List<String> data) {
+        int size = data.size();
+        String[] plain = new String[size];
+        int threshold = ConfigurationManager.getIntProperty("crypto.parallel.threshold", 256);
+        IntStream indexes = IntStream.range(0, size);
+        if (size >= threshold && Runtime.getRuntime().availableProcessors() > 1) {
+            indexes = indexes.parallel();
+        }
+        indexes.forEach(i -> plain[i] = decrypt(data.get(i)));
+        return Arrays.asList(plain);
+    }
 }
@@ -0,0 +1,81 @@
+package com.aria.cache;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.ToNumberPolicy;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class BinaryCacheCodecTest {
+    // Same settings as RedisCacheManager
+    private final Gson gson = new GsonBuilder().serializeNulls().setObjectToNumberStrategy(ToNumberPolicy.LONG_OR_DOUBLE).create();
+    private final BinaryCacheCodec codec = new BinaryCacheCodec(gson);
+
+    static class Dto {
+        String name;
+        int count;
+        List<String> tags;
+    }
+
+    @Test
+    void keepsNumberTypesApart() {
+        Map<String, Object> row = new LinkedHashMap<>();
+        row.put("int", 42);
+        row.put("negativeInt", -7);
+        row.put("long", 1L << 40);
+        row.put("minLong", Long.MIN_VALUE);
+        row.put("double", 2.5);
+
+        Map<?, ?> decoded = (Map<?, ?>) codec.decode(codec.encode(row), Map.class);
+
+        assertEquals(row, decoded);
+        assertInstanceOf(Integer.class, decoded.get("int"));
+        assertInstanceOf(Long.class, decoded.get("long"));
+        assertInstanceOf(Double.class, decoded.get("double"));
+    }
+
+    @Test
+    void roundTripsNestedPlainData() {
+        Map<String, Object> page = new LinkedHashMap<>();
+        page.put("text", "héllo 👋");
+        page.put("empty", "");
+        page.put("missing", null);
+        page.put("flags", Arrays.asList(true, false, null));
+        page.put("nested", Map.of("ids", List.of(1, 2, 3)));
+
+        assertEquals(page, codec.decode(codec.encode(page), Object.class));
+    }
+
+    @Test
+    void decodesObjectsThroughGson() {
+        Dto dto = new Dto();
+        dto.name = "target";
+        dto.count = 3;
+        dto.tags = List.of("a", "b");
+
+        Dto decoded = (Dto) codec.decode(codec.encode(dto), Dto.class);
+
+        assertEquals("target", decoded.name);
+        assertEquals(3, decoded.count);
+        assertEquals(List.of("a", "b"), decoded.tags);
+    }
+
+    @Test
+    void encodesNull() {
+        assertNull(codec.decode(codec.encode(null), Object.class));
+    }
+
+    @Test
+    void rejectsUnknownTag() {
+        assertThrows(IllegalArgumentException.class, () -> codec.decode(new byte[] {99}, Object.class));
+    }
+}
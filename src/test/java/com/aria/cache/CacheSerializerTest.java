@@ -0,0 +1,129 @@
+package com.aria.cache;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.ToNumberPolicy;
+import com.google.gson.reflect.TypeToken;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Runs with the default settings (binary codec, lz4 above 1024 bytes); values written with other
+ * settings are built by hand.
+ */
+class CacheSerializerTest {
+    private static final Type MAP = new TypeToken<Map<String, Object>>() {}.getType();
+
+    private final Gson gson = new GsonBuilder().serializeNulls().setObjectToNumberStrategy(ToNumberPolicy.LONG_OR_DOUBLE).create();
+    private final CacheSerializer serializer = new CacheSerializer(gson);
+
+    private static Map<String, Object> row(int id) {
+        Map<String, Object> row = new LinkedHashMap<>();
+        row.put("id", id);
+        row.put("text", "message number " + id);
+        row.put("fromUser", id % 2 == 0);
+        return row;
+    }
+
+    private static List<Map<String, Object>> page(int size) {
+        List<Map<String, Object>> page = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            page.add(row(i));
+        }
+        return page;
+    }
+
+    private static byte[] framed(int header, byte[] payload) {
+        byte[] data = new byte[payload.length + 1];
+        data[0] = (byte) header;
+        System.arraycopy(payload, 0, data, 1, payload.length);
+        return data;
+    }
+
+    @Test
+    void smallValueIsFramedWithoutCompression() {
+        byte[] data = serializer.serialize("messages:1", row(1));
+
+        assertEquals((byte) (0xC0 | BinaryCacheCodec.ID << 2), data[0]);
+        assertEquals(row(1), serializer.deserialize("messages:1", data, MAP));
+    }
+
+    @Test
+    void largeValueIsCompressedWithLz4() {
+        List<Map<String, Object>> page = page(200);
+        int encodedLength = new BinaryCacheCodec(gson).encode(page).length;
+
+        byte[] data = serializer.serialize("messages:1", page);
+
+        assertEquals(1, data[0] & 0x03);
+        assertEquals(encodedLength, ByteBuffer.wrap(data, 1, 4).getInt());
+        assertTrue(data.length < encodedLength);
+        assertEquals(page, serializer.deserialize("messages:1", data, Object.class));
+    }
+
+    @Test
+    void decodesDeflateValues() {
+        List<Map<String, Object>> page = page(100);
+        byte[] encoded = new BinaryCacheCodec(gson).encode(page);
+        Deflater deflater = new Deflater();
+        deflater.setInput(encoded);
+        deflater.finish();
+        ByteArrayOutputStream packed = new ByteArrayOutputStream();
+        byte[] buf = new byte[4096];
+        while (!deflater.finished()) {
+            packed.write(buf, 0, deflater.deflate(buf));
+        }
+        deflater.end();
+        byte[] payload = ByteBuffer.allocate(4 + packed.size()).putInt(encoded.length).put(packed.toByteArray()).array();
+
+        byte[] data = framed(0xC0 | BinaryCacheCodec.ID << 2 | 2, payload);
+
+        assertEquals(page, serializer.deserialize("messages:1", data, Object.class));
+    }
+
+    @Test
+    void decodesJsonCodecValues() {
+        byte[] data = framed(0xC0 | JsonCacheCodec.ID << 2, gson.toJson(row(5)).getBytes(StandardCharsets.UTF_8));
+
+        Map<String, Object> decoded = serializer.deserialize("messages:1", data, MAP);
+
+        assertEquals("message number 5", decoded.get("text"));
+        assertEquals(5L, decoded.get("id")); // JSON doesn't keep Integer apart from Long
+    }
+
+    @Test
+    void decodesLegacyJsonWithoutHeader() {
+        byte[] data = gson.toJson(row(7)).getBytes(StandardCharsets.UTF_8);
+
+        Map<String, Object> decoded = serializer.deserialize("messages:1", data, MAP);
+
+        assertEquals("message number 7", decoded.get("text"));
+        assertEquals(false, decoded.get("fromUser"));
+    }
+
+    @Test
+    void decodesLegacyRawString() {
+        byte[] data = "plain value".getBytes(StandardCharsets.UTF_8);
+
+        assertEquals("plain value", serializer.deserialize("presence:1", data, String.class));
+    }
+
+    @Test
+    void nullOrEmptyDataIsNull() {
+        assertNull(serializer.deserialize("messages:1", null, MAP));
+        assertNull(serializer.deserialize("messages:1", new byte[0], MAP));
+    }
+}
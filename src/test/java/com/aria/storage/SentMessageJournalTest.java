@@ -0,0 +1,130 @@
+package com.aria.storage;
+
+import com.google.gson.Gson;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Recovery of the journal a previous run left behind (the writer is not started, so no database is needed)
+ */
+class SentMessageJournalTest {
+    private final Gson gson = new Gson();
+
+    @TempDir
+    Path dir;
+
+    private SentMessageJournal journal;
+
+    @AfterEach
+    void close() {
+        if (journal != null) {
+            journal.shutdown(0);
+        }
+    }
+
+    private String record(long id) {
+        SentMessageJournal.Record record = new SentMessageJournal.Record();
+        record.id = id;
+        record.userId = 1;
+        record.platformAccountId = 2;
+        record.targetUserId = 3;
+        record.targetName = "target";
+        record.peerId = 12345L;
+        record.messageId = 100 + id;
+        record.text = "encrypted-" + id;
+        record.sentAt = "2026-10-17T12:00:00";
+        return gson.toJson(record) + "\n";
+    }
+
+    private static String ack(long... ids) {
+        StringBuilder line = new StringBuilder("{\"ack\":[");
+        for (int i = 0; i < ids.length; i++) {
+            line.append(i > 0 ? "," : "").append(ids[i]);
+        }
+        return line.append("]}\n").toString();
+    }
+
+    private Path journalFile(String content) throws IOException {
+        Path file = dir.resolve("sent-messages.log");
+        Files.writeString(file, content, StandardCharsets.UTF_8);
+        return file;
+    }
+
+    private List<Long> pendingIds() {
+        List<Long> ids = new ArrayList<>();
+        for (SentMessageJournal.Record record : journal.pendingRecords()) {
+            ids.add(record.id);
+        }
+        return ids;
+    }
+
+    @Test
+    void replaysOnlyRecordsWithoutAck() throws IOException {
+        journalFile(record(1) + record(2) + ack(1) + record(3) + ack(3));
+
+        journal = new SentMessageJournal(dir);
+
+        assertEquals(List.of(2L), pendingIds());
+        SentMessageJournal.Record record = journal.pendingRecords().get(0);
+        assertEquals(102L, record.messageId);
+        assertEquals("encrypted-2", record.text);
+    }
+
+    @Test
+    void skipsTornLastLine() throws IOException {
+        String torn = record(3).substring(0, 20);
+        journalFile(record(1) + record(2) + torn);
+
+        journal = new SentMessageJournal(dir);
+
+        assertEquals(List.of(1L, 2L), pendingIds());
+    }
+
+    @Test
+    void compactsToPendingRecords() throws IOException {
+        Path file = journalFile(record(1) + record(2) + ack(1) + record(3) + record(4).substring(0, 20));
+
+        journal = new SentMessageJournal(dir);
+
+        List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        assertEquals(2, lines.size());
+        assertEquals(2L, gson.fromJson(lines.get(0), SentMessageJournal.Record.class).id);
+        assertEquals(3L, gson.fromJson(lines.get(1), SentMessageJournal.Record.class).id);
+        assertFalse(Files.exists(dir.resolve("sent-messages.log.tmp")));
+
+        // The compacted file recovers to the same records
+        journal.shutdown(0);
+        journal = new SentMessageJournal(dir);
+        assertEquals(List.of(2L, 3L), pendingIds());
+    }
+
+    @Test
+    void fullyAckedJournalIsEmptied() throws IOException {
+        Path file = journalFile(record(1) + record(2) + ack(1, 2));
+
+        journal = new SentMessageJournal(dir);
+
+        assertTrue(pendingIds().isEmpty());
+        assertEquals(0, Files.size(file));
+    }
+
+    @Test
+    void startsWithoutJournal() throws IOException {
+        journal = new SentMessageJournal(dir);
+
+        assertTrue(pendingIds().isEmpty());
+        assertTrue(Files.exists(dir.resolve("sent-messages.log")));
+    }
+}